@@ -29,6 +29,7 @@ import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Ordering;
 import com.google.gerrit.acceptance.AbstractDaemonTest;
@@ -1273,6 +1274,133 @@ public class ChangeRebuilderIT extends AbstractDaemonTest {
     assertThat(newPs3.getCreatedOn()).isGreaterThan(ps1.getCreatedOn());
   }
 
+  @Test
+  public void createAllLoadsChangesOfSeveralProjects() throws Exception {
+    setNotesMigration(true, true);
+    Project.NameKey project2 = createProject("project2");
+    Change.Id id1 = createChange().getPatchSetId().getParentKey();
+    Change.Id id2 = createChange().getPatchSetId().getParentKey();
+    Change.Id id3 =
+        createChange(cloneProject(project2), "master", "Change in project2", "a.txt", "1", "topic")
+            .getPatchSetId()
+            .getParentKey();
+
+    Map<Change.Id, ChangeNotes> notes =
+        notesFactory.createAll(
+            db, ImmutableListMultimap.of(project, id1, project2, id3, project, id2));
+    assertThat(notes.keySet()).containsExactly(id1, id2, id3).inOrder();
+    assertThat(notes.get(id1).getChange().getProject()).isEqualTo(project);
+    assertThat(notes.get(id3).getChange().getProject()).isEqualTo(project2);
+    assertThat(notes.get(id3).getChange().getSubject()).isEqualTo("Change in project2");
+
+    List<ChangeData> cds =
+        ImmutableList.of(
+            changeDataFactory.create(db, project, id1),
+            changeDataFactory.create(db, project, id2),
+            changeDataFactory.create(db, project2, id3));
+    ChangeData.ensureNotesLoaded(cds);
+
+    // Notes were loaded up front, so they don't see later updates.
+    gApi.changes().id(id3.get()).topic(name("new-topic"));
+    assertThat(cds.get(2).notes().getChange().getTopic()).isEqualTo(name("topic"));
+    assertThat(cds.get(2).change().getProject()).isEqualTo(project2);
+  }
+
+  @Test
+  public void createAllLoadsChangeMissingFromReviewDb() throws Exception {
+    setNotesMigration(true, true);
+    Change.Id id1 = createChange().getPatchSetId().getParentKey();
+    PushOneCommit.Result r2 = createChange();
+    Change.Id id2 = r2.getPatchSetId().getParentKey();
+    getUnwrappedDb().changes().deleteKeys(Collections.singleton(id2));
+
+    Map<Change.Id, ChangeNotes> notes =
+        notesFactory.createAll(db, ImmutableListMultimap.of(project, id1, project, id2));
+    assertThat(notes.keySet()).containsExactly(id1, id2).inOrder();
+    assertThat(notes.get(id2).getChange().getProject()).isEqualTo(project);
+    assertThat(notes.get(id2).getChange().getSubject()).isEqualTo(r2.getCommit().getShortMessage());
+
+    setNotesMigration(true, false);
+    notes = notesFactory.createAll(db, ImmutableListMultimap.of(project, id1, project, id2));
+    assertThat(notes.keySet()).containsExactly(id1);
+  }
+
+  @Test
+  public void createAllDropsChangeOfOtherProject() throws Exception {
+    setNotesMigration(true, true);
+    Project.NameKey project2 = createProject("project2");
+    Change.Id id1 = createChange().getPatchSetId().getParentKey();
+    Change.Id id2 = createChange().getPatchSetId().getParentKey();
+
+    Map<Change.Id, ChangeNotes> notes =
+        notesFactory.createAll(db, ImmutableListMultimap.of(project, id1, project2, id2));
+    assertThat(notes.keySet()).containsExactly(id1);
+
+    List<ChangeData> cds =
+        ImmutableList.of(
+            changeDataFactory.create(db, project, id1),
+            changeDataFactory.create(db, project2, id2));
+    ChangeData.ensureNotesLoaded(cds);
+    assertThat(cds.get(0).notes().getChange().getProject()).isEqualTo(project);
+    try {
+      // Left alone by ensureNotesLoaded, so loaded and rejected on access.
+      cds.get(1).notes();
+      assert_().fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void createAllSkipsChangeThatFailsToLoad() throws Exception {
+    setNotesMigration(true, true);
+    Change.Id id1 = createChange().getPatchSetId().getParentKey();
+    Change.Id id2 = createChange().getPatchSetId().getParentKey();
+    // Only in NoteDb, so the broken meta ref is not rebuilt from ReviewDb.
+    getUnwrappedDb().changes().deleteKeys(Collections.singleton(id2));
+    try (Repository repo = repoManager.openRepository(project)) {
+      TestRepository<Repository> tr = new TestRepository<>(repo);
+      tr.update(RefNames.changeMetaRef(id2), tr.blob("not a commit"));
+    }
+
+    Map<Change.Id, ChangeNotes> notes =
+        notesFactory.createAll(db, ImmutableListMultimap.of(project, id1, project, id2));
+    assertThat(notes.keySet()).containsExactly(id1);
+
+    List<ChangeData> cds =
+        ImmutableList.of(
+            changeDataFactory.create(db, project, id1),
+            changeDataFactory.create(db, project, id2));
+    ChangeData.ensureNotesLoaded(cds);
+    assertThat(cds.get(0).notes().getChangeId()).isEqualTo(id1);
+    try {
+      // Left alone by ensureNotesLoaded, so loaded and rejected on access.
+      cds.get(1).notes();
+      assert_().fail("expected OrmException");
+    } catch (OrmException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void createAllRebuildsOutOfDateChange() throws Exception {
+    setNotesMigration(true, true);
+    Change.Id id1 = createChange().getPatchSetId().getParentKey();
+    Change.Id id2 = createChange().getPatchSetId().getParentKey();
+
+    setNotesMigration(false, false);
+    gApi.changes().id(id2.get()).topic(name("a-topic"));
+    setInvalidNoteDbState(id2);
+    assertChangeUpToDate(false, id2);
+
+    setNotesMigration(true, true);
+    Map<Change.Id, ChangeNotes> notes =
+        notesFactory.createAll(db, ImmutableListMultimap.of(project, id1, project, id2));
+    assertThat(notes.keySet()).containsExactly(id1, id2).inOrder();
+    assertThat(notes.get(id2).getChange().getTopic()).isEqualTo(name("a-topic"));
+    assertChangeUpToDate(true, id2);
+  }
+
   private void assertChangesReadOnly(RestApiException e) throws Exception {
     Throwable cause = e.getCause();
     assertThat(cause).isInstanceOf(UpdateException.class);
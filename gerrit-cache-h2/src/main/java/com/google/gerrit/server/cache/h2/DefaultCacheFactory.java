@@ -20,19 +20,29 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.Weigher;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.server.cache.CacheBinding;
+import com.google.gerrit.server.cache.CacheCalibrator;
+import com.google.gerrit.server.cache.CacheSnapshotter;
 import com.google.gerrit.server.cache.ForwardingRemovalListener;
 import com.google.gerrit.server.cache.MemoryCacheFactory;
 import com.google.gerrit.server.cache.PersistentCacheFactory;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
 import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.inject.Inject;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.lib.Config;
 
 public class DefaultCacheFactory implements MemoryCacheFactory {
+  enum EvictionPolicy {
+    LRU,
+    TINY_LFU
+  }
+
   public static class Module extends LifecycleModule {
     @Override
     protected void configure() {
@@ -41,38 +51,143 @@ public class DefaultCacheFactory implements MemoryCacheFactory {
       bind(MemoryCacheFactory.class).to(DefaultCacheFactory.class);
       bind(PersistentCacheFactory.class).to(H2CacheFactory.class);
       listener().to(H2CacheFactory.class);
+      listener().to(CacheCalibrator.class);
     }
   }
 
   private final Config cfg;
   private final ForwardingRemovalListener.Factory forwardingRemovalListenerFactory;
+  private final CacheSnapshotter snapshotter;
+  private final CacheCalibrator calibrator;
+  private final WorkQueue workQueue;
+  private Executor refreshExecutor;
 
   @Inject
   public DefaultCacheFactory(
       @GerritServerConfig Config config,
-      ForwardingRemovalListener.Factory forwardingRemovalListenerFactory) {
+      ForwardingRemovalListener.Factory forwardingRemovalListenerFactory,
+      CacheSnapshotter snapshotter,
+      CacheCalibrator calibrator,
+      WorkQueue workQueue) {
     this.cfg = config;
     this.forwardingRemovalListenerFactory = forwardingRemovalListenerFactory;
+    this.snapshotter = snapshotter;
+    this.calibrator = calibrator;
+    this.workQueue = workQueue;
   }
 
   @Override
   public <K, V> Cache<K, V> build(CacheBinding<K, V> def) {
-    return create(def, false).build();
+    return newCache(def, false);
   }
 
   @Override
   public <K, V> LoadingCache<K, V> build(CacheBinding<K, V> def, CacheLoader<K, V> loader) {
-    return create(def, false).build(loader);
+    LoadingCache<K, V> cache = newLoadingCache(def, false, loader);
+    snapshotter.register(def, cache);
+    return cache;
   }
 
-  @SuppressWarnings("unchecked")
-  <K, V> CacheBuilder<K, V> create(CacheBinding<K, V> def, boolean unwrapValueHolder) {
+  <K, V> Cache<K, V> newCache(CacheBinding<K, V> def, boolean unwrapValueHolder) {
+    Cache<K, V> cache;
+    if (policy(def) == EvictionPolicy.TINY_LFU) {
+      cache = newTinyLfuCache(def, unwrapValueHolder);
+    } else {
+      cache = create(def, unwrapValueHolder).build();
+    }
+    calibrate(def, unwrapValueHolder, cache);
+    return cache;
+  }
+
+  <K, V> LoadingCache<K, V> newLoadingCache(
+      CacheBinding<K, V> def, boolean unwrapValueHolder, CacheLoader<K, V> loader) {
+    LoadingCache<K, V> cache;
+    // Persistent caches would reload the value stored on disk, so only
+    // memory caches are refreshed.
+    Long refresh = !unwrapValueHolder ? refreshAfterWrite(def) : null;
+    if (refresh != null) {
+      loader = CacheLoader.asyncReloading(loader, refreshExecutor());
+    }
+    if (policy(def) == EvictionPolicy.TINY_LFU) {
+      cache = newLoadingTinyLfuCache(def, unwrapValueHolder, loader, refresh);
+    } else {
+      CacheBuilder<K, V> builder = create(def, unwrapValueHolder);
+      if (refresh != null) {
+        builder.refreshAfterWrite(refresh, TimeUnit.SECONDS);
+      }
+      cache = builder.build(loader);
+    }
+    calibrate(def, unwrapValueHolder, cache);
+    return cache;
+  }
+
+  private <K, V> void calibrate(
+      CacheBinding<K, V> def, boolean unwrapValueHolder, Cache<K, V> cache) {
+    calibrator.register(
+        def, cache, def.weigher() != null ? weigher(def, unwrapValueHolder) : null);
+  }
+
+  private EvictionPolicy policy(CacheBinding<?, ?> def) {
+    return cfg.getEnum("cache", def.name(), "evictionPolicy", EvictionPolicy.LRU);
+  }
+
+  private <K, V> TinyLfuCache<K, V> newTinyLfuCache(
+      CacheBinding<K, V> def, boolean unwrapValueHolder) {
+    Long age = expireAfterWrite(def);
+    return new TinyLfuCache<>(
+        memoryLimit(def),
+        weigher(def, unwrapValueHolder),
+        age != null ? age : TinyLfuCache.NEVER_EXPIRE,
+        TimeUnit.SECONDS,
+        forwardingRemovalListenerFactory.create(def.name()));
+  }
+
+  private <K, V> TinyLfuCache.Loading<K, V> newLoadingTinyLfuCache(
+      CacheBinding<K, V> def,
+      boolean unwrapValueHolder,
+      CacheLoader<K, V> loader,
+      @Nullable Long refreshAfterWrite) {
+    Long age = expireAfterWrite(def);
+    return new TinyLfuCache.Loading<>(
+        memoryLimit(def),
+        weigher(def, unwrapValueHolder),
+        age != null ? age : TinyLfuCache.NEVER_EXPIRE,
+        refreshAfterWrite != null ? refreshAfterWrite : TinyLfuCache.NEVER_REFRESH,
+        TimeUnit.SECONDS,
+        forwardingRemovalListenerFactory.create(def.name()),
+        loader);
+  }
+
+  private synchronized Executor refreshExecutor() {
+    if (refreshExecutor == null) {
+      refreshExecutor =
+          workQueue.createQueue(
+              Math.max(1, cfg.getInt("cache", null, "refreshThreads", 1)), "CacheRefresh");
+    }
+    return refreshExecutor;
+  }
+
+  private <K, V> CacheBuilder<K, V> create(CacheBinding<K, V> def, boolean unwrapValueHolder) {
     CacheBuilder<K, V> builder = newCacheBuilder();
     builder.recordStats();
-    builder.maximumWeight(cfg.getLong("cache", def.name(), "memoryLimit", def.maximumWeight()));
+    builder.maximumWeight(memoryLimit(def));
 
     builder = builder.removalListener(forwardingRemovalListenerFactory.create(def.name()));
+    builder.weigher(weigher(def, unwrapValueHolder));
+
+    Long age = expireAfterWrite(def);
+    if (age != null) {
+      builder.expireAfterWrite(age, TimeUnit.SECONDS);
+    }
+    return builder;
+  }
 
+  private long memoryLimit(CacheBinding<?, ?> def) {
+    return cfg.getLong("cache", def.name(), "memoryLimit", def.maximumWeight());
+  }
+
+  @SuppressWarnings("unchecked")
+  private <K, V> Weigher<K, V> weigher(CacheBinding<K, V> def, boolean unwrapValueHolder) {
     Weigher<K, V> weigher = def.weigher();
     if (weigher != null && unwrapValueHolder) {
       final Weigher<K, V> impl = weigher;
@@ -87,19 +202,32 @@ public class DefaultCacheFactory implements MemoryCacheFactory {
     } else if (weigher == null) {
       weigher = unitWeight();
     }
-    builder.weigher(weigher);
+    return weigher;
+  }
 
+  /**
+   * @return seconds after which entries expire, null if they never expire. An explicitly configured
+   *     {@code maxAge} of 0 expires entries immediately.
+   */
+  @Nullable
+  private Long expireAfterWrite(CacheBinding<?, ?> def) {
     Long age = def.expireAfterWrite(TimeUnit.SECONDS);
     if (has(def.name(), "maxAge")) {
-      builder.expireAfterWrite(
-          ConfigUtil.getTimeUnit(
-              cfg, "cache", def.name(), "maxAge", age != null ? age : 0, TimeUnit.SECONDS),
-          TimeUnit.SECONDS);
-    } else if (age != null) {
-      builder.expireAfterWrite(age, TimeUnit.SECONDS);
+      return ConfigUtil.getTimeUnit(
+          cfg, "cache", def.name(), "maxAge", age != null ? age : 0, TimeUnit.SECONDS);
     }
+    return age;
+  }
 
-    return builder;
+  /** @return seconds after which entries are reloaded in the background, null if never. */
+  @Nullable
+  private Long refreshAfterWrite(CacheBinding<?, ?> def) {
+    if (!has(def.name(), "refreshAfterWrite")) {
+      return null;
+    }
+    long age =
+        ConfigUtil.getTimeUnit(cfg, "cache", def.name(), "refreshAfterWrite", 0, TimeUnit.SECONDS);
+    return age > 0 ? age : null;
   }
 
   private boolean has(String name, String var) {
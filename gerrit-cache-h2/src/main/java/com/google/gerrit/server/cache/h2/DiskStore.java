@@ -0,0 +1,65 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import com.google.common.cache.Cache;
+import com.google.gerrit.server.cache.PersistentCache.DiskStats;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * On-disk storage behind {@link H2CacheImpl}.
+ *
+ * <p>Implementations must be safe for concurrent use. Reads are issued from request threads, while
+ * writes are normally issued from the disk cache store executor through a {@link
+ * WriteBehindQueue}.
+ */
+interface DiskStore<K, V> {
+  void open();
+
+  void close();
+
+  /** @return false if the key is definitely not stored; true if it might be. */
+  boolean mightContain(K key);
+
+  ValueHolder<V> getIfPresent(K key);
+
+  void put(K key, ValueHolder<V> holder);
+
+  /** Store several entries, ideally as a single batch. */
+  default void putAll(Map<K, ValueHolder<V>> entries) {
+    for (Map.Entry<K, ValueHolder<V>> e : entries.entrySet()) {
+      put(e.getKey(), e.getValue());
+    }
+  }
+
+  /** @return true if the store keeps access times updated by {@link #touchAll(Collection)}. */
+  default boolean recordsAccess() {
+    return false;
+  }
+
+  /** Record that the given keys were read from disk. */
+  default void touchAll(Collection<K> keys) {}
+
+  void invalidate(K key);
+
+  void invalidateAll();
+
+  /** Trim the store to fit within its configured disk limit. */
+  void prune(Cache<K, ?> mem);
+
+  DiskStats diskStats();
+}
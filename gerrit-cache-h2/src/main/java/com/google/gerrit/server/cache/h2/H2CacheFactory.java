@@ -14,13 +14,18 @@
 
 package com.google.gerrit.server.cache.h2;
 
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.server.cache.CacheBinding;
+import com.google.gerrit.server.cache.CacheSerializer;
 import com.google.gerrit.server.cache.PersistentCacheFactory;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
@@ -32,16 +37,21 @@ import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 import org.eclipse.jgit.lib.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +60,15 @@ import org.slf4j.LoggerFactory;
 class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   private static final Logger log = LoggerFactory.getLogger(H2CacheFactory.class);
 
+  /** On-disk representation of a persistent cache. */
+  enum DiskFormat {
+    /** Entries are stored in an H2 database. */
+    H2,
+
+    /** Entries are appended to memory-mapped log segments; see {@link LogStore}. */
+    MMAP
+  }
+
   private final DefaultCacheFactory defaultFactory;
   private final Config config;
   private final Path cacheDir;
@@ -57,6 +76,8 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   private final DynamicMap<Cache<?, ?>> cacheMap;
   private final ExecutorService executor;
   private final ScheduledExecutorService cleanup;
+  private final ScheduledExecutorService compactor;
+  private final List<LogStore<?, ?>> logStores;
   private final long h2CacheSize;
   private final boolean h2AutoServer;
 
@@ -72,6 +93,7 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
     h2CacheSize = cfg.getLong("cache", null, "h2CacheSize", -1);
     h2AutoServer = cfg.getBoolean("cache", null, "h2AutoServer", false);
     caches = new LinkedList<>();
+    logStores = new CopyOnWriteArrayList<>();
     this.cacheMap = cacheMap;
 
     if (cacheDir != null) {
@@ -85,9 +107,17 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
                   .setNameFormat("DiskCache-Prune-%d")
                   .setDaemon(true)
                   .build());
+      compactor =
+          Executors.newScheduledThreadPool(
+              1,
+              new ThreadFactoryBuilder()
+                  .setNameFormat("DiskCache-Compact-%d")
+                  .setDaemon(true)
+                  .build());
     } else {
       executor = null;
       cleanup = null;
+      compactor = null;
     }
   }
 
@@ -121,6 +151,21 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
         Future<?> possiblyIgnoredError =
             cleanup.schedule(() -> cache.prune(cleanup), 30, TimeUnit.SECONDS);
       }
+      @SuppressWarnings("unused")
+      Future<?> possiblyIgnoredError =
+          compactor.scheduleWithFixedDelay(this::compact, 1, 1, TimeUnit.MINUTES);
+    }
+  }
+
+  private void compact() {
+    for (LogStore<?, ?> store : logStores) {
+      try {
+        if (store.needsCompaction()) {
+          store.compact();
+        }
+      } catch (RuntimeException e) {
+        log.warn("Cannot compact " + store, e);
+      }
     }
   }
 
@@ -129,6 +174,7 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
     if (executor != null) {
       try {
         cleanup.shutdownNow();
+        compactor.shutdownNow();
 
         List<Runnable> pending = executor.shutdownNow();
         if (executor.awaitTermination(15, TimeUnit.MINUTES)) {
@@ -161,14 +207,13 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
       return defaultFactory.build(def);
     }
 
-    SqlStore<K, V> store =
-        newSqlStore(def.name(), def.keyType(), limit, def.expireAfterWrite(TimeUnit.SECONDS));
+    DiskStore<K, V> store = newStore(def, limit);
     H2CacheImpl<K, V> cache =
         new H2CacheImpl<>(
-            executor,
+            newWriter(def, store),
             store,
             def.keyType(),
-            (Cache<K, ValueHolder<V>>) defaultFactory.create(def, true).build());
+            (Cache<K, ValueHolder<V>>) defaultFactory.newCache(def, true));
     synchronized (caches) {
       caches.add(cache);
     }
@@ -184,14 +229,13 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
       return defaultFactory.build(def, loader);
     }
 
-    SqlStore<K, V> store =
-        newSqlStore(def.name(), def.keyType(), limit, def.expireAfterWrite(TimeUnit.SECONDS));
+    DiskStore<K, V> store = newStore(def, limit);
+    WriteBehindQueue<K, V> writer = newWriter(def, store);
     Cache<K, ValueHolder<V>> mem =
         (Cache<K, ValueHolder<V>>)
-            defaultFactory
-                .create(def, true)
-                .build((CacheLoader<K, V>) new H2CacheImpl.Loader<>(executor, store, loader));
-    H2CacheImpl<K, V> cache = new H2CacheImpl<>(executor, store, def.keyType(), mem);
+            defaultFactory.newLoadingCache(
+                def, true, (CacheLoader<K, V>) new H2CacheImpl.Loader<>(writer, store, loader));
+    H2CacheImpl<K, V> cache = new H2CacheImpl<>(writer, store, def.keyType(), mem);
     caches.add(cache);
     return cache;
   }
@@ -203,14 +247,90 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
           cacheMap.byPlugin(plugin.getName()).entrySet()) {
         Cache<?, ?> cache = entry.getValue().get();
         if (caches.remove(cache)) {
-          ((H2CacheImpl<?, ?>) cache).stop();
+          H2CacheImpl<?, ?> impl = (H2CacheImpl<?, ?>) cache;
+          logStores.remove(impl.store());
+          impl.stop();
         }
       }
     }
   }
 
+  private <K, V> WriteBehindQueue<K, V> newWriter(CacheBinding<K, V> def, DiskStore<K, V> store) {
+    int capacity =
+        config.getInt("cache", def.name(), "writeQueueLimit", WriteBehindQueue.DEFAULT_CAPACITY);
+    return new WriteBehindQueue<>(executor, store, capacity);
+  }
+
+  private <K, V> DiskStore<K, V> newStore(CacheBinding<K, V> def, long limit) {
+    Long expireAfterWrite = def.expireAfterWrite(TimeUnit.SECONDS);
+    long expire = expireAfterWrite == null ? 0 : expireAfterWrite.longValue();
+    CacheSerializer<K, V> serializer = def.serializer();
+
+    // Entries written by a serializer are kept apart per format version, so
+    // an incompatible change starts from an empty store instead of failing
+    // to read every entry.
+    String name = def.name();
+    if (serializer != null) {
+      name += "-" + serializer.version();
+    }
+    deleteStaleFiles(cacheDir, def.name(), name);
+
+    DiskFormat format = config.getEnum("cache", def.name(), "diskFormat", DiskFormat.H2);
+    if (format == DiskFormat.MMAP) {
+      if (serializer == null) {
+        serializer =
+            new JavaCacheSerializer<>(
+                def.keyType(), def.valueType().getRawType().getClassLoader());
+      }
+      LogStore<K, V> store =
+          new LogStore<>(cacheDir.resolve(name + ".log"), serializer, limit, expire);
+      logStores.add(store);
+      return store;
+    }
+    return newSqlStore(name, def.keyType(), serializer, limit, expire);
+  }
+
+  /**
+   * Delete the H2 databases and mmap log directories of other format versions of a cache.
+   *
+   * @param cacheDir directory holding the disk caches.
+   * @param cacheName name of the cache.
+   * @param current on-disk name of the current version, for example {@code diff-1}.
+   */
+  @VisibleForTesting
+  static void deleteStaleFiles(Path cacheDir, String cacheName, String current) {
+    Pattern stale =
+        Pattern.compile(Pattern.quote(cacheName) + "(-[0-9]+)?\\.((h2|mv|trace)\\.db|log)");
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(cacheDir)) {
+      for (Path p : files) {
+        String n = p.getFileName().toString();
+        if (stale.matcher(n).matches() && !n.startsWith(current + ".")) {
+          log.info("Deleting obsolete disk cache " + p.toAbsolutePath());
+          deleteRecursively(p);
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Cannot delete obsolete files of disk cache " + cacheName, e);
+    }
+  }
+
+  private static void deleteRecursively(Path path) throws IOException {
+    // A log store is a directory of segment files; delete them first.
+    List<Path> paths;
+    try (Stream<Path> s = Files.walk(path)) {
+      paths = s.sorted(Comparator.reverseOrder()).collect(toList());
+    }
+    for (Path p : paths) {
+      Files.delete(p);
+    }
+  }
+
   private <V, K> SqlStore<K, V> newSqlStore(
-      String name, TypeLiteral<K> keyType, long maxSize, Long expireAfterWrite) {
+      String name,
+      TypeLiteral<K> keyType,
+      @Nullable CacheSerializer<K, V> serializer,
+      long maxSize,
+      long expireAfterWrite) {
     StringBuilder url = new StringBuilder();
     url.append("jdbc:h2:").append(cacheDir.resolve(name).toUri());
     if (h2CacheSize >= 0) {
@@ -221,10 +341,6 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
     if (h2AutoServer) {
       url.append(";AUTO_SERVER=TRUE");
     }
-    return new SqlStore<>(
-        url.toString(),
-        keyType,
-        maxSize,
-        expireAfterWrite == null ? 0 : expireAfterWrite.longValue());
+    return new SqlStore<>(url.toString(), keyType, serializer, maxSize, expireAfterWrite);
   }
 }
@@ -25,8 +25,11 @@ import com.google.common.hash.BloomFilter;
 import com.google.common.hash.Funnel;
 import com.google.common.hash.Funnels;
 import com.google.common.hash.PrimitiveSink;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.TimeUtil;
+import com.google.gerrit.server.cache.CacheSerializer;
 import com.google.gerrit.server.cache.PersistentCache;
+import com.google.gerrit.server.cache.WeightedCache;
 import com.google.inject.TypeLiteral;
 import java.io.IOException;
 import java.io.InvalidClassException;
@@ -39,13 +42,16 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -55,7 +61,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Hybrid in-memory and database backed cache built on H2.
+ * Hybrid in-memory and database backed cache built on H2 or a memory-mapped log.
  *
  * <p>This cache can be used as either a recall cache, or a loading cache if a CacheLoader was
  * supplied to its constructor at build time. Before creating an entry the in-memory cache is
@@ -63,35 +69,40 @@ import org.slf4j.LoggerFactory;
  * construct the item. This is mostly useful for CacheLoaders that are computationally intensive,
  * such as the PatchListCache.
  *
- * <p>Cache stores and invalidations are performed on a background thread, hiding the latency
- * associated with serializing the key and value pairs and writing them to the database log.
+ * <p>Cache stores, invalidations and access time updates are queued in a {@link WriteBehindQueue}
+ * and performed in batches on a background thread, hiding the latency associated with serializing
+ * the key and value pairs and writing them to the database log.
  *
  * <p>A BloomFilter is used around the database to reduce the number of SELECTs issued against the
  * database for new cache items that have not been seen before, a common operation for the
  * PatchListCache. The BloomFilter is sized when the cache starts to be 64,000 entries or double the
  * number of items currently in the database table.
  *
+ * <p>The on-disk representation is provided by a {@link DiskStore}, either the H2 backed {@link
+ * SqlStore} or the memory-mapped {@link LogStore}.
+ *
  * <p>This cache does not export its items as a ConcurrentMap.
  *
  * @see H2CacheFactory
  */
-public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements PersistentCache {
+public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V>
+    implements PersistentCache, WeightedCache {
   private static final Logger log = LoggerFactory.getLogger(H2CacheImpl.class);
 
   private static final ImmutableSet<String> OLD_CLASS_NAMES =
       ImmutableSet.of("com.google.gerrit.server.change.ChangeKind");
 
-  private final Executor executor;
-  private final SqlStore<K, V> store;
+  private final WriteBehindQueue<K, V> writer;
+  private final DiskStore<K, V> store;
   private final TypeLiteral<K> keyType;
   private final Cache<K, ValueHolder<V>> mem;
 
   H2CacheImpl(
-      Executor executor,
-      SqlStore<K, V> store,
+      WriteBehindQueue<K, V> writer,
+      DiskStore<K, V> store,
       TypeLiteral<K> keyType,
       Cache<K, ValueHolder<V>> mem) {
-    this.executor = executor;
+    this.writer = writer;
     this.store = store;
     this.keyType = keyType;
     this.mem = mem;
@@ -114,6 +125,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
     if (store.mightContain(key)) {
       h = store.getIfPresent(key);
       if (h != null) {
+        writer.touch(key);
         mem.put(key, h);
         return h.value;
       }
@@ -137,13 +149,14 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
               if (store.mightContain(key)) {
                 ValueHolder<V> h = store.getIfPresent(key);
                 if (h != null) {
+                  writer.touch(key);
                   return h;
                 }
               }
 
               ValueHolder<V> h = new ValueHolder<>(valueLoader.call());
               h.created = TimeUtil.nowMs();
-              executor.execute(() -> store.put(key, h));
+              writer.put(key, h);
               return h;
             })
         .value;
@@ -154,20 +167,24 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
     final ValueHolder<V> h = new ValueHolder<>(val);
     h.created = TimeUtil.nowMs();
     mem.put(key, h);
-    executor.execute(() -> store.put(key, h));
+    writer.put(key, h);
   }
 
   @SuppressWarnings("unchecked")
   @Override
   public void invalidate(final Object key) {
-    if (keyType.getRawType().isInstance(key) && store.mightContain((K) key)) {
-      executor.execute(() -> store.invalidate((K) key));
+    // A put may still be queued, in which case the BloomFilter has not
+    // seen the key yet.
+    if (keyType.getRawType().isInstance(key)
+        && (writer.size() > 0 || store.mightContain((K) key))) {
+      writer.invalidate((K) key);
     }
     mem.invalidate(key);
   }
 
   @Override
   public void invalidateAll() {
+    writer.clear();
     store.invalidateAll();
     mem.invalidateAll();
   }
@@ -182,16 +199,38 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
     return mem.stats();
   }
 
+  @Override
+  public long weightedSize() {
+    return mem instanceof WeightedCache ? ((WeightedCache) mem).weightedSize() : 0;
+  }
+
+  @Override
+  public long evictionWeight() {
+    return mem instanceof WeightedCache ? ((WeightedCache) mem).evictionWeight() : 0;
+  }
+
   @Override
   public DiskStats diskStats() {
-    return store.diskStats();
+    DiskStats d = store.diskStats();
+    return new DiskStats(
+        d.size(),
+        d.space(),
+        d.hitCount(),
+        d.requestCount() - d.hitCount(),
+        writer.size(),
+        writer.droppedCount());
   }
 
   void start() {
     store.open();
   }
 
+  DiskStore<K, V> store() {
+    return store;
+  }
+
   void stop() {
+    writer.flush();
     for (Map.Entry<K, ValueHolder<V>> e : mem.asMap().entrySet()) {
       ValueHolder<V> h = e.getValue();
       if (!h.clean) {
@@ -228,12 +267,12 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
   }
 
   static class Loader<K, V> extends CacheLoader<K, ValueHolder<V>> {
-    private final Executor executor;
-    private final SqlStore<K, V> store;
+    private final WriteBehindQueue<K, V> writer;
+    private final DiskStore<K, V> store;
     private final CacheLoader<K, V> loader;
 
-    Loader(Executor executor, SqlStore<K, V> store, CacheLoader<K, V> loader) {
-      this.executor = executor;
+    Loader(WriteBehindQueue<K, V> writer, DiskStore<K, V> store, CacheLoader<K, V> loader) {
+      this.writer = writer;
       this.store = store;
       this.loader = loader;
     }
@@ -243,13 +282,14 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       if (store.mightContain(key)) {
         ValueHolder<V> h = store.getIfPresent(key);
         if (h != null) {
+          writer.touch(key);
           return h;
         }
       }
 
       final ValueHolder<V> h = new ValueHolder<>(loader.load(key));
       h.created = TimeUtil.nowMs();
-      executor.execute(() -> store.put(key, h));
+      writer.put(key, h);
       return h;
     }
   }
@@ -285,7 +325,10 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
     }
 
     @SuppressWarnings("unchecked")
-    static <K> KeyType<K> create(TypeLiteral<K> type) {
+    static <K> KeyType<K> create(TypeLiteral<K> type, @Nullable CacheSerializer<K, ?> serializer) {
+      if (serializer != null) {
+        return new SerializedKeyType<>(serializer);
+      }
       if (type.getRawType() == String.class) {
         return (KeyType<K>) STRING;
       }
@@ -319,9 +362,57 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
         };
   }
 
-  static class SqlStore<K, V> {
+  private static class SerializedKeyType<K> extends KeyType<K> {
+    private final CacheSerializer<K, ?> serializer;
+
+    SerializedKeyType(CacheSerializer<K, ?> serializer) {
+      this.serializer = serializer;
+    }
+
+    @Override
+    String columnType() {
+      return "VARBINARY(4096)";
+    }
+
+    @Override
+    K get(ResultSet rs, int col) throws SQLException {
+      try {
+        return serializer.deserializeKey(rs.getBytes(col));
+      } catch (IOException e) {
+        throw new SQLException("Cannot deserialize key", e);
+      }
+    }
+
+    @Override
+    void set(PreparedStatement ps, int col, K value) throws SQLException {
+      try {
+        ps.setBytes(col, serializer.serializeKey(value));
+      } catch (IOException e) {
+        throw new SQLException("Cannot serialize key", e);
+      }
+    }
+
+    @Override
+    Funnel<K> funnel() {
+      return new Funnel<K>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void funnel(K from, PrimitiveSink into) {
+          try {
+            into.putBytes(serializer.serializeKey(from));
+          } catch (IOException err) {
+            throw new RuntimeException("Cannot hash key", err);
+          }
+        }
+      };
+    }
+  }
+
+  static class SqlStore<K, V> implements DiskStore<K, V> {
     private final String url;
     private final KeyType<K> keyType;
+    @Nullable private final CacheSerializer<K, V> serializer;
     private final long maxSize;
     private final long expireAfterWrite;
     private final BlockingQueue<SqlHandle> handles;
@@ -330,9 +421,15 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
     private volatile BloomFilter<K> bloomFilter;
     private int estimatedSize;
 
-    SqlStore(String jdbcUrl, TypeLiteral<K> keyType, long maxSize, long expireAfterWrite) {
+    SqlStore(
+        String jdbcUrl,
+        TypeLiteral<K> keyType,
+        @Nullable CacheSerializer<K, V> serializer,
+        long maxSize,
+        long expireAfterWrite) {
       this.url = jdbcUrl;
-      this.keyType = KeyType.create(keyType);
+      this.keyType = KeyType.create(keyType, serializer);
+      this.serializer = serializer;
       this.maxSize = maxSize;
       this.expireAfterWrite = expireAfterWrite;
 
@@ -341,20 +438,23 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       this.handles = new ArrayBlockingQueue<>(keep);
     }
 
-    synchronized void open() {
+    @Override
+    public synchronized void open() {
       if (bloomFilter == null) {
         bloomFilter = buildBloomFilter();
       }
     }
 
-    void close() {
+    @Override
+    public void close() {
       SqlHandle h;
       while ((h = handles.poll()) != null) {
         h.close();
       }
     }
 
-    boolean mightContain(K key) {
+    @Override
+    public boolean mightContain(K key) {
       BloomFilter<K> b = bloomFilter;
       if (b == null) {
         synchronized (this) {
@@ -407,7 +507,8 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
-    ValueHolder<V> getIfPresent(K key) {
+    @Override
+    public ValueHolder<V> getIfPresent(K key) {
       SqlHandle c = null;
       try {
         c = acquire();
@@ -428,12 +529,9 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
             return null;
           }
 
-          @SuppressWarnings("unchecked")
-          V val = (V) r.getObject(1);
-          ValueHolder<V> h = new ValueHolder<>(val);
+          ValueHolder<V> h = new ValueHolder<>(getValue(r, 1));
           h.clean = true;
           hitCount.incrementAndGet();
-          touch(c, key);
           return h;
         } finally {
           c.get.clearParameters();
@@ -449,6 +547,30 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
+    @SuppressWarnings("unchecked")
+    private V getValue(ResultSet r, int col) throws SQLException {
+      if (serializer == null) {
+        return (V) r.getObject(col);
+      }
+      try {
+        return serializer.deserializeValue(r.getBytes(col));
+      } catch (IOException e) {
+        throw new SQLException("Cannot deserialize value", e);
+      }
+    }
+
+    private void setValue(PreparedStatement ps, int col, V value) throws SQLException {
+      if (serializer == null) {
+        ps.setObject(col, value, Types.JAVA_OBJECT);
+        return;
+      }
+      try {
+        ps.setBytes(col, serializer.serializeValue(value));
+      } catch (IOException e) {
+        throw new SQLException("Cannot serialize value", e);
+      }
+    }
+
     private static boolean isOldClassNameError(Throwable t) {
       for (Throwable c : Throwables.getCausalChain(t)) {
         if (c instanceof ClassNotFoundException && OLD_CLASS_NAMES.contains(c.getMessage())) {
@@ -479,16 +601,27 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
-    void put(K key, ValueHolder<V> holder) {
-      if (holder.clean) {
-        return;
-      }
+    @Override
+    public void put(K key, ValueHolder<V> holder) {
+      putAll(Collections.singletonMap(key, holder));
+    }
 
+    @Override
+    public void putAll(Map<K, ValueHolder<V>> entries) {
+      List<Map.Entry<K, ValueHolder<V>>> dirty = new ArrayList<>(entries.size());
       BloomFilter<K> b = bloomFilter;
-      if (b != null) {
-        b.put(key);
-        bloomFilter = b;
+      for (Map.Entry<K, ValueHolder<V>> e : entries.entrySet()) {
+        if (!e.getValue().clean) {
+          dirty.add(e);
+          if (b != null) {
+            b.put(e.getKey());
+          }
+        }
       }
+      if (dirty.isEmpty()) {
+        return;
+      }
+      bloomFilter = b;
 
       SqlHandle c = null;
       try {
@@ -497,25 +630,81 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
           c.put =
               c.conn.prepareStatement("MERGE INTO data (k, v, created, accessed) VALUES(?,?,?,?)");
         }
+        Timestamp now = TimeUtil.nowTs();
         try {
-          keyType.set(c.put, 1, key);
-          c.put.setObject(2, holder.value, Types.JAVA_OBJECT);
-          c.put.setTimestamp(3, new Timestamp(holder.created));
-          c.put.setTimestamp(4, TimeUtil.nowTs());
-          c.put.executeUpdate();
-          holder.clean = true;
+          for (Map.Entry<K, ValueHolder<V>> e : dirty) {
+            ValueHolder<V> holder = e.getValue();
+            keyType.set(c.put, 1, e.getKey());
+            setValue(c.put, 2, holder.value);
+            c.put.setTimestamp(3, new Timestamp(holder.created));
+            c.put.setTimestamp(4, now);
+            c.put.addBatch();
+          }
+          executeBatch(c, c.put);
+          for (Map.Entry<K, ValueHolder<V>> e : dirty) {
+            e.getValue().clean = true;
+          }
         } finally {
+          c.put.clearBatch();
           c.put.clearParameters();
         }
       } catch (SQLException e) {
-        log.warn("Cannot put into cache " + url, e);
+        log.warn("Cannot put " + dirty.size() + " entries into cache " + url, e);
         c = close(c);
       } finally {
         release(c);
       }
     }
 
-    void invalidate(K key) {
+    @Override
+    public boolean recordsAccess() {
+      return true;
+    }
+
+    @Override
+    public void touchAll(Collection<K> keys) {
+      SqlHandle c = null;
+      try {
+        c = acquire();
+        if (c.touch == null) {
+          c.touch = c.conn.prepareStatement("UPDATE data SET accessed=? WHERE k=?");
+        }
+        Timestamp now = TimeUtil.nowTs();
+        try {
+          for (K key : keys) {
+            c.touch.setTimestamp(1, now);
+            keyType.set(c.touch, 2, key);
+            c.touch.addBatch();
+          }
+          executeBatch(c, c.touch);
+        } finally {
+          c.touch.clearBatch();
+          c.touch.clearParameters();
+        }
+      } catch (SQLException e) {
+        log.warn("Cannot update access time in cache " + url, e);
+        c = close(c);
+      } finally {
+        release(c);
+      }
+    }
+
+    /** Execute the statement's batch in a single transaction. */
+    private static void executeBatch(SqlHandle c, PreparedStatement ps) throws SQLException {
+      c.conn.setAutoCommit(false);
+      try {
+        ps.executeBatch();
+        c.conn.commit();
+      } catch (SQLException e) {
+        c.conn.rollback();
+        throw e;
+      } finally {
+        c.conn.setAutoCommit(true);
+      }
+    }
+
+    @Override
+    public void invalidate(K key) {
       SqlHandle c = null;
       try {
         c = acquire();
@@ -540,7 +729,8 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
-    void invalidateAll() {
+    @Override
+    public void invalidateAll() {
       SqlHandle c = null;
       try {
         c = acquire();
@@ -556,7 +746,8 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
-    void prune(Cache<K, ?> mem) {
+    @Override
+    public void prune(Cache<K, ?> mem) {
       SqlHandle c = null;
       try {
         c = acquire();
@@ -592,7 +783,8 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
-    DiskStats diskStats() {
+    @Override
+    public DiskStats diskStats() {
       long size = 0;
       long space = 0;
       SqlHandle c = null;
@@ -616,7 +808,10 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
 
     private SqlHandle acquire() throws SQLException {
       SqlHandle h = handles.poll();
-      return h != null ? h : new SqlHandle(url, keyType);
+      if (h == null) {
+        h = new SqlHandle(url, keyType, serializer != null ? "VARBINARY" : "OTHER");
+      }
+      return h;
     }
 
     private void release(SqlHandle h) {
@@ -646,7 +841,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
     PreparedStatement touch;
     PreparedStatement invalidate;
 
-    SqlHandle(String url, KeyType<?> type) throws SQLException {
+    SqlHandle(String url, KeyType<?> type, String valueColumnType) throws SQLException {
       this.url = url;
       this.conn = org.h2.Driver.load().connect(url, null);
       try (Statement stmt = conn.createStatement()) {
@@ -655,7 +850,9 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
                 + "(k "
                 + type.columnType()
                 + " NOT NULL PRIMARY KEY HASH"
-                + ",v OTHER NOT NULL"
+                + ",v "
+                + valueColumnType
+                + " NOT NULL"
                 + ",created TIMESTAMP NOT NULL"
                 + ",accessed TIMESTAMP NOT NULL"
                 + ")");
@@ -0,0 +1,110 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gerrit.server.cache.CacheSerializer;
+import com.google.inject.TypeLiteral;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+
+/** Java serialization for persistent caches that do not declare a {@link CacheSerializer}. */
+class JavaCacheSerializer<K, V> implements CacheSerializer<K, V> {
+  private final boolean stringKey;
+  private final ClassLoader loader;
+
+  JavaCacheSerializer(TypeLiteral<K> keyType, ClassLoader loader) {
+    this.stringKey = keyType.getRawType() == String.class;
+    this.loader = loader;
+  }
+
+  @Override
+  public int version() {
+    return 0;
+  }
+
+  @Override
+  public byte[] serializeKey(K key) throws IOException {
+    if (stringKey) {
+      return ((String) key).getBytes(UTF_8);
+    }
+    return serialize(key);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public K deserializeKey(byte[] in) throws IOException {
+    if (stringKey) {
+      return (K) new String(in, UTF_8);
+    }
+    return (K) deserialize(in);
+  }
+
+  @Override
+  public byte[] serializeValue(V value) throws IOException {
+    return serialize(value);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V deserializeValue(byte[] in) throws IOException {
+    return (V) deserialize(in);
+  }
+
+  private static byte[] serialize(Object obj) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+      out.writeObject(obj);
+    }
+    return buf.toByteArray();
+  }
+
+  private Object deserialize(byte[] buf) throws IOException {
+    try (ObjectInputStream in =
+        new LoaderObjectInputStream(new ByteArrayInputStream(buf), loader)) {
+      return in.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static class LoaderObjectInputStream extends ObjectInputStream {
+    private final ClassLoader loader;
+
+    LoaderObjectInputStream(InputStream in, ClassLoader loader) throws IOException {
+      super(in);
+      this.loader = loader;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc)
+        throws IOException, ClassNotFoundException {
+      if (loader != null) {
+        try {
+          return Class.forName(desc.getName(), false, loader);
+        } catch (ClassNotFoundException e) {
+          // Fall back to the default resolution below.
+        }
+      }
+      return super.resolveClass(desc);
+    }
+  }
+}
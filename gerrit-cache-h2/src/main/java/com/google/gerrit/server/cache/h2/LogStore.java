@@ -0,0 +1,778 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import com.google.common.cache.Cache;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.common.TimeUtil;
+import com.google.gerrit.server.cache.CacheSerializer;
+import com.google.gerrit.server.cache.PersistentCache.DiskStats;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only, memory-mapped log storage for persistent caches.
+ *
+ * <p>Entries are appended to fixed size segment files which are memory-mapped into the process.
+ * An off-heap open addressing hash table maps the 64 bit hash of each serialized key to the
+ * location of its most recent record in the log. The table is rebuilt by scanning the segments
+ * when the store is opened.
+ *
+ * <p>Reads never take a lock. A reader probes the current index, and then verifies the record it
+ * finds by comparing the stored key bytes and the record checksum, so a concurrent update or
+ * compaction results at worst in a cache miss. Writes, invalidations and compaction are
+ * serialized on the store's monitor.
+ *
+ * <p>Superseded and invalidated records are reclaimed by {@link #compact()}, which copies the live
+ * records of sparse segments to the head of the log and drops the oldest segments once the store
+ * grows beyond its disk limit.
+ */
+class LogStore<K, V> implements DiskStore<K, V> {
+  private static final Logger log = LoggerFactory.getLogger(LogStore.class);
+
+  private static final int FILE_MAGIC = 0x47434c47;
+  private static final int FILE_VERSION = 1;
+  private static final int FILE_HEADER_SIZE = 8;
+
+  /** Record length and checksum, followed by the checksummed record body. */
+  private static final int RECORD_PREFIX_SIZE = 8;
+
+  /** Record type, creation time and key length. */
+  private static final int RECORD_BODY_HEADER_SIZE = 13;
+
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final long MIN_SEGMENT_SIZE = 1 << 20;
+  private static final long MAX_SEGMENT_SIZE = 64 << 20;
+
+  /** Sealed segments with less than this fraction of live bytes are rewritten. */
+  private static final double MIN_LIVE_RATIO = 0.5;
+
+  private final Path dir;
+  private final CacheSerializer<K, V> serializer;
+  private final long maxSize;
+  private final long expireAfterWrite;
+  private final int segmentSize;
+  private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  private volatile Index index;
+  private volatile BloomFilter<Long> bloomFilter;
+  private volatile boolean open;
+  private Segment head;
+  private long liveBytes;
+
+  LogStore(Path dir, CacheSerializer<K, V> serializer, long maxSize, long expireAfterWrite) {
+    this.dir = dir;
+    this.serializer = serializer;
+    this.maxSize = maxSize;
+    this.expireAfterWrite = expireAfterWrite;
+    long size = Math.min(MAX_SEGMENT_SIZE, Long.highestOneBit(maxSize / 8));
+    this.segmentSize = (int) Math.max(MIN_SEGMENT_SIZE, size);
+    this.index = new Index(1024);
+  }
+
+  @Override
+  public synchronized void open() {
+    if (open) {
+      return;
+    }
+    try {
+      Files.createDirectories(dir);
+      List<Integer> ids = new ArrayList<>();
+      try (DirectoryStream<Path> s = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+        for (Path p : s) {
+          String n = p.getFileName().toString();
+          try {
+            ids.add(Integer.parseInt(n.substring(0, n.length() - SEGMENT_SUFFIX.length())));
+          } catch (NumberFormatException e) {
+            log.warn("Ignoring unknown file " + p + " in cache " + dir);
+          }
+        }
+      }
+      ids.sort(null);
+
+      Index idx = new Index(1024);
+      for (int id : ids) {
+        Segment seg = Segment.open(segmentPath(id), id);
+        if (seg == null) {
+          log.warn("Discarding corrupt segment " + segmentPath(id) + " of cache " + dir);
+          deleteFile(segmentPath(id));
+          continue;
+        }
+        segments.put(id, seg);
+        idx = replay(seg, idx);
+        head = seg;
+      }
+      index = idx;
+      bloomFilter = buildBloomFilter(idx);
+      if (head == null) {
+        head = newSegment(1, segmentSize);
+      }
+      open = true;
+    } catch (IOException e) {
+      log.warn("Cannot open cache " + dir + ": " + e.getMessage());
+      closeSegments();
+    }
+  }
+
+  private Index replay(Segment seg, Index idx) {
+    ByteBuffer b = seg.buf.duplicate();
+    int pos = FILE_HEADER_SIZE;
+    while (pos + RECORD_PREFIX_SIZE <= seg.capacity) {
+      byte[] body = readBody(b, pos, seg.capacity);
+      if (body == null) {
+        break;
+      }
+      int recLen = RECORD_PREFIX_SIZE + body.length;
+      byte[] key = keyOf(body);
+      long hash = hash(key);
+      if (body[0] == PUT) {
+        idx = idx.ensureCapacity();
+        release(idx.put(hash, location(seg.id, pos)));
+        seg.liveBytes += recLen;
+        liveBytes += recLen;
+      } else {
+        release(idx.remove(hash));
+      }
+      pos += recLen;
+    }
+    seg.writePos = pos;
+    return idx;
+  }
+
+  @Override
+  public synchronized void close() {
+    open = false;
+    for (Segment seg : segments.values()) {
+      seg.force();
+    }
+    closeSegments();
+  }
+
+  private void closeSegments() {
+    segments.clear();
+    head = null;
+    index = new Index(1024);
+    liveBytes = 0;
+  }
+
+  @Override
+  public boolean mightContain(K key) {
+    BloomFilter<Long> b = bloomFilter;
+    return b == null || b.mightContain(hash(keyBytes(key)));
+  }
+
+  @Override
+  public ValueHolder<V> getIfPresent(K key) {
+    byte[] k = keyBytes(key);
+    byte[] body = lookup(k, hash(k));
+    if (body == null || body[0] != PUT) {
+      missCount.incrementAndGet();
+      return null;
+    }
+
+    long created = ByteBuffer.wrap(body, 1, 8).getLong();
+    if (expired(created)) {
+      invalidate(key);
+      missCount.incrementAndGet();
+      return null;
+    }
+
+    V val;
+    try {
+      val =
+          serializer.deserializeValue(
+              Arrays.copyOfRange(body, RECORD_BODY_HEADER_SIZE + k.length, body.length));
+    } catch (IOException | RuntimeException e) {
+      log.warn("Cannot read cache " + dir + " for " + key + ": " + e.getMessage());
+      invalidate(key);
+      missCount.incrementAndGet();
+      return null;
+    }
+    ValueHolder<V> h = new ValueHolder<>(val);
+    h.created = created;
+    h.clean = true;
+    hitCount.incrementAndGet();
+    return h;
+  }
+
+  private byte[] lookup(byte[] key, long hash) {
+    // A compaction may move the record between probing the index and
+    // reading the segment. Retry once against the refreshed index.
+    for (int attempt = 0; attempt < 2; attempt++) {
+      long loc = index.find(hash);
+      if (loc < 0) {
+        return null;
+      }
+      Segment seg = segments.get(segmentOf(loc));
+      if (seg == null) {
+        continue;
+      }
+      byte[] body = readBody(seg.buf.duplicate(), offsetOf(loc), seg.capacity);
+      if (body != null && Arrays.equals(key, keyOf(body))) {
+        return body;
+      }
+      return null;
+    }
+    return null;
+  }
+
+  private boolean expired(long created) {
+    if (expireAfterWrite == 0) {
+      return false;
+    }
+    long age = TimeUtil.nowMs() - created;
+    return 1000 * expireAfterWrite < age;
+  }
+
+  @Override
+  public void put(K key, ValueHolder<V> holder) {
+    if (holder.clean) {
+      return;
+    }
+
+    byte[] k = keyBytes(key);
+    byte[] v;
+    try {
+      v = serializer.serializeValue(holder.value);
+    } catch (IOException e) {
+      log.warn("Cannot put into cache " + dir, e);
+      return;
+    }
+    long hash = hash(k);
+
+    synchronized (this) {
+      if (!open) {
+        return;
+      }
+      try {
+        long loc = append(PUT, holder.created, k, v);
+        Index idx = index.ensureCapacity();
+        release(idx.put(hash, loc));
+        index = idx;
+        int recLen = recordLength(k.length, v.length);
+        segments.get(segmentOf(loc)).liveBytes += recLen;
+        liveBytes += recLen;
+        holder.clean = true;
+      } catch (IOException e) {
+        log.warn("Cannot put into cache " + dir, e);
+      }
+    }
+
+    BloomFilter<Long> b = bloomFilter;
+    if (b != null) {
+      b.put(hash);
+      bloomFilter = b;
+    }
+  }
+
+  @Override
+  public void invalidate(K key) {
+    byte[] k = keyBytes(key);
+    long hash = hash(k);
+    synchronized (this) {
+      if (!open) {
+        return;
+      }
+      long old = index.find(hash);
+      if (old < 0) {
+        return;
+      }
+      try {
+        append(DELETE, TimeUtil.nowMs(), k, new byte[0]);
+        release(index.remove(hash));
+      } catch (IOException e) {
+        log.warn("Cannot invalidate cache " + dir, e);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void invalidateAll() {
+    if (!open) {
+      return;
+    }
+    int next = segments.lastKey() + 1;
+    for (Segment seg : segments.values()) {
+      deleteFile(seg.path);
+    }
+    segments.clear();
+    index = new Index(1024);
+    liveBytes = 0;
+    try {
+      head = newSegment(next, segmentSize);
+    } catch (IOException e) {
+      log.warn("Cannot invalidate cache " + dir, e);
+      open = false;
+    }
+    bloomFilter = newBloomFilter(0);
+  }
+
+  @Override
+  public void prune(Cache<K, ?> mem) {
+    compact();
+  }
+
+  /** @return true if {@link #compact()} would reclaim space. */
+  synchronized boolean needsCompaction() {
+    if (!open) {
+      return false;
+    }
+    if (totalBytes() > maxSize) {
+      return true;
+    }
+    for (Segment seg : segments.values()) {
+      if (seg != head && isSparse(seg)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Reclaim disk space held by superseded records.
+   *
+   * <p>Sealed segments holding mostly dead records have their live records copied to the head of
+   * the log. If the log is still larger than the disk limit afterwards the oldest segments are
+   * dropped, evicting their entries.
+   */
+  synchronized void compact() {
+    if (!open) {
+      return;
+    }
+    try {
+      for (Segment seg : new ArrayList<>(segments.values())) {
+        if (seg != head && isSparse(seg)) {
+          rewrite(seg);
+        }
+      }
+      while (totalBytes() > maxSize && segments.size() > 1) {
+        Segment oldest = segments.firstEntry().getValue();
+        if (oldest == head) {
+          break;
+        }
+        drop(oldest);
+      }
+    } catch (IOException e) {
+      log.warn("Cannot compact cache " + dir, e);
+    }
+  }
+
+  private boolean isSparse(Segment seg) {
+    return seg.writePos > FILE_HEADER_SIZE
+        && seg.liveBytes < MIN_LIVE_RATIO * (seg.writePos - FILE_HEADER_SIZE);
+  }
+
+  private void rewrite(Segment seg) throws IOException {
+    ByteBuffer b = seg.buf.duplicate();
+    int pos = FILE_HEADER_SIZE;
+    while (pos < seg.writePos) {
+      byte[] body = readBody(b, pos, seg.capacity);
+      if (body == null) {
+        break;
+      }
+      long hash = hash(keyOf(body));
+      if (body[0] == PUT) {
+        if (index.find(hash) == location(seg.id, pos)) {
+          long loc = appendBody(body);
+          index.put(hash, loc);
+          int recLen = RECORD_PREFIX_SIZE + body.length;
+          segments.get(segmentOf(loc)).liveBytes += recLen;
+          seg.liveBytes -= recLen;
+        }
+      } else if (segments.firstKey() < seg.id && index.find(hash) < 0) {
+        // An older segment may still hold a record for this key; keep the
+        // deletion so the record is not resurrected when the log is replayed.
+        appendBody(body);
+      }
+      pos += RECORD_PREFIX_SIZE + body.length;
+    }
+    remove(seg);
+  }
+
+  private void drop(Segment seg) {
+    index.removeIf(loc -> segmentOf(loc) == seg.id);
+    liveBytes -= seg.liveBytes;
+    remove(seg);
+  }
+
+  private void remove(Segment seg) {
+    segments.remove(seg.id);
+    deleteFile(seg.path);
+  }
+
+  @Override
+  public synchronized DiskStats diskStats() {
+    return new DiskStats(index.live, liveBytes, hitCount.get(), missCount.get());
+  }
+
+  private long totalBytes() {
+    long n = 0;
+    for (Segment seg : segments.values()) {
+      n += seg.writePos;
+    }
+    return n;
+  }
+
+  private long append(byte type, long created, byte[] key, byte[] value) throws IOException {
+    ByteBuffer body = ByteBuffer.allocate(RECORD_BODY_HEADER_SIZE + key.length + value.length);
+    body.put(type);
+    body.putLong(created);
+    body.putInt(key.length);
+    body.put(key);
+    body.put(value);
+    return appendBody(body.array());
+  }
+
+  private long appendBody(byte[] body) throws IOException {
+    int recLen = RECORD_PREFIX_SIZE + body.length;
+    if (head.capacity - head.writePos < recLen) {
+      head.force();
+      head = newSegment(head.id + 1, Math.max(segmentSize, FILE_HEADER_SIZE + recLen));
+    }
+
+    int pos = head.writePos;
+    ByteBuffer b = head.buf.duplicate();
+    b.position(pos + RECORD_PREFIX_SIZE);
+    b.put(body);
+    b.putInt(pos + 4, checksum(body, 0, body.length));
+    // The length is written last, it marks the record as complete.
+    b.putInt(pos, body.length);
+    head.writePos = pos + recLen;
+    return location(head.id, pos);
+  }
+
+  private void release(long loc) {
+    if (loc >= 0) {
+      Segment seg = segments.get(segmentOf(loc));
+      if (seg != null) {
+        int len = recordLengthAt(seg, offsetOf(loc));
+        seg.liveBytes -= len;
+        liveBytes -= len;
+      }
+    }
+  }
+
+  private static int recordLengthAt(Segment seg, int pos) {
+    return RECORD_PREFIX_SIZE + seg.buf.getInt(pos);
+  }
+
+  private Segment newSegment(int id, int capacity) throws IOException {
+    Segment seg = Segment.create(segmentPath(id), id, capacity);
+    segments.put(id, seg);
+    return seg;
+  }
+
+  private Path segmentPath(int id) {
+    return dir.resolve(String.format("%08d%s", id, SEGMENT_SUFFIX));
+  }
+
+  private static void deleteFile(Path p) {
+    try {
+      Files.deleteIfExists(p);
+    } catch (IOException e) {
+      log.warn("Cannot delete " + p, e);
+    }
+  }
+
+  /**
+   * Read the body of the record at {@code pos}.
+   *
+   * @return the record body, or null if there is no complete, valid record at this position.
+   */
+  private static byte[] readBody(ByteBuffer b, int pos, int capacity) {
+    try {
+      int len = b.getInt(pos);
+      if (len < RECORD_BODY_HEADER_SIZE || len > capacity - pos - RECORD_PREFIX_SIZE) {
+        return null;
+      }
+      int crc = b.getInt(pos + 4);
+      byte[] body = new byte[len];
+      b.position(pos + RECORD_PREFIX_SIZE);
+      b.get(body);
+      if (crc != checksum(body, 0, len)) {
+        return null;
+      }
+      int keyLen = ByteBuffer.wrap(body, 9, 4).getInt();
+      if (keyLen < 0 || keyLen > len - RECORD_BODY_HEADER_SIZE) {
+        return null;
+      }
+      return body;
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static byte[] keyOf(byte[] body) {
+    int keyLen = ByteBuffer.wrap(body, 9, 4).getInt();
+    return Arrays.copyOfRange(body, RECORD_BODY_HEADER_SIZE, RECORD_BODY_HEADER_SIZE + keyLen);
+  }
+
+  private static int recordLength(int keyLen, int valueLen) {
+    return RECORD_PREFIX_SIZE + RECORD_BODY_HEADER_SIZE + keyLen + valueLen;
+  }
+
+  private static int checksum(byte[] buf, int off, int len) {
+    CRC32 crc = new CRC32();
+    crc.update(buf, off, len);
+    return (int) crc.getValue();
+  }
+
+  private static long location(int segment, int offset) {
+    return ((long) segment << 32) | (offset & 0xffffffffL);
+  }
+
+  private static int segmentOf(long loc) {
+    return (int) (loc >>> 32);
+  }
+
+  private static int offsetOf(long loc) {
+    return (int) loc;
+  }
+
+  private static long hash(byte[] key) {
+    long h = Hashing.murmur3_128().hashBytes(key).asLong();
+    return h != 0 ? h : 1;
+  }
+
+  private byte[] keyBytes(K key) {
+    try {
+      return serializer.serializeKey(key);
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot serialize key for cache " + dir, e);
+    }
+  }
+
+  private BloomFilter<Long> buildBloomFilter(Index idx) {
+    BloomFilter<Long> b = newBloomFilter(idx.live);
+    idx.forEachLive(b::put);
+    return b;
+  }
+
+  private static BloomFilter<Long> newBloomFilter(int estimatedSize) {
+    int cnt = Math.max(64 * 1024, 2 * estimatedSize);
+    return BloomFilter.create(Funnels.longFunnel(), cnt);
+  }
+
+  /** One memory-mapped file of the log. */
+  private static class Segment {
+    static Segment create(Path path, int id, int capacity) throws IOException {
+      try (FileChannel ch =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE)) {
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        buf.putInt(0, FILE_MAGIC);
+        buf.putInt(4, FILE_VERSION);
+        Segment seg = new Segment(path, id, buf, capacity);
+        seg.writePos = FILE_HEADER_SIZE;
+        return seg;
+      }
+    }
+
+    static Segment open(Path path, int id) throws IOException {
+      try (FileChannel ch =
+          FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        long size = ch.size();
+        if (size < FILE_HEADER_SIZE || size > Integer.MAX_VALUE) {
+          return null;
+        }
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (buf.getInt(0) != FILE_MAGIC || buf.getInt(4) != FILE_VERSION) {
+          return null;
+        }
+        return new Segment(path, id, buf, (int) size);
+      }
+    }
+
+    final Path path;
+    final int id;
+    final MappedByteBuffer buf;
+    final int capacity;
+
+    /** Guarded by the owning store. */
+    int writePos;
+
+    /** Bytes of records still referenced by the index; guarded by the owning store. */
+    long liveBytes;
+
+    private Segment(Path path, int id, MappedByteBuffer buf, int capacity) {
+      this.path = path;
+      this.id = id;
+      this.buf = buf;
+      this.capacity = capacity;
+    }
+
+    void force() {
+      try {
+        buf.force();
+      } catch (RuntimeException e) {
+        log.warn("Cannot flush " + path, e);
+      }
+    }
+  }
+
+  /**
+   * Off-heap open addressing hash table from key hash to record location.
+   *
+   * <p>Each slot holds the 64 bit key hash followed by the 64 bit location of the record. A hash
+   * of 0 marks an empty slot; a location of {@link #DELETED} marks a removed entry, which still
+   * terminates no probe sequence. Mutations must be serialized by the caller; lookups may run
+   * concurrently with mutations and may then observe a stale location.
+   */
+  static class Index {
+    private static final int SLOT_SIZE = 16;
+    private static final long DELETED = -1;
+
+    private final ByteBuffer table;
+    private final int mask;
+    private int used;
+    int live;
+
+    Index(int capacity) {
+      table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+      mask = capacity - 1;
+    }
+
+    long find(long hash) {
+      for (int i = slot(hash); ; i = (i + 1) & mask) {
+        long h = table.getLong(i * SLOT_SIZE);
+        if (h == 0) {
+          return -1;
+        } else if (h == hash) {
+          long loc = table.getLong(i * SLOT_SIZE + 8);
+          return loc != DELETED ? loc : -1;
+        }
+      }
+    }
+
+    /** @return the previous location, or -1. */
+    long put(long hash, long loc) {
+      for (int i = slot(hash); ; i = (i + 1) & mask) {
+        long h = table.getLong(i * SLOT_SIZE);
+        if (h == 0) {
+          table.putLong(i * SLOT_SIZE + 8, loc);
+          table.putLong(i * SLOT_SIZE, hash);
+          used++;
+          live++;
+          return -1;
+        } else if (h == hash) {
+          long old = table.getLong(i * SLOT_SIZE + 8);
+          table.putLong(i * SLOT_SIZE + 8, loc);
+          if (old == DELETED) {
+            live++;
+            return -1;
+          }
+          return old;
+        }
+      }
+    }
+
+    /** @return the removed location, or -1. */
+    long remove(long hash) {
+      for (int i = slot(hash); ; i = (i + 1) & mask) {
+        long h = table.getLong(i * SLOT_SIZE);
+        if (h == 0) {
+          return -1;
+        } else if (h == hash) {
+          long old = table.getLong(i * SLOT_SIZE + 8);
+          if (old == DELETED) {
+            return -1;
+          }
+          table.putLong(i * SLOT_SIZE + 8, DELETED);
+          live--;
+          return old;
+        }
+      }
+    }
+
+    void removeIf(LongPredicate locationPredicate) {
+      for (int i = 0; i <= mask; i++) {
+        long loc = table.getLong(i * SLOT_SIZE + 8);
+        if (table.getLong(i * SLOT_SIZE) != 0 && loc != DELETED && locationPredicate.test(loc)) {
+          table.putLong(i * SLOT_SIZE + 8, DELETED);
+          live--;
+        }
+      }
+    }
+
+    void forEachLive(LongConsumer hashConsumer) {
+      for (int i = 0; i <= mask; i++) {
+        long h = table.getLong(i * SLOT_SIZE);
+        if (h != 0 && table.getLong(i * SLOT_SIZE + 8) != DELETED) {
+          hashConsumer.accept(h);
+        }
+      }
+    }
+
+    /**
+     * @return this index if it can take another entry, otherwise a larger copy holding only the
+     *     live entries.
+     */
+    Index ensureCapacity() {
+      int capacity = mask + 1;
+      if (used + 1 <= capacity / 2) {
+        return this;
+      }
+      int n = capacity;
+      while (live + 1 > n / 4) {
+        n <<= 1;
+      }
+      Index idx = new Index(n);
+      for (int i = 0; i < capacity; i++) {
+        long h = table.getLong(i * SLOT_SIZE);
+        long loc = table.getLong(i * SLOT_SIZE + 8);
+        if (h != 0 && loc != DELETED) {
+          idx.put(h, loc);
+        }
+      }
+      return idx;
+    }
+
+    private int slot(long hash) {
+      return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LogStore[" + dir + "]";
+  }
+}
@@ -0,0 +1,115 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import com.google.common.math.IntMath;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Lossy buffer of cache hits waiting to be applied to the eviction policy of {@link TinyLfuCache}.
+ *
+ * <p>The buffer is split into stripes, each a ring buffer selected by a hash of the calling thread,
+ * so concurrent readers rarely touch the same stripe. A reader claims a slot with a single
+ * compare-and-set of the stripe's tail and never waits: if the stripe is full or another reader won
+ * the race for the slot, the access is dropped. Losing some accesses only makes the recency and
+ * frequency information slightly less precise.
+ *
+ * <p>Draining is single-consumer; {@link #drainTo(Consumer)} must only be called while holding the
+ * cache's eviction lock.
+ */
+class ReadBuffer<E> {
+  /** The element was added. */
+  static final int SUCCESS = 0;
+
+  /** The element was dropped because another thread claimed the slot concurrently. */
+  static final int FAILED = 1;
+
+  /** The element was dropped because the stripe is full and should be drained. */
+  static final int FULL = 2;
+
+  static final int STRIPE_SIZE = 32;
+  private static final int STRIPE_MASK = STRIPE_SIZE - 1;
+
+  // Counters of different stripes are kept a cache line apart.
+  private static final int PAD = 8;
+
+  private final int stripes;
+  private final int stripeMask;
+  private final AtomicReferenceArray<E> slots;
+  private final AtomicLongArray heads;
+  private final AtomicLongArray tails;
+
+  ReadBuffer() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  ReadBuffer(int parallelism) {
+    stripes = IntMath.ceilingPowerOfTwo(Math.min(Math.max(parallelism, 1), 64));
+    stripeMask = stripes - 1;
+    slots = new AtomicReferenceArray<>(stripes * STRIPE_SIZE);
+    heads = new AtomicLongArray(stripes * PAD);
+    tails = new AtomicLongArray(stripes * PAD);
+  }
+
+  /**
+   * Record an element without blocking.
+   *
+   * @param e element to add.
+   * @return {@link #SUCCESS}, {@link #FAILED} or {@link #FULL}.
+   */
+  int offer(E e) {
+    int stripe = probe() & stripeMask;
+    int counter = stripe * PAD;
+    long head = heads.get(counter);
+    long tail = tails.get(counter);
+    if (tail - head >= STRIPE_SIZE) {
+      return FULL;
+    }
+    if (!tails.compareAndSet(counter, tail, tail + 1)) {
+      return FAILED;
+    }
+    slots.lazySet(stripe * STRIPE_SIZE + (int) (tail & STRIPE_MASK), e);
+    return SUCCESS;
+  }
+
+  /** Pass all published elements to the consumer, emptying the buffer. */
+  void drainTo(Consumer<? super E> consumer) {
+    for (int stripe = 0; stripe < stripes; stripe++) {
+      int counter = stripe * PAD;
+      long head = heads.get(counter);
+      long tail = tails.get(counter);
+      for (; head < tail; head++) {
+        int i = stripe * STRIPE_SIZE + (int) (head & STRIPE_MASK);
+        E e = slots.get(i);
+        if (e == null) {
+          // The slot was claimed but the element is not visible yet; pick
+          // it up on the next drain.
+          break;
+        }
+        slots.lazySet(i, null);
+        consumer.accept(e);
+      }
+      heads.lazySet(counter, head);
+    }
+  }
+
+  private static int probe() {
+    long id = Thread.currentThread().getId();
+    int h = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+}
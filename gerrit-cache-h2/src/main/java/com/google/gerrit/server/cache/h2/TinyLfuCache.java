@@ -0,0 +1,908 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.AbstractCache;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.WeightedCache;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory cache using the W-TinyLFU eviction policy.
+ *
+ * <p>New entries enter a small LRU window holding 1% of the maximum weight. Entries pushed out of
+ * the window become candidates for the main space, a segmented LRU split into a probation and a
+ * protected segment. A candidate is only admitted if its estimated access frequency, kept in a
+ * {@link FrequencySketch}, is higher than that of the probation entry it would evict. One-off
+ * lookups, such as a reindex or a bot walking all open changes, therefore cannot flush the
+ * frequently used entries out of the cache the way they do with an LRU policy.
+ *
+ * <p>Reads are served from a {@link ConcurrentHashMap} without locking. Accesses are recorded in a
+ * striped lossy {@link ReadBuffer} and applied to the policy when the eviction lock is next
+ * acquired, so the recency order is approximate under contention. Writes take the lock and evict exactly down to the
+ * maximum weight.
+ *
+ * <p>Concurrent loads of the same key are coalesced: only one caller runs the loader, the others
+ * wait for its result. Caches with a {@link CacheLoader} are created as {@link Loading}, which can
+ * also reload entries in the background once they reach a configured age.
+ */
+class TinyLfuCache<K, V> extends AbstractCache<K, V> implements WeightedCache {
+  private static final Logger log = LoggerFactory.getLogger(TinyLfuCache.class);
+
+  /** Passed as {@code expireAfterWrite} if entries should never expire. */
+  static final long NEVER_EXPIRE = -1;
+
+  /** Passed as {@code refreshAfterWrite} if entries should never be refreshed. */
+  static final long NEVER_REFRESH = -1;
+
+  private static final double WINDOW_RATIO = 0.01;
+  private static final double PROTECTED_RATIO = 0.8;
+
+  private static final int WINDOW = 0;
+  private static final int PROBATION = 1;
+  private static final int PROTECTED = 2;
+
+  static class Node<K, V> {
+    final K key;
+    final V value;
+    final int weight;
+    final long writeTime;
+
+    // Guarded by the eviction lock.
+    int queue;
+    boolean linked;
+    boolean dead;
+    Node<K, V> prev;
+    Node<K, V> next;
+    Node<K, V> writePrev;
+    Node<K, V> writeNext;
+
+    Node(K key, V value, int weight, long writeTime) {
+      this.key = key;
+      this.value = value;
+      this.weight = weight;
+      this.writeTime = writeTime;
+    }
+  }
+
+  /** Doubly linked list ordered from most to least recently used. */
+  private static class AccessQueue<K, V> {
+    Node<K, V> first;
+    Node<K, V> last;
+    long weight;
+
+    void addFirst(Node<K, V> n) {
+      n.prev = null;
+      n.next = first;
+      if (first != null) {
+        first.prev = n;
+      } else {
+        last = n;
+      }
+      first = n;
+      weight += n.weight;
+    }
+
+    void remove(Node<K, V> n) {
+      if (n.prev != null) {
+        n.prev.next = n.next;
+      } else {
+        first = n.next;
+      }
+      if (n.next != null) {
+        n.next.prev = n.prev;
+      } else {
+        last = n.prev;
+      }
+      n.prev = null;
+      n.next = null;
+      weight -= n.weight;
+    }
+
+    void moveToFirst(Node<K, V> n) {
+      if (first != n) {
+        remove(n);
+        addFirst(n);
+      }
+    }
+  }
+
+  private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+  private final Weigher<? super K, ? super V> weigher;
+  private final RemovalListener<K, V> removalListener;
+  private final Ticker ticker;
+  private final long maximumWeight;
+  private final long maximumWindow;
+  private final long maximumProtected;
+  private final long expireAfterWriteNanos;
+
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final ReadBuffer<Node<K, V>> readBuffer = new ReadBuffer<>();
+  private final FrequencySketch sketch = new FrequencySketch();
+  private final AccessQueue<K, V> window = new AccessQueue<>();
+  private final AccessQueue<K, V> probation = new AccessQueue<>();
+  private final AccessQueue<K, V> protectedQueue = new AccessQueue<>();
+  private Node<K, V> writeFirst;
+  private Node<K, V> writeLast;
+
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder loadSuccessCount = new LongAdder();
+  private final LongAdder loadExceptionCount = new LongAdder();
+  private final LongAdder totalLoadTime = new LongAdder();
+  private final LongAdder evictionCount = new LongAdder();
+  private final LongAdder evictionWeight = new LongAdder();
+
+  private ConcurrentMap<K, V> asMap;
+
+  TinyLfuCache(
+      long maximumWeight,
+      Weigher<? super K, ? super V> weigher,
+      long expireAfterWrite,
+      TimeUnit unit,
+      RemovalListener<K, V> removalListener) {
+    this(maximumWeight, weigher, expireAfterWrite, unit, removalListener, Ticker.systemTicker());
+  }
+
+  TinyLfuCache(
+      long maximumWeight,
+      Weigher<? super K, ? super V> weigher,
+      long expireAfterWrite,
+      TimeUnit unit,
+      RemovalListener<K, V> removalListener,
+      Ticker ticker) {
+    this.maximumWeight = Math.max(maximumWeight, 0);
+    this.maximumWindow = Math.max(1, (long) (this.maximumWeight * WINDOW_RATIO));
+    long main = this.maximumWeight - Math.min(maximumWindow, this.maximumWeight);
+    this.maximumProtected = (long) (main * PROTECTED_RATIO);
+    this.weigher = weigher;
+    this.expireAfterWriteNanos = expireAfterWrite < 0 ? -1 : unit.toNanos(expireAfterWrite);
+    this.removalListener = removalListener;
+    this.ticker = ticker;
+  }
+
+  @Override
+  @Nullable
+  public V getIfPresent(Object key) {
+    Node<K, V> n = getNode(key);
+    if (n == null) {
+      missCount.increment();
+      return null;
+    }
+    hitCount.increment();
+    afterHit(n);
+    return n.value;
+  }
+
+  @Override
+  public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
+    checkNotNull(key);
+    Node<K, V> n = getNode(key);
+    if (n != null) {
+      hitCount.increment();
+      afterHit(n);
+      return n.value;
+    }
+    missCount.increment();
+
+    CompletableFuture<V> f = new CompletableFuture<>();
+    CompletableFuture<V> other = loading.putIfAbsent(key, f);
+    if (other != null) {
+      return waitFor(other);
+    }
+
+    try {
+      n = getNode(key);
+      if (n != null) {
+        f.complete(n.value);
+        return n.value;
+      }
+
+      long start = ticker.read();
+      V value;
+      try {
+        value = valueLoader.call();
+      } catch (Throwable t) {
+        loadExceptionCount.increment();
+        totalLoadTime.add(ticker.read() - start);
+        f.completeExceptionally(t);
+        throw wrap(t);
+      }
+      totalLoadTime.add(ticker.read() - start);
+      if (value == null) {
+        loadExceptionCount.increment();
+        InvalidCacheLoadException e =
+            new InvalidCacheLoadException("CacheLoader returned null for key " + key + ".");
+        f.completeExceptionally(e);
+        throw e;
+      }
+      loadSuccessCount.increment();
+      put(key, value);
+      f.complete(value);
+      return value;
+    } finally {
+      loading.remove(key, f);
+    }
+  }
+
+  private V waitFor(CompletableFuture<V> f) throws ExecutionException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return f.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          throw wrap(e.getCause());
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static ExecutionException wrap(Throwable t) {
+    if (t instanceof InvalidCacheLoadException) {
+      throw (InvalidCacheLoadException) t;
+    } else if (t instanceof RuntimeException) {
+      throw new UncheckedExecutionException(t);
+    } else if (t instanceof Error) {
+      throw new ExecutionError((Error) t);
+    }
+    return new ExecutionException(t);
+  }
+
+  /** Called on every hit with the entry that was found. */
+  void afterHit(Node<K, V> n) {}
+
+  /**
+   * Reload the entry of a key with a loader, keeping the current value until the new one is
+   * available.
+   *
+   * @param key key to reload.
+   * @param n current entry of the key.
+   * @param loader loader to reload the value with.
+   * @return future of the reloaded value.
+   */
+  ListenableFuture<V> reload(K key, Node<K, V> n, CacheLoader<? super K, V> loader) {
+    long start = ticker.read();
+    ListenableFuture<V> f;
+    try {
+      f = loader.reload(key, n.value);
+    } catch (Exception e) {
+      // Like Guava, a failed refresh keeps the old value.
+      loadExceptionCount.increment();
+      totalLoadTime.add(ticker.read() - start);
+      log.warn("Cannot refresh " + key, e);
+      return Futures.immediateFailedFuture(e);
+    }
+    f.addListener(
+        () -> {
+          try {
+            V value = Futures.getDone(f);
+            if (value != null) {
+              loadSuccessCount.increment();
+              // Drop the result if the entry was invalidated or replaced
+              // while reloading.
+              put(key, value, n);
+            } else {
+              loadExceptionCount.increment();
+            }
+          } catch (Exception e) {
+            loadExceptionCount.increment();
+            log.warn("Cannot refresh " + key, e);
+          } finally {
+            totalLoadTime.add(ticker.read() - start);
+          }
+        },
+        MoreExecutors.directExecutor());
+    return f;
+  }
+
+  @Override
+  public void put(K key, V value) {
+    put(key, value, null);
+  }
+
+  /**
+   * Store a value.
+   *
+   * @param key key to store the value for.
+   * @param value value to store.
+   * @param expected if set, only store the value if this is still the entry of the key.
+   */
+  private void put(K key, V value, @Nullable Node<K, V> expected) {
+    checkNotNull(key);
+    checkNotNull(value);
+    int weight = weigher.weigh(key, value);
+    Node<K, V> n = new Node<>(key, value, weight, ticker.read());
+    Node<K, V> old;
+    if (expected == null) {
+      old = data.put(key, n);
+    } else if (data.replace(key, expected, n)) {
+      old = expected;
+    } else {
+      return;
+    }
+
+    List<RemovalNotification<K, V>> removed = new ArrayList<>(2);
+    evictionLock.lock();
+    try {
+      drainReadBuffer();
+      if (old != null) {
+        unlink(old);
+        removed.add(RemovalNotification.create(key, old.value, RemovalCause.REPLACED));
+      }
+      if (data.get(key) == n && !n.dead) {
+        sketch.increment(key);
+        n.queue = WINDOW;
+        window.addFirst(n);
+        linkWrite(n);
+        n.linked = true;
+      }
+      maintain(removed);
+    } finally {
+      evictionLock.unlock();
+    }
+    notifyListener(removed);
+  }
+
+  @Override
+  public void invalidate(Object key) {
+    Node<K, V> n = data.remove(key);
+    if (n != null) {
+      remove(n, RemovalCause.EXPLICIT);
+    }
+  }
+
+  @Override
+  public void invalidateAll() {
+    for (Node<K, V> n : data.values()) {
+      if (data.remove(n.key, n)) {
+        remove(n, RemovalCause.EXPLICIT);
+      }
+    }
+  }
+
+  @Override
+  public long size() {
+    return data.size();
+  }
+
+  @Override
+  public void cleanUp() {
+    List<RemovalNotification<K, V>> removed = new ArrayList<>();
+    evictionLock.lock();
+    try {
+      drainReadBuffer();
+      maintain(removed);
+    } finally {
+      evictionLock.unlock();
+    }
+    notifyListener(removed);
+  }
+
+  @Override
+  public CacheStats stats() {
+    return new CacheStats(
+        hitCount.sum(),
+        missCount.sum(),
+        loadSuccessCount.sum(),
+        loadExceptionCount.sum(),
+        totalLoadTime.sum(),
+        evictionCount.sum());
+  }
+
+  @Override
+  public long weightedSize() {
+    evictionLock.lock();
+    try {
+      return window.weight + probation.weight + protectedQueue.weight;
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public long evictionWeight() {
+    return evictionWeight.sum();
+  }
+
+  @Override
+  public ConcurrentMap<K, V> asMap() {
+    ConcurrentMap<K, V> m = asMap;
+    if (m == null) {
+      m = new MapView();
+      asMap = m;
+    }
+    return m;
+  }
+
+  @Nullable
+  Node<K, V> getNode(Object key) {
+    Node<K, V> n = data.get(key);
+    if (n == null) {
+      return null;
+    }
+    if (isExpired(n, ticker.read())) {
+      if (data.remove(n.key, n)) {
+        remove(n, RemovalCause.EXPIRED);
+      }
+      return null;
+    }
+    recordRead(n);
+    return n;
+  }
+
+  /** @return nanoseconds since the value of the entry was written. */
+  long age(Node<K, V> n) {
+    return ticker.read() - n.writeTime;
+  }
+
+  private boolean isExpired(Node<K, V> n, long now) {
+    return expireAfterWriteNanos >= 0 && now - n.writeTime >= expireAfterWriteNanos;
+  }
+
+  private void recordRead(Node<K, V> n) {
+    if (readBuffer.offer(n) == ReadBuffer.FULL && evictionLock.tryLock()) {
+      try {
+        drainReadBuffer();
+        onAccess(n);
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  private void remove(Node<K, V> n, RemovalCause cause) {
+    evictionLock.lock();
+    try {
+      unlink(n);
+    } finally {
+      evictionLock.unlock();
+    }
+    notifyListener(RemovalNotification.create(n.key, n.value, cause));
+  }
+
+  private void drainReadBuffer() {
+    readBuffer.drainTo(this::onAccess);
+  }
+
+  private void onAccess(Node<K, V> n) {
+    if (!n.linked) {
+      return;
+    }
+    sketch.increment(n.key);
+    switch (n.queue) {
+      case WINDOW:
+        window.moveToFirst(n);
+        break;
+      case PROBATION:
+        probation.remove(n);
+        n.queue = PROTECTED;
+        protectedQueue.addFirst(n);
+        while (protectedQueue.weight > maximumProtected && protectedQueue.last != null) {
+          Node<K, V> demoted = protectedQueue.last;
+          protectedQueue.remove(demoted);
+          demoted.queue = PROBATION;
+          probation.addFirst(demoted);
+        }
+        break;
+      case PROTECTED:
+        protectedQueue.moveToFirst(n);
+        break;
+    }
+  }
+
+  private void unlink(Node<K, V> n) {
+    n.dead = true;
+    if (!n.linked) {
+      return;
+    }
+    queueOf(n).remove(n);
+    unlinkWrite(n);
+    n.linked = false;
+  }
+
+  private AccessQueue<K, V> queueOf(Node<K, V> n) {
+    switch (n.queue) {
+      case WINDOW:
+        return window;
+      case PROBATION:
+        return probation;
+      default:
+        return protectedQueue;
+    }
+  }
+
+  private void linkWrite(Node<K, V> n) {
+    n.writePrev = writeLast;
+    n.writeNext = null;
+    if (writeLast != null) {
+      writeLast.writeNext = n;
+    } else {
+      writeFirst = n;
+    }
+    writeLast = n;
+  }
+
+  private void unlinkWrite(Node<K, V> n) {
+    if (n.writePrev != null) {
+      n.writePrev.writeNext = n.writeNext;
+    } else {
+      writeFirst = n.writeNext;
+    }
+    if (n.writeNext != null) {
+      n.writeNext.writePrev = n.writePrev;
+    } else {
+      writeLast = n.writePrev;
+    }
+    n.writePrev = null;
+    n.writeNext = null;
+  }
+
+  private void maintain(List<RemovalNotification<K, V>> removed) {
+    expire(removed);
+    if (data.size() > sketch.capacity()) {
+      sketch.ensureCapacity(2L * data.size());
+    }
+    evict(removed);
+  }
+
+  private void expire(List<RemovalNotification<K, V>> removed) {
+    if (expireAfterWriteNanos < 0) {
+      return;
+    }
+    long now = ticker.read();
+    while (writeFirst != null && isExpired(writeFirst, now)) {
+      Node<K, V> n = writeFirst;
+      data.remove(n.key, n);
+      unlink(n);
+      removed.add(RemovalNotification.create(n.key, n.value, RemovalCause.EXPIRED));
+    }
+  }
+
+  private void evict(List<RemovalNotification<K, V>> removed) {
+    // Entries overflowing the window become candidates at the head of the
+    // probation segment, ahead of the existing probation entries.
+    Node<K, V> candidate = null;
+    int candidates = 0;
+    while (window.weight > maximumWindow && window.last != null) {
+      Node<K, V> n = window.last;
+      window.remove(n);
+      n.queue = PROBATION;
+      probation.addFirst(n);
+      if (candidate == null) {
+        candidate = n;
+      }
+      candidates++;
+    }
+
+    while (window.weight + probation.weight + protectedQueue.weight > maximumWeight) {
+      Node<K, V> victim = probation.last;
+      if (victim == null) {
+        victim = protectedQueue.last != null ? protectedQueue.last : window.last;
+        evictNode(victim, removed);
+        continue;
+      }
+
+      if (candidates == 0 || victim == candidate) {
+        if (victim == candidate) {
+          candidate = --candidates > 0 ? candidate.prev : null;
+        }
+        evictNode(victim, removed);
+      } else if (admit(candidate, victim)) {
+        evictNode(victim, removed);
+      } else {
+        Node<K, V> next = --candidates > 0 ? candidate.prev : null;
+        evictNode(candidate, removed);
+        candidate = next;
+      }
+    }
+  }
+
+  private boolean admit(Node<K, V> candidate, Node<K, V> victim) {
+    if (candidate.weight > maximumWeight) {
+      return false;
+    }
+    return sketch.frequency(candidate.key) > sketch.frequency(victim.key);
+  }
+
+  private void evictNode(Node<K, V> n, List<RemovalNotification<K, V>> removed) {
+    data.remove(n.key, n);
+    unlink(n);
+    evictionCount.increment();
+    evictionWeight.add(n.weight);
+    removed.add(RemovalNotification.create(n.key, n.value, RemovalCause.SIZE));
+  }
+
+  private void notifyListener(List<RemovalNotification<K, V>> removed) {
+    for (RemovalNotification<K, V> r : removed) {
+      notifyListener(r);
+    }
+  }
+
+  private void notifyListener(RemovalNotification<K, V> r) {
+    try {
+      removalListener.onRemoval(r);
+    } catch (RuntimeException e) {
+      log.warn("Exception thrown by removal listener", e);
+    }
+  }
+
+  /**
+   * Cache computing missing values with a {@link CacheLoader}.
+   *
+   * <p>If {@code refreshAfterWrite} is set, a hit on an entry older than that reloads it through
+   * {@link CacheLoader#reload(Object, Object)} while the current value keeps being returned. The
+   * loader should reload asynchronously, e.g. through {@link CacheLoader#asyncReloading}, or the
+   * request that hits the entry waits for the reload.
+   */
+  static class Loading<K, V> extends TinyLfuCache<K, V> implements LoadingCache<K, V> {
+    private final CacheLoader<? super K, V> loader;
+    private final long refreshAfterWriteNanos;
+    private final Set<K> refreshing = ConcurrentHashMap.newKeySet();
+
+    Loading(
+        long maximumWeight,
+        Weigher<? super K, ? super V> weigher,
+        long expireAfterWrite,
+        long refreshAfterWrite,
+        TimeUnit unit,
+        RemovalListener<K, V> removalListener,
+        CacheLoader<? super K, V> loader) {
+      this(
+          maximumWeight,
+          weigher,
+          expireAfterWrite,
+          refreshAfterWrite,
+          unit,
+          removalListener,
+          loader,
+          Ticker.systemTicker());
+    }
+
+    Loading(
+        long maximumWeight,
+        Weigher<? super K, ? super V> weigher,
+        long expireAfterWrite,
+        long refreshAfterWrite,
+        TimeUnit unit,
+        RemovalListener<K, V> removalListener,
+        CacheLoader<? super K, V> loader,
+        Ticker ticker) {
+      super(maximumWeight, weigher, expireAfterWrite, unit, removalListener, ticker);
+      this.loader = checkNotNull(loader);
+      this.refreshAfterWriteNanos = refreshAfterWrite < 0 ? -1 : unit.toNanos(refreshAfterWrite);
+    }
+
+    @Override
+    public V get(K key) throws ExecutionException {
+      return get(key, () -> loader.load(key));
+    }
+
+    @Override
+    public V getUnchecked(K key) {
+      try {
+        return get(key);
+      } catch (ExecutionException e) {
+        throw new UncheckedExecutionException(e.getCause());
+      }
+    }
+
+    @Override
+    public ImmutableMap<K, V> getAll(Iterable<? extends K> keys) throws ExecutionException {
+      Map<K, V> result = new LinkedHashMap<>();
+      for (K key : keys) {
+        result.put(key, get(key));
+      }
+      return ImmutableMap.copyOf(result);
+    }
+
+    @Override
+    @Deprecated
+    public V apply(K key) {
+      return getUnchecked(key);
+    }
+
+    @Override
+    public void refresh(K key) {
+      Node<K, V> n = getNode(key);
+      if (n == null) {
+        try {
+          get(key);
+        } catch (ExecutionException | RuntimeException e) {
+          log.warn("Cannot refresh " + key, e);
+        }
+        return;
+      }
+      refreshEntry(n);
+    }
+
+    @Override
+    void afterHit(Node<K, V> n) {
+      if (refreshAfterWriteNanos >= 0 && age(n) >= refreshAfterWriteNanos) {
+        refreshEntry(n);
+      }
+    }
+
+    private void refreshEntry(Node<K, V> n) {
+      // Only one reload per key at a time; hits during the reload return the
+      // current value.
+      if (refreshing.add(n.key)) {
+        reload(n.key, n, loader)
+            .addListener(() -> refreshing.remove(n.key), MoreExecutors.directExecutor());
+      }
+    }
+  }
+
+  private class MapView extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+    @Override
+    public int size() {
+      return data.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      Node<K, V> n = data.get(key);
+      return n != null && !isExpired(n, ticker.read());
+    }
+
+    @Override
+    public V get(Object key) {
+      return getIfPresent(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+      Node<K, V> n = data.get(key);
+      TinyLfuCache.this.put(key, value);
+      return n != null ? n.value : null;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+      Node<K, V> n = getNode(key);
+      if (n != null) {
+        return n.value;
+      }
+      TinyLfuCache.this.put(key, value);
+      return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+      Node<K, V> n = data.remove(key);
+      if (n == null) {
+        return null;
+      }
+      remove(n, RemovalCause.EXPLICIT);
+      return n.value;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+      Node<K, V> n = data.get(key);
+      if (n != null && n.value.equals(value) && data.remove(key, n)) {
+        TinyLfuCache.this.remove(n, RemovalCause.EXPLICIT);
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+      Node<K, V> n = data.get(key);
+      if (n != null && n.value.equals(oldValue)) {
+        TinyLfuCache.this.put(key, newValue);
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+      Node<K, V> n = data.get(key);
+      if (n != null) {
+        TinyLfuCache.this.put(key, value);
+        return n.value;
+      }
+      return null;
+    }
+
+    @Override
+    public void clear() {
+      invalidateAll();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+      return new AbstractSet<Map.Entry<K, V>>() {
+        @Override
+        public int size() {
+          return data.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+          Iterator<Node<K, V>> it = data.values().iterator();
+          return new Iterator<Map.Entry<K, V>>() {
+            private Node<K, V> current;
+
+            @Override
+            public boolean hasNext() {
+              return it.hasNext();
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+              current = it.next();
+              return new SimpleImmutableEntry<>(current.key, current.value);
+            }
+
+            @Override
+            public void remove() {
+              if (current == null) {
+                throw new IllegalStateException();
+              }
+              if (data.remove(current.key, current)) {
+                TinyLfuCache.this.remove(current, RemovalCause.EXPLICIT);
+              }
+              current = null;
+            }
+          };
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,192 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue of pending writes to a {@link DiskStore}.
+ *
+ * <p>Request threads only enqueue; the disk cache store executor drains the queue and hands the
+ * accumulated puts and access time updates to the store in batches, so a burst of new entries
+ * costs one transaction instead of one per entry.
+ *
+ * <p>When the queue is full puts and touches are dropped rather than blocking the caller. A dropped
+ * put stays dirty in memory and is written when the cache stops. Invalidations are never dropped,
+ * otherwise a stale entry could be served from disk after a restart.
+ */
+class WriteBehindQueue<K, V> {
+  private static final Logger log = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+  static final int DEFAULT_CAPACITY = 4096;
+  static final int MAX_BATCH = 256;
+
+  private enum Type {
+    PUT,
+    TOUCH,
+    INVALIDATE
+  }
+
+  private static class Op<K, V> {
+    final Type type;
+    final K key;
+    final ValueHolder<V> holder;
+
+    Op(Type type, K key, ValueHolder<V> holder) {
+      this.type = type;
+      this.key = key;
+      this.holder = holder;
+    }
+  }
+
+  private final Executor executor;
+  private final DiskStore<K, V> store;
+  private final BlockingQueue<Op<K, V>> queue;
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private final AtomicLong dropped = new AtomicLong();
+
+  WriteBehindQueue(Executor executor, DiskStore<K, V> store, int capacity) {
+    this.executor = executor;
+    this.store = store;
+    this.queue = new ArrayBlockingQueue<>(Math.max(capacity, 1));
+  }
+
+  void put(K key, ValueHolder<V> holder) {
+    offer(new Op<>(Type.PUT, key, holder));
+  }
+
+  void touch(K key) {
+    if (store.recordsAccess()) {
+      offer(new Op<>(Type.TOUCH, key, null));
+    }
+  }
+
+  void invalidate(K key) {
+    Op<K, V> op = new Op<>(Type.INVALIDATE, key, null);
+    while (!queue.offer(op)) {
+      // Make room by writing out what is already queued on this thread.
+      flush();
+    }
+    schedule();
+  }
+
+  /** Discard all pending operations; used before the store itself is emptied. */
+  void clear() {
+    queue.clear();
+  }
+
+  /** Apply all pending operations on the calling thread. */
+  void flush() {
+    List<Op<K, V>> batch = new ArrayList<>(MAX_BATCH);
+    synchronized (this) {
+      while (queue.drainTo(batch, MAX_BATCH) > 0) {
+        apply(batch);
+        batch.clear();
+      }
+    }
+  }
+
+  int size() {
+    return queue.size();
+  }
+
+  long droppedCount() {
+    return dropped.get();
+  }
+
+  private void offer(Op<K, V> op) {
+    if (queue.offer(op)) {
+      schedule();
+    } else {
+      dropped.incrementAndGet();
+    }
+  }
+
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      try {
+        executor.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        // The executor is shutting down; the owning cache flushes on stop.
+        scheduled.set(false);
+      }
+    }
+  }
+
+  private void drain() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      log.warn("Cannot write to disk cache", e);
+    } finally {
+      scheduled.set(false);
+    }
+    if (!queue.isEmpty()) {
+      schedule();
+    }
+  }
+
+  private void apply(List<Op<K, V>> batch) {
+    // Coalesce by key so only the last operation on each key reaches the
+    // store. Invalidations are applied before puts, which is correct as any
+    // put still present in the map was queued after the invalidation.
+    Set<K> invalidates = new LinkedHashSet<>();
+    Map<K, ValueHolder<V>> puts = new LinkedHashMap<>();
+    Set<K> touches = new LinkedHashSet<>();
+    for (Op<K, V> op : batch) {
+      switch (op.type) {
+        case PUT:
+          invalidates.remove(op.key);
+          touches.remove(op.key);
+          puts.put(op.key, op.holder);
+          break;
+        case TOUCH:
+          if (!puts.containsKey(op.key)) {
+            touches.add(op.key);
+          }
+          break;
+        case INVALIDATE:
+          puts.remove(op.key);
+          touches.remove(op.key);
+          invalidates.add(op.key);
+          break;
+      }
+    }
+
+    for (K key : invalidates) {
+      store.invalidate(key);
+    }
+    if (!puts.isEmpty()) {
+      store.putAll(puts);
+    }
+    if (!touches.isEmpty()) {
+      store.touchAll(touches);
+    }
+  }
+}
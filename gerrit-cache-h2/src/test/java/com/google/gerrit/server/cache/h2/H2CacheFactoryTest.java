@@ -0,0 +1,99 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class H2CacheFactoryTest {
+  private Path dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("h2_cache_factory_test");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(dir)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Test
+  public void deleteStaleFiles() throws IOException {
+    // Java serialized entries from before the cache had a serializer.
+    file("diff.h2.db");
+    file("diff.trace.db");
+    logStore("diff.log");
+    // Previous format version.
+    file("diff-1.h2.db");
+    file("diff-1.mv.db");
+    logStore("diff-1.log");
+    // Current format version.
+    file("diff-2.h2.db");
+    logStore("diff-2.log");
+    // Other caches.
+    file("diff_summary-1.h2.db");
+    logStore("diff_summary-1.log");
+    file("web_sessions.h2.db");
+
+    H2CacheFactory.deleteStaleFiles(dir, "diff", "diff-2");
+
+    assertEquals(
+        Arrays.asList(
+            "diff-2.h2.db",
+            "diff-2.log",
+            "diff-2.log/1.seg",
+            "diff-2.log/2.seg",
+            "diff_summary-1.h2.db",
+            "diff_summary-1.log",
+            "diff_summary-1.log/1.seg",
+            "diff_summary-1.log/2.seg",
+            "web_sessions.h2.db"),
+        list());
+  }
+
+  private void file(String name) throws IOException {
+    Files.write(dir.resolve(name), new byte[] {1});
+  }
+
+  private void logStore(String name) throws IOException {
+    Path log = Files.createDirectory(dir.resolve(name));
+    Files.write(log.resolve("1.seg"), new byte[] {1});
+    Files.write(log.resolve("2.seg"), new byte[] {1});
+  }
+
+  private List<String> list() throws IOException {
+    try (Stream<Path> paths = Files.walk(dir)) {
+      return paths
+          .filter(p -> !p.equals(dir))
+          .map(p -> dir.relativize(p).toString().replace('\\', '/'))
+          .sorted()
+          .collect(toList());
+    }
+  }
+}
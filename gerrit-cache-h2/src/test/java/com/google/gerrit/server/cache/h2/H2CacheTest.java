@@ -41,8 +41,10 @@ public class H2CacheTest {
 
     TypeLiteral<String> keyType = new TypeLiteral<String>() {};
     SqlStore<String, Boolean> store =
-        new SqlStore<>("jdbc:h2:mem:Test_" + (++dbCnt), keyType, 1 << 20, 0);
-    impl = new H2CacheImpl<>(MoreExecutors.directExecutor(), store, keyType, mem);
+        new SqlStore<>("jdbc:h2:mem:Test_" + (++dbCnt), keyType, null, 1 << 20, 0);
+    WriteBehindQueue<String, Boolean> writer =
+        new WriteBehindQueue<>(MoreExecutors.directExecutor(), store, 16);
+    impl = new H2CacheImpl<>(writer, store, keyType, mem);
   }
 
   @Test
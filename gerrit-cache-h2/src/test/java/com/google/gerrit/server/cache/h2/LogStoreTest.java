@@ -0,0 +1,141 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import com.google.inject.TypeLiteral;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogStoreTest {
+  private static final TypeLiteral<String> KEY_TYPE = new TypeLiteral<String>() {};
+
+  private Path dir;
+  private LogStore<String, String> store;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("log_store_test");
+    store = newStore(1 << 20);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    store.close();
+    try (Stream<Path> paths = Files.walk(dir)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Test
+  public void putAndGet() {
+    assertNull(store.getIfPresent("foo"));
+
+    store.put("foo", holder("bar"));
+    assertTrue(store.mightContain("foo"));
+    assertEquals("bar", store.getIfPresent("foo").value);
+    assertNull(store.getIfPresent("baz"));
+
+    store.put("foo", holder("baz"));
+    assertEquals("baz", store.getIfPresent("foo").value);
+    assertEquals(1, store.diskStats().size());
+    assertEquals(2, store.diskStats().hitCount());
+  }
+
+  @Test
+  public void invalidate() {
+    store.put("foo", holder("bar"));
+    store.put("bar", holder("baz"));
+    store.invalidate("foo");
+    assertNull(store.getIfPresent("foo"));
+    assertEquals("baz", store.getIfPresent("bar").value);
+
+    store.invalidateAll();
+    assertNull(store.getIfPresent("bar"));
+    assertEquals(0, store.diskStats().size());
+  }
+
+  @Test
+  public void reopen() {
+    store.put("foo", holder("bar"));
+    store.put("bar", holder("baz"));
+    store.invalidate("bar");
+    store.close();
+
+    store = newStore(1 << 20);
+    assertEquals("bar", store.getIfPresent("foo").value);
+    assertNull(store.getIfPresent("bar"));
+    assertEquals(1, store.diskStats().size());
+  }
+
+  @Test
+  public void compactKeepsLiveEntries() {
+    String big = new String(new char[64 << 10]);
+    for (int i = 0; i < 64; i++) {
+      store.put("key" + (i % 4), holder(big + i));
+    }
+    assertTrue(store.needsCompaction());
+
+    store.compact();
+    assertFalse(store.needsCompaction());
+    for (int i = 60; i < 64; i++) {
+      assertEquals(big + i, store.getIfPresent("key" + (i % 4)).value);
+    }
+
+    store.close();
+    store = newStore(1 << 20);
+    assertEquals(4, store.diskStats().size());
+    assertEquals(big + 63, store.getIfPresent("key3").value);
+  }
+
+  @Test
+  public void compactEnforcesDiskLimit() {
+    String big = new String(new char[64 << 10]);
+    for (int i = 0; i < 64; i++) {
+      store.put("key" + i, holder(big));
+    }
+    assertTrue(store.diskStats().space() > 1 << 20);
+
+    store.compact();
+    assertTrue(store.diskStats().space() <= 1 << 20);
+    assertNull(store.getIfPresent("key0"));
+    assertEquals(big, store.getIfPresent("key63").value);
+  }
+
+  private LogStore<String, String> newStore(long maxSize) {
+    LogStore<String, String> s =
+        new LogStore<>(
+            dir.resolve("test.log"), new JavaCacheSerializer<>(KEY_TYPE, null), maxSize, 0);
+    s.open();
+    return s;
+  }
+
+  private static ValueHolder<String> holder(String value) {
+    ValueHolder<String> h = new ValueHolder<>(value);
+    h.created = System.currentTimeMillis();
+    return h;
+  }
+}
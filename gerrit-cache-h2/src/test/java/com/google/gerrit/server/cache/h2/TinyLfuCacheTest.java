@@ -0,0 +1,343 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static com.google.gerrit.server.cache.h2.TinyLfuCache.NEVER_EXPIRE;
+import static com.google.gerrit.server.cache.h2.TinyLfuCache.NEVER_REFRESH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TinyLfuCacheTest {
+  private List<RemovalNotification<String, String>> removed;
+  private AtomicLong now;
+  private Ticker ticker;
+
+  @Before
+  public void setUp() {
+    removed = new ArrayList<>();
+    now = new AtomicLong();
+    ticker =
+        new Ticker() {
+          @Override
+          public long read() {
+            return now.get();
+          }
+        };
+  }
+
+  @Test
+  public void putAndGet() {
+    TinyLfuCache<String, String> cache = newCache(10, NEVER_EXPIRE);
+    assertNull(cache.getIfPresent("foo"));
+    cache.put("foo", "bar");
+    assertEquals("bar", cache.getIfPresent("foo"));
+    cache.put("foo", "baz");
+    assertEquals("baz", cache.getIfPresent("foo"));
+    assertEquals(1, cache.size());
+    assertEquals(RemovalCause.REPLACED, removed.get(0).getCause());
+
+    cache.invalidate("foo");
+    assertNull(cache.getIfPresent("foo"));
+    assertEquals(0, cache.weightedSize());
+    assertEquals(2, cache.stats().hitCount());
+    assertEquals(2, cache.stats().missCount());
+  }
+
+  @Test
+  public void evictsToMaximumWeight() {
+    TinyLfuCache<String, String> cache = newCache(100, NEVER_EXPIRE);
+    for (int i = 0; i < 1000; i++) {
+      cache.put("key" + i, "value");
+    }
+    assertEquals(100, cache.size());
+    assertEquals(100, cache.weightedSize());
+    assertEquals(900, cache.stats().evictionCount());
+    assertEquals(900, cache.evictionWeight());
+  }
+
+  @Test
+  public void frequentEntriesSurviveScan() {
+    TinyLfuCache<String, String> cache = newCache(100, NEVER_EXPIRE);
+    for (int i = 0; i < 50; i++) {
+      cache.put("hot" + i, "value");
+    }
+    for (int n = 0; n < 5; n++) {
+      for (int i = 0; i < 50; i++) {
+        cache.getIfPresent("hot" + i);
+      }
+      cache.cleanUp();
+    }
+
+    // A scan of one-off keys would flush the hot entries out of an LRU cache.
+    for (int i = 0; i < 10000; i++) {
+      cache.put("scan" + i, "value");
+    }
+    int hits = 0;
+    for (int i = 0; i < 50; i++) {
+      if (cache.getIfPresent("hot" + i) != null) {
+        hits++;
+      }
+    }
+    assertTrue("only " + hits + " hot entries retained", hits >= 45);
+  }
+
+  @Test
+  public void concurrentReads() throws Exception {
+    TinyLfuCache<String, String> cache = newCache(1000, NEVER_EXPIRE);
+    for (int i = 0; i < 100; i++) {
+      cache.put("hot" + i, "value" + i);
+    }
+    for (int i = 0; i < 500; i++) {
+      cache.put("cold" + i, "value");
+    }
+
+    int threads = 8;
+    int reads = 20000;
+    CountDownLatch start = new CountDownLatch(1);
+    AtomicInteger wrong = new AtomicInteger();
+    List<Thread> readers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      int offset = t;
+      Thread r =
+          new Thread(
+              () -> {
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  return;
+                }
+                for (int i = 0; i < reads; i++) {
+                  int k = (i + offset) % 100;
+                  if (!("value" + k).equals(cache.getIfPresent("hot" + k))) {
+                    wrong.incrementAndGet();
+                  }
+                }
+              });
+      r.start();
+      readers.add(r);
+    }
+    start.countDown();
+    // Writes drain the read buffer while the readers keep filling it.
+    for (int i = 0; i < 200; i++) {
+      cache.put("warm" + i, "value");
+    }
+    for (Thread r : readers) {
+      r.join();
+    }
+    cache.cleanUp();
+
+    assertEquals(0, wrong.get());
+    assertEquals(threads * reads, cache.stats().hitCount());
+    assertEquals(cache.size(), cache.weightedSize());
+
+    // The hot entries were read often enough to be admitted and protected
+    // even though some of the recorded reads were dropped.
+    for (int i = 0; i < 10000; i++) {
+      cache.put("scan" + i, "value");
+    }
+    int hits = 0;
+    for (int i = 0; i < 100; i++) {
+      if (cache.getIfPresent("hot" + i) != null) {
+        hits++;
+      }
+    }
+    assertTrue("only " + hits + " hot entries retained", hits >= 90);
+  }
+
+  @Test
+  public void expireAfterWrite() {
+    TinyLfuCache<String, String> cache = newCache(10, 60);
+    cache.put("foo", "bar");
+    now.addAndGet(TimeUnit.SECONDS.toNanos(59));
+    assertEquals("bar", cache.getIfPresent("foo"));
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertNull(cache.getIfPresent("foo"));
+    assertEquals(0, cache.size());
+    assertEquals(RemovalCause.EXPIRED, removed.get(0).getCause());
+  }
+
+  @Test
+  public void expireAfterWriteZeroExpiresImmediately() {
+    TinyLfuCache<String, String> cache = newCache(10, 0);
+    cache.put("foo", "bar");
+    assertNull(cache.getIfPresent("foo"));
+    assertEquals(RemovalCause.EXPIRED, removed.get(0).getCause());
+  }
+
+  @Test
+  public void concurrentLoadsAreCoalesced() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    TinyLfuCache.Loading<String, String> cache =
+        newLoadingCache(
+            10,
+            NEVER_EXPIRE,
+            NEVER_REFRESH,
+            new CacheLoader<String, String>() {
+              @Override
+              public String load(String key) throws Exception {
+                loads.incrementAndGet();
+                started.countDown();
+                release.await();
+                return key.toUpperCase();
+              }
+            });
+
+    List<Thread> threads = new ArrayList<>();
+    List<String> results = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Thread t =
+          new Thread(
+              () -> {
+                String v = cache.getUnchecked("foo");
+                synchronized (results) {
+                  results.add(v);
+                }
+              });
+      t.start();
+      threads.add(t);
+    }
+    started.await();
+    release.countDown();
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    assertEquals(1, loads.get());
+    assertEquals("[FOO, FOO, FOO, FOO]", results.toString());
+    assertEquals("FOO", cache.getIfPresent("foo"));
+  }
+
+  @Test
+  public void loaderExceptionIsWrapped() {
+    TinyLfuCache.Loading<String, String> cache =
+        newLoadingCache(
+            10,
+            NEVER_EXPIRE,
+            NEVER_REFRESH,
+            new CacheLoader<String, String>() {
+              @Override
+              public String load(String key) throws Exception {
+                throw new Exception("cannot load " + key);
+              }
+            });
+    try {
+      cache.get("foo");
+      fail("expected ExecutionException");
+    } catch (ExecutionException e) {
+      assertEquals("cannot load foo", e.getCause().getMessage());
+    }
+    assertEquals(1, cache.stats().loadExceptionCount());
+    assertNull(cache.getIfPresent("foo"));
+  }
+
+  @Test
+  public void refreshAfterWrite() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    TinyLfuCache.Loading<String, String> cache =
+        newLoadingCache(
+            10,
+            NEVER_EXPIRE,
+            60,
+            new CacheLoader<String, String>() {
+              @Override
+              public String load(String key) throws Exception {
+                return key + loads.incrementAndGet();
+              }
+            });
+    assertEquals("foo1", cache.get("foo"));
+    now.addAndGet(TimeUnit.SECONDS.toNanos(59));
+    assertEquals("foo1", cache.get("foo"));
+    assertEquals(1, loads.get());
+
+    // The hit that finds the entry too old still returns the current value;
+    // the reloaded value replaces it afterwards.
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertEquals("foo1", cache.get("foo"));
+    assertEquals(2, loads.get());
+    assertEquals("foo2", cache.getIfPresent("foo"));
+    assertEquals(2, cache.stats().loadSuccessCount());
+    assertEquals(RemovalCause.REPLACED, removed.get(0).getCause());
+  }
+
+  @Test
+  public void refreshDoesNotOverwriteNewerValue() throws Exception {
+    SettableFuture<String> reloaded = SettableFuture.create();
+    TinyLfuCache.Loading<String, String> cache =
+        newLoadingCache(
+            10,
+            NEVER_EXPIRE,
+            60,
+            new CacheLoader<String, String>() {
+              @Override
+              public String load(String key) {
+                return "old";
+              }
+
+              @Override
+              public ListenableFuture<String> reload(String key, String oldValue) {
+                return reloaded;
+              }
+            });
+    assertEquals("old", cache.get("foo"));
+    now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+    assertEquals("old", cache.get("foo"));
+
+    cache.put("foo", "new");
+    reloaded.set("reloaded");
+    assertEquals("new", cache.getIfPresent("foo"));
+  }
+
+  private TinyLfuCache<String, String> newCache(long maximumWeight, long expireAfterWrite) {
+    return new TinyLfuCache<>(
+        maximumWeight, (k, v) -> 1, expireAfterWrite, TimeUnit.SECONDS, removed::add, ticker);
+  }
+
+  private TinyLfuCache.Loading<String, String> newLoadingCache(
+      long maximumWeight,
+      long expireAfterWrite,
+      long refreshAfterWrite,
+      CacheLoader<String, String> loader) {
+    return new TinyLfuCache.Loading<>(
+        maximumWeight,
+        (k, v) -> 1,
+        expireAfterWrite,
+        refreshAfterWrite,
+        TimeUnit.SECONDS,
+        removed::add,
+        loader,
+        ticker);
+  }
+}
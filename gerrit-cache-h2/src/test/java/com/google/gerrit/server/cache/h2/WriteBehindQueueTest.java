@@ -0,0 +1,166 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.cache.Cache;
+import com.google.gerrit.server.cache.PersistentCache.DiskStats;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteBehindQueueTest {
+  private List<Runnable> tasks;
+  private RecordingStore store;
+  private WriteBehindQueue<String, String> writer;
+
+  @Before
+  public void setUp() {
+    tasks = new ArrayList<>();
+    store = new RecordingStore();
+    writer = new WriteBehindQueue<>(tasks::add, store, 4);
+  }
+
+  @Test
+  public void putsAreBatched() {
+    writer.put("foo", holder("1"));
+    writer.put("bar", holder("2"));
+    writer.touch("baz");
+    assertEquals(1, tasks.size());
+    assertEquals(3, writer.size());
+    assertTrue(store.ops.isEmpty());
+
+    runTasks();
+    assertEquals(0, writer.size());
+    assertEquals("[putAll [foo, bar], touchAll [baz]]", store.ops.toString());
+  }
+
+  @Test
+  public void lastOperationOnKeyWins() {
+    writer.put("foo", holder("1"));
+    writer.invalidate("foo");
+    writer.put("bar", holder("2"));
+    writer.touch("bar");
+    runTasks();
+    assertEquals("[invalidate foo, putAll [bar]]", store.ops.toString());
+
+    store.ops.clear();
+    writer.invalidate("foo");
+    writer.put("foo", holder("3"));
+    runTasks();
+    assertEquals("[putAll [foo]]", store.ops.toString());
+  }
+
+  @Test
+  public void fullQueueDropsPuts() {
+    for (int i = 0; i < 6; i++) {
+      writer.put("key" + i, holder("v"));
+    }
+    assertEquals(4, writer.size());
+    assertEquals(2, writer.droppedCount());
+
+    runTasks();
+    assertEquals("[putAll [key0, key1, key2, key3]]", store.ops.toString());
+  }
+
+  @Test
+  public void fullQueueNeverDropsInvalidate() {
+    for (int i = 0; i < 4; i++) {
+      writer.put("key" + i, holder("v"));
+    }
+    writer.invalidate("key0");
+    assertEquals(0, writer.droppedCount());
+    assertEquals(1, writer.size());
+
+    runTasks();
+    assertEquals("[putAll [key0, key1, key2, key3], invalidate key0]", store.ops.toString());
+  }
+
+  private void runTasks() {
+    while (!tasks.isEmpty()) {
+      tasks.remove(0).run();
+    }
+  }
+
+  private static ValueHolder<String> holder(String value) {
+    ValueHolder<String> h = new ValueHolder<>(value);
+    h.created = System.currentTimeMillis();
+    return h;
+  }
+
+  private static class RecordingStore implements DiskStore<String, String> {
+    final List<String> ops = new ArrayList<>();
+
+    @Override
+    public void open() {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public boolean mightContain(String key) {
+      return true;
+    }
+
+    @Override
+    public ValueHolder<String> getIfPresent(String key) {
+      return null;
+    }
+
+    @Override
+    public void put(String key, ValueHolder<String> holder) {
+      ops.add("put " + key);
+    }
+
+    @Override
+    public void putAll(Map<String, ValueHolder<String>> entries) {
+      ops.add("putAll " + entries.keySet());
+    }
+
+    @Override
+    public boolean recordsAccess() {
+      return true;
+    }
+
+    @Override
+    public void touchAll(Collection<String> keys) {
+      ops.add("touchAll " + keys);
+    }
+
+    @Override
+    public void invalidate(String key) {
+      ops.add("invalidate " + key);
+    }
+
+    @Override
+    public void invalidateAll() {
+      ops.add("invalidateAll");
+    }
+
+    @Override
+    public void prune(Cache<String, ?> mem) {}
+
+    @Override
+    public DiskStats diskStats() {
+      return new DiskStats(0, 0, 0, 0);
+    }
+  }
+}
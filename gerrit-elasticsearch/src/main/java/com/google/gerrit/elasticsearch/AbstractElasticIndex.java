@@ -21,10 +21,12 @@ import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Streams;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.index.FieldDef.FillArgs;
 import com.google.gerrit.server.index.Index;
 import com.google.gerrit.server.index.IndexUtils;
@@ -34,16 +36,22 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.gwtorm.protobuf.ProtobufCodec;
+import io.searchbox.action.BulkableAction;
 import io.searchbox.client.JestResult;
 import io.searchbox.client.http.JestHttpClient;
 import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
 import io.searchbox.core.Delete;
 import io.searchbox.indices.CreateIndex;
 import io.searchbox.indices.DeleteIndex;
 import io.searchbox.indices.IndicesExists;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.lib.Config;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 
@@ -68,12 +76,18 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
   protected final Gson gson;
   protected final ElasticQueryBuilder queryBuilder;
 
+  private final String refreshInterval;
+  private final WorkQueue.Executor bulkExecutor;
+  private final BulkWriter bulkWriter;
+
   AbstractElasticIndex(
       @GerritServerConfig Config cfg,
       FillArgs fillArgs,
       SitePaths sitePaths,
       Schema<V> schema,
+      ElasticConfiguration elasticCfg,
       JestClientBuilder clientBuilder,
+      WorkQueue workQueue,
       String indexName) {
     this.fillArgs = fillArgs;
     this.sitePaths = sitePaths;
@@ -87,6 +101,48 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
             indexName,
             schema.getVersion());
     this.client = clientBuilder.build();
+    this.refreshInterval = elasticCfg.refreshInterval;
+
+    // Unless configured otherwise, refresh once per bulk request so writes are
+    // visible to searches when they return. Otherwise visibility is left to
+    // the refresh interval of the index.
+    boolean refresh = elasticCfg.refresh;
+    this.bulkExecutor =
+        workQueue.createQueue(
+            Math.max(elasticCfg.bulkConcurrentRequests, 1),
+            "Elasticsearch-" + this.indexName + "-bulk");
+    this.bulkWriter =
+        new BulkWriter(
+            actions -> {
+              BulkResult result =
+                  client.execute(new Bulk.Builder().addAction(actions).refresh(refresh).build());
+              if (result.isSucceeded()) {
+                return ImmutableMap.of();
+              }
+              // Items are returned in the order of the actions. Report failed
+              // items to the callers that sent them, unless the request failed
+              // as a whole.
+              List<BulkResult.BulkResultItem> items = result.getItems();
+              Map<Integer, String> errors = new HashMap<>();
+              if (items.size() == actions.size()) {
+                for (int i = 0; i < items.size(); i++) {
+                  if (items.get(i).error != null) {
+                    errors.put(i, items.get(i).error);
+                  }
+                }
+              }
+              if (errors.isEmpty()) {
+                throw new IOException(
+                    String.format(
+                        "Failed to write %d actions to index %s: %s",
+                        actions.size(), this.indexName, result.getErrorMessage()));
+              }
+              return errors;
+            },
+            elasticCfg.bulkActions,
+            elasticCfg.bulkFlushInterval,
+            TimeUnit.MILLISECONDS,
+            bulkExecutor);
   }
 
   @Override
@@ -96,6 +152,8 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
 
   @Override
   public void close() {
+    bulkWriter.close();
+    bulkExecutor.unregisterWorkQueue();
     client.shutdownClient();
   }
 
@@ -106,14 +164,7 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
 
   @Override
   public void delete(K c) throws IOException {
-    Bulk bulk = addActions(new Bulk.Builder(), c).refresh(true).build();
-    JestResult result = client.execute(bulk);
-    if (!result.isSucceeded()) {
-      throw new IOException(
-          String.format(
-              "Failed to delete change %s in index %s: %s",
-              c, indexName, result.getErrorMessage()));
-    }
+    write(deleteActions(c));
   }
 
   @Override
@@ -129,7 +180,16 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
     }
 
     // Recreate the index.
-    result = client.execute(new CreateIndex.Builder(indexName).settings(getMappings()).build());
+    JsonObject settings = new JsonParser().parse(getMappings()).getAsJsonObject();
+    if (refreshInterval != null) {
+      JsonObject index = new JsonObject();
+      index.addProperty("refresh_interval", refreshInterval);
+      JsonObject s = new JsonObject();
+      s.add("index", index);
+      settings.add("settings", s);
+    }
+    result =
+        client.execute(new CreateIndex.Builder(indexName).settings(settings.toString()).build());
     if (!result.isSucceeded()) {
       String error =
           String.format("Failed to create index %s: %s", indexName, result.getErrorMessage());
@@ -137,7 +197,18 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
     }
   }
 
-  protected abstract Bulk.Builder addActions(Bulk.Builder builder, K c);
+  /**
+   * Send actions to the index in a bulk request shared with other writers.
+   *
+   * @param actions actions that must be applied together, e.g. inserting a document and deleting
+   *     it from another type.
+   * @throws IOException if the bulk request failed.
+   */
+  protected void write(List<BulkableAction<?>> actions) throws IOException {
+    bulkWriter.write(actions);
+  }
+
+  protected abstract List<BulkableAction<?>> deleteActions(K c);
 
   protected abstract String getMappings();
 
@@ -0,0 +1,226 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.elasticsearch;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.SettableFuture;
+import io.searchbox.action.BulkableAction;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Combines index writes from concurrent callers into bulk requests.
+ *
+ * <p>Writes are queued and sent by a fixed number of sender threads, which bounds the number of
+ * bulk requests in flight. Each sender takes all writes that are waiting, up to a maximum number of
+ * actions, and optionally lingers for the flush interval to collect more. Under load writes pile up
+ * while the senders are busy, so requests grow with the load without adding latency to an idle
+ * server.
+ *
+ * <p>{@link #write(List)} blocks until the request containing the write has completed, so callers
+ * keep the synchronous semantics of {@link com.google.gerrit.server.index.Index#replace(Object)}.
+ * A caller only fails if the request as a whole or one of its own actions failed.
+ */
+class BulkWriter {
+  @FunctionalInterface
+  interface Sender {
+    /**
+     * Send actions in one bulk request.
+     *
+     * @param actions actions to send.
+     * @return errors of the actions that failed, by their position in {@code actions}.
+     * @throws IOException if the request as a whole failed.
+     */
+    Map<Integer, String> send(List<BulkableAction<?>> actions) throws IOException;
+  }
+
+  private static class Pending {
+    final List<BulkableAction<?>> actions;
+    final SettableFuture<Void> done = SettableFuture.create();
+
+    Pending(List<BulkableAction<?>> actions) {
+      this.actions = actions;
+    }
+  }
+
+  private final Sender sender;
+  private final int maxActions;
+  private final long flushIntervalNanos;
+  private final BlockingDeque<Pending> queue = new LinkedBlockingDeque<>();
+  private final ThreadPoolExecutor executor;
+  private volatile boolean closed;
+
+  /**
+   * @param sender sends bulk requests.
+   * @param maxActions maximum number of actions combined into one request.
+   * @param flushInterval time a sender waits for more writes before sending a request.
+   * @param unit unit of {@code flushInterval}.
+   * @param executor runs one sender on each of its core threads; shut down by {@link #close()}.
+   */
+  BulkWriter(
+      Sender sender,
+      int maxActions,
+      long flushInterval,
+      TimeUnit unit,
+      ThreadPoolExecutor executor) {
+    this.sender = sender;
+    this.maxActions = Math.max(maxActions, 1);
+    this.flushIntervalNanos = Math.max(unit.toNanos(flushInterval), 0);
+    this.executor = executor;
+    for (int i = 0; i < Math.max(executor.getCorePoolSize(), 1); i++) {
+      executor.execute(this::run);
+    }
+  }
+
+  /**
+   * Send actions to the index as part of a bulk request.
+   *
+   * @param actions actions that must be sent in the same request.
+   * @throws IOException if the request or one of the actions failed.
+   */
+  void write(List<BulkableAction<?>> actions) throws IOException {
+    if (closed) {
+      throw closedException();
+    }
+    Pending p = new Pending(actions);
+    enqueue(p, false);
+    try {
+      p.done.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted waiting for bulk request");
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  int queued() {
+    return queue.size();
+  }
+
+  void close() {
+    closed = true;
+    executor.shutdownNow();
+    Pending p;
+    while ((p = queue.poll()) != null) {
+      p.done.setException(closedException());
+    }
+  }
+
+  private void enqueue(Pending p, boolean first) {
+    if (first) {
+      queue.addFirst(p);
+    } else {
+      queue.addLast(p);
+    }
+    // close() may have drained the queue before the write was added. If the
+    // write is still queued nobody else will complete it.
+    if (closed && queue.remove(p)) {
+      p.done.setException(closedException());
+    }
+  }
+
+  private static IOException closedException() {
+    return new IOException("Elasticsearch bulk writer is closed");
+  }
+
+  private void run() {
+    List<Pending> batch = new ArrayList<>();
+    try {
+      // A sender interrupted while sending may have lost its interrupt, so
+      // also check the flag set by close().
+      while (!closed && !Thread.currentThread().isInterrupted()) {
+        batch.add(queue.take());
+        fill(batch);
+        send(batch);
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      // Closed.
+    } finally {
+      for (Pending p : batch) {
+        p.done.setException(closedException());
+      }
+    }
+  }
+
+  private void fill(List<Pending> batch) throws InterruptedException {
+    int n = batch.get(0).actions.size();
+    long deadline = System.nanoTime() + flushIntervalNanos;
+    while (n < maxActions) {
+      long wait = deadline - System.nanoTime();
+      Pending p = wait > 0 ? queue.poll(wait, NANOSECONDS) : queue.poll();
+      if (p == null) {
+        break;
+      }
+      if (n + p.actions.size() > maxActions) {
+        // Leave it for the next request, ahead of later writes.
+        enqueue(p, true);
+        break;
+      }
+      batch.add(p);
+      n += p.actions.size();
+    }
+  }
+
+  private void send(List<Pending> batch) {
+    List<BulkableAction<?>> actions = new ArrayList<>();
+    for (Pending p : batch) {
+      actions.addAll(p.actions);
+    }
+    Map<Integer, String> errors;
+    try {
+      errors = sender.send(actions);
+    } catch (IOException | RuntimeException e) {
+      for (Pending p : batch) {
+        p.done.setException(e);
+      }
+      return;
+    }
+
+    int offset = 0;
+    for (Pending p : batch) {
+      List<String> failed = new ArrayList<>();
+      for (int i = 0; i < p.actions.size(); i++) {
+        String error = errors.get(offset + i);
+        if (error != null) {
+          failed.add(error);
+        }
+      }
+      offset += p.actions.size();
+      if (failed.isEmpty()) {
+        p.done.set(null);
+      } else {
+        p.done.setException(
+            new IOException(
+                String.format(
+                    "Failed to write %d of %d actions: %s",
+                    failed.size(), p.actions.size(), Joiner.on("; ").join(failed))));
+      }
+    }
+  }
+}
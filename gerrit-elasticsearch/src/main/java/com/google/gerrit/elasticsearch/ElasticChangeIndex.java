@@ -38,8 +38,10 @@ import com.google.gerrit.server.ReviewerByEmailSet;
 import com.google.gerrit.server.ReviewerSet;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.index.FieldDef.FillArgs;
 import com.google.gerrit.server.index.IndexUtils;
+import com.google.gerrit.server.index.QueryCursor;
 import com.google.gerrit.server.index.QueryOptions;
 import com.google.gerrit.server.index.Schema;
 import com.google.gerrit.server.index.change.ChangeField;
@@ -58,13 +60,15 @@ import com.google.gwtorm.server.ResultSet;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
+import io.searchbox.action.BulkableAction;
 import io.searchbox.client.JestResult;
-import io.searchbox.core.Bulk;
-import io.searchbox.core.Bulk.Builder;
 import io.searchbox.core.Search;
 import io.searchbox.core.search.sort.Sort;
 import io.searchbox.core.search.sort.Sort.Sorting;
 import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -72,6 +76,7 @@ import java.util.Set;
 import org.apache.commons.codec.binary.Base64;
 import org.eclipse.jgit.lib.Config;
 import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -107,9 +112,11 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
       ChangeData.Factory changeDataFactory,
       FillArgs fillArgs,
       SitePaths sitePaths,
+      ElasticConfiguration elasticCfg,
       JestClientBuilder clientBuilder,
+      WorkQueue workQueue,
       @Assisted Schema<ChangeData> schema) {
-    super(cfg, fillArgs, sitePaths, schema, clientBuilder, CHANGES_PREFIX);
+    super(cfg, fillArgs, sitePaths, schema, elasticCfg, clientBuilder, workQueue, CHANGES_PREFIX);
     this.db = db;
     this.changeDataFactory = changeDataFactory;
     mapping = new ChangeMapping(schema);
@@ -117,6 +124,21 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
 
   @Override
   public void replace(ChangeData cd) throws IOException {
+    write(replaceActions(cd));
+  }
+
+  @Override
+  public void replaceAll(Collection<ChangeData> cds) throws IOException {
+    List<BulkableAction<?>> actions = new ArrayList<>(2 * cds.size());
+    for (ChangeData cd : cds) {
+      actions.addAll(replaceActions(cd));
+    }
+    if (!actions.isEmpty()) {
+      write(actions);
+    }
+  }
+
+  private List<BulkableAction<?>> replaceActions(ChangeData cd) throws IOException {
     String deleteIndex;
     String insertIndex;
 
@@ -132,21 +154,7 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
       throw new IOException(e);
     }
 
-    Bulk bulk =
-        new Bulk.Builder()
-            .defaultIndex(indexName)
-            .defaultType("changes")
-            .addAction(insert(insertIndex, cd))
-            .addAction(delete(deleteIndex, cd.getId()))
-            .refresh(true)
-            .build();
-    JestResult result = client.execute(bulk);
-    if (!result.isSucceeded()) {
-      throw new IOException(
-          String.format(
-              "Failed to replace change %s in index %s: %s",
-              cd.getId(), indexName, result.getErrorMessage()));
-    }
+    return ImmutableList.of(insert(insertIndex, cd), delete(deleteIndex, cd.getId()));
   }
 
   @Override
@@ -164,8 +172,8 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
   }
 
   @Override
-  protected Builder addActions(Builder builder, Id c) {
-    return builder.addAction(delete(OPEN_CHANGES, c)).addAction(delete(OPEN_CHANGES, c));
+  protected List<BulkableAction<?>> deleteActions(Id c) {
+    return ImmutableList.of(delete(OPEN_CHANGES, c), delete(CLOSED_CHANGES, c));
   }
 
   @Override
@@ -192,6 +200,9 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
         sort.setIgnoreUnmapped();
       }
       QueryBuilder qb = queryBuilder.toQueryBuilder(p);
+      if (opts.searchAfter() != null) {
+        qb = QueryBuilders.boolQuery().must(qb).filter(searchAfter(opts.searchAfter()));
+      }
       fields = IndexUtils.changeFields(opts);
       SearchSourceBuilder searchSource =
           new SearchSourceBuilder()
@@ -208,6 +219,28 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
               .build();
     }
 
+    /**
+     * Restrict results to those sorting after the cursor.
+     *
+     * <p>Elasticsearch 2.x has no {@code search_after}, so the sort order is expressed as a range
+     * filter on the sort fields instead, which skips the previous pages just as cheaply.
+     */
+    private QueryBuilder searchAfter(QueryCursor cursor) throws QueryParseException {
+      if (cursor.values().size() != 2) {
+        throw new QueryParseException("invalid cursor: " + cursor.encode());
+      }
+      String updatedField = ChangeField.UPDATED.getName();
+      Instant updated = Instant.ofEpochMilli(cursor.get(0));
+      return QueryBuilders.boolQuery()
+          .should(QueryBuilders.rangeQuery(updatedField).lt(updated))
+          .should(
+              QueryBuilders.boolQuery()
+                  .must(QueryBuilders.rangeQuery(updatedField).gte(updated).lte(updated))
+                  .must(
+                      QueryBuilders.rangeQuery(ChangeField.LEGACY_ID.getName())
+                          .lt(cursor.get(1))));
+    }
+
     @Override
     public int getCardinality() {
       return 10;
@@ -273,16 +306,22 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
       if (c == null) {
         int id = source.get(ChangeField.LEGACY_ID.getName()).getAsInt();
         String projectName = source.get(ChangeField.PROJECT.getName()).getAsString();
+        ChangeData cd;
         if (projectName == null) {
-          return changeDataFactory.createOnlyWhenNoteDbDisabled(db.get(), new Change.Id(id));
+          cd = changeDataFactory.createOnlyWhenNoteDbDisabled(db.get(), new Change.Id(id));
+        } else {
+          cd =
+              changeDataFactory.create(
+                  db.get(), new Project.NameKey(projectName), new Change.Id(id));
         }
-        return changeDataFactory.create(
-            db.get(), new Project.NameKey(projectName), new Change.Id(id));
+        setCursor(json, cd);
+        return cd;
       }
 
       ChangeData cd =
           changeDataFactory.create(
               db.get(), CHANGE_CODEC.decode(Base64.decodeBase64(c.getAsString())));
+      setCursor(json, cd);
 
       // Patch sets.
       cd.setPatchSets(decodeProtos(source, ChangeField.PATCH_SET.getName(), PATCH_SET_CODEC));
@@ -364,6 +403,11 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
           ChangeField.STORED_SUBMIT_RECORD_LENIENT.getName(),
           ChangeField.SUBMIT_RULE_OPTIONS_LENIENT,
           cd);
+      ChangeField.parseSubmitType(getBytes(source, ChangeField.STORED_SUBMIT_TYPE.getName()), cd);
+      if (fields.contains(ChangeField.SUBMIT_RULES_STATE.getName())) {
+        ChangeField.parseSubmitRulesState(
+            getBytes(source, ChangeField.SUBMIT_RULES_STATE.getName()), cd);
+      }
       decodeUnresolvedCommentCount(source, ChangeField.UNRESOLVED_COMMENT_COUNT.getName(), cd);
 
       if (fields.contains(ChangeField.REF_STATE.getName())) {
@@ -383,6 +427,11 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
           : Collections.emptyList();
     }
 
+    private byte[] getBytes(JsonObject source, String name) {
+      JsonElement element = source.get(name);
+      return element != null ? Base64.decodeBase64(element.getAsString()) : null;
+    }
+
     private void decodeSubmitRecords(
         JsonObject doc, String fieldName, SubmitRuleOptions opts, ChangeData out) {
       JsonArray records = doc.getAsJsonArray(fieldName);
@@ -404,5 +453,12 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
       }
       out.setUnresolvedCommentCount(count.getAsInt());
     }
+
+    private void setCursor(JsonElement hit, ChangeData out) {
+      JsonArray sort = hit.getAsJsonObject().getAsJsonArray("sort");
+      if (sort != null && sort.size() == 2) {
+        out.setCursor(QueryCursor.create(sort.get(0).getAsLong(), sort.get(1).getAsLong()));
+      }
+    }
   }
 }
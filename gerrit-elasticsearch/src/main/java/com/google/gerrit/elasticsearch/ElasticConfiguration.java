@@ -42,6 +42,11 @@ class ElasticConfiguration {
   final TimeUnit maxConnectionIdleUnit = TimeUnit.MILLISECONDS;
   final int maxTotalConnection;
   final int readTimeout;
+  final int bulkActions;
+  final long bulkFlushInterval;
+  final int bulkConcurrentRequests;
+  final boolean refresh;
+  final String refreshInterval;
 
   @Inject
   ElasticConfiguration(@GerritServerConfig Config cfg) {
@@ -56,6 +61,12 @@ class ElasticConfiguration {
     this.maxTotalConnection = cfg.getInt("elasticsearch", null, "maxTotalConnection", 1);
     this.readTimeout =
         (int) cfg.getTimeUnit("elasticsearch", null, "readTimeout", 3000, TimeUnit.MICROSECONDS);
+    this.bulkActions = cfg.getInt("elasticsearch", null, "bulkActions", 500);
+    this.bulkFlushInterval =
+        cfg.getTimeUnit("elasticsearch", null, "bulkFlushInterval", 0, TimeUnit.MILLISECONDS);
+    this.bulkConcurrentRequests = cfg.getInt("elasticsearch", null, "bulkConcurrentRequests", 2);
+    this.refresh = cfg.getBoolean("elasticsearch", null, "refresh", true);
+    this.refreshInterval = cfg.getString("elasticsearch", null, "refreshInterval");
 
     Set<String> subsections = cfg.getSubsections("elasticsearch");
     if (subsections.isEmpty()) {
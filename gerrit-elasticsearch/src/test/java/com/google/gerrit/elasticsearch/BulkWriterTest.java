@@ -0,0 +1,270 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.elasticsearch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.testutil.GerritBaseTests;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.Delete;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import org.junit.After;
+import org.junit.Test;
+
+public class BulkWriterTest extends GerritBaseTests {
+  private final List<Integer> requests = Collections.synchronizedList(new ArrayList<>());
+  private final ExecutorService writers = Executors.newCachedThreadPool();
+  private BulkWriter writer;
+
+  @After
+  public void tearDown() {
+    if (writer != null) {
+      writer.close();
+    }
+    writers.shutdownNow();
+  }
+
+  @Test
+  public void writeIsSent() throws Exception {
+    writer = newWriter(this::request, 10);
+    writer.write(actions(2));
+    assertThat(requests).containsExactly(2);
+  }
+
+  @Test
+  public void writesWaitingForBusySenderAreCombined() throws Exception {
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    writer =
+        newWriter(
+            actions -> {
+              sending.countDown();
+              await(release);
+              return request(actions);
+            },
+            10);
+
+    List<Future<?>> futures = new ArrayList<>();
+    futures.add(write(actions(1)));
+    assertThat(sending.await(10, SECONDS)).isTrue();
+    for (int i = 0; i < 3; i++) {
+      futures.add(write(actions(2)));
+    }
+    while (writer.queued() < 3) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+    for (Future<?> f : futures) {
+      f.get(10, SECONDS);
+    }
+    assertThat(requests).containsExactly(1, 6).inOrder();
+  }
+
+  @Test
+  public void requestsAreLimitedByMaxActions() throws Exception {
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    writer =
+        newWriter(
+            actions -> {
+              sending.countDown();
+              await(release);
+              return request(actions);
+            },
+            3);
+
+    List<Future<?>> futures = new ArrayList<>();
+    futures.add(write(actions(1)));
+    assertThat(sending.await(10, SECONDS)).isTrue();
+    for (int i = 0; i < 4; i++) {
+      futures.add(write(actions(1)));
+    }
+    while (writer.queued() < 4) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+    for (Future<?> f : futures) {
+      f.get(10, SECONDS);
+    }
+    assertThat(requests).containsExactly(1, 3, 1).inOrder();
+  }
+
+  @Test
+  public void failureIsReported() throws Exception {
+    writer =
+        newWriter(
+            actions -> {
+              throw new IOException("rejected");
+            },
+            10);
+    exception.expect(IOException.class);
+    exception.expectMessage("rejected");
+    writer.write(actions(1));
+  }
+
+  @Test
+  public void requestsDoNotExceedMaxActions() throws Exception {
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    writer =
+        newWriter(
+            actions -> {
+              sending.countDown();
+              await(release);
+              return request(actions);
+            },
+            3);
+
+    List<Future<?>> futures = new ArrayList<>();
+    futures.add(write(actions(1)));
+    assertThat(sending.await(10, SECONDS)).isTrue();
+    for (int i = 0; i < 2; i++) {
+      futures.add(write(actions(2)));
+      while (writer.queued() < i + 1) {
+        Thread.sleep(1);
+      }
+    }
+    release.countDown();
+    for (Future<?> f : futures) {
+      f.get(10, SECONDS);
+    }
+    assertThat(requests).containsExactly(1, 2, 2).inOrder();
+  }
+
+  @Test
+  public void failedActionIsReportedToItsCaller() throws Exception {
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    writer =
+        newWriter(
+            actions -> {
+              sending.countDown();
+              await(release);
+              request(actions);
+              // Fail the second action of the combined request.
+              return actions.size() > 1 ? ImmutableMap.of(1, "rejected") : ImmutableMap.of();
+            },
+            10);
+
+    Future<?> first = write(actions(1));
+    assertThat(sending.await(10, SECONDS)).isTrue();
+    Future<?> ok = write(actions(1));
+    while (writer.queued() < 1) {
+      Thread.sleep(1);
+    }
+    Future<?> failed = write(actions(1));
+    while (writer.queued() < 2) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+    first.get(10, SECONDS);
+    ok.get(10, SECONDS);
+    try {
+      failed.get(10, SECONDS);
+      fail("expected failure");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(IOException.class);
+      assertThat(e.getCause()).hasMessageThat().contains("rejected");
+    }
+    assertThat(requests).containsExactly(1, 2).inOrder();
+  }
+
+  @Test
+  public void writeAfterCloseFails() throws Exception {
+    writer = newWriter(this::request, 10);
+    writer.close();
+    exception.expect(IOException.class);
+    exception.expectMessage("closed");
+    writer.write(actions(1));
+  }
+
+  @Test
+  public void closeFailsQueuedWrites() throws Exception {
+    CountDownLatch sending = new CountDownLatch(1);
+    writer =
+        newWriter(
+            actions -> {
+              sending.countDown();
+              // Blocks until the sender is interrupted by close().
+              await(new CountDownLatch(1));
+              return request(actions);
+            },
+            10);
+
+    Future<?> first = write(actions(1));
+    assertThat(sending.await(10, SECONDS)).isTrue();
+    Future<?> queued = write(actions(1));
+    while (writer.queued() < 1) {
+      Thread.sleep(1);
+    }
+    writer.close();
+    for (Future<?> f : ImmutableList.of(first, queued)) {
+      try {
+        f.get(10, SECONDS);
+        fail("expected failure");
+      } catch (ExecutionException e) {
+        assertThat(e.getCause()).isInstanceOf(IOException.class);
+      }
+    }
+  }
+
+  private BulkWriter newWriter(BulkWriter.Sender sender, int maxActions) {
+    return new BulkWriter(sender, maxActions, 0, MILLISECONDS, new ScheduledThreadPoolExecutor(1));
+  }
+
+  private Map<Integer, String> request(List<BulkableAction<?>> actions) {
+    requests.add(actions.size());
+    return ImmutableMap.of();
+  }
+
+  private Future<?> write(List<BulkableAction<?>> actions) {
+    return writers.submit(
+        () -> {
+          writer.write(actions);
+          return null;
+        });
+  }
+
+  private static void await(CountDownLatch latch) throws IOException {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static List<BulkableAction<?>> actions(int n) {
+    ImmutableList.Builder<BulkableAction<?>> b = ImmutableList.builder();
+    for (int i = 0; i < n; i++) {
+      b.add(new Delete.Builder(Integer.toString(i)).index("test").type("test").build());
+    }
+    return b.build();
+  }
+}
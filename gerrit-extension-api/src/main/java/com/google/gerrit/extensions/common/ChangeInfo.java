@@ -63,6 +63,7 @@ public class ChangeInfo {
   public String currentRevision;
   public Map<String, RevisionInfo> revisions;
   public Boolean _moreChanges;
+  public String _cursor;
 
   public List<ProblemInfo> problems;
   public List<PluginDefinedInfo> plugins;
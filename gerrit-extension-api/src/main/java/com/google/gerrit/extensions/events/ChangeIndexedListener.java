@@ -22,6 +22,18 @@ public interface ChangeIndexedListener {
   /** Invoked when a change is indexed. */
   void onChangeIndexed(int id);
 
+  /**
+   * Invoked when a change is indexed.
+   *
+   * <p>Calls {@link #onChangeIndexed(int)} unless overridden.
+   *
+   * @param projectName name of the project the change belongs to.
+   * @param id numeric ID of the change.
+   */
+  default void onChangeIndexed(String projectName, int id) {
+    onChangeIndexed(id);
+  }
+
   /** Invoked when a change is deleted from the index. */
   void onChangeDeleted(int id);
 }
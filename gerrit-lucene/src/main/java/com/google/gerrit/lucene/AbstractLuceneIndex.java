@@ -18,6 +18,9 @@ import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.AbstractFuture;
 import com.google.common.util.concurrent.Futures;
@@ -31,10 +34,16 @@ import com.google.gerrit.server.index.FieldDef.FillArgs;
 import com.google.gerrit.server.index.FieldType;
 import com.google.gerrit.server.index.Index;
 import com.google.gerrit.server.index.IndexUtils;
+import com.google.gerrit.server.index.IndexWriteContext;
 import com.google.gerrit.server.index.Schema;
 import com.google.gerrit.server.index.Schema.Values;
+import com.google.gerrit.server.util.RequestContext;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -44,11 +53,16 @@ import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.IntField;
 import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
@@ -62,6 +76,7 @@ import org.apache.lucene.search.ReferenceManager.RefreshListener;
 import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -82,6 +97,12 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
   private final ReferenceManager<IndexSearcher> searcherManager;
   private final ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
   private final Set<NrtFuture> notDoneNrtFutures;
+  private final boolean nearRealTime;
+  private final ThreadLocalRequestContext requestContext;
+  // Writer generation of the near-real-time writes of each request. Entries are
+  // dropped together with their request context.
+  private final Cache<RequestContext, AtomicLong> ownGenerations =
+      CacheBuilder.newBuilder().weakKeys().build();
   private ScheduledThreadPoolExecutor autoCommitExecutor;
 
   AbstractLuceneIndex(
@@ -91,7 +112,8 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
       String name,
       String subIndex,
       GerritIndexWriterConfig writerConfig,
-      SearcherFactory searcherFactory)
+      SearcherFactory searcherFactory,
+      ThreadLocalRequestContext requestContext)
       throws IOException {
     this.schema = schema;
     this.sitePaths = sitePaths;
@@ -150,6 +172,8 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     searcherManager = new WrappableSearcherManager(writer.getIndexWriter(), true, searcherFactory);
 
     notDoneNrtFutures = Sets.newConcurrentHashSet();
+    nearRealTime = writerConfig.isNearRealTime();
+    this.requestContext = requestContext;
 
     writerThread =
         MoreExecutors.listeningDecorator(
@@ -164,8 +188,8 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
         new ControlledRealTimeReopenThread<>(
             writer,
             searcherManager,
-            0.500 /* maximum stale age (seconds) */,
-            0.010 /* minimum stale age (seconds) */);
+            writerConfig.getMaxStaleMs() / 1000.0 /* maximum stale age (seconds) */,
+            writerConfig.getMinStaleMs() / 1000.0 /* minimum stale age (seconds) */);
     reopenThread.setName(index + " NRT");
     reopenThread.setPriority(
         Math.min(Thread.currentThread().getPriority() + 2, Thread.MAX_PRIORITY));
@@ -251,12 +275,41 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     return submit(() -> writer.updateDocument(term, doc));
   }
 
-  ListenableFuture<?> delete(Term term) {
-    return submit(() -> writer.deleteDocuments(term));
+  ListenableFuture<?> replace(Map<Term, Document> docs) {
+    return submit(
+        () -> {
+          long gen = 0;
+          for (Map.Entry<Term, Document> e : docs.entrySet()) {
+            gen = writer.updateDocument(e.getKey(), e.getValue());
+          }
+          return gen;
+        });
+  }
+
+  ListenableFuture<?> delete(Term... terms) {
+    return submit(() -> writer.deleteDocuments(terms));
   }
 
   private ListenableFuture<?> submit(Callable<Long> task) {
     ListenableFuture<Long> future = Futures.nonCancellationPropagating(writerThread.submit(task));
+    if (nearRealTime) {
+      // Don't wait for the searcher to be refreshed; the reopen thread picks
+      // the write up within the maximum stale age. Searches of the writing
+      // request wait for the generation in acquire(), so it reads its own writes.
+      Collection<RequestContext> owners = owners();
+      return Futures.transform(
+          future,
+          gen -> {
+            for (RequestContext owner : owners) {
+              ownGenerations
+                  .asMap()
+                  .computeIfAbsent(owner, k -> new AtomicLong())
+                  .accumulateAndGet(gen, Math::max);
+            }
+            return null;
+          },
+          directExecutor());
+    }
     return Futures.transformAsync(
         future,
         gen -> {
@@ -268,19 +321,65 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
         directExecutor());
   }
 
+  /**
+   * @return requests the current write is made for: the callers of a background index task, or
+   *     else the current request.
+   */
+  private Collection<RequestContext> owners() {
+    RequestContext ctx = requestContext.getContext();
+    if (ctx instanceof IndexWriteContext) {
+      return ImmutableList.copyOf(((IndexWriteContext) ctx).getCallers());
+    }
+    return ctx != null ? ImmutableList.of(ctx) : ImmutableList.of();
+  }
+
   @Override
   public void deleteAll() throws IOException {
     writer.deleteAll();
   }
 
+  @Override
+  public void commit() throws IOException {
+    writer.getIndexWriter().commit();
+  }
+
   public TrackingIndexWriter getWriter() {
     return writer;
   }
 
   IndexSearcher acquire() throws IOException {
+    waitForOwnWrites();
     return searcherManager.acquire();
   }
 
+  /**
+   * Wait until searchers include all writes submitted by the current request.
+   *
+   * <p>Only needed in near-real-time mode, where writes complete before they are visible to
+   * searches. Callers that search on a different thread than the one that handles the request must
+   * call this before handing off the search.
+   */
+  void waitForOwnWrites() throws IOException {
+    long gen = ownGeneration();
+    if (gen > 0) {
+      try {
+        reopenThread.waitForGeneration(gen);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted waiting for " + name + " index refresh");
+      }
+    }
+  }
+
+  private long ownGeneration() {
+    RequestContext ctx = requestContext.getContext();
+    if (ctx == null) {
+      return 0;
+    }
+    AtomicLong gen = ownGenerations.getIfPresent(ctx);
+    return gen != null ? gen.get() : 0;
+  }
+
   void release(IndexSearcher searcher) throws IOException {
     searcherManager.release(searcher);
   }
@@ -327,6 +426,39 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     } else {
       throw FieldType.badFieldType(type);
     }
+
+    if (values.getField().hasDocValues()) {
+      addDocValues(doc, values);
+    }
+  }
+
+  private static void addDocValues(Document doc, Values<?> values) {
+    FieldDef<?, ?> f = values.getField();
+    String name = f.getName();
+    FieldType<?> type = f.getType();
+    for (Object value : values.getValues()) {
+      if (type == FieldType.INTEGER || type == FieldType.INTEGER_RANGE) {
+        doc.add(numericDocValues(f, (Integer) value));
+      } else if (type == FieldType.LONG) {
+        doc.add(numericDocValues(f, (Long) value));
+      } else if (type == FieldType.TIMESTAMP) {
+        doc.add(numericDocValues(f, ((Timestamp) value).getTime()));
+      } else if (type == FieldType.EXACT || type == FieldType.PREFIX) {
+        BytesRef v = new BytesRef((String) value);
+        doc.add(
+            f.isRepeatable()
+                ? new SortedSetDocValuesField(name, v)
+                : new SortedDocValuesField(name, v));
+      } else {
+        throw new IllegalArgumentException("DocValues not supported for field " + name);
+      }
+    }
+  }
+
+  private static Field numericDocValues(FieldDef<?, ?> f, long value) {
+    return f.isRepeatable()
+        ? new SortedNumericDocValuesField(f.getName(), value)
+        : new NumericDocValuesField(f.getName(), value);
   }
 
   private static Field.Store store(FieldDef<?, ?> f) {
@@ -31,6 +31,7 @@ import com.google.gerrit.server.query.DataSource;
 import com.google.gerrit.server.query.Predicate;
 import com.google.gerrit.server.query.QueryParseException;
 import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.sql.Timestamp;
@@ -47,7 +48,8 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
       SitePaths sitePaths,
       Path path,
       GerritIndexWriterConfig writerConfig,
-      SearcherFactory searcherFactory)
+      SearcherFactory searcherFactory,
+      ThreadLocalRequestContext requestContext)
       throws IOException {
     this(
         schema,
@@ -55,7 +57,8 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
         FSDirectory.open(path),
         path.getFileName().toString(),
         writerConfig,
-        searcherFactory);
+        searcherFactory,
+        requestContext);
   }
 
   ChangeSubIndex(
@@ -64,9 +67,10 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
       Directory dir,
       String subIndex,
       GerritIndexWriterConfig writerConfig,
-      SearcherFactory searcherFactory)
+      SearcherFactory searcherFactory,
+      ThreadLocalRequestContext requestContext)
       throws IOException {
-    super(schema, sitePaths, dir, NAME, subIndex, writerConfig, searcherFactory);
+    super(schema, sitePaths, dir, NAME, subIndex, writerConfig, searcherFactory, requestContext);
   }
 
   @Override
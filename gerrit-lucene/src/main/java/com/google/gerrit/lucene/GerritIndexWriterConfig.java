@@ -32,6 +32,9 @@ class GerritIndexWriterConfig {
 
   private final IndexWriterConfig luceneConfig;
   private long commitWithinMs;
+  private final boolean nearRealTime;
+  private final long maxStaleMs;
+  private final long minStaleMs;
   private final CustomMappingAnalyzer analyzer;
 
   GerritIndexWriterConfig(Config cfg, String name) {
@@ -59,6 +62,11 @@ class GerritIndexWriterConfig {
     } catch (IllegalArgumentException e) {
       commitWithinMs = cfg.getLong("index", name, "commitWithin", 0);
     }
+    nearRealTime = cfg.getBoolean("index", name, "nearRealTime", false);
+    long maxStale = ConfigUtil.getTimeUnit(cfg, "index", name, "maxStaleness", 500, MILLISECONDS);
+    long minStale = ConfigUtil.getTimeUnit(cfg, "index", name, "minStaleness", 10, MILLISECONDS);
+    maxStaleMs = Math.max(maxStale, 1);
+    minStaleMs = Math.min(Math.max(minStale, 1), maxStaleMs);
   }
 
   CustomMappingAnalyzer getAnalyzer() {
@@ -72,4 +80,16 @@ class GerritIndexWriterConfig {
   long getCommitWithinMs() {
     return commitWithinMs;
   }
+
+  boolean isNearRealTime() {
+    return nearRealTime;
+  }
+
+  long getMaxStaleMs() {
+    return maxStaleMs;
+  }
+
+  long getMinStaleMs() {
+    return minStaleMs;
+  }
 }
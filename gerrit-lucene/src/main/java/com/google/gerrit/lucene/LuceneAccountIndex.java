@@ -28,6 +28,7 @@ import com.google.gerrit.server.index.account.AccountIndex;
 import com.google.gerrit.server.query.DataSource;
 import com.google.gerrit.server.query.Predicate;
 import com.google.gerrit.server.query.QueryParseException;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.ResultSet;
 import com.google.inject.Inject;
@@ -90,6 +91,7 @@ public class LuceneAccountIndex extends AbstractLuceneIndex<Account.Id, AccountS
       @GerritServerConfig Config cfg,
       SitePaths sitePaths,
       Provider<AccountCache> accountCache,
+      ThreadLocalRequestContext requestContext,
       @Assisted Schema<AccountState> schema)
       throws IOException {
     super(
@@ -99,7 +101,8 @@ public class LuceneAccountIndex extends AbstractLuceneIndex<Account.Id, AccountS
         ACCOUNTS,
         null,
         new GerritIndexWriterConfig(cfg, ACCOUNTS),
-        new SearcherFactory());
+        new SearcherFactory(),
+        requestContext);
     this.accountCache = accountCache;
 
     indexWriterConfig = new GerritIndexWriterConfig(cfg, ACCOUNTS);
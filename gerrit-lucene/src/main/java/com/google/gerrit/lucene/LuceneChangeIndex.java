@@ -15,6 +15,7 @@
 package com.google.gerrit.lucene;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.gerrit.lucene.AbstractLuceneIndex.sortFieldName;
 import static com.google.gerrit.server.git.QueueProvider.QueueType.INTERACTIVE;
 import static com.google.gerrit.server.index.change.ChangeField.APPROVAL_CODEC;
@@ -27,15 +28,19 @@ import static com.google.gerrit.server.index.change.ChangeIndexRewriter.OPEN_STA
 import static java.util.stream.Collectors.toList;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.PatchSet;
@@ -45,8 +50,10 @@ import com.google.gerrit.server.StarredChangesUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.index.FieldDef.FillArgs;
+import com.google.gerrit.server.index.FieldType;
 import com.google.gerrit.server.index.IndexExecutor;
 import com.google.gerrit.server.index.IndexUtils;
+import com.google.gerrit.server.index.QueryCursor;
 import com.google.gerrit.server.index.QueryOptions;
 import com.google.gerrit.server.index.Schema;
 import com.google.gerrit.server.index.change.ChangeField;
@@ -57,6 +64,7 @@ import com.google.gerrit.server.query.Predicate;
 import com.google.gerrit.server.query.QueryParseException;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.ChangeDataSource;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
 import com.google.gwtorm.protobuf.ProtobufCodec;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.OrmRuntimeException;
@@ -65,21 +73,38 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
@@ -128,6 +153,8 @@ public class LuceneChangeIndex implements ChangeIndex {
       ChangeField.STORED_SUBMIT_RECORD_LENIENT.getName();
   private static final String SUBMIT_RECORD_STRICT_FIELD =
       ChangeField.STORED_SUBMIT_RECORD_STRICT.getName();
+  private static final String SUBMIT_TYPE_FIELD = ChangeField.STORED_SUBMIT_TYPE.getName();
+  private static final String SUBMIT_RULES_STATE_FIELD = ChangeField.SUBMIT_RULES_STATE.getName();
   private static final String UNRESOLVED_COMMENT_COUNT_FIELD =
       ChangeField.UNRESOLVED_COMMENT_COUNT.getName();
 
@@ -156,6 +183,7 @@ public class LuceneChangeIndex implements ChangeIndex {
       Provider<ReviewDb> db,
       ChangeData.Factory changeDataFactory,
       FillArgs fillArgs,
+      ThreadLocalRequestContext requestContext,
       @Assisted Schema<ChangeData> schema)
       throws IOException {
     this.fillArgs = fillArgs;
@@ -173,18 +201,40 @@ public class LuceneChangeIndex implements ChangeIndex {
     if (LuceneIndexModule.isInMemoryTest(cfg)) {
       openIndex =
           new ChangeSubIndex(
-              schema, sitePaths, new RAMDirectory(), "ramOpen", openConfig, searcherFactory);
+              schema,
+              sitePaths,
+              new RAMDirectory(),
+              "ramOpen",
+              openConfig,
+              searcherFactory,
+              requestContext);
       closedIndex =
           new ChangeSubIndex(
-              schema, sitePaths, new RAMDirectory(), "ramClosed", closedConfig, searcherFactory);
+              schema,
+              sitePaths,
+              new RAMDirectory(),
+              "ramClosed",
+              closedConfig,
+              searcherFactory,
+              requestContext);
     } else {
       Path dir = LuceneVersionManager.getDir(sitePaths, CHANGES, schema);
       openIndex =
           new ChangeSubIndex(
-              schema, sitePaths, dir.resolve(CHANGES_OPEN), openConfig, searcherFactory);
+              schema,
+              sitePaths,
+              dir.resolve(CHANGES_OPEN),
+              openConfig,
+              searcherFactory,
+              requestContext);
       closedIndex =
           new ChangeSubIndex(
-              schema, sitePaths, dir.resolve(CHANGES_CLOSED), closedConfig, searcherFactory);
+              schema,
+              sitePaths,
+              dir.resolve(CHANGES_CLOSED),
+              closedConfig,
+              searcherFactory,
+              requestContext);
     }
   }
 
@@ -224,6 +274,37 @@ public class LuceneChangeIndex implements ChangeIndex {
     }
   }
 
+  @Override
+  public void replaceAll(Collection<ChangeData> cds) throws IOException {
+    Map<Term, Document> open = new LinkedHashMap<>();
+    Map<Term, Document> closed = new LinkedHashMap<>();
+    try {
+      for (ChangeData cd : cds) {
+        Document doc = openIndex.toDocument(cd, fillArgs);
+        (cd.change().getStatus().isOpen() ? open : closed).put(idTerm(cd), doc);
+      }
+    } catch (OrmException e) {
+      throw new IOException(e);
+    }
+
+    // One writer task per sub-index, so the whole batch only waits for a
+    // single searcher refresh.
+    List<ListenableFuture<?>> futures = new ArrayList<>(4);
+    if (!open.isEmpty()) {
+      futures.add(closedIndex.delete(open.keySet().toArray(new Term[open.size()])));
+      futures.add(openIndex.replace(open));
+    }
+    if (!closed.isEmpty()) {
+      futures.add(openIndex.delete(closed.keySet().toArray(new Term[closed.size()])));
+      futures.add(closedIndex.replace(closed));
+    }
+    try {
+      Futures.allAsList(futures).get();
+    } catch (ExecutionException | InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+
   @Override
   public void delete(Change.Id id) throws IOException {
     Term idTerm = LuceneChangeIndex.idTerm(id);
@@ -240,6 +321,12 @@ public class LuceneChangeIndex implements ChangeIndex {
     closedIndex.deleteAll();
   }
 
+  @Override
+  public void commit() throws IOException {
+    openIndex.commit();
+    closedIndex.commit();
+  }
+
   @Override
   public ChangeDataSource getSource(Predicate<ChangeData> p, QueryOptions opts)
       throws QueryParseException {
@@ -277,6 +364,7 @@ public class LuceneChangeIndex implements ChangeIndex {
     private final Query query;
     private final QueryOptions opts;
     private final Sort sort;
+    private final FieldDoc after;
 
     private QuerySource(
         List<ChangeSubIndex> indexes, Predicate<ChangeData> predicate, QueryOptions opts, Sort sort)
@@ -286,6 +374,7 @@ public class LuceneChangeIndex implements ChangeIndex {
       this.query = checkNotNull(queryBuilder.toQuery(predicate), "null query from Lucene");
       this.opts = opts;
       this.sort = sort;
+      this.after = toFieldDoc(opts.searchAfter());
     }
 
     @Override
@@ -310,43 +399,66 @@ public class LuceneChangeIndex implements ChangeIndex {
         throw new OrmException("interrupted");
       }
 
+      // The search runs on the executor, so wait here for this request's
+      // own near-real-time writes to become visible.
+      try {
+        for (ChangeSubIndex index : indexes) {
+          index.waitForOwnWrites();
+        }
+      } catch (IOException e) {
+        throw new OrmException(e);
+      }
+
       final Set<String> fields = IndexUtils.changeFields(opts);
-      return new ChangeDataResults(
+      final ChangeDataResults results = new ChangeDataResults(fields);
+      results.setFuture(
           executor.submit(
-              new Callable<List<Document>>() {
+              new Callable<Void>() {
                 @Override
-                public List<Document> call() throws IOException {
-                  return doRead(fields);
+                public Void call() throws IOException {
+                  try {
+                    doRead(fields, results);
+                  } finally {
+                    results.add(END_OF_RESULTS);
+                  }
+                  return null;
                 }
 
                 @Override
                 public String toString() {
                   return predicate.toString();
                 }
-              }),
-          fields);
+              }));
+      return results;
     }
 
-    private List<Document> doRead(Set<String> fields) throws IOException {
+    private void doRead(Set<String> fields, ChangeDataResults out) throws IOException {
       IndexSearcher[] searchers = new IndexSearcher[indexes.size()];
       try {
         int realLimit = opts.start() + opts.limit();
         if (Integer.MAX_VALUE - opts.limit() < opts.start()) {
           realLimit = Integer.MAX_VALUE;
         }
-        TopFieldDocs[] hits = new TopFieldDocs[indexes.size()];
         for (int i = 0; i < indexes.size(); i++) {
           searchers[i] = indexes.get(i).acquire();
-          hits[i] = searchers[i].search(query, realLimit, sort);
         }
-        TopDocs docs = TopDocs.merge(sort, realLimit, hits);
+        TopDocs docs = TopDocs.merge(sort, realLimit, search(searchers, realLimit));
+
+        // If every requested field has DocValues the results can be built
+        // from those columns alone, without decompressing stored fields.
+        boolean columnar = schema.getDocValuesFields().keySet().containsAll(fields);
 
-        List<Document> result = new ArrayList<>(docs.scoreDocs.length);
-        for (int i = opts.start(); i < docs.scoreDocs.length; i++) {
+        // Hand out documents as they are loaded, so the caller can start
+        // working on the first changes while later ones are still read.
+        for (int i = opts.start(); i < docs.scoreDocs.length && !out.isClosed(); i++) {
           ScoreDoc sd = docs.scoreDocs[i];
-          result.add(searchers[sd.shardIndex].doc(sd.doc, fields));
+          IndexSearcher searcher = searchers[sd.shardIndex];
+          Document doc = columnar ? readDocValues(searcher, sd.doc, fields) : null;
+          if (doc == null) {
+            doc = searcher.doc(sd.doc, fields);
+          }
+          out.add(new Hit(doc, (FieldDoc) sd));
         }
-        return result;
       } finally {
         for (int i = 0; i < indexes.size(); i++) {
           if (searchers[i] != null) {
@@ -359,32 +471,223 @@ public class LuceneChangeIndex implements ChangeIndex {
         }
       }
     }
+
+    private TopFieldDocs[] search(IndexSearcher[] searchers, int limit) throws IOException {
+      // Search all but the first sub-index on other threads of the executor.
+      // A search that has not started by the time the first one is done runs
+      // on this thread instead, so a busy executor cannot deadlock the read.
+      List<FutureTask<TopFieldDocs>> others = new ArrayList<>(searchers.length - 1);
+      for (int i = 1; i < searchers.length; i++) {
+        IndexSearcher searcher = searchers[i];
+        FutureTask<TopFieldDocs> task =
+            new FutureTask<>(() -> searcher.searchAfter(after, query, limit, sort, false, false));
+        try {
+          executor.execute(task);
+        } catch (RejectedExecutionException e) {
+          // Run below.
+        }
+        others.add(task);
+      }
+
+      TopFieldDocs[] hits = new TopFieldDocs[searchers.length];
+      try {
+        hits[0] = searchers[0].searchAfter(after, query, limit, sort, false, false);
+        for (int i = 1; i < searchers.length; i++) {
+          FutureTask<TopFieldDocs> task = others.get(i - 1);
+          task.run();
+          hits[i] = task.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IOException(e.getCause());
+      } finally {
+        for (FutureTask<TopFieldDocs> task : others) {
+          task.cancel(false);
+        }
+      }
+      return hits;
+    }
+  }
+
+  /**
+   * Read the requested fields of a document from their DocValues.
+   *
+   * @return document with one stored field per value, or null if not all fields have DocValues
+   *     in the document's segment.
+   */
+  @Nullable
+  private Document readDocValues(IndexSearcher searcher, int docId, Set<String> fields)
+      throws IOException {
+    List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+    LeafReaderContext ctx = leaves.get(ReaderUtil.subIndex(docId, leaves));
+    LeafReader reader = ctx.reader();
+    int doc = docId - ctx.docBase;
+
+    Document out = new Document();
+    for (String name : fields) {
+      FieldInfo info = reader.getFieldInfos().fieldInfo(name);
+      if (info == null) {
+        // No document in this segment has a value.
+        continue;
+      }
+      FieldType<?> type = schema.getFields().get(name).getType();
+      switch (info.getDocValuesType()) {
+        case NUMERIC:
+          if (reader.getDocsWithField(name).get(doc)) {
+            out.add(storedNumber(name, type, reader.getNumericDocValues(name).get(doc)));
+          }
+          break;
+        case SORTED_NUMERIC:
+          SortedNumericDocValues numbers = reader.getSortedNumericDocValues(name);
+          numbers.setDocument(doc);
+          for (int i = 0; i < numbers.count(); i++) {
+            out.add(storedNumber(name, type, numbers.valueAt(i)));
+          }
+          break;
+        case SORTED:
+          SortedDocValues value = reader.getSortedDocValues(name);
+          int ord = value.getOrd(doc);
+          if (ord >= 0) {
+            out.add(new StoredField(name, value.lookupOrd(ord).utf8ToString()));
+          }
+          break;
+        case SORTED_SET:
+          SortedSetDocValues values = reader.getSortedSetDocValues(name);
+          values.setDocument(doc);
+          for (long o = values.nextOrd();
+              o != SortedSetDocValues.NO_MORE_ORDS;
+              o = values.nextOrd()) {
+            out.add(new StoredField(name, values.lookupOrd(o).utf8ToString()));
+          }
+          break;
+        case NONE:
+        default:
+          // Segment written before the field had DocValues.
+          return null;
+      }
+    }
+    return out;
   }
 
+  private static StoredField storedNumber(String name, FieldType<?> type, long value) {
+    if (type == FieldType.INTEGER || type == FieldType.INTEGER_RANGE) {
+      return new StoredField(name, (int) value);
+    }
+    return new StoredField(name, value);
+  }
+
+  private static FieldDoc toFieldDoc(@Nullable QueryCursor cursor) throws QueryParseException {
+    if (cursor == null) {
+      return null;
+    }
+    if (cursor.values().size() != 2) {
+      throw new QueryParseException("invalid cursor: " + cursor.encode());
+    }
+    // A change is only in one sub-index, so results with the same sort values
+    // are the change the cursor was taken from. The largest document number
+    // makes Lucene skip it in all sub-indexes.
+    return new FieldDoc(Integer.MAX_VALUE, Float.NaN, new Object[] {cursor.get(0), cursor.get(1)});
+  }
+
+  private static QueryCursor toCursor(FieldDoc doc) {
+    return QueryCursor.create(
+        ((Number) doc.fields[0]).longValue(), ((Number) doc.fields[1]).longValue());
+  }
+
+  private static final Object END_OF_RESULTS = new Object();
+
+  private static class Hit {
+    final Document doc;
+    final FieldDoc sortValues;
+
+    Hit(Document doc, FieldDoc sortValues) {
+      this.doc = doc;
+      this.sortValues = sortValues;
+    }
+  }
+
+  /**
+   * Results of a query, decoded into {@link ChangeData} as the caller iterates.
+   *
+   * <p>Stored documents are added by the reading thread while the caller consumes them, so the
+   * first changes are available before the last documents have been loaded from the index.
+   */
   private class ChangeDataResults implements ResultSet<ChangeData> {
-    private final Future<List<Document>> future;
     private final Set<String> fields;
+    private final BlockingQueue<Object> docs = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+    private Future<?> future;
+    private boolean iterated;
 
-    ChangeDataResults(Future<List<Document>> future, Set<String> fields) {
-      this.future = future;
+    ChangeDataResults(Set<String> fields) {
       this.fields = fields;
     }
 
+    void setFuture(Future<?> future) {
+      this.future = future;
+    }
+
+    void add(Object hit) {
+      docs.add(hit);
+    }
+
+    boolean isClosed() {
+      return closed;
+    }
+
     @Override
     public Iterator<ChangeData> iterator() {
-      return toList().iterator();
+      checkState(!iterated, "ResultSet already iterated");
+      iterated = true;
+      String idFieldName = LEGACY_ID.getName();
+      return new AbstractIterator<ChangeData>() {
+        @Override
+        protected ChangeData computeNext() {
+          if (closed) {
+            return endOfData();
+          }
+          Object doc = take();
+          if (doc == END_OF_RESULTS) {
+            checkFailure();
+            return endOfData();
+          }
+          Hit hit = (Hit) doc;
+          ChangeData cd = toChangeData(fields(hit.doc, fields), fields, idFieldName);
+          cd.setCursor(toCursor(hit.sortValues));
+          return cd;
+        }
+      };
     }
 
     @Override
     public List<ChangeData> toList() {
+      return Lists.newArrayList(iterator());
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+      future.cancel(false /* do not interrupt Lucene */);
+    }
+
+    private Object take() {
       try {
-        List<Document> docs = future.get();
-        List<ChangeData> result = new ArrayList<>(docs.size());
-        String idFieldName = LEGACY_ID.getName();
-        for (Document doc : docs) {
-          result.add(toChangeData(fields(doc, fields), fields, idFieldName));
-        }
-        return result;
+        return docs.take();
+      } catch (InterruptedException e) {
+        close();
+        throw new OrmRuntimeException(e);
+      }
+    }
+
+    private void checkFailure() {
+      try {
+        future.get();
+      } catch (CancellationException e) {
+        // Closed by the caller.
       } catch (InterruptedException e) {
         close();
         throw new OrmRuntimeException(e);
@@ -393,11 +696,6 @@ public class LuceneChangeIndex implements ChangeIndex {
         throw new OrmRuntimeException(e.getCause());
       }
     }
-
-    @Override
-    public void close() {
-      future.cancel(false /* do not interrupt Lucene */);
-    }
   }
 
   private static ListMultimap<String, IndexableField> fields(Document doc, Set<String> fields) {
@@ -467,6 +765,12 @@ public class LuceneChangeIndex implements ChangeIndex {
         doc, SUBMIT_RECORD_STRICT_FIELD, ChangeField.SUBMIT_RULE_OPTIONS_STRICT, cd);
     decodeSubmitRecords(
         doc, SUBMIT_RECORD_LENIENT_FIELD, ChangeField.SUBMIT_RULE_OPTIONS_LENIENT, cd);
+    if (fields.contains(SUBMIT_TYPE_FIELD)) {
+      decodeSubmitType(doc, cd);
+    }
+    if (fields.contains(SUBMIT_RULES_STATE_FIELD)) {
+      decodeSubmitRulesState(doc, cd);
+    }
     if (fields.contains(REF_STATE_FIELD)) {
       decodeRefStates(doc, cd);
     }
@@ -575,6 +879,16 @@ public class LuceneChangeIndex implements ChangeIndex {
         Collections2.transform(doc.get(field), f -> f.binaryValue().utf8ToString()), opts, cd);
   }
 
+  private void decodeSubmitType(ListMultimap<String, IndexableField> doc, ChangeData cd) {
+    ChangeField.parseSubmitType(
+        Iterables.getFirst(copyAsBytes(doc.get(SUBMIT_TYPE_FIELD)), null), cd);
+  }
+
+  private void decodeSubmitRulesState(ListMultimap<String, IndexableField> doc, ChangeData cd) {
+    ChangeField.parseSubmitRulesState(
+        Iterables.getFirst(copyAsBytes(doc.get(SUBMIT_RULES_STATE_FIELD)), null), cd);
+  }
+
   private void decodeRefStates(ListMultimap<String, IndexableField> doc, ChangeData cd) {
     cd.setRefStates(copyAsBytes(doc.get(REF_STATE_FIELD)));
   }
@@ -49,6 +49,8 @@ import com.google.gerrit.pgm.util.RuntimeShutdown;
 import com.google.gerrit.pgm.util.SiteProgram;
 import com.google.gerrit.server.StartupChecks;
 import com.google.gerrit.server.account.InternalAccountDirectory;
+import com.google.gerrit.server.cache.CacheEvictionBus;
+import com.google.gerrit.server.cache.CacheSnapshotter;
 import com.google.gerrit.server.cache.h2.DefaultCacheFactory;
 import com.google.gerrit.server.change.ChangeCleanupRunner;
 import com.google.gerrit.server.config.AuthConfig;
@@ -68,6 +70,7 @@ import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.index.DummyIndexModule;
 import com.google.gerrit.server.index.IndexModule;
 import com.google.gerrit.server.index.IndexModule.IndexType;
+import com.google.gerrit.server.index.change.StaleChangeSweeper;
 import com.google.gerrit.server.mail.SignedTokenEmailTokenVerifier;
 import com.google.gerrit.server.mail.receive.MailReceiver;
 import com.google.gerrit.server.mail.send.SmtpEmailSender;
@@ -370,6 +373,8 @@ public class Daemon extends SiteProgram {
     modules.add(new InternalAccountDirectory.Module());
     modules.add(new DefaultPermissionBackendModule());
     modules.add(new DefaultCacheFactory.Module());
+    modules.add(new CacheSnapshotter.Module());
+    modules.add(new CacheEvictionBus.Module(config));
     modules.add(cfgInjector.getInstance(MailReceiver.Module.class));
     if (emailModule != null) {
       modules.add(emailModule);
@@ -420,6 +425,8 @@ public class Daemon extends SiteProgram {
     modules.add(new GarbageCollectionModule());
     if (!slave) {
       modules.add(new ChangeCleanupRunner.Module());
+      // Replicas use DummyIndexModule and have no change index to sweep.
+      modules.add(new StaleChangeSweeper.Module());
     }
     return cfgInjector.createChildInjector(modules);
   }
@@ -29,10 +29,12 @@ import com.google.gerrit.pgm.util.SiteProgram;
 import com.google.gerrit.pgm.util.ThreadLimiter;
 import com.google.gerrit.server.change.ChangeResource;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.index.Index;
 import com.google.gerrit.server.index.IndexDefinition;
 import com.google.gerrit.server.index.IndexModule;
 import com.google.gerrit.server.index.IndexModule.IndexType;
+import com.google.gerrit.server.index.ReindexCheckpoint;
 import com.google.gerrit.server.index.SiteIndexer;
 import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
 import com.google.inject.Inject;
@@ -71,11 +73,15 @@ public class Reindex extends SiteProgram {
   @Option(name = "--index", usage = "Only reindex specified indices")
   private List<String> indices = new ArrayList<>();
 
+  @Option(name = "--resume", usage = "Resume an interrupted reindex from its last checkpoint")
+  private boolean resume;
+
   private Injector dbInjector;
   private Injector sysInjector;
   private Config globalConfig;
 
   @Inject private Collection<IndexDefinition<?, ?, ?>> indexDefs;
+  @Inject private SitePaths sitePaths;
 
   @Override
   public int run() throws Exception {
@@ -192,12 +198,21 @@ public class Reindex extends SiteProgram {
       throws IOException {
     I index = def.getIndexCollection().getSearchIndex();
     checkNotNull(index, "no active search index configured for %s", def.getName());
+    ReindexCheckpoint checkpoint =
+        ReindexCheckpoint.open(
+            ReindexCheckpoint.path(sitePaths, def.getName(), index.getSchema().getVersion()),
+            resume);
     index.markReady(false);
-    index.deleteAll();
+    if (checkpoint.isEmpty()) {
+      index.deleteAll();
+    } else {
+      System.out.format("Resuming reindex of %s index from checkpoint\n", def.getName());
+    }
 
     SiteIndexer<K, V, I> siteIndexer = def.getSiteIndexer();
     siteIndexer.setProgressOut(System.err);
     siteIndexer.setVerboseOut(verbose ? System.out : NullOutputStream.INSTANCE);
+    siteIndexer.setCheckpoint(checkpoint);
     SiteIndexer.Result result = siteIndexer.indexAll(index);
     int n = result.doneCount() + result.failedCount();
     double t = result.elapsed(TimeUnit.MILLISECONDS) / 1000d;
@@ -205,6 +220,7 @@ public class Reindex extends SiteProgram {
         "Reindexed %d documents in %s index in %.01fs (%.01f/s)\n", n, def.getName(), t, n / t);
     if (result.success()) {
       index.markReady(true);
+      checkpoint.delete();
     }
     return result.success();
   }
@@ -19,6 +19,7 @@ import static com.google.gerrit.server.account.externalids.ExternalId.SCHEME_USE
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.TimeUtil;
 import com.google.gerrit.extensions.client.GeneralPreferencesInfo;
@@ -29,6 +30,8 @@ import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.account.WatchConfig.NotifyType;
 import com.google.gerrit.server.account.WatchConfig.ProjectWatchKey;
 import com.google.gerrit.server.account.externalids.ExternalIds;
+import com.google.gerrit.server.cache.CacheEvictionBus;
+import com.google.gerrit.server.cache.CacheKeySerializer;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.index.account.AccountIndexer;
 import com.google.gerrit.server.query.account.InternalAccountQuery;
@@ -64,7 +67,8 @@ public class AccountCacheImpl implements AccountCache {
       @Override
       protected void configure() {
         cache(BYID_NAME, Account.Id.class, new TypeLiteral<Optional<AccountState>>() {})
-            .loader(ByIdLoader.class);
+            .loader(ByIdLoader.class)
+            .snapshot(AccountIdSerializer.class);
 
         cache(BYUSER_NAME, String.class, new TypeLiteral<Optional<Account.Id>>() {})
             .loader(ByNameLoader.class);
@@ -78,15 +82,18 @@ public class AccountCacheImpl implements AccountCache {
   private final LoadingCache<Account.Id, Optional<AccountState>> byId;
   private final LoadingCache<String, Optional<Account.Id>> byName;
   private final Provider<AccountIndexer> indexer;
+  private final CacheEvictionBus evictionBus;
 
   @Inject
   AccountCacheImpl(
       @Named(BYID_NAME) LoadingCache<Account.Id, Optional<AccountState>> byId,
       @Named(BYUSER_NAME) LoadingCache<String, Optional<Account.Id>> byUsername,
-      Provider<AccountIndexer> indexer) {
+      Provider<AccountIndexer> indexer,
+      CacheEvictionBus evictionBus) {
     this.byId = byId;
     this.byName = byUsername;
     this.indexer = indexer;
+    this.evictionBus = evictionBus;
   }
 
   @Override
@@ -125,6 +132,7 @@ public class AccountCacheImpl implements AccountCache {
   public void evict(Account.Id accountId) throws IOException {
     if (accountId != null) {
       byId.invalidate(accountId);
+      evictionBus.publish(BYID_NAME, accountId);
       indexer.get().index(accountId);
     }
   }
@@ -132,6 +140,7 @@ public class AccountCacheImpl implements AccountCache {
   @Override
   public void evictAll() throws IOException {
     byId.invalidateAll();
+    evictionBus.publishAll(BYID_NAME);
     for (Account.Id accountId : byId.asMap().keySet()) {
       indexer.get().index(accountId);
     }
@@ -141,6 +150,7 @@ public class AccountCacheImpl implements AccountCache {
   public void evictByUsername(String username) {
     if (username != null) {
       byName.invalidate(username);
+      evictionBus.publish(BYUSER_NAME, username);
     }
   }
 
@@ -152,6 +162,18 @@ public class AccountCacheImpl implements AccountCache {
         account, anon, Collections.emptySet(), new HashMap<ProjectWatchKey, Set<NotifyType>>());
   }
 
+  static class AccountIdSerializer implements CacheKeySerializer<Account.Id> {
+    @Override
+    public byte[] serializeKey(Account.Id key) {
+      return Ints.toByteArray(key.get());
+    }
+
+    @Override
+    public Account.Id deserializeKey(byte[] in) {
+      return new Account.Id(Ints.fromByteArray(in));
+    }
+  }
+
   static class ByIdLoader extends CacheLoader<Account.Id, Optional<AccountState>> {
     private final SchemaFactory<ReviewDb> schema;
     private final Accounts accounts;
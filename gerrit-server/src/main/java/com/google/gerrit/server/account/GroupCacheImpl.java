@@ -17,10 +17,13 @@ package com.google.gerrit.server.account;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
 import com.google.gerrit.common.TimeUtil;
 import com.google.gerrit.reviewdb.client.AccountGroup;
 import com.google.gerrit.reviewdb.client.AccountGroupName;
 import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.cache.CacheEvictionBus;
+import com.google.gerrit.server.cache.CacheKeySerializer;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.index.group.GroupIndexer;
 import com.google.gwtorm.server.OrmDuplicateKeyException;
@@ -53,7 +56,8 @@ public class GroupCacheImpl implements GroupCache {
       @Override
       protected void configure() {
         cache(BYID_NAME, AccountGroup.Id.class, new TypeLiteral<Optional<AccountGroup>>() {})
-            .loader(ByIdLoader.class);
+            .loader(ByIdLoader.class)
+            .keySerializer(GroupIdSerializer.class);
 
         cache(BYNAME_NAME, String.class, new TypeLiteral<Optional<AccountGroup>>() {})
             .loader(ByNameLoader.class);
@@ -72,6 +76,7 @@ public class GroupCacheImpl implements GroupCache {
   private final LoadingCache<String, Optional<AccountGroup>> byUUID;
   private final SchemaFactory<ReviewDb> schema;
   private final Provider<GroupIndexer> indexer;
+  private final CacheEvictionBus evictionBus;
 
   @Inject
   GroupCacheImpl(
@@ -79,12 +84,14 @@ public class GroupCacheImpl implements GroupCache {
       @Named(BYNAME_NAME) LoadingCache<String, Optional<AccountGroup>> byName,
       @Named(BYUUID_NAME) LoadingCache<String, Optional<AccountGroup>> byUUID,
       SchemaFactory<ReviewDb> schema,
-      Provider<GroupIndexer> indexer) {
+      Provider<GroupIndexer> indexer,
+      CacheEvictionBus evictionBus) {
     this.byId = byId;
     this.byName = byName;
     this.byUUID = byUUID;
     this.schema = schema;
     this.indexer = indexer;
+    this.evictionBus = evictionBus;
   }
 
   @Override
@@ -102,12 +109,14 @@ public class GroupCacheImpl implements GroupCache {
   public void evict(final AccountGroup group) throws IOException {
     if (group.getId() != null) {
       byId.invalidate(group.getId());
+      evictionBus.publish(BYID_NAME, group.getId());
     }
     if (group.getNameKey() != null) {
-      byName.invalidate(group.getNameKey().get());
+      evictByName(group.getNameKey().get());
     }
     if (group.getGroupUUID() != null) {
       byUUID.invalidate(group.getGroupUUID().get());
+      evictionBus.publish(BYUUID_NAME, group.getGroupUUID().get());
     }
     indexer.get().index(group.getGroupUUID());
   }
@@ -116,10 +125,10 @@ public class GroupCacheImpl implements GroupCache {
   public void evictAfterRename(
       final AccountGroup.NameKey oldName, final AccountGroup.NameKey newName) throws IOException {
     if (oldName != null) {
-      byName.invalidate(oldName.get());
+      evictByName(oldName.get());
     }
     if (newName != null) {
-      byName.invalidate(newName.get());
+      evictByName(newName.get());
     }
     indexer.get().index(get(newName).getGroupUUID());
   }
@@ -162,15 +171,32 @@ public class GroupCacheImpl implements GroupCache {
 
   @Override
   public void onCreateGroup(AccountGroup.NameKey newGroupName) throws IOException {
-    byName.invalidate(newGroupName.get());
+    evictByName(newGroupName.get());
     indexer.get().index(get(newGroupName).getGroupUUID());
   }
 
+  private void evictByName(String name) {
+    byName.invalidate(name);
+    evictionBus.publish(BYNAME_NAME, name);
+  }
+
   private static AccountGroup missing(AccountGroup.Id key) {
     AccountGroup.NameKey name = new AccountGroup.NameKey("Deleted Group" + key);
     return new AccountGroup(name, key, null, TimeUtil.nowTs());
   }
 
+  static class GroupIdSerializer implements CacheKeySerializer<AccountGroup.Id> {
+    @Override
+    public byte[] serializeKey(AccountGroup.Id key) {
+      return Ints.toByteArray(key.get());
+    }
+
+    @Override
+    public AccountGroup.Id deserializeKey(byte[] in) {
+      return new AccountGroup.Id(Ints.fromByteArray(in));
+    }
+  }
+
   static class ByIdLoader extends CacheLoader<AccountGroup.Id, Optional<AccountGroup>> {
     private final SchemaFactory<ReviewDb> schema;
 
@@ -0,0 +1,134 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gerrit.reviewdb.client.AccountGroup;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns group UUIDs into small dense integers.
+ *
+ * <p>Each distinct UUID interned by the server is assigned the next free integer, so sets of groups
+ * can be represented as bitmaps, see {@link GroupSet}. Only UUIDs of groups a user was found to be
+ * a member of are interned; lookups of other UUIDs use {@link
+ * Generation#indexOf(AccountGroup.UUID)}, which does not add them.
+ *
+ * <p>The dictionary is bounded. Integers are assigned within a {@link Generation}, and once the
+ * current generation holds the maximum number of UUIDs a new, empty one replaces it. Sets built
+ * earlier keep a reference to the generation their bits refer to, so they remain valid, and an old
+ * generation is garbage collected with the last set using it.
+ */
+@Singleton
+public class GroupDictionary {
+  static final int DEFAULT_MAX_SIZE = 1 << 16;
+
+  /** Assignment of integers to UUIDs; integers are only meaningful within one generation. */
+  public static final class Generation {
+    private final ConcurrentHashMap<AccountGroup.UUID, Integer> ids = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private volatile AccountGroup.UUID[] uuids = new AccountGroup.UUID[256];
+    private int next;
+
+    private Generation(int maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the integer assigned to {@code uuid}, assigning one if necessary, or -1 if the
+     *     generation is full.
+     */
+    int intern(AccountGroup.UUID uuid) {
+      Integer id = ids.get(uuid);
+      if (id != null) {
+        return id;
+      }
+      synchronized (this) {
+        id = ids.get(uuid);
+        if (id != null) {
+          return id;
+        }
+        if (next == maxSize) {
+          return -1;
+        }
+        int n = next++;
+        AccountGroup.UUID[] a = uuids;
+        if (n == a.length) {
+          a = Arrays.copyOf(a, a.length * 2);
+        }
+        a[n] = uuid;
+        uuids = a;
+        // Publishing through the map makes the array slot visible to readers.
+        ids.put(uuid, n);
+        return n;
+      }
+    }
+
+    /** @return the integer assigned to {@code uuid}, or -1 if it was never interned. */
+    public int indexOf(AccountGroup.UUID uuid) {
+      Integer id = ids.get(uuid);
+      return id != null ? id : -1;
+    }
+
+    /** @return the UUID assigned to {@code id} by {@link #intern(AccountGroup.UUID)}. */
+    public AccountGroup.UUID get(int id) {
+      return uuids[id];
+    }
+
+    /** @return number of interned UUIDs. */
+    public int size() {
+      return ids.size();
+    }
+  }
+
+  private final int maxSize;
+  private volatile Generation current;
+
+  @Inject
+  public GroupDictionary() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  @VisibleForTesting
+  GroupDictionary(int maxSize) {
+    checkArgument(maxSize > 0, "maxSize must be positive");
+    this.maxSize = maxSize;
+    this.current = new Generation(maxSize);
+  }
+
+  /** @return the generation new sets are built in. */
+  public Generation current() {
+    return current;
+  }
+
+  /**
+   * Replace a full generation with an empty one.
+   *
+   * @param full generation that could not intern a UUID.
+   * @return the new current generation; if another caller already replaced {@code full}, the
+   *     generation it installed.
+   */
+  synchronized Generation startOver(Generation full) {
+    if (current == full) {
+      current = new Generation(maxSize);
+    }
+    return current;
+  }
+}
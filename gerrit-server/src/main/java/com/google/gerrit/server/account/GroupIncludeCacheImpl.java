@@ -14,12 +14,15 @@
 
 package com.google.gerrit.server.account;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.gerrit.reviewdb.client.AccountGroup;
 import com.google.gerrit.reviewdb.client.AccountGroupById;
 import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.cache.CacheKeySerializer;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.SchemaFactory;
@@ -53,7 +56,8 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
                 PARENT_GROUPS_NAME,
                 AccountGroup.UUID.class,
                 new TypeLiteral<ImmutableList<AccountGroup.UUID>>() {})
-            .loader(ParentGroupsLoader.class);
+            .loader(ParentGroupsLoader.class)
+            .snapshot(GroupUuidSerializer.class);
 
         cache(
                 SUBGROUPS_NAME,
@@ -134,6 +138,18 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
     }
   }
 
+  static class GroupUuidSerializer implements CacheKeySerializer<AccountGroup.UUID> {
+    @Override
+    public byte[] serializeKey(AccountGroup.UUID key) {
+      return key.get().getBytes(UTF_8);
+    }
+
+    @Override
+    public AccountGroup.UUID deserializeKey(byte[] in) {
+      return new AccountGroup.UUID(new String(in, UTF_8));
+    }
+  }
+
   static class SubgroupsLoader
       extends CacheLoader<AccountGroup.UUID, ImmutableList<AccountGroup.UUID>> {
     private final SchemaFactory<ReviewDb> schema;
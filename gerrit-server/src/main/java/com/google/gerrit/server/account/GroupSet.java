@@ -0,0 +1,148 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.gerrit.reviewdb.client.AccountGroup;
+import com.google.gerrit.server.account.GroupDictionary.Generation;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable set of group UUIDs stored as a bitmap over {@link GroupDictionary} identifiers.
+ *
+ * <p>Membership tests are a dictionary lookup and a bit test. Two sets built in the same
+ * dictionary generation are compared and merged without looking at individual UUIDs; sets from
+ * different generations fall back to comparing UUIDs. Null UUIDs are ignored.
+ */
+public final class GroupSet extends AbstractSet<AccountGroup.UUID> {
+  public static GroupSet of(GroupDictionary dict, Iterable<AccountGroup.UUID> uuids) {
+    if (uuids instanceof GroupSet) {
+      return (GroupSet) uuids;
+    }
+    Generation gen = dict.current();
+    GroupSet s = of(gen, uuids);
+    if (s == null) {
+      gen = dict.startOver(gen);
+      s = of(gen, uuids);
+      checkArgument(s != null, "too many groups for dictionary");
+    }
+    return s;
+  }
+
+  private static GroupSet of(Generation gen, Iterable<AccountGroup.UUID> uuids) {
+    BitSet bits = new BitSet();
+    for (AccountGroup.UUID uuid : uuids) {
+      if (uuid != null) {
+        int id = gen.intern(uuid);
+        if (id < 0) {
+          return null;
+        }
+        bits.set(id);
+      }
+    }
+    return new GroupSet(gen, bits);
+  }
+
+  private final Generation gen;
+  private final BitSet bits;
+  private final int size;
+
+  private GroupSet(Generation gen, BitSet bits) {
+    this.gen = gen;
+    this.bits = bits;
+    this.size = bits.cardinality();
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof AccountGroup.UUID)) {
+      return false;
+    }
+    int id = gen.indexOf((AccountGroup.UUID) o);
+    return id >= 0 && bits.get(id);
+  }
+
+  /** @return true if this set and {@code other} have at least one group in common. */
+  public boolean intersects(GroupSet other) {
+    if (gen == other.gen) {
+      return bits.intersects(other.bits);
+    }
+    GroupSet small = size <= other.size ? this : other;
+    GroupSet large = small == this ? other : this;
+    for (AccountGroup.UUID uuid : small) {
+      if (large.contains(uuid)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** @return a set of the groups in this set and in {@code other}. */
+  GroupSet union(GroupDictionary dict, GroupSet other) {
+    if (gen == other.gen) {
+      BitSet r = (BitSet) bits.clone();
+      r.or(other.bits);
+      return r.equals(bits) ? this : new GroupSet(gen, r);
+    }
+    return of(dict, Iterables.concat(this, other));
+  }
+
+  /** @return a set of the groups in this set and {@code uuid}. */
+  GroupSet with(GroupDictionary dict, AccountGroup.UUID uuid) {
+    int id = gen.intern(uuid);
+    if (id < 0) {
+      return of(dict, Iterables.concat(this, ImmutableList.of(uuid)));
+    }
+    if (bits.get(id)) {
+      return this;
+    }
+    BitSet r = (BitSet) bits.clone();
+    r.set(id);
+    return new GroupSet(gen, r);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Iterator<AccountGroup.UUID> iterator() {
+    return new Iterator<AccountGroup.UUID>() {
+      private int next = bits.nextSetBit(0);
+
+      @Override
+      public boolean hasNext() {
+        return next >= 0;
+      }
+
+      @Override
+      public AccountGroup.UUID next() {
+        if (next < 0) {
+          throw new NoSuchElementException();
+        }
+        AccountGroup.UUID uuid = gen.get(next);
+        next = bits.nextSetBit(next + 1);
+        return uuid;
+      }
+    };
+  }
+}
@@ -15,17 +15,17 @@
 package com.google.gerrit.server.account;
 
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.reviewdb.client.AccountGroup;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Group membership checker for the internal group system.
@@ -34,27 +34,30 @@ import java.util.concurrent.ConcurrentHashMap;
  * the IdentifiedUser. Transitive group memberhips are resolved on demand starting from the
  * requested group and looking for a path to a group the user is a member of. Other group backends
  * are supported by recursively invoking the universal GroupMembership.
+ *
+ * <p>Groups the user is a member of are remembered as a {@link GroupSet}, which is replaced rather
+ * than modified when a membership is found, so lookups never lock. Only these groups are added to
+ * the {@link GroupDictionary}; negative results are remembered by UUID.
  */
 public class IncludingGroupMembership implements GroupMembership {
   public interface Factory {
     IncludingGroupMembership create(IdentifiedUser user);
   }
 
+  private final GroupDictionary dict;
   private final GroupIncludeCache includeCache;
   private final IdentifiedUser user;
-  private final Map<AccountGroup.UUID, Boolean> memberOf;
-  private Set<AccountGroup.UUID> knownGroups;
+  private final AtomicReference<GroupSet> memberOf;
+  private final Set<AccountGroup.UUID> notMemberOf = ConcurrentHashMap.newKeySet();
+  private GroupSet knownGroups;
 
   @Inject
-  IncludingGroupMembership(GroupIncludeCache includeCache, @Assisted IdentifiedUser user) {
+  IncludingGroupMembership(
+      GroupDictionary dict, GroupIncludeCache includeCache, @Assisted IdentifiedUser user) {
+    this.dict = dict;
     this.includeCache = includeCache;
     this.user = user;
-
-    Set<AccountGroup.UUID> groups = user.state().getInternalGroups();
-    memberOf = new ConcurrentHashMap<>(groups.size());
-    for (AccountGroup.UUID g : groups) {
-      memberOf.put(g, true);
-    }
+    this.memberOf = new AtomicReference<>(GroupSet.of(dict, user.state().getInternalGroups()));
   }
 
   @Override
@@ -63,33 +66,48 @@ public class IncludingGroupMembership implements GroupMembership {
       return false;
     }
 
-    Boolean b = memberOf.get(id);
+    Boolean b = cached(id);
     return b != null ? b : containsAnyOf(ImmutableSet.of(id));
   }
 
   @Override
   public boolean containsAnyOf(Iterable<AccountGroup.UUID> queryIds) {
     // Prefer lookup of a cached result over expanding includes.
+    GroupSet members = memberOf.get();
     boolean tryExpanding = false;
-    for (AccountGroup.UUID id : queryIds) {
-      Boolean b = memberOf.get(id);
-      if (b == null) {
-        tryExpanding = true;
-      } else if (b) {
+    if (queryIds instanceof GroupSet) {
+      GroupSet q = (GroupSet) queryIds;
+      if (members.intersects(q)) {
         return true;
       }
+      tryExpanding = !notMemberOf.containsAll(q);
+    } else {
+      for (AccountGroup.UUID id : queryIds) {
+        if (id == null) {
+          continue;
+        }
+        if (members.contains(id)) {
+          return true;
+        } else if (!notMemberOf.contains(id)) {
+          tryExpanding = true;
+        }
+      }
     }
 
     if (tryExpanding) {
       for (AccountGroup.UUID id : queryIds) {
-        if (memberOf.containsKey(id)) {
+        if (id == null) {
+          continue;
+        }
+        if (cached(id) != null) {
           // Membership was earlier proven to be false.
           continue;
         }
 
-        memberOf.put(id, false);
+        notMemberOf.add(id);
         if (search(includeCache.subgroupsOf(id))) {
-          memberOf.put(id, true);
+          memberOf.updateAndGet(m -> m.with(dict, id));
+          notMemberOf.remove(id);
           return true;
         }
       }
@@ -100,42 +118,46 @@ public class IncludingGroupMembership implements GroupMembership {
 
   @Override
   public Set<AccountGroup.UUID> intersection(Iterable<AccountGroup.UUID> groupIds) {
-    Set<AccountGroup.UUID> r = new HashSet<>();
+    List<AccountGroup.UUID> r = new ArrayList<>();
     for (AccountGroup.UUID id : groupIds) {
       if (contains(id)) {
         r.add(id);
       }
     }
-    return r;
+    return GroupSet.of(dict, r);
+  }
+
+  @Nullable
+  private Boolean cached(AccountGroup.UUID id) {
+    if (memberOf.get().contains(id)) {
+      return true;
+    }
+    return notMemberOf.contains(id) ? false : null;
   }
 
   private boolean search(Iterable<AccountGroup.UUID> ids) {
     return user.getEffectiveGroups().containsAnyOf(ids);
   }
 
-  private ImmutableSet<AccountGroup.UUID> computeKnownGroups() {
+  private GroupSet computeKnownGroups() {
     GroupMembership membership = user.getEffectiveGroups();
-    Set<AccountGroup.UUID> direct = user.state().getInternalGroups();
-    Set<AccountGroup.UUID> r = Sets.newHashSet(direct);
-    r.remove(null);
-
-    List<AccountGroup.UUID> q = Lists.newArrayList(r);
-    for (AccountGroup.UUID g : membership.intersection(includeCache.allExternalMembers())) {
-      if (g != null && r.add(g)) {
-        q.add(g);
-      }
-    }
+    Set<AccountGroup.UUID> external = membership.intersection(includeCache.allExternalMembers());
+    GroupSet r = memberOf.get().union(dict, GroupSet.of(dict, external));
 
+    Set<AccountGroup.UUID> parents = new HashSet<>();
+    List<AccountGroup.UUID> q = new ArrayList<>(r);
     while (!q.isEmpty()) {
       AccountGroup.UUID id = q.remove(q.size() - 1);
       for (AccountGroup.UUID g : includeCache.parentGroupsOf(id)) {
-        if (g != null && r.add(g)) {
+        if (g != null && !r.contains(g) && parents.add(g)) {
           q.add(g);
-          memberOf.put(g, true);
         }
       }
     }
-    return ImmutableSet.copyOf(r);
+
+    GroupSet known = r.union(dict, GroupSet.of(dict, parents));
+    memberOf.accumulateAndGet(known, (m, k) -> m.union(dict, k));
+    return known;
   }
 
   @Override
@@ -0,0 +1,181 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account.externalids;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.reviewdb.client.Account;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Immutable index of all external IDs, looked up by account and by email.
+ *
+ * <p>External IDs are held in one array sorted by account ID, next to a parallel {@code int[]} of
+ * the account IDs. The email index is a sorted {@code long[]} packing the hash of the email with
+ * the position of the external ID in the array. Compared to multimaps this avoids one map entry,
+ * one boxed key and one collection per account, which matters with hundreds of thousands of
+ * external IDs.
+ */
+class AllExternalIds {
+  static final AllExternalIds EMPTY = new AllExternalIds(new ExternalId[0]);
+
+  static AllExternalIds create(Collection<ExternalId> extIds) {
+    ExternalId[] ids = extIds.toArray(new ExternalId[extIds.size()]);
+    long[] order = new long[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      order[i] = pack(ids[i].accountId().get(), i);
+    }
+    Arrays.sort(order);
+    ExternalId[] sorted = new ExternalId[ids.length];
+    for (int i = 0; i < order.length; i++) {
+      sorted[i] = ids[(int) order[i]];
+    }
+    return new AllExternalIds(sorted);
+  }
+
+  private final ExternalId[] ids;
+  private final int[] accounts;
+  private final long[] emails;
+
+  /** @param ids external IDs sorted by account ID. */
+  private AllExternalIds(ExternalId[] ids) {
+    this.ids = ids;
+    this.accounts = new int[ids.length];
+    int n = 0;
+    for (int i = 0; i < ids.length; i++) {
+      accounts[i] = ids[i].accountId().get();
+      if (!Strings.isNullOrEmpty(ids[i].email())) {
+        n++;
+      }
+    }
+
+    emails = new long[n];
+    n = 0;
+    for (int i = 0; i < ids.length; i++) {
+      String email = ids[i].email();
+      if (!Strings.isNullOrEmpty(email)) {
+        emails[n++] = pack(email.hashCode(), i);
+      }
+    }
+    Arrays.sort(emails);
+  }
+
+  int size() {
+    return ids.length;
+  }
+
+  ImmutableSet<ExternalId> byAccount(Account.Id accountId) {
+    int id = accountId.get();
+    int i = lowerBound(accounts, id);
+    if (i >= accounts.length || accounts[i] != id) {
+      return ImmutableSet.of();
+    }
+    ImmutableSet.Builder<ExternalId> b = ImmutableSet.builder();
+    for (; i < accounts.length && accounts[i] == id; i++) {
+      b.add(ids[i]);
+    }
+    return b.build();
+  }
+
+  ImmutableSet<ExternalId> byEmail(String email) {
+    int hash = email.hashCode();
+    ImmutableSet.Builder<ExternalId> b = ImmutableSet.builder();
+    for (int i = lowerBound(emails, pack(hash, 0));
+        i < emails.length && (int) (emails[i] >> 32) == hash;
+        i++) {
+      ExternalId extId = ids[(int) emails[i]];
+      if (email.equals(extId.email())) {
+        b.add(extId);
+      }
+    }
+    return b.build();
+  }
+
+  /**
+   * Create a copy of this index with changes applied.
+   *
+   * <p>External IDs matching {@code remove} are dropped first. {@code add} then replaces any
+   * remaining external ID with the same key, as only one external ID can exist per key.
+   */
+  AllExternalIds update(Predicate<ExternalId> remove, Collection<ExternalId> add) {
+    Set<ExternalId.Key> addedKeys = new HashSet<>();
+    for (ExternalId extId : add) {
+      addedKeys.add(extId.key());
+    }
+    List<ExternalId> kept = new ArrayList<>(ids.length + add.size());
+    for (ExternalId extId : ids) {
+      if (!remove.test(extId) && !addedKeys.contains(extId.key())) {
+        kept.add(extId);
+      }
+    }
+    if (add.isEmpty()) {
+      return kept.size() == ids.length ? this : new AllExternalIds(kept.toArray(new ExternalId[0]));
+    }
+
+    // kept is still sorted by account ID; merge in the sorted additions.
+    AllExternalIds added = create(add);
+    ExternalId[] merged = new ExternalId[kept.size() + added.ids.length];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < kept.size() || j < added.ids.length) {
+      if (j == added.ids.length
+          || (i < kept.size() && kept.get(i).accountId().get() <= added.accounts[j])) {
+        merged[n++] = kept.get(i++);
+      } else {
+        merged[n++] = added.ids[j++];
+      }
+    }
+    return new AllExternalIds(merged);
+  }
+
+  private static long pack(int value, int pos) {
+    return ((long) value << 32) | (pos & 0xffffffffL);
+  }
+
+  private static int lowerBound(int[] a, int key) {
+    int lo = 0;
+    int hi = a.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (a[mid] < key) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  private static int lowerBound(long[] a, long key) {
+    int lo = 0;
+    int hi = a.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (a[mid] < key) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
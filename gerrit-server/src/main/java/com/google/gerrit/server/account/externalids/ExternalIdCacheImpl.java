@@ -14,35 +14,38 @@
 
 package com.google.gerrit.server.account.externalids;
 
-import static com.google.common.collect.ImmutableSetMultimap.toImmutableSetMultimap;
 import static java.util.stream.Collectors.toSet;
 
-import com.google.auto.value.AutoValue;
-import com.google.common.base.Strings;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.collect.Collections2;
-import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.Maps;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.function.Consumer;
+import java.util.function.Predicate;
 import org.eclipse.jgit.lib.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Caches external IDs of all accounts. The external IDs are always loaded from NoteDb. */
+/**
+ * Caches external IDs of all accounts. The external IDs are always loaded from NoteDb.
+ *
+ * <p>When the notes ref moved, for example because an external ID was updated by another server,
+ * the new revision is loaded by applying only the notes that differ from the last revision known to
+ * this cache, instead of reading all external IDs again.
+ */
 @Singleton
 class ExternalIdCacheImpl implements ExternalIdCache {
   private static final Logger log = LoggerFactory.getLogger(ExternalIdCacheImpl.class);
@@ -51,6 +54,9 @@ class ExternalIdCacheImpl implements ExternalIdCache {
   private final ExternalIdReader externalIdReader;
   private final Lock lock;
 
+  /** Most recently loaded or updated revision, used as base to load the next revision. */
+  private volatile Map.Entry<ObjectId, AllExternalIds> last;
+
   @Inject
   ExternalIdCacheImpl(ExternalIdReader externalIdReader) {
     this.extIdsByAccount =
@@ -69,9 +75,10 @@ class ExternalIdCacheImpl implements ExternalIdCache {
             // These reloads could be avoided by increasing the cache size to 2. However the race
             // window between reading the ref and looking it up in the cache is small so that
             // it's rare that this race happens. Therefore it's not worth to double the memory
-            // usage of this cache, just to avoid this.
+            // usage of this cache, just to avoid this. Since reloads are incremental they are
+            // also cheap.
             .maximumSize(1)
-            .build(new Loader(externalIdReader));
+            .build(new Loader());
     this.externalIdReader = externalIdReader;
     this.lock = new ReentrantLock(true /* fair */);
   }
@@ -79,27 +86,14 @@ class ExternalIdCacheImpl implements ExternalIdCache {
   @Override
   public void onCreate(ObjectId oldNotesRev, ObjectId newNotesRev, Collection<ExternalId> extIds)
       throws IOException {
-    updateCache(
-        oldNotesRev,
-        newNotesRev,
-        m -> {
-          for (ExternalId extId : extIds) {
-            m.put(extId.accountId(), extId);
-          }
-        });
+    updateCache(oldNotesRev, newNotesRev, e -> false, extIds);
   }
 
   @Override
   public void onRemove(ObjectId oldNotesRev, ObjectId newNotesRev, Collection<ExternalId> extIds)
       throws IOException {
     updateCache(
-        oldNotesRev,
-        newNotesRev,
-        m -> {
-          for (ExternalId extId : extIds) {
-            m.remove(extId.accountId(), extId);
-          }
-        });
+        oldNotesRev, newNotesRev, ImmutableSet.copyOf(extIds)::contains, ImmutableList.of());
   }
 
   @Override
@@ -109,14 +103,14 @@ class ExternalIdCacheImpl implements ExternalIdCache {
       Account.Id accountId,
       Collection<ExternalId.Key> extIdKeys)
       throws IOException {
-    updateCache(oldNotesRev, newNotesRev, m -> removeKeys(m.get(accountId), extIdKeys));
+    updateCache(oldNotesRev, newNotesRev, byKeys(accountId, extIdKeys), ImmutableList.of());
   }
 
   @Override
   public void onRemoveByKeys(
       ObjectId oldNotesRev, ObjectId newNotesRev, Collection<ExternalId.Key> extIdKeys)
       throws IOException {
-    updateCache(oldNotesRev, newNotesRev, m -> removeKeys(m.values(), extIdKeys));
+    updateCache(oldNotesRev, newNotesRev, byKeys(null, extIdKeys), ImmutableList.of());
   }
 
   @Override
@@ -126,12 +120,8 @@ class ExternalIdCacheImpl implements ExternalIdCache {
     updateCache(
         oldNotesRev,
         newNotesRev,
-        m -> {
-          removeKeys(m.values(), updatedExtIds.stream().map(e -> e.key()).collect(toSet()));
-          for (ExternalId updatedExtId : updatedExtIds) {
-            m.put(updatedExtId.accountId(), updatedExtId);
-          }
-        });
+        byKeys(null, updatedExtIds.stream().map(e -> e.key()).collect(toSet())),
+        updatedExtIds);
   }
 
   @Override
@@ -144,17 +134,7 @@ class ExternalIdCacheImpl implements ExternalIdCache {
       throws IOException {
     ExternalIdsUpdate.checkSameAccount(Iterables.concat(toRemove, toAdd), accountId);
 
-    updateCache(
-        oldNotesRev,
-        newNotesRev,
-        m -> {
-          for (ExternalId extId : toRemove) {
-            m.remove(extId.accountId(), extId);
-          }
-          for (ExternalId extId : toAdd) {
-            m.put(extId.accountId(), extId);
-          }
-        });
+    updateCache(oldNotesRev, newNotesRev, ImmutableSet.copyOf(toRemove)::contains, toAdd);
   }
 
   @Override
@@ -167,15 +147,7 @@ class ExternalIdCacheImpl implements ExternalIdCache {
       throws IOException {
     ExternalIdsUpdate.checkSameAccount(toAdd, accountId);
 
-    updateCache(
-        oldNotesRev,
-        newNotesRev,
-        m -> {
-          removeKeys(m.get(accountId), toRemove);
-          for (ExternalId extId : toAdd) {
-            m.put(extId.accountId(), extId);
-          }
-        });
+    updateCache(oldNotesRev, newNotesRev, byKeys(accountId, toRemove), toAdd);
   }
 
   @Override
@@ -185,15 +157,7 @@ class ExternalIdCacheImpl implements ExternalIdCache {
       Collection<ExternalId.Key> toRemove,
       Collection<ExternalId> toAdd)
       throws IOException {
-    updateCache(
-        oldNotesRev,
-        newNotesRev,
-        m -> {
-          removeKeys(m.values(), toRemove);
-          for (ExternalId extId : toAdd) {
-            m.put(extId.accountId(), extId);
-          }
-        });
+    updateCache(oldNotesRev, newNotesRev, byKeys(null, toRemove), toAdd);
   }
 
   @Override
@@ -203,23 +167,13 @@ class ExternalIdCacheImpl implements ExternalIdCache {
       Collection<ExternalId> toRemove,
       Collection<ExternalId> toAdd)
       throws IOException {
-    updateCache(
-        oldNotesRev,
-        newNotesRev,
-        m -> {
-          for (ExternalId extId : toRemove) {
-            m.remove(extId.accountId(), extId);
-          }
-          for (ExternalId extId : toAdd) {
-            m.put(extId.accountId(), extId);
-          }
-        });
+    updateCache(oldNotesRev, newNotesRev, ImmutableSet.copyOf(toRemove)::contains, toAdd);
   }
 
   @Override
   public Set<ExternalId> byAccount(Account.Id accountId) throws IOException {
     try {
-      return extIdsByAccount.get(externalIdReader.readRevision()).byAccount().get(accountId);
+      return extIdsByAccount.get(externalIdReader.readRevision()).byAccount(accountId);
     } catch (ExecutionException e) {
       throw new IOException("Cannot list external ids by account", e);
     }
@@ -228,7 +182,7 @@ class ExternalIdCacheImpl implements ExternalIdCache {
   @Override
   public Set<ExternalId> byEmail(String email) throws IOException {
     try {
-      return extIdsByAccount.get(externalIdReader.readRevision()).byEmail().get(email);
+      return extIdsByAccount.get(externalIdReader.readRevision()).byEmail(email);
     } catch (ExecutionException e) {
       throw new IOException("Cannot list external ids by email", e);
     }
@@ -237,20 +191,19 @@ class ExternalIdCacheImpl implements ExternalIdCache {
   private void updateCache(
       ObjectId oldNotesRev,
       ObjectId newNotesRev,
-      Consumer<Multimap<Account.Id, ExternalId>> update) {
+      Predicate<ExternalId> remove,
+      Collection<ExternalId> add) {
     lock.lock();
     try {
-      ListMultimap<Account.Id, ExternalId> m;
+      AllExternalIds old;
       if (!ObjectId.zeroId().equals(oldNotesRev)) {
-        m =
-            MultimapBuilder.hashKeys()
-                .arrayListValues()
-                .build(extIdsByAccount.get(oldNotesRev).byAccount());
+        old = extIdsByAccount.get(oldNotesRev);
       } else {
-        m = MultimapBuilder.hashKeys().arrayListValues().build();
+        old = AllExternalIds.EMPTY;
       }
-      update.accept(m);
-      extIdsByAccount.put(newNotesRev, AllExternalIds.create(m));
+      AllExternalIds updated = old.update(remove, add);
+      extIdsByAccount.put(newNotesRev, updated);
+      last = Maps.immutableEntry(newNotesRev, updated);
     } catch (ExecutionException e) {
       log.warn("Cannot update external IDs", e);
     } finally {
@@ -258,43 +211,37 @@ class ExternalIdCacheImpl implements ExternalIdCache {
     }
   }
 
-  private static void removeKeys(Collection<ExternalId> ids, Collection<ExternalId.Key> toRemove) {
-    Collections2.transform(ids, e -> e.key()).removeAll(toRemove);
-  }
-
-  private static class Loader extends CacheLoader<ObjectId, AllExternalIds> {
-    private final ExternalIdReader externalIdReader;
-
-    Loader(ExternalIdReader externalIdReader) {
-      this.externalIdReader = externalIdReader;
+  private static Predicate<ExternalId> byKeys(
+      @Nullable Account.Id accountId, Collection<ExternalId.Key> keys) {
+    Set<ExternalId.Key> keySet = ImmutableSet.copyOf(keys);
+    if (accountId == null) {
+      return e -> keySet.contains(e.key());
     }
+    return e -> e.accountId().equals(accountId) && keySet.contains(e.key());
+  }
 
+  private class Loader extends CacheLoader<ObjectId, AllExternalIds> {
     @Override
     public AllExternalIds load(ObjectId notesRev) throws Exception {
-      Multimap<Account.Id, ExternalId> extIdsByAccount =
-          MultimapBuilder.hashKeys().arrayListValues().build();
-      for (ExternalId extId : externalIdReader.all(notesRev)) {
-        extIdsByAccount.put(extId.accountId(), extId);
+      Map.Entry<ObjectId, AllExternalIds> base = last;
+      AllExternalIds result = null;
+      if (base != null) {
+        try {
+          ExternalIdReader.Diff diff = externalIdReader.diff(base.getKey(), notesRev);
+          result = base.getValue().update(ImmutableSet.copyOf(diff.removed)::contains, diff.added);
+        } catch (IOException | RuntimeException e) {
+          log.warn(
+              String.format(
+                  "Cannot load external IDs incrementally from %s to %s",
+                  base.getKey().name(), notesRev.name()),
+              e);
+        }
       }
-      return AllExternalIds.create(extIdsByAccount);
-    }
-  }
-
-  @AutoValue
-  abstract static class AllExternalIds {
-    static AllExternalIds create(Multimap<Account.Id, ExternalId> byAccount) {
-      ImmutableSetMultimap<String, ExternalId> byEmail =
-          byAccount
-              .values()
-              .stream()
-              .filter(e -> !Strings.isNullOrEmpty(e.email()))
-              .collect(toImmutableSetMultimap(ExternalId::email, e -> e));
-      return new AutoValue_ExternalIdCacheImpl_AllExternalIds(
-          ImmutableSetMultimap.copyOf(byAccount), byEmail);
+      if (result == null) {
+        result = AllExternalIds.create(externalIdReader.all(notesRev));
+      }
+      last = Maps.immutableEntry(notesRev, result);
+      return result;
     }
-
-    public abstract ImmutableSetMultimap<Account.Id, ExternalId> byAccount();
-
-    public abstract ImmutableSetMultimap<String, ExternalId> byEmail();
   }
 }
@@ -29,7 +29,11 @@ import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.ObjectId;
@@ -38,6 +42,11 @@ import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.notes.Note;
 import org.eclipse.jgit.notes.NoteMap;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -135,18 +144,103 @@ public class ExternalIdReader {
       NoteMap noteMap = readNoteMap(rw, rev);
       Set<ExternalId> extIds = new HashSet<>();
       for (Note note : noteMap) {
-        byte[] raw =
-            rw.getObjectReader().open(note.getData(), OBJ_BLOB).getCachedBytes(MAX_NOTE_SZ);
-        try {
-          extIds.add(ExternalId.parse(note.getName(), raw));
-        } catch (Exception e) {
-          log.error(String.format("Ignoring invalid external ID note %s", note.getName()), e);
+        ExternalId extId = parse(rw, note.getName(), note.getData());
+        if (extId != null) {
+          extIds.add(extId);
         }
       }
       return extIds;
     }
   }
 
+  /**
+   * Reads the external IDs that differ between two revisions of the refs/meta/external-ids branch.
+   *
+   * <p>Only the notes that changed between the two revisions are read, so this is much cheaper
+   * than {@link #all(ObjectId)} if few external IDs were updated.
+   */
+  Diff diff(ObjectId oldRev, ObjectId newRev) throws IOException {
+    checkReadEnabled();
+
+    try (Repository repo = repoManager.openRepository(allUsersName);
+        RevWalk rw = new RevWalk(repo);
+        TreeWalk tw = new TreeWalk(rw.getObjectReader())) {
+      tw.setRecursive(true);
+      tw.setFilter(TreeFilter.ANY_DIFF);
+      tw.addTree(treeOf(rw, oldRev));
+      tw.addTree(treeOf(rw, newRev));
+
+      // Notes are keyed by name rather than path, as the fanout of the notes
+      // tree may differ between the two revisions.
+      Map<String, ObjectId> oldNotes = new HashMap<>();
+      Map<String, ObjectId> newNotes = new HashMap<>();
+      while (tw.next()) {
+        String name = tw.getPathString().replace("/", "");
+        if (!tw.getObjectId(0).equals(ObjectId.zeroId())) {
+          oldNotes.put(name, tw.getObjectId(0));
+        }
+        if (!tw.getObjectId(1).equals(ObjectId.zeroId())) {
+          newNotes.put(name, tw.getObjectId(1));
+        }
+      }
+
+      List<ExternalId> removed = new ArrayList<>();
+      List<ExternalId> added = new ArrayList<>();
+      for (Map.Entry<String, ObjectId> e : oldNotes.entrySet()) {
+        if (!e.getValue().equals(newNotes.get(e.getKey()))) {
+          ExternalId extId = parse(rw, e.getKey(), e.getValue());
+          if (extId != null) {
+            removed.add(extId);
+          }
+        }
+      }
+      for (Map.Entry<String, ObjectId> e : newNotes.entrySet()) {
+        if (!e.getValue().equals(oldNotes.get(e.getKey()))) {
+          ExternalId extId = parse(rw, e.getKey(), e.getValue());
+          if (extId != null) {
+            added.add(extId);
+          }
+        }
+      }
+      return new Diff(removed, added);
+    }
+  }
+
+  /** External IDs removed and added between two revisions. */
+  static class Diff {
+    /** External IDs as they were in the old revision, including the ones that were modified. */
+    final List<ExternalId> removed;
+
+    /** External IDs as they are in the new revision, including the ones that were modified. */
+    final List<ExternalId> added;
+
+    Diff(List<ExternalId> removed, List<ExternalId> added) {
+      this.removed = removed;
+      this.added = added;
+    }
+  }
+
+  private static AbstractTreeIterator treeOf(RevWalk rw, ObjectId rev) throws IOException {
+    if (rev.equals(ObjectId.zeroId())) {
+      return new EmptyTreeIterator();
+    }
+    CanonicalTreeParser p = new CanonicalTreeParser();
+    p.reset(rw.getObjectReader(), rw.parseCommit(rev).getTree());
+    return p;
+  }
+
+  @Nullable
+  private static ExternalId parse(RevWalk rw, String noteName, ObjectId blobId)
+      throws IOException {
+    byte[] raw = rw.getObjectReader().open(blobId, OBJ_BLOB).getCachedBytes(MAX_NOTE_SZ);
+    try {
+      return ExternalId.parse(noteName, raw);
+    } catch (Exception e) {
+      log.error(String.format("Ignoring invalid external ID note %s", noteName), e);
+      return null;
+    }
+  }
+
   /** Reads and returns the specified external ID. */
   @Nullable
   ExternalId get(ExternalId.Key key) throws IOException, ConfigInvalidException {
@@ -23,6 +23,7 @@ import com.google.gerrit.reviewdb.client.AccountGroup;
 import com.google.gerrit.server.account.GroupBackend;
 import com.google.gerrit.server.account.Realm;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.StringKeySerializer;
 import com.google.inject.Scopes;
 import com.google.inject.TypeLiteral;
 import java.util.Optional;
@@ -38,7 +39,8 @@ public class LdapModule extends CacheModule {
   protected void configure() {
     cache(GROUP_CACHE, String.class, new TypeLiteral<Set<AccountGroup.UUID>>() {})
         .expireAfterWrite(1, HOURS)
-        .loader(LdapRealm.MemberLoader.class);
+        .loader(LdapRealm.MemberLoader.class)
+        .snapshot(StringKeySerializer.class);
 
     cache(USERNAME_CACHE, String.class, new TypeLiteral<Optional<Account.Id>>() {})
         .loader(LdapRealm.UserLoader.class);
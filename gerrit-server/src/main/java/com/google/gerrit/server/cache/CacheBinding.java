@@ -37,6 +37,15 @@ public interface CacheBinding<K, V> {
   /** Algorithm to weigh an object with a method other than the unit weight 1. */
   CacheBinding<K, V> weigher(Class<? extends Weigher<K, V>> clazz);
 
+  /** Format to store entries on disk with, instead of Java serialization. */
+  CacheBinding<K, V> serializer(Class<? extends CacheSerializer<K, V>> clazz);
+
+  /** Save the keys of the cache on shutdown and reload them on startup. */
+  CacheBinding<K, V> snapshot(Class<? extends CacheKeySerializer<K>> clazz);
+
+  /** Format to send keys to other servers with when entries are evicted. */
+  CacheBinding<K, V> keySerializer(Class<? extends CacheKeySerializer<K>> clazz);
+
   String name();
 
   TypeLiteral<K> keyType();
@@ -55,4 +64,18 @@ public interface CacheBinding<K, V> {
 
   @Nullable
   CacheLoader<K, V> loader();
+
+  @Nullable
+  CacheSerializer<K, V> serializer();
+
+  @Nullable
+  CacheKeySerializer<K> snapshot();
+
+  /**
+   * Format of the cache keys, taken from the first of {@link #keySerializer(Class)}, {@link
+   * #snapshot(Class)} and {@link #serializer(Class)} that was configured. Caches keyed by {@code
+   * String} default to {@link StringKeySerializer}.
+   */
+  @Nullable
+  CacheKeySerializer<K> keySerializer();
 }
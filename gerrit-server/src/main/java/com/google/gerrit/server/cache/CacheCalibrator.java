@@ -0,0 +1,265 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.Weigher;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.common.TimeUtil;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically compares the weight of in-memory cache entries with the heap they retain.
+ *
+ * <p>Weighers only approximate the size of a value, and a cache limited by {@code memoryLimit} can
+ * use several times more heap than its weight suggests. Every {@code cache.calibrationInterval}
+ * a random sample of each cache's entries is measured with {@link ObjectSizeEstimator} and the
+ * result extrapolated to the whole cache, so {@code memoryLimit} can be sized against actual heap.
+ */
+@Singleton
+public class CacheCalibrator implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(CacheCalibrator.class);
+
+  /** Result of calibrating one cache. */
+  public static class Calibration {
+    private final long entries;
+    private final int samples;
+    private final long weight;
+    private final long retainedBytes;
+    private final double ratio;
+    private final boolean weighed;
+    private final long timestamp;
+
+    Calibration(
+        long entries,
+        int samples,
+        long weight,
+        long retainedBytes,
+        double ratio,
+        boolean weighed,
+        long timestamp) {
+      this.entries = entries;
+      this.samples = samples;
+      this.weight = weight;
+      this.retainedBytes = retainedBytes;
+      this.ratio = ratio;
+      this.weighed = weighed;
+      this.timestamp = timestamp;
+    }
+
+    /** @return number of entries held in memory when the cache was calibrated. */
+    public long entries() {
+      return entries;
+    }
+
+    /** @return number of entries that were measured. */
+    public int samples() {
+      return samples;
+    }
+
+    /** @return true if the cache has a weigher; if false, each entry weighs 1. */
+    public boolean weighed() {
+      return weighed;
+    }
+
+    /** @return total weight of the entries held in memory, by the cache's weigher. */
+    public long weight() {
+      return weight;
+    }
+
+    /** @return estimated heap retained by the entries held in memory, in bytes. */
+    public long retainedBytes() {
+      return retainedBytes;
+    }
+
+    /** @return retained bytes per unit of weight, 0 if the sampled entries had no weight. */
+    public double ratio() {
+      return ratio;
+    }
+
+    /** @return time the cache was calibrated, in milliseconds since the epoch. */
+    public long timestamp() {
+      return timestamp;
+    }
+  }
+
+  private static class Registration<K, V> {
+    final Cache<K, V> cache;
+    @Nullable final Weigher<K, V> weigher;
+
+    Registration(Cache<K, V> cache, @Nullable Weigher<K, V> weigher) {
+      this.cache = cache;
+      this.weigher = weigher;
+    }
+
+    List<Map.Entry<K, V>> sample(int max) {
+      // Reservoir sampling, so every entry is equally likely to be chosen.
+      List<Map.Entry<K, V>> sample = new ArrayList<>(max);
+      ThreadLocalRandom rnd = ThreadLocalRandom.current();
+      long seen = 0;
+      for (Map.Entry<K, V> e : cache.asMap().entrySet()) {
+        Map.Entry<K, V> copy = new AbstractMap.SimpleImmutableEntry<>(e);
+        if (sample.size() < max) {
+          sample.add(copy);
+        } else {
+          long i = rnd.nextLong(seen + 1);
+          if (i < max) {
+            sample.set((int) i, copy);
+          }
+        }
+        seen++;
+      }
+      return sample;
+    }
+
+    long weigh(Map.Entry<K, V> e) {
+      return weigher != null ? weigher.weigh(e.getKey(), e.getValue()) : 1;
+    }
+  }
+
+  private final long intervalMillis;
+  private final int samples;
+  private final ObjectSizeEstimator estimator;
+  private final Map<String, Registration<?, ?>> caches = new ConcurrentHashMap<>();
+  private final Map<String, Calibration> results = new ConcurrentHashMap<>();
+  private final WorkQueue workQueue;
+  private WorkQueue.Executor executor;
+
+  @Inject
+  CacheCalibrator(@GerritServerConfig Config cfg, WorkQueue workQueue) {
+    this(
+        cfg,
+        workQueue,
+        new ObjectSizeEstimator(
+            Math.max(cfg.getInt("cache", null, "calibrationMaxObjects", 1_000_000), 1)));
+  }
+
+  @VisibleForTesting
+  CacheCalibrator(Config cfg, @Nullable WorkQueue workQueue, ObjectSizeEstimator estimator) {
+    this.workQueue = workQueue;
+    this.intervalMillis =
+        ConfigUtil.getTimeUnit(
+            cfg, "cache", null, "calibrationInterval", HOURS.toMillis(1), MILLISECONDS);
+    this.samples = Math.max(cfg.getInt("cache", null, "calibrationSamples", 64), 1);
+    this.estimator = estimator;
+  }
+
+  /**
+   * Register an in-memory cache to be calibrated.
+   *
+   * @param def binding of the cache; its plugin qualified name is the key of the calibration.
+   * @param cache cache holding the entries in memory; must support {@link Cache#asMap()}.
+   * @param weigher weigher the cache is limited by, or null if each entry weighs 1.
+   */
+  public <K, V> void register(
+      CacheBinding<K, V> def, Cache<K, V> cache, @Nullable Weigher<K, V> weigher) {
+    String name = def.name();
+    caches.put(name, new Registration<>(cache, weigher));
+    results.remove(name);
+  }
+
+  /**
+   * @param pluginName name of the plugin declaring the cache, or "gerrit".
+   * @param cacheName name of the cache.
+   * @return latest calibration of the cache, or null if it was not calibrated yet.
+   */
+  @Nullable
+  public Calibration get(String pluginName, String cacheName) {
+    return results.get(CacheProvider.qualifiedName(pluginName, cacheName));
+  }
+
+  @Override
+  public void start() {
+    if (intervalMillis <= 0) {
+      return;
+    }
+    executor = workQueue.createQueue(1, "CacheCalibrator");
+    @SuppressWarnings("unused") // calibrate already handles errors
+    Future<?> possiblyIgnoredError =
+        executor.scheduleWithFixedDelay(
+            this::calibrate, intervalMillis, intervalMillis, MILLISECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor.unregisterWorkQueue();
+      executor = null;
+    }
+  }
+
+  /** Calibrate all registered caches. */
+  @VisibleForTesting
+  void calibrate() {
+    for (Map.Entry<String, Registration<?, ?>> e : caches.entrySet()) {
+      try {
+        results.put(e.getKey(), calibrate(e.getValue()));
+      } catch (RuntimeException err) {
+        log.warn(String.format("Cannot calibrate cache %s", e.getKey()), err);
+      }
+    }
+  }
+
+  private <K, V> Calibration calibrate(Registration<K, V> r) {
+    List<Map.Entry<K, V>> sample = r.sample(samples);
+    long entries = Math.max(r.cache.size(), sample.size());
+    long[] retained = estimator.retainedSizes(sample);
+    long sampleWeight = 0;
+    long sampleBytes = 0;
+    for (int i = 0; i < sample.size(); i++) {
+      sampleWeight += r.weigh(sample.get(i));
+      sampleBytes += retained[i];
+    }
+
+    long weight;
+    if (r.cache instanceof WeightedCache) {
+      weight = ((WeightedCache) r.cache).weightedSize();
+    } else {
+      weight = extrapolate(sampleWeight, sample.size(), entries);
+    }
+    return new Calibration(
+        entries,
+        sample.size(),
+        weight,
+        extrapolate(sampleBytes, sample.size(), entries),
+        sampleWeight > 0 ? (double) sampleBytes / sampleWeight : 0,
+        r.weigher != null,
+        TimeUtil.nowMs());
+  }
+
+  private static long extrapolate(long sum, int samples, long entries) {
+    return samples > 0 ? (long) ((double) sum / samples * entries) : 0;
+  }
+}
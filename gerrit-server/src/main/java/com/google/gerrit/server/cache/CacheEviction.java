@@ -0,0 +1,80 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.gerrit.common.Nullable;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Objects;
+
+/** Request to invalidate one key, or all keys, of a named cache on other servers. */
+public final class CacheEviction {
+  /** Evict the entry for a serialized key from cache {@code cacheName}. */
+  public static CacheEviction key(String cacheName, byte[] key) {
+    return new CacheEviction(cacheName, checkNotNull(key));
+  }
+
+  /** Evict all entries from cache {@code cacheName}. */
+  public static CacheEviction all(String cacheName) {
+    return new CacheEviction(cacheName, null);
+  }
+
+  private final String cacheName;
+  @Nullable private final byte[] key;
+
+  private CacheEviction(String cacheName, @Nullable byte[] key) {
+    this.cacheName = checkNotNull(cacheName);
+    this.key = key;
+  }
+
+  public String cacheName() {
+    return cacheName;
+  }
+
+  /** @return key as serialized by the cache's {@link CacheKeySerializer}; null to evict all. */
+  @Nullable
+  public byte[] key() {
+    return key;
+  }
+
+  public boolean isAll() {
+    return key == null;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof CacheEviction) {
+      CacheEviction e = (CacheEviction) o;
+      return cacheName.equals(e.cacheName) && Arrays.equals(key, e.key);
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(cacheName, Arrays.hashCode(key));
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("cacheName", cacheName)
+        .add("key", key != null ? Base64.getEncoder().encodeToString(key) : "*")
+        .toString();
+  }
+}
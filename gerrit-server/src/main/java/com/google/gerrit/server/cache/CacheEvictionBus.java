@@ -0,0 +1,271 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Propagates cache invalidations to the other servers of a cluster.
+ *
+ * <p>Caches publish keys they invalidated locally with {@link #publish(String, Object)}. Evictions
+ * are collected for {@code cacheEviction.batchDelay}, coalesced so each key is sent once and keys
+ * are dropped if the whole cache is evicted, and handed to the {@link CacheEvictionTransport}
+ * bound as a {@link DynamicItem}. Evictions received by the transport are applied directly to the
+ * named caches, without being published again.
+ *
+ * <p>If no transport is bound, publishing is a no-op.
+ */
+@Singleton
+public class CacheEvictionBus implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(CacheEvictionBus.class);
+
+  public static class Module extends LifecycleModule {
+    private final Config cfg;
+
+    public Module(Config cfg) {
+      this.cfg = cfg;
+    }
+
+    @Override
+    protected void configure() {
+      DynamicItem.itemOf(binder(), CacheEvictionTransport.class);
+      listener().to(CacheEvictionBus.class);
+      if (cfg.getString("cacheEviction", null, "directory") != null) {
+        DynamicItem.bind(binder(), CacheEvictionTransport.class)
+            .to(FileCacheEvictionTransport.class);
+        listener().to(FileCacheEvictionTransport.class);
+      }
+    }
+  }
+
+  private static class Registration<K> {
+    final Cache<K, ?> cache;
+    @Nullable final CacheKeySerializer<K> serializer;
+
+    Registration(Cache<K, ?> cache, @Nullable CacheKeySerializer<K> serializer) {
+      this.cache = cache;
+      this.serializer = serializer;
+    }
+
+    @Nullable
+    byte[] serialize(Object key) throws IOException {
+      if (serializer == null) {
+        return null;
+      }
+      @SuppressWarnings("unchecked")
+      K k = (K) key;
+      return serializer.serializeKey(k);
+    }
+
+    void evict(CacheEviction e) throws IOException {
+      if (e.isAll() || serializer == null) {
+        cache.invalidateAll();
+      } else {
+        cache.invalidate(serializer.deserializeKey(e.key()));
+      }
+    }
+  }
+
+  private final long batchDelayMillis;
+  private final WorkQueue workQueue;
+  private final Map<String, Registration<?>> caches = new ConcurrentHashMap<>();
+  private final Object lock = new Object();
+  private DynamicItem<CacheEvictionTransport> transport;
+
+  // Guarded by lock.
+  private Set<CacheEviction> pending = new LinkedHashSet<>();
+  private WorkQueue.Executor executor;
+  private boolean scheduled;
+
+  @Inject
+  CacheEvictionBus(@GerritServerConfig Config cfg, WorkQueue workQueue) {
+    this.batchDelayMillis =
+        ConfigUtil.getTimeUnit(
+            cfg, "cacheEviction", null, "batchDelay", 100, TimeUnit.MILLISECONDS);
+    this.workQueue = workQueue;
+  }
+
+  @Inject(optional = true)
+  @VisibleForTesting
+  void setTransport(DynamicItem<CacheEvictionTransport> transport) {
+    this.transport = transport;
+  }
+
+  /**
+   * Register a cache so it can be evicted by other servers.
+   *
+   * @param name name of the cache, shared by all servers.
+   * @param serializer format of the keys; if null, evicting any key evicts the whole cache.
+   * @param cache the cache.
+   */
+  public <K> void register(
+      String name, @Nullable CacheKeySerializer<K> serializer, Cache<K, ?> cache) {
+    caches.put(name, new Registration<>(cache, serializer));
+  }
+
+  /**
+   * Evict {@code key} from cache {@code cacheName} on all other servers.
+   *
+   * <p>The cache must have been declared with a key serializer; otherwise all of its entries are
+   * evicted.
+   */
+  public void publish(String cacheName, Object key) {
+    if (!isEnabled()) {
+      return;
+    }
+    Registration<?> r = caches.get(cacheName);
+    if (r == null) {
+      return;
+    }
+    byte[] raw;
+    try {
+      raw = r.serialize(key);
+    } catch (IOException | RuntimeException e) {
+      log.warn(String.format("Cannot serialize key of cache %s", cacheName), e);
+      raw = null;
+    }
+    enqueue(raw != null ? CacheEviction.key(cacheName, raw) : CacheEviction.all(cacheName));
+  }
+
+  /** Evict all entries from cache {@code cacheName} on all other servers. */
+  public void publishAll(String cacheName) {
+    if (isEnabled() && caches.containsKey(cacheName)) {
+      enqueue(CacheEviction.all(cacheName));
+    }
+  }
+
+  /** Apply evictions received from another server. */
+  public void receive(List<CacheEviction> evictions) {
+    for (CacheEviction e : evictions) {
+      Registration<?> r = caches.get(e.cacheName());
+      if (r != null) {
+        try {
+          r.evict(e);
+        } catch (IOException | RuntimeException err) {
+          log.warn(String.format("Cannot apply %s", e), err);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void start() {
+    synchronized (lock) {
+      executor = workQueue.createQueue(1, "CacheEvictionBus");
+      if (!pending.isEmpty()) {
+        schedule();
+      }
+    }
+  }
+
+  @Override
+  public void stop() {
+    WorkQueue.Executor e;
+    synchronized (lock) {
+      e = executor;
+      executor = null;
+    }
+    if (e != null) {
+      e.shutdownNow();
+      e.unregisterWorkQueue();
+    }
+    flush();
+  }
+
+  private boolean isEnabled() {
+    return transport != null && transport.get() != null;
+  }
+
+  private void enqueue(CacheEviction e) {
+    synchronized (lock) {
+      pending.add(e);
+      if (!scheduled && executor != null) {
+        schedule();
+      }
+    }
+  }
+
+  private void schedule() {
+    try {
+      @SuppressWarnings("unused") // flush already handles errors
+      Future<?> possiblyIgnoredError =
+          executor.schedule(this::flush, batchDelayMillis, TimeUnit.MILLISECONDS);
+      scheduled = true;
+    } catch (RejectedExecutionException e) {
+      // Shutting down; stop() flushes what is left.
+    }
+  }
+
+  /** Send all pending evictions to the transport. */
+  @VisibleForTesting
+  void flush() {
+    Set<CacheEviction> batch;
+    synchronized (lock) {
+      batch = pending;
+      pending = new LinkedHashSet<>();
+      scheduled = false;
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    Set<String> all = new HashSet<>();
+    for (CacheEviction e : batch) {
+      if (e.isAll()) {
+        all.add(e.cacheName());
+      }
+    }
+    List<CacheEviction> coalesced = new ArrayList<>(batch.size());
+    for (CacheEviction e : batch) {
+      if (e.isAll() || !all.contains(e.cacheName())) {
+        coalesced.add(e);
+      }
+    }
+
+    CacheEvictionTransport t = transport != null ? transport.get() : null;
+    if (t == null) {
+      return;
+    }
+    try {
+      t.send(coalesced);
+    } catch (IOException | RuntimeException e) {
+      log.warn(String.format("Cannot send %d cache evictions", coalesced.size()), e);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import com.google.gerrit.extensions.annotations.ExtensionPoint;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Delivers cache evictions between the servers of a cluster.
+ *
+ * <p>{@link CacheEvictionBus} calls {@link #send(List)} with batches of evictions made on this
+ * server. Implementations forward them to their peers, and hand evictions received from peers to
+ * {@link CacheEvictionBus#receive(List)}. Evictions must not be echoed back to the server that
+ * sent them.
+ */
+@ExtensionPoint
+public interface CacheEvictionTransport {
+  /**
+   * Send evictions made on this server to all other servers.
+   *
+   * <p>Called from a single thread; implementations may block.
+   */
+  void send(List<CacheEviction> evictions) throws IOException;
+}
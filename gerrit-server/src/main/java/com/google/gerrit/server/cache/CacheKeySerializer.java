@@ -0,0 +1,31 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import java.io.IOException;
+
+/**
+ * Converts keys of a cache to and from bytes.
+ *
+ * <p>Used by {@link CacheSnapshotter} to remember which entries were cached across a restart, and
+ * as the key half of a {@link CacheSerializer}.
+ *
+ * <p>Implementations must be thread-safe.
+ */
+public interface CacheKeySerializer<K> {
+  byte[] serializeKey(K key) throws IOException;
+
+  K deserializeKey(byte[] in) throws IOException;
+}
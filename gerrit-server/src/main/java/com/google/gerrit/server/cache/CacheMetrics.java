@@ -21,16 +21,21 @@ import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.metrics.CallbackMetric;
 import com.google.gerrit.metrics.CallbackMetric1;
 import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
 import com.google.gerrit.metrics.Field;
 import com.google.gerrit.metrics.MetricMaker;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 @Singleton
 public class CacheMetrics {
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
   @Inject
-  public CacheMetrics(MetricMaker metrics, DynamicMap<Cache<?, ?>> cacheMap) {
+  public CacheMetrics(
+      MetricMaker metrics, DynamicMap<Cache<?, ?>> cacheMap, CacheCalibrator calibrator) {
     Field<String> F_NAME = Field.ofString("cache_name");
 
     CallbackMetric1<String, Long> memEnt =
@@ -51,6 +56,44 @@ public class CacheMetrics {
             Long.class,
             new Description("Memory eviction count").setGauge().setUnit("evicted entries"),
             F_NAME);
+    CallbackMetric1<String, Long> memEvictWeight =
+        metrics.newCallbackMetric(
+            "caches/memory_eviction_weight",
+            Long.class,
+            new Description("Total weight of entries evicted from memory")
+                .setCumulative()
+                .setUnit("weight"),
+            F_NAME);
+    CallbackMetric1<String, Double> memLoadPenalty =
+        metrics.newCallbackMetric(
+            "caches/memory_load_penalty",
+            Double.class,
+            new Description("Average time spent loading an entry missing from memory")
+                .setGauge()
+                .setUnit(Units.MILLISECONDS),
+            F_NAME);
+    CallbackMetric1<String, Long> memWeight =
+        metrics.newCallbackMetric(
+            "caches/memory_weight",
+            Long.class,
+            new Description("Total weight of entries in memory").setGauge().setUnit("weight"),
+            F_NAME);
+    CallbackMetric1<String, Long> memRetained =
+        metrics.newCallbackMetric(
+            "caches/memory_retained",
+            Long.class,
+            new Description("Estimated heap retained by entries in memory")
+                .setGauge()
+                .setUnit(Units.BYTES),
+            F_NAME);
+    CallbackMetric1<String, Double> memRatio =
+        metrics.newCallbackMetric(
+            "caches/memory_weigher_ratio",
+            Double.class,
+            new Description("Estimated heap retained per unit of weight")
+                .setGauge()
+                .setUnit("bytes per weight"),
+            F_NAME);
     CallbackMetric1<String, Long> perDiskEnt =
         metrics.newCallbackMetric(
             "caches/disk_cached",
@@ -63,9 +106,37 @@ public class CacheMetrics {
             Double.class,
             new Description("Disk hit ratio for persistent cache").setGauge().setUnit("percent"),
             F_NAME);
+    CallbackMetric1<String, Long> perDiskQueue =
+        metrics.newCallbackMetric(
+            "caches/disk_write_queue",
+            Long.class,
+            new Description("Writes waiting to be stored by persistent cache")
+                .setGauge()
+                .setUnit("writes"),
+            F_NAME);
+    CallbackMetric1<String, Long> perDiskDropped =
+        metrics.newCallbackMetric(
+            "caches/disk_write_dropped",
+            Long.class,
+            new Description("Writes dropped by persistent cache because its write queue was full")
+                .setCumulative()
+                .setUnit("writes"),
+            F_NAME);
 
     Set<CallbackMetric<?>> cacheMetrics =
-        ImmutableSet.<CallbackMetric<?>>of(memEnt, memHit, memEvict, perDiskEnt, perDiskHit);
+        ImmutableSet.<CallbackMetric<?>>of(
+            memEnt,
+            memHit,
+            memEvict,
+            memEvictWeight,
+            memLoadPenalty,
+            memWeight,
+            memRetained,
+            memRatio,
+            perDiskEnt,
+            perDiskHit,
+            perDiskQueue,
+            perDiskDropped);
 
     metrics.newTrigger(
         cacheMetrics,
@@ -77,10 +148,24 @@ public class CacheMetrics {
             memEnt.set(name, c.size());
             memHit.set(name, cstats.hitRate() * 100);
             memEvict.set(name, cstats.evictionCount());
+            if (c instanceof WeightedCache) {
+              memEvictWeight.set(name, ((WeightedCache) c).evictionWeight());
+            }
+            memLoadPenalty.set(name, cstats.averageLoadPenalty() / NANOS_PER_MILLI);
+            CacheCalibrator.Calibration cal = calibrator.get(e.getPluginName(), e.getExportName());
+            if (cal != null) {
+              memRetained.set(name, cal.retainedBytes());
+              if (cal.weighed()) {
+                memWeight.set(name, cal.weight());
+                memRatio.set(name, cal.ratio());
+              }
+            }
             if (c instanceof PersistentCache) {
               PersistentCache.DiskStats d = ((PersistentCache) c).diskStats();
               perDiskEnt.set(name, d.size());
               perDiskHit.set(name, hitRatio(d));
+              perDiskQueue.set(name, d.writeQueueSize());
+              perDiskDropped.set(name, d.droppedWriteCount());
             }
           }
           cacheMetrics.forEach(CallbackMetric::prune);
@@ -116,6 +116,33 @@ public abstract class CacheModule extends FactoryModule {
     return getProvider(key);
   }
 
+  <K, V> Provider<CacheSerializer<K, V>> bindSerializer(
+      CacheProvider<K, V> m, Class<? extends CacheSerializer<K, V>> impl) {
+    Type serializerType =
+        Types.newParameterizedType(
+            CacheSerializer.class, m.keyType().getType(), m.valueType().getType());
+
+    @SuppressWarnings("unchecked")
+    Key<CacheSerializer<K, V>> key =
+        (Key<CacheSerializer<K, V>>) Key.get(serializerType, Names.named(m.name));
+
+    bind(key).to(impl).in(Scopes.SINGLETON);
+    return getProvider(key);
+  }
+
+  <K, V> Provider<CacheKeySerializer<K>> bindKeySerializer(
+      CacheProvider<K, V> m, Class<? extends CacheKeySerializer<K>> impl) {
+    Type serializerType =
+        Types.newParameterizedType(CacheKeySerializer.class, m.keyType().getType());
+
+    @SuppressWarnings("unchecked")
+    Key<CacheKeySerializer<K>> key =
+        (Key<CacheKeySerializer<K>>) Key.get(serializerType, Names.named(m.name));
+
+    bind(key).to(impl).in(Scopes.SINGLETON);
+    return getProvider(key);
+  }
+
   /**
    * Declare a named in-memory/on-disk cache.
    *
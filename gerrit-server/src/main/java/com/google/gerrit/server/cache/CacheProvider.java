@@ -39,10 +39,14 @@ class CacheProvider<K, V> implements Provider<Cache<K, V>>, CacheBinding<K, V> {
   private Long expireAfterWrite;
   private Provider<CacheLoader<K, V>> loader;
   private Provider<Weigher<K, V>> weigher;
+  private Provider<CacheSerializer<K, V>> serializer;
+  private Provider<CacheKeySerializer<K>> snapshot;
+  private Provider<CacheKeySerializer<K>> keySerializer;
 
   private String plugin;
   private MemoryCacheFactory memoryCacheFactory;
   private PersistentCacheFactory persistentCacheFactory;
+  private CacheEvictionBus evictionBus;
   private boolean frozen;
 
   CacheProvider(CacheModule module, String name, TypeLiteral<K> keyType, TypeLiteral<V> valType) {
@@ -67,6 +71,11 @@ class CacheProvider<K, V> implements Provider<Cache<K, V>>, CacheBinding<K, V> {
     this.persistentCacheFactory = factory;
   }
 
+  @Inject(optional = true)
+  void setEvictionBus(CacheEvictionBus bus) {
+    this.evictionBus = bus;
+  }
+
   CacheBinding<K, V> persist(boolean p) {
     Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
     persist = p;
@@ -109,9 +118,43 @@ class CacheProvider<K, V> implements Provider<Cache<K, V>>, CacheBinding<K, V> {
     return this;
   }
 
+  @Override
+  public CacheBinding<K, V> serializer(Class<? extends CacheSerializer<K, V>> impl) {
+    Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
+    Preconditions.checkState(persist, "serializer supported for persistent caches only");
+    serializer = module.bindSerializer(this, impl);
+    return this;
+  }
+
+  @Override
+  public CacheBinding<K, V> snapshot(Class<? extends CacheKeySerializer<K>> impl) {
+    Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
+    Preconditions.checkState(!persist, "snapshot supported for in-memory caches only");
+    Preconditions.checkState(keySerializer == null, "keySerializer already set");
+    snapshot = module.bindKeySerializer(this, impl);
+    return this;
+  }
+
+  @Override
+  public CacheBinding<K, V> keySerializer(Class<? extends CacheKeySerializer<K>> impl) {
+    Preconditions.checkState(!frozen, "binding frozen, cannot be modified");
+    Preconditions.checkState(snapshot == null, "snapshot already set");
+    keySerializer = module.bindKeySerializer(this, impl);
+    return this;
+  }
+
   @Override
   public String name() {
-    if (!Strings.isNullOrEmpty(plugin)) {
+    return qualifiedName(plugin, name);
+  }
+
+  /**
+   * @param plugin name of the plugin declaring the cache; null, empty or "gerrit" for core caches.
+   * @param name name of the cache within its plugin.
+   * @return name of the cache that is unique across core and plugins.
+   */
+  static String qualifiedName(@Nullable String plugin, String name) {
+    if (!Strings.isNullOrEmpty(plugin) && !"gerrit".equals(plugin)) {
       return plugin + "." + name;
     }
     return name;
@@ -158,20 +201,54 @@ class CacheProvider<K, V> implements Provider<Cache<K, V>>, CacheBinding<K, V> {
     return loader != null ? loader.get() : null;
   }
 
+  @Override
+  @Nullable
+  public CacheSerializer<K, V> serializer() {
+    return serializer != null ? serializer.get() : null;
+  }
+
+  @Override
+  @Nullable
+  public CacheKeySerializer<K> snapshot() {
+    return snapshot != null ? snapshot.get() : null;
+  }
+
+  @Override
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public CacheKeySerializer<K> keySerializer() {
+    if (keySerializer != null) {
+      return keySerializer.get();
+    } else if (snapshot != null) {
+      return snapshot.get();
+    } else if (serializer != null) {
+      return serializer.get();
+    } else if (keyType.getRawType() == String.class) {
+      return (CacheKeySerializer<K>) new StringKeySerializer();
+    }
+    return null;
+  }
+
   @Override
   public Cache<K, V> get() {
     frozen = true;
 
+    Cache<K, V> cache;
     if (loader != null) {
       CacheLoader<K, V> ldr = loader.get();
       if (persist && persistentCacheFactory != null) {
-        return persistentCacheFactory.build(this, ldr);
+        cache = persistentCacheFactory.build(this, ldr);
+      } else {
+        cache = memoryCacheFactory.build(this, ldr);
       }
-      return memoryCacheFactory.build(this, ldr);
     } else if (persist && persistentCacheFactory != null) {
-      return persistentCacheFactory.build(this);
+      cache = persistentCacheFactory.build(this);
     } else {
-      return memoryCacheFactory.build(this);
+      cache = memoryCacheFactory.build(this);
+    }
+    if (evictionBus != null) {
+      evictionBus.register(name(), keySerializer(), cache);
     }
+    return cache;
   }
 }
@@ -0,0 +1,41 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import java.io.IOException;
+
+/**
+ * Converts keys and values of a persistent cache to and from their on-disk representation.
+ *
+ * <p>Persistent caches without a serializer fall back to Java serialization, which is verbose and
+ * flushes the whole cache on any incompatible change to the classes involved. A serializer
+ * declares the {@link #version()} of its format instead; entries written with a different version
+ * are never read back.
+ *
+ * <p>Implementations must be thread-safe.
+ */
+public interface CacheSerializer<K, V> extends CacheKeySerializer<K> {
+  /**
+   * Version of the serialized format.
+   *
+   * <p>Must be increased whenever the format changes in a way that previously stored entries can no
+   * longer be read.
+   */
+  int version();
+
+  byte[] serializeValue(V value) throws IOException;
+
+  V deserializeValue(byte[] in) throws IOException;
+}
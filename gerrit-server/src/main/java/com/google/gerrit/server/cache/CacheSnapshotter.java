@@ -0,0 +1,267 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.google.common.cache.LoadingCache;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves the keys of in-memory caches on shutdown and reloads them on startup.
+ *
+ * <p>Caches opt in by declaring a {@link CacheBinding#snapshot(Class)} key serializer, and are
+ * registered by the {@link MemoryCacheFactory} when built. Only keys
+ * are saved; on startup each key is loaded again through the cache's {@link
+ * com.google.common.cache.CacheLoader}, so values always reflect the current state of the
+ * repositories and a snapshot can never cause stale data to be served.
+ *
+ * <p>Snapshots are stored as {@code <name>.snapshot} in {@code cache.directory}, and are deleted
+ * once read so an unclean shutdown does not reload an old key set.
+ */
+@Singleton
+public class CacheSnapshotter implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(CacheSnapshotter.class);
+
+  public static class Module extends LifecycleModule {
+    @Override
+    protected void configure() {
+      listener().to(CacheSnapshotter.class);
+    }
+  }
+
+  private static final int MAGIC = 0x47435350;
+  private static final int VERSION = 1;
+
+  private final Config config;
+  private final WorkQueue workQueue;
+  private final Path dir;
+  private final Map<String, Entry<?>> caches = new ConcurrentHashMap<>();
+  private volatile WorkQueue.Executor pool;
+
+  @Inject
+  CacheSnapshotter(@GerritServerConfig Config config, SitePaths site, WorkQueue workQueue) {
+    this.config = config;
+    this.workQueue = workQueue;
+    String name = config.getString("cache", null, "directory");
+    this.dir = name != null ? site.resolve(name) : null;
+  }
+
+  /** Register a cache built from {@code def}; ignored unless the cache is snapshot enabled. */
+  public <K, V> void register(CacheBinding<K, V> def, LoadingCache<K, V> cache) {
+    CacheKeySerializer<K> serializer = def.snapshot();
+    if (serializer != null) {
+      register(def.name(), serializer, cache);
+    }
+  }
+
+  <K> void register(String name, CacheKeySerializer<K> serializer, LoadingCache<K, ?> cache) {
+    if (dir != null && config.getBoolean("cache", name, "snapshot", true)) {
+      caches.put(name, new Entry<>(name, serializer, cache));
+    }
+  }
+
+  @Override
+  public void start() {
+    if (caches.isEmpty()) {
+      return;
+    }
+
+    int threads =
+        config.getInt(
+            "cache", null, "snapshotLoadThreads", Runtime.getRuntime().availableProcessors());
+    WorkQueue.Executor p = workQueue.createQueue(Math.max(threads, 1), "CacheSnapshotLoader");
+    pool = p;
+
+    // Snapshots are read on the same queue that loads their keys. Each
+    // snapshot and each key is one pending task; the queue is removed once
+    // the last of them is done.
+    List<Entry<?>> entries = new ArrayList<>(caches.values());
+    AtomicInteger loaded = new AtomicInteger();
+    AtomicInteger pending = new AtomicInteger(entries.size());
+    Runnable done =
+        () -> {
+          if (pending.decrementAndGet() == 0) {
+            log.info(String.format("Loaded %d cache entries from snapshots", loaded.get()));
+            p.shutdown();
+            p.unregisterWorkQueue();
+          }
+        };
+    for (Entry<?> e : entries) {
+      p.execute(
+          () -> {
+            try {
+              e.load(p, loaded, pending, done);
+            } finally {
+              done.run();
+            }
+          });
+    }
+  }
+
+  @Override
+  public void stop() {
+    WorkQueue.Executor p = pool;
+    if (p != null) {
+      p.shutdownNow();
+      p.unregisterWorkQueue();
+    }
+    for (Entry<?> e : caches.values()) {
+      e.save();
+    }
+  }
+
+  private class Entry<K> {
+    private final String name;
+    private final CacheKeySerializer<K> serializer;
+    private final LoadingCache<K, ?> cache;
+
+    Entry(String name, CacheKeySerializer<K> serializer, LoadingCache<K, ?> cache) {
+      this.name = name;
+      this.serializer = serializer;
+      this.cache = cache;
+    }
+
+    private Path file() {
+      return dir.resolve(name + ".snapshot");
+    }
+
+    void load(Executor p, AtomicInteger loaded, AtomicInteger pending, Runnable done) {
+      List<K> keys;
+      try {
+        keys = read();
+      } catch (NoSuchFileException e) {
+        return;
+      } catch (IOException e) {
+        log.warn("Cannot read snapshot of cache " + name, e);
+        return;
+      } finally {
+        try {
+          Files.deleteIfExists(file());
+        } catch (IOException e) {
+          log.warn("Cannot delete snapshot of cache " + name, e);
+        }
+      }
+
+      for (K key : keys) {
+        pending.incrementAndGet();
+        try {
+          p.execute(
+              () -> {
+                try {
+                  cache.get(key);
+                  loaded.incrementAndGet();
+                } catch (ExecutionException | RuntimeException e) {
+                  log.debug("Cannot load " + key + " into cache " + name, e);
+                } finally {
+                  done.run();
+                }
+              });
+        } catch (RejectedExecutionException e) {
+          // Shutting down.
+          pending.decrementAndGet();
+          return;
+        }
+      }
+    }
+
+    private List<K> read() throws IOException {
+      // Lengths are checked against the size of the file, so a truncated or
+      // corrupt snapshot is skipped instead of allocating arbitrary buffers.
+      long remaining = Files.size(file());
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(file())))) {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+          throw new IOException("Unsupported snapshot format");
+        }
+        int cnt = in.readInt();
+        remaining -= 12;
+        if (cnt < 0 || cnt > remaining / 4) {
+          throw new IOException("Corrupt snapshot: " + cnt + " keys");
+        }
+        List<K> keys = new ArrayList<>(cnt);
+        for (int i = 0; i < cnt; i++) {
+          int len = in.readInt();
+          remaining -= 4;
+          if (len < 0 || len > remaining) {
+            throw new IOException("Corrupt snapshot: key of " + len + " bytes");
+          }
+          byte[] buf = new byte[len];
+          in.readFully(buf);
+          remaining -= len;
+          keys.add(serializer.deserializeKey(buf));
+        }
+        return keys;
+      }
+    }
+
+    void save() {
+      List<K> keys = new ArrayList<>(cache.asMap().keySet());
+      if (keys.isEmpty()) {
+        return;
+      }
+
+      Path tmp = dir.resolve(name + ".snapshot.tmp");
+      try {
+        Files.createDirectories(dir);
+        try (DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+          out.writeInt(MAGIC);
+          out.writeInt(VERSION);
+          out.writeInt(keys.size());
+          for (K key : keys) {
+            byte[] buf = serializer.serializeKey(key);
+            out.writeInt(buf.length);
+            out.write(buf);
+          }
+        }
+        Files.move(tmp, file(), REPLACE_EXISTING, ATOMIC_MOVE);
+      } catch (IOException e) {
+        log.warn("Cannot save snapshot of cache " + name, e);
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (IOException err) {
+          // Ignore, the temporary file is overwritten on the next shutdown.
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,230 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.BaseEncoding;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exchanges cache evictions between servers through a shared directory.
+ *
+ * <p>Each batch is written to its own file named after the time it was sent, so servers sharing
+ * {@code cacheEviction.directory} (on one host, or on a shared file system) pick up each other's
+ * evictions by polling the directory. Files are written to a temporary name and renamed into place
+ * so readers never see a partial batch. Files older than {@code cacheEviction.retention} are
+ * deleted by whichever server notices them first.
+ */
+@Singleton
+public class FileCacheEvictionTransport implements CacheEvictionTransport, LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(FileCacheEvictionTransport.class);
+  private static final String SUFFIX = ".evict";
+  private static final BaseEncoding BASE64 = BaseEncoding.base64();
+
+  private final CacheEvictionBus bus;
+  private final WorkQueue workQueue;
+  private final Path dir;
+  private final long pollIntervalMillis;
+  private final long retentionMillis;
+  private final String serverId;
+  private final AtomicLong sequence = new AtomicLong();
+  private final Set<String> seen = new HashSet<>();
+  private WorkQueue.Executor executor;
+
+  @Inject
+  FileCacheEvictionTransport(
+      @GerritServerConfig Config cfg, SitePaths site, CacheEvictionBus bus, WorkQueue workQueue) {
+    this(
+        bus,
+        workQueue,
+        site.resolve(cfg.getString("cacheEviction", null, "directory")),
+        ConfigUtil.getTimeUnit(
+            cfg, "cacheEviction", null, "pollInterval", 1000, TimeUnit.MILLISECONDS),
+        ConfigUtil.getTimeUnit(
+            cfg,
+            "cacheEviction",
+            null,
+            "retention",
+            TimeUnit.MINUTES.toMillis(10),
+            TimeUnit.MILLISECONDS));
+  }
+
+  @VisibleForTesting
+  FileCacheEvictionTransport(
+      CacheEvictionBus bus,
+      WorkQueue workQueue,
+      Path dir,
+      long pollIntervalMillis,
+      long retentionMillis) {
+    this.bus = bus;
+    this.workQueue = workQueue;
+    this.dir = dir;
+    this.pollIntervalMillis = pollIntervalMillis;
+    this.retentionMillis = retentionMillis;
+    this.serverId = UUID.randomUUID().toString().substring(0, 8);
+  }
+
+  @Override
+  public void start() {
+    try {
+      Files.createDirectories(dir);
+      synchronized (seen) {
+        // Evictions sent before this server started apply to caches it never filled.
+        seen.addAll(list());
+      }
+    } catch (IOException e) {
+      log.warn("Cannot read cache eviction directory " + dir, e);
+    }
+    executor = workQueue.createQueue(1, "FileCacheEvictionTransport");
+    @SuppressWarnings("unused") // poll already handles errors
+    Future<?> possiblyIgnoredError =
+        executor.scheduleWithFixedDelay(
+            this::pollQuietly, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor.unregisterWorkQueue();
+      executor = null;
+    }
+  }
+
+  @Override
+  public void send(List<CacheEviction> evictions) throws IOException {
+    if (evictions.isEmpty()) {
+      return;
+    }
+    String name =
+        String.format(
+            "%015d-%08d-%s%s",
+            System.currentTimeMillis(), sequence.incrementAndGet(), serverId, SUFFIX);
+    Path tmp = Files.createTempFile(dir, "." + serverId, ".tmp");
+    try {
+      try (BufferedWriter w = Files.newBufferedWriter(tmp, UTF_8)) {
+        for (CacheEviction e : evictions) {
+          w.write(e.cacheName());
+          if (!e.isAll()) {
+            w.write('\t');
+            w.write(BASE64.encode(e.key()));
+          }
+          w.write('\n');
+        }
+      }
+      Files.move(tmp, dir.resolve(name), ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private void pollQuietly() {
+    try {
+      poll();
+    } catch (IOException | RuntimeException e) {
+      log.warn("Cannot read cache eviction directory " + dir, e);
+    }
+  }
+
+  /** Apply evictions written by other servers since the last poll. */
+  @VisibleForTesting
+  void poll() throws IOException {
+    long expired = System.currentTimeMillis() - retentionMillis;
+    synchronized (seen) {
+      Set<String> names = list();
+      seen.retainAll(names);
+      for (String name : names) {
+        if (isExpired(name, expired)) {
+          Files.deleteIfExists(dir.resolve(name));
+        } else if (seen.add(name) && !name.endsWith("-" + serverId + SUFFIX)) {
+          List<CacheEviction> evictions = read(dir.resolve(name));
+          if (!evictions.isEmpty()) {
+            bus.receive(evictions);
+          }
+        }
+      }
+    }
+  }
+
+  private Set<String> list() throws IOException {
+    Set<String> names = new TreeSet<>();
+    try (DirectoryStream<Path> s = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+      for (Path p : s) {
+        names.add(p.getFileName().toString());
+      }
+    }
+    return names;
+  }
+
+  private static boolean isExpired(String name, long expired) {
+    int dash = name.indexOf('-');
+    try {
+      return dash > 0 && Long.parseLong(name.substring(0, dash)) < expired;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private static List<CacheEviction> read(Path file) throws IOException {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(file, UTF_8);
+    } catch (NoSuchFileException e) {
+      // Already expired and deleted by another server.
+      return new ArrayList<>();
+    }
+    List<CacheEviction> evictions = new ArrayList<>(lines.size());
+    for (String line : lines) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      int tab = line.indexOf('\t');
+      if (tab < 0) {
+        evictions.add(CacheEviction.all(line));
+      } else {
+        evictions.add(
+            CacheEviction.key(line.substring(0, tab), BASE64.decode(line.substring(tab + 1))));
+      }
+    }
+    return evictions;
+  }
+}
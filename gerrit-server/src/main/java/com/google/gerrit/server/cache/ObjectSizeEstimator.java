@@ -0,0 +1,253 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.inject.Injector;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Estimates the heap retained by cache entries by walking their object graphs.
+ *
+ * <p>Object sizes are computed from the fields of their classes, following the HotSpot layout on
+ * 64-bit JVMs: a 12 byte header and 4 byte references with compressed oops, 16 and 8 bytes without,
+ * and every object aligned to 8 bytes. Padding between the fields of a class and its superclass is
+ * not modelled, so sizes are slightly low for deep hierarchies.
+ *
+ * <p>Entries are walked together so that objects reachable from more than one of them, such as
+ * interned names or configuration shared by all entries, are not counted for any; they are not
+ * retained by a single entry. Objects that are shared by definition (classes, enum constants,
+ * singletons, caches and providers) are never entered.
+ */
+class ObjectSizeEstimator {
+  private static final int SHARED = -1;
+  private static final int ALIGNMENT = 8;
+
+  private static class Layout {
+    final long size;
+    final Field[] references;
+
+    Layout(long size, Field[] references) {
+      this.size = size;
+      this.references = references;
+    }
+  }
+
+  private final int headerSize;
+  private final int arrayHeaderSize;
+  private final int referenceSize;
+  private final int maxObjects;
+
+  private final ClassValue<Layout> layouts =
+      new ClassValue<Layout>() {
+        @Override
+        protected Layout computeValue(Class<?> type) {
+          return layoutOf(type);
+        }
+      };
+
+  private static final ClassValue<Boolean> singletons =
+      new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+          return type.isAnnotationPresent(com.google.inject.Singleton.class)
+              || type.isAnnotationPresent(javax.inject.Singleton.class);
+        }
+      };
+
+  ObjectSizeEstimator(int maxObjects) {
+    this(compressedOops(), maxObjects);
+  }
+
+  @VisibleForTesting
+  ObjectSizeEstimator(boolean compressedOops, int maxObjects) {
+    this.headerSize = compressedOops ? 12 : 16;
+    this.arrayHeaderSize = compressedOops ? 16 : 24;
+    this.referenceSize = compressedOops ? 4 : 8;
+    this.maxObjects = maxObjects;
+  }
+
+  /** @return size of {@code obj} itself, not including the objects it references. */
+  long shallowSize(Object obj) {
+    Class<?> type = obj.getClass();
+    if (type.isArray()) {
+      Class<?> component = type.getComponentType();
+      int elementSize = component.isPrimitive() ? primitiveSize(component) : referenceSize;
+      return align(arrayHeaderSize + (long) Array.getLength(obj) * elementSize);
+    }
+    return layouts.get(type).size;
+  }
+
+  /**
+   * Estimate the heap retained by each entry.
+   *
+   * <p>Walking stops once {@code maxObjects} objects have been visited; the remaining objects are
+   * not counted.
+   *
+   * @param entries entries to measure, by key and value.
+   * @return bytes retained by each of {@code entries}, in the same order.
+   */
+  long[] retainedSizes(List<? extends Map.Entry<?, ?>> entries) {
+    IdentityHashMap<Object, Integer> owners = new IdentityHashMap<>();
+    Deque<Object> owned = new ArrayDeque<>();
+    Deque<Object> shared = new ArrayDeque<>();
+    for (int i = 0; i < entries.size() && owners.size() < maxObjects; i++) {
+      Map.Entry<?, ?> e = entries.get(i);
+      push(owned, e.getKey());
+      push(owned, e.getValue());
+      while (!owned.isEmpty() && owners.size() < maxObjects) {
+        Object obj = owned.pop();
+        Integer owner = owners.get(obj);
+        if (owner == null) {
+          owners.put(obj, i);
+          pushReferences(owned, obj);
+        } else if (owner != i && owner != SHARED) {
+          // Also reachable from an earlier entry; so is everything it references.
+          shared.push(obj);
+          while (!shared.isEmpty()) {
+            Object s = shared.pop();
+            Integer prev = owners.put(s, SHARED);
+            if (prev == null || prev != SHARED) {
+              pushReferences(shared, s);
+            }
+          }
+        }
+      }
+      owned.clear();
+    }
+
+    long[] sizes = new long[entries.size()];
+    for (Map.Entry<Object, Integer> e : owners.entrySet()) {
+      int owner = e.getValue();
+      if (owner != SHARED) {
+        sizes[owner] += shallowSize(e.getKey());
+      }
+    }
+    return sizes;
+  }
+
+  private void pushReferences(Deque<Object> stack, Object obj) {
+    Class<?> type = obj.getClass();
+    if (type.isArray()) {
+      if (!type.getComponentType().isPrimitive()) {
+        for (Object o : (Object[]) obj) {
+          push(stack, o);
+        }
+      }
+      return;
+    }
+    for (Field f : layouts.get(type).references) {
+      try {
+        push(stack, f.get(obj));
+      } catch (IllegalAccessException e) {
+        // Not counted.
+      }
+    }
+  }
+
+  private static void push(Deque<Object> stack, Object obj) {
+    if (obj != null && !isShared(obj)) {
+      stack.push(obj);
+    }
+  }
+
+  private static boolean isShared(Object obj) {
+    return obj instanceof Class
+        || obj instanceof ClassLoader
+        || obj instanceof Thread
+        || obj instanceof Enum
+        || obj instanceof Cache
+        || obj instanceof javax.inject.Provider
+        || obj instanceof com.google.inject.Provider
+        || obj instanceof Injector
+        || singletons.get(obj.getClass());
+  }
+
+  private Layout layoutOf(Class<?> type) {
+    long size = headerSize;
+    List<Field> references = new ArrayList<>();
+    boolean accessible = true;
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      for (Field f : c.getDeclaredFields()) {
+        if (Modifier.isStatic(f.getModifiers())) {
+          continue;
+        }
+        Class<?> t = f.getType();
+        if (t.isPrimitive()) {
+          size += primitiveSize(t);
+          continue;
+        }
+        size += referenceSize;
+        if (accessible) {
+          try {
+            f.setAccessible(true);
+            references.add(f);
+          } catch (RuntimeException e) {
+            // Fields of classes in closed modules cannot be read. Count the
+            // class by its own size only, rather than for some of its fields.
+            accessible = false;
+          }
+        }
+      }
+    }
+    return new Layout(
+        align(size), accessible ? references.toArray(new Field[0]) : new Field[0]);
+  }
+
+  private static int primitiveSize(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    } else if (type == int.class || type == float.class) {
+      return 4;
+    } else if (type == short.class || type == char.class) {
+      return 2;
+    }
+    return 1;
+  }
+
+  private static long align(long size) {
+    return (size + ALIGNMENT - 1) & -ALIGNMENT;
+  }
+
+  private static boolean compressedOops() {
+    try {
+      CompositeData option =
+          (CompositeData)
+              ManagementFactory.getPlatformMBeanServer()
+                  .invoke(
+                      new ObjectName("com.sun.management:type=HotSpotDiagnostic"),
+                      "getVMOption",
+                      new Object[] {"UseCompressedOops"},
+                      new String[] {String.class.getName()});
+      return Boolean.parseBoolean((String) option.get("value"));
+    } catch (JMException | RuntimeException e) {
+      // Not HotSpot, or too old to report the option; assume the common case.
+      return true;
+    }
+  }
+}
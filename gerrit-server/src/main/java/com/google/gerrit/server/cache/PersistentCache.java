@@ -23,12 +23,26 @@ public interface PersistentCache {
     private final long space;
     private final long hitCount;
     private final long missCount;
+    private final long writeQueueSize;
+    private final long droppedWriteCount;
 
     public DiskStats(long size, long space, long hitCount, long missCount) {
+      this(size, space, hitCount, missCount, 0, 0);
+    }
+
+    public DiskStats(
+        long size,
+        long space,
+        long hitCount,
+        long missCount,
+        long writeQueueSize,
+        long droppedWriteCount) {
       this.size = size;
       this.space = space;
       this.hitCount = hitCount;
       this.missCount = missCount;
+      this.writeQueueSize = writeQueueSize;
+      this.droppedWriteCount = droppedWriteCount;
     }
 
     public long size() {
@@ -46,5 +60,15 @@ public interface PersistentCache {
     public long requestCount() {
       return hitCount + missCount;
     }
+
+    /** @return number of writes waiting to be applied to disk. */
+    public long writeQueueSize() {
+      return writeQueueSize;
+    }
+
+    /** @return number of writes discarded because the write queue was full. */
+    public long droppedWriteCount() {
+      return droppedWriteCount;
+    }
   }
 }
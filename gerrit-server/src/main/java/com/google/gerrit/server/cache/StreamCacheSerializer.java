@@ -0,0 +1,56 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** {@link CacheSerializer} writing keys and values to streams. */
+public abstract class StreamCacheSerializer<K, V> implements CacheSerializer<K, V> {
+  protected abstract void writeKey(OutputStream out, K key) throws IOException;
+
+  protected abstract K readKey(InputStream in) throws IOException;
+
+  protected abstract void writeValue(OutputStream out, V value) throws IOException;
+
+  protected abstract V readValue(InputStream in) throws IOException;
+
+  @Override
+  public byte[] serializeKey(K key) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+    writeKey(buf, key);
+    return buf.toByteArray();
+  }
+
+  @Override
+  public K deserializeKey(byte[] in) throws IOException {
+    return readKey(new ByteArrayInputStream(in));
+  }
+
+  @Override
+  public byte[] serializeValue(V value) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    writeValue(buf, value);
+    return buf.toByteArray();
+  }
+
+  @Override
+  public V deserializeValue(byte[] in) throws IOException {
+    return readValue(new ByteArrayInputStream(in));
+  }
+}
@@ -0,0 +1,30 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** Serializes {@code String} cache keys as UTF-8. */
+public class StringKeySerializer implements CacheKeySerializer<String> {
+  @Override
+  public byte[] serializeKey(String key) {
+    return key.getBytes(UTF_8);
+  }
+
+  @Override
+  public String deserializeKey(byte[] in) {
+    return new String(in, UTF_8);
+  }
+}
@@ -103,6 +103,7 @@ import com.google.gerrit.server.api.accounts.AccountInfoComparator;
 import com.google.gerrit.server.api.accounts.GpgApiAdapter;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.MergeUtil;
+import com.google.gerrit.server.index.QueryCursor;
 import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.index.change.ChangeIndexCollection;
 import com.google.gerrit.server.mail.Address;
@@ -347,7 +348,12 @@ public class ChangeJson {
     for (QueryResult<ChangeData> r : in) {
       List<ChangeInfo> infos = toChangeInfo(out, r.entities());
       if (!infos.isEmpty() && r.more()) {
-        infos.get(infos.size() - 1)._moreChanges = true;
+        ChangeInfo last = infos.get(infos.size() - 1);
+        last._moreChanges = true;
+        QueryCursor cursor = r.entities().get(r.entities().size() - 1).getCursor();
+        if (cursor != null) {
+          last._cursor = cursor.encode();
+        }
       }
       res.add(infos);
     }
@@ -489,7 +495,7 @@ public class ChangeJson {
     out.hashtags = cd.hashtags();
     out.changeId = in.getKey().get();
     if (in.getStatus().isOpen()) {
-      SubmitTypeRecord str = cd.submitTypeRecord();
+      SubmitTypeRecord str = cd.indexedSubmitTypeRecord();
       if (str.isOk()) {
         out.submitType = str.type;
       }
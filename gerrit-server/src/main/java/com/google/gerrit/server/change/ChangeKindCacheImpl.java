@@ -16,6 +16,8 @@ package com.google.gerrit.server.change;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.gerrit.server.ioutil.BasicSerialization.readString;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeString;
 import static org.eclipse.jgit.lib.ObjectIdSerialization.readNotNull;
 import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
 
@@ -30,6 +32,7 @@ import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.StreamCacheSerializer;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.InMemoryInserter;
@@ -40,8 +43,10 @@ import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.name.Named;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collection;
@@ -72,7 +77,8 @@ public class ChangeKindCacheImpl implements ChangeKindCache {
         bind(ChangeKindCache.class).to(ChangeKindCacheImpl.class);
         persist(ID_CACHE, Key.class, ChangeKind.class)
             .maximumWeight(2 << 20)
-            .weigher(ChangeKindWeigher.class);
+            .weigher(ChangeKindWeigher.class)
+            .serializer(ChangeKindSerializer.class);
       }
     };
   }
@@ -326,6 +332,42 @@ public class ChangeKindCacheImpl implements ChangeKindCache {
     }
   }
 
+  public static class ChangeKindSerializer extends StreamCacheSerializer<Key, ChangeKind> {
+    @Override
+    public int version() {
+      return 1;
+    }
+
+    @Override
+    protected void writeKey(OutputStream out, Key key) throws IOException {
+      writeNotNull(out, key.prior);
+      writeNotNull(out, key.next);
+      writeString(out, key.strategyName);
+    }
+
+    @Override
+    protected Key readKey(InputStream in) throws IOException {
+      ObjectId prior = readNotNull(in);
+      ObjectId next = readNotNull(in);
+      return new Key(prior, next, readString(in));
+    }
+
+    @Override
+    protected void writeValue(OutputStream out, ChangeKind value) throws IOException {
+      writeString(out, value.name());
+    }
+
+    @Override
+    protected ChangeKind readValue(InputStream in) throws IOException {
+      String name = readString(in);
+      try {
+        return ChangeKind.valueOf(name);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid change kind: " + name, e);
+      }
+    }
+  }
+
   private final Cache<Key, ChangeKind> cache;
   private final boolean useRecursiveMerge;
   private final ChangeData.Factory changeDataFactory;
@@ -16,8 +16,12 @@ package com.google.gerrit.server.change;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.gerrit.server.ioutil.BasicSerialization.readBoolean;
 import static com.google.gerrit.server.ioutil.BasicSerialization.readString;
+import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeBoolean;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeString;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
 import static org.eclipse.jgit.lib.ObjectIdSerialization.readNotNull;
 import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
 
@@ -29,6 +33,7 @@ import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gerrit.extensions.client.SubmitType;
 import com.google.gerrit.reviewdb.client.Branch;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.StreamCacheSerializer;
 import com.google.gerrit.server.git.CodeReviewCommit;
 import com.google.gerrit.server.git.CodeReviewCommit.CodeReviewRevWalk;
 import com.google.gerrit.server.git.strategy.SubmitDryRun;
@@ -37,8 +42,10 @@ import com.google.inject.Module;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Objects;
@@ -79,7 +86,8 @@ public class MergeabilityCacheImpl implements MergeabilityCache {
       protected void configure() {
         persist(CACHE_NAME, EntryKey.class, Boolean.class)
             .maximumWeight(1 << 20)
-            .weigher(MergeabilityWeigher.class);
+            .weigher(MergeabilityWeigher.class)
+            .serializer(MergeabilitySerializer.class);
         bind(MergeabilityCache.class).to(MergeabilityCacheImpl.class);
       }
     };
@@ -180,6 +188,57 @@ public class MergeabilityCacheImpl implements MergeabilityCache {
     }
   }
 
+  public static class MergeabilitySerializer extends StreamCacheSerializer<EntryKey, Boolean> {
+    @Override
+    public int version() {
+      return 1;
+    }
+
+    @Override
+    protected void writeKey(OutputStream out, EntryKey key) throws IOException {
+      writeNotNull(out, key.commit);
+      writeNotNull(out, key.into);
+      writeSubmitType(out, key.submitType);
+      writeString(out, key.mergeStrategy);
+    }
+
+    @Override
+    protected EntryKey readKey(InputStream in) throws IOException {
+      ObjectId commit = readNotNull(in);
+      ObjectId into = readNotNull(in);
+      SubmitType submitType = readSubmitType(in);
+      return new EntryKey(commit, into, submitType, readString(in));
+    }
+
+    @Override
+    protected void writeValue(OutputStream out, Boolean value) throws IOException {
+      writeBoolean(out, value);
+    }
+
+    @Override
+    protected Boolean readValue(InputStream in) throws IOException {
+      return readBoolean(in);
+    }
+  }
+
+  public static void writeSubmitType(OutputStream out, SubmitType submitType)
+      throws IOException {
+    Character c = SUBMIT_TYPES.get(submitType);
+    if (c == null) {
+      throw new IOException("Invalid submit type: " + submitType);
+    }
+    writeVarInt32(out, c);
+  }
+
+  public static SubmitType readSubmitType(InputStream in) throws IOException {
+    char t = (char) readVarInt32(in);
+    SubmitType submitType = SUBMIT_TYPES.inverse().get(t);
+    if (submitType == null) {
+      throw new IOException("Invalid submit type code: " + t);
+    }
+    return submitType;
+  }
+
   private final SubmitDryRun submitDryRun;
   private final Cache<EntryKey, Boolean> cache;
 
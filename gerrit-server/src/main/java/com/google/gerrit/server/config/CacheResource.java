@@ -23,10 +23,14 @@ public class CacheResource extends ConfigResource {
   public static final TypeLiteral<RestView<CacheResource>> CACHE_KIND =
       new TypeLiteral<RestView<CacheResource>>() {};
 
+  private final String pluginName;
+  private final String cacheName;
   private final String name;
   private final Provider<Cache<?, ?>> cacheProvider;
 
   public CacheResource(String pluginName, String cacheName, Provider<Cache<?, ?>> cacheProvider) {
+    this.pluginName = pluginName;
+    this.cacheName = cacheName;
     this.name = cacheNameOf(pluginName, cacheName);
     this.cacheProvider = cacheProvider;
   }
@@ -47,6 +51,14 @@ public class CacheResource extends ConfigResource {
     return name;
   }
 
+  public String getPluginName() {
+    return pluginName;
+  }
+
+  public String getCacheName() {
+    return cacheName;
+  }
+
   public Cache<?, ?> getCache() {
     return cacheProvider.get();
   }
@@ -15,14 +15,23 @@
 package com.google.gerrit.server.config;
 
 import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.cache.CacheCalibrator;
 import com.google.gerrit.server.config.ListCaches.CacheInfo;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
 @Singleton
 public class GetCache implements RestReadView<CacheResource> {
+  private final CacheCalibrator calibrator;
+
+  @Inject
+  GetCache(CacheCalibrator calibrator) {
+    this.calibrator = calibrator;
+  }
 
   @Override
   public CacheInfo apply(CacheResource rsrc) {
-    return new CacheInfo(rsrc.getName(), rsrc.getCache());
+    return new CacheInfo(
+        rsrc.getName(), rsrc.getCache(), calibrator.get(rsrc.getPluginName(), rsrc.getCacheName()));
   }
 }
@@ -22,11 +22,14 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.common.base.Joiner;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheStats;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.annotations.RequiresAnyCapability;
 import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.extensions.restapi.BinaryResult;
 import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.cache.CacheCalibrator;
 import com.google.gerrit.server.cache.PersistentCache;
+import com.google.gerrit.server.cache.WeightedCache;
 import com.google.inject.Inject;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -38,6 +41,7 @@ import org.kohsuke.args4j.Option;
 @RequiresAnyCapability({VIEW_CACHES, MAINTAIN_SERVER})
 public class ListCaches implements RestReadView<ConfigResource> {
   private final DynamicMap<Cache<?, ?>> cacheMap;
+  private final CacheCalibrator calibrator;
 
   public enum OutputFormat {
     LIST,
@@ -53,15 +57,18 @@ public class ListCaches implements RestReadView<ConfigResource> {
   }
 
   @Inject
-  public ListCaches(DynamicMap<Cache<?, ?>> cacheMap) {
+  public ListCaches(DynamicMap<Cache<?, ?>> cacheMap, CacheCalibrator calibrator) {
     this.cacheMap = cacheMap;
+    this.calibrator = calibrator;
   }
 
   public Map<String, CacheInfo> getCacheInfos() {
     Map<String, CacheInfo> cacheInfos = new TreeMap<>();
     for (DynamicMap.Entry<Cache<?, ?>> e : cacheMap) {
       cacheInfos.put(
-          cacheNameOf(e.getPluginName(), e.getExportName()), new CacheInfo(e.getProvider().get()));
+          cacheNameOf(e.getPluginName(), e.getExportName()),
+          new CacheInfo(
+              null, e.getProvider().get(), calibrator.get(e.getPluginName(), e.getExportName())));
     }
     return cacheInfos;
   }
@@ -97,12 +104,19 @@ public class ListCaches implements RestReadView<ConfigResource> {
     public EntriesInfo entries;
     public String averageGet;
     public HitRatioInfo hitRatio;
+    public Long evictedWeight;
+    public MemoryInfo memory;
 
     public CacheInfo(Cache<?, ?> cache) {
       this(null, cache);
     }
 
     public CacheInfo(String name, Cache<?, ?> cache) {
+      this(name, cache, null);
+    }
+
+    public CacheInfo(
+        String name, Cache<?, ?> cache, @Nullable CacheCalibrator.Calibration calibration) {
       this.name = name;
 
       CacheStats stat = cache.stats();
@@ -115,6 +129,11 @@ public class ListCaches implements RestReadView<ConfigResource> {
       hitRatio = new HitRatioInfo();
       hitRatio.setMem(stat.hitCount(), stat.requestCount());
 
+      if (cache instanceof WeightedCache) {
+        long evicted = ((WeightedCache) cache).evictionWeight();
+        evictedWeight = evicted != 0 ? evicted : null;
+      }
+
       if (cache instanceof PersistentCache) {
         type = CacheType.DISK;
         PersistentCache.DiskStats diskStats = ((PersistentCache) cache).diskStats();
@@ -124,6 +143,10 @@ public class ListCaches implements RestReadView<ConfigResource> {
       } else {
         type = CacheType.MEM;
       }
+
+      if (calibration != null) {
+        memory = new MemoryInfo(calibration);
+      }
     }
 
     private static String duration(double ns) {
@@ -180,6 +203,24 @@ public class ListCaches implements RestReadView<ConfigResource> {
     }
   }
 
+  public static class MemoryInfo {
+    public Long weight;
+    public String retained;
+    public Double ratio;
+    public Integer samples;
+
+    public MemoryInfo(CacheCalibrator.Calibration calibration) {
+      if (calibration.weighed()) {
+        weight = calibration.weight();
+        if (calibration.ratio() > 0) {
+          ratio = Math.round(calibration.ratio() * 100) / 100.0;
+        }
+      }
+      retained = EntriesInfo.bytes(calibration.retainedBytes());
+      samples = calibration.samples();
+    }
+  }
+
   public static class HitRatioInfo {
     public Integer mem;
     public Integer disk;
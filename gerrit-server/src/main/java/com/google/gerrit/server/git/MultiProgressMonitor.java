@@ -43,6 +43,10 @@ import org.slf4j.LoggerFactory;
  *   Task: subA: 4, subB: 100% (4/4), subC: 4, done    \n
  * </pre>
  *
+ * <p>Sub-tasks for which {@link Task#showRate()} was called also report their throughput and, if
+ * the total work is known, the estimated time remaining, e.g. {@code subB: 75% (3/4), 2/s, ETA
+ * 0m01s}.
+ *
  * <p>Callers should try to keep task and sub-task descriptions short, since the output should fit
  * on one terminal line. (Note that git clients do not accept terminal control characters, so true
  * multi-line progress messages would be impossible.)
@@ -62,6 +66,7 @@ public class MultiProgressMonitor {
     private final int total;
     private int count;
     private int lastPercent;
+    private long rateStartNanos = -1;
 
     Task(final String subTaskName, final int totalWork) {
       this.name = subTaskName;
@@ -123,6 +128,20 @@ public class MultiProgressMonitor {
         return count;
       }
     }
+
+    /**
+     * Report the throughput and estimated time remaining of this sub-task.
+     *
+     * <p>The rate is measured from the time of this call.
+     *
+     * @return this sub-task.
+     */
+    public Task showRate() {
+      synchronized (MultiProgressMonitor.this) {
+        rateStartNanos = System.nanoTime();
+      }
+      return this;
+    }
   }
 
   private final OutputStream out;
@@ -336,6 +355,9 @@ public class MultiProgressMonitor {
         } else {
           s.append(String.format("%d%% (%d/%d)", count * 100 / t.total, count, t.total));
         }
+        if (t.rateStartNanos >= 0) {
+          formatRate(s, t, count);
+        }
       }
     }
 
@@ -346,6 +368,23 @@ public class MultiProgressMonitor {
     return s;
   }
 
+  private static void formatRate(StringBuilder s, Task t, int count) {
+    long elapsed = System.nanoTime() - t.rateStartNanos;
+    if (elapsed <= 0) {
+      return;
+    }
+    double perSecond = count * (double) NANOSECONDS.convert(1, TimeUnit.SECONDS) / elapsed;
+    s.append(String.format(", %.0f/s", perSecond));
+    if (t.total != UNKNOWN && count < t.total && perSecond > 0) {
+      long eta = (long) ((t.total - count) / perSecond);
+      if (eta >= 3600) {
+        s.append(String.format(", ETA %dh%02dm", eta / 3600, (eta % 3600) / 60));
+      } else {
+        s.append(String.format(", ETA %dm%02ds", eta / 60, eta % 60));
+      }
+    }
+  }
+
   private void send(StringBuilder s) {
     if (write) {
       try {
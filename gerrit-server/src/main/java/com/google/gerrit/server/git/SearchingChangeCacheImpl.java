@@ -14,6 +14,8 @@
 
 package com.google.gerrit.server.git;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.auto.value.AutoValue;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -26,6 +28,8 @@ import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RefNames;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.ReviewerSet;
+import com.google.gerrit.server.cache.CacheEvictionBus;
+import com.google.gerrit.server.cache.CacheKeySerializer;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.query.change.ChangeData;
@@ -69,7 +73,8 @@ public class SearchingChangeCacheImpl implements GitReferenceUpdatedListener {
       } else {
         cache(ID_CACHE, Project.NameKey.class, new TypeLiteral<List<CachedChange>>() {})
             .maximumWeight(0)
-            .loader(Loader.class);
+            .loader(Loader.class)
+            .keySerializer(ProjectNameSerializer.class);
 
         bind(SearchingChangeCacheImpl.class);
         DynamicSet.bind(binder(), GitReferenceUpdatedListener.class)
@@ -91,13 +96,16 @@ public class SearchingChangeCacheImpl implements GitReferenceUpdatedListener {
 
   private final LoadingCache<Project.NameKey, List<CachedChange>> cache;
   private final ChangeData.Factory changeDataFactory;
+  private final CacheEvictionBus evictionBus;
 
   @Inject
   SearchingChangeCacheImpl(
       @Named(ID_CACHE) LoadingCache<Project.NameKey, List<CachedChange>> cache,
-      ChangeData.Factory changeDataFactory) {
+      ChangeData.Factory changeDataFactory,
+      CacheEvictionBus evictionBus) {
     this.cache = cache;
     this.changeDataFactory = changeDataFactory;
+    this.evictionBus = evictionBus;
   }
 
   /**
@@ -129,7 +137,21 @@ public class SearchingChangeCacheImpl implements GitReferenceUpdatedListener {
   @Override
   public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
     if (event.getRefName().startsWith(RefNames.REFS_CHANGES)) {
-      cache.invalidate(new Project.NameKey(event.getProjectName()));
+      Project.NameKey project = new Project.NameKey(event.getProjectName());
+      cache.invalidate(project);
+      evictionBus.publish(ID_CACHE, project);
+    }
+  }
+
+  static class ProjectNameSerializer implements CacheKeySerializer<Project.NameKey> {
+    @Override
+    public byte[] serializeKey(Project.NameKey key) {
+      return key.get().getBytes(UTF_8);
+    }
+
+    @Override
+    public Project.NameKey deserializeKey(byte[] in) {
+      return new Project.NameKey(new String(in, UTF_8));
     }
   }
 
@@ -14,16 +14,24 @@
 
 package com.google.gerrit.server.git;
 
+import static com.google.gerrit.server.ioutil.BasicSerialization.readBoolean;
+import static com.google.gerrit.server.ioutil.BasicSerialization.readString;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeBoolean;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeString;
+
 import com.google.common.cache.Cache;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.StreamCacheSerializer;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import org.eclipse.jgit.lib.ObjectId;
 
@@ -35,7 +43,7 @@ public class TagCache {
     return new CacheModule() {
       @Override
       protected void configure() {
-        persist(CACHE_NAME, String.class, EntryVal.class);
+        persist(CACHE_NAME, String.class, EntryVal.class).serializer(Serializer.class);
         bind(TagCache.class);
       }
     };
@@ -126,4 +134,43 @@ public class TagCache {
       }
     }
   }
+
+  static class Serializer extends StreamCacheSerializer<String, EntryVal> {
+    @Override
+    public int version() {
+      return 1;
+    }
+
+    @Override
+    protected void writeKey(OutputStream out, String key) throws IOException {
+      writeString(out, key);
+    }
+
+    @Override
+    protected String readKey(InputStream in) throws IOException {
+      return readString(in);
+    }
+
+    @Override
+    protected void writeValue(OutputStream out, EntryVal value) throws IOException {
+      TagSet tags = value.holder.getTagSet();
+      writeString(out, value.holder.getProjectName().get());
+      writeBoolean(out, tags != null);
+      if (tags != null) {
+        tags.writeTo(out);
+      }
+    }
+
+    @Override
+    protected EntryVal readValue(InputStream in) throws IOException {
+      EntryVal val = new EntryVal();
+      val.holder = new TagSetHolder(new Project.NameKey(readString(in)));
+      if (readBoolean(in)) {
+        TagSet tags = new TagSet(val.holder.getProjectName());
+        tags.readFrom(in);
+        val.holder.setTagSet(tags);
+      }
+      return val;
+    }
+  }
 }
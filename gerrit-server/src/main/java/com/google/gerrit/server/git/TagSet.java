@@ -14,14 +14,22 @@
 
 package com.google.gerrit.server.git;
 
+import static com.google.gerrit.server.ioutil.BasicSerialization.readFixInt64;
+import static com.google.gerrit.server.ioutil.BasicSerialization.readString;
+import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeFixInt64;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeString;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
 import static org.eclipse.jgit.lib.ObjectIdSerialization.readNotNull;
 import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
 
 import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.Project;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -220,6 +228,45 @@ class TagSet {
     }
   }
 
+  void readFrom(InputStream in) throws IOException {
+    int refCnt = readVarInt32(in);
+    for (int i = 0; i < refCnt; i++) {
+      String name = readString(in);
+      int flag = readVarInt32(in);
+      ObjectId id = readNotNull(in);
+      refs.put(name, new CachedRef(flag, id));
+    }
+
+    int tagCnt = readVarInt32(in);
+    for (int i = 0; i < tagCnt; i++) {
+      ObjectId id = readNotNull(in);
+      long[] words = new long[readVarInt32(in)];
+      for (int w = 0; w < words.length; w++) {
+        words[w] = readFixInt64(in);
+      }
+      tags.add(new Tag(id, BitSet.valueOf(words)));
+    }
+  }
+
+  void writeTo(OutputStream out) throws IOException {
+    writeVarInt32(out, refs.size());
+    for (Map.Entry<String, CachedRef> e : refs.entrySet()) {
+      writeString(out, e.getKey());
+      writeVarInt32(out, e.getValue().flag);
+      writeNotNull(out, e.getValue().get());
+    }
+
+    writeVarInt32(out, tags.size());
+    for (Tag tag : tags) {
+      writeNotNull(out, tag);
+      long[] words = tag.refFlags.toLongArray();
+      writeVarInt32(out, words.length);
+      for (long w : words) {
+        writeFixInt64(out, w);
+      }
+    }
+  }
+
   private boolean refresh(TagSet old, TagMatcher m) {
     if (m.newRefs.isEmpty()) {
       // No new references is a simple update. Copy from the old set.
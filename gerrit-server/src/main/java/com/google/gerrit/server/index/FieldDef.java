@@ -92,6 +92,7 @@ public final class FieldDef<I, T> {
     private final FieldType<T> type;
     private final String name;
     private boolean stored;
+    private boolean docValues;
 
     public Builder(FieldType<T> type, String name) {
       this.type = checkNotNull(type);
@@ -103,12 +104,17 @@ public final class FieldDef<I, T> {
       return this;
     }
 
+    public Builder<T> docValues() {
+      this.docValues = true;
+      return this;
+    }
+
     public <I> FieldDef<I, T> build(Getter<I, T> getter) {
       return build((in, a) -> getter.get(in));
     }
 
     public <I> FieldDef<I, T> build(GetterWithArgs<I, T> getter) {
-      return new FieldDef<>(name, type, stored, false, getter);
+      return new FieldDef<>(name, type, stored, docValues, false, getter);
     }
 
     public <I> FieldDef<I, Iterable<T>> buildRepeatable(Getter<I, Iterable<T>> getter) {
@@ -116,13 +122,14 @@ public final class FieldDef<I, T> {
     }
 
     public <I> FieldDef<I, Iterable<T>> buildRepeatable(GetterWithArgs<I, Iterable<T>> getter) {
-      return new FieldDef<>(name, type, stored, true, getter);
+      return new FieldDef<>(name, type, stored, docValues, true, getter);
     }
   }
 
   private final String name;
   private final FieldType<?> type;
   private final boolean stored;
+  private final boolean docValues;
   private final boolean repeatable;
   private final GetterWithArgs<I, T> getter;
 
@@ -130,6 +137,7 @@ public final class FieldDef<I, T> {
       String name,
       FieldType<?> type,
       boolean stored,
+      boolean docValues,
       boolean repeatable,
       GetterWithArgs<I, T> getter) {
     checkArgument(
@@ -138,6 +146,7 @@ public final class FieldDef<I, T> {
     this.name = checkName(name);
     this.type = checkNotNull(type);
     this.stored = stored;
+    this.docValues = docValues;
     this.repeatable = repeatable;
     this.getter = checkNotNull(getter);
   }
@@ -163,6 +172,14 @@ public final class FieldDef<I, T> {
     return stored;
   }
 
+  /**
+   * @return whether the index should also keep the field in a column per document, which is
+   *     cheaper to read for many results than stored fields.
+   */
+  public boolean hasDocValues() {
+    return docValues;
+  }
+
   /**
    * Get the field contents from the input object.
    *
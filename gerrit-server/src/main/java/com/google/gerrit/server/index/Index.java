@@ -19,6 +19,7 @@ import com.google.gerrit.server.query.Predicate;
 import com.google.gerrit.server.query.QueryParseException;
 import com.google.gwtorm.server.OrmException;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -53,6 +54,21 @@ public interface Index<K, V> {
    */
   void replace(V obj) throws IOException;
 
+  /**
+   * Update multiple documents in the index.
+   *
+   * <p>Semantically equivalent to calling {@link #replace(Object)} for each document, but
+   * implementations may write all documents in a single batch.
+   *
+   * @param objs document objects
+   * @throws IOException
+   */
+  default void replaceAll(Collection<V> objs) throws IOException {
+    for (V obj : objs) {
+      replace(obj);
+    }
+  }
+
   /**
    * Delete a document from the index by key.
    *
@@ -68,6 +84,15 @@ public interface Index<K, V> {
    */
   void deleteAll() throws IOException;
 
+  /**
+   * Make all completed writes durable.
+   *
+   * <p>Implementations that persist every write as it happens need not override this method.
+   *
+   * @throws IOException
+   */
+  default void commit() throws IOException {}
+
   /**
    * Convert the given operator predicate into a source searching the index and returning only the
    * documents matching that predicate.
@@ -0,0 +1,29 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index;
+
+import com.google.gerrit.server.util.RequestContext;
+import java.util.Collection;
+
+/**
+ * Request context of a background task that writes to the index on behalf of other requests.
+ *
+ * <p>Indexes that make writes visible to searches only after some delay use the callers to let
+ * later searches of those requests wait for the writes.
+ */
+public interface IndexWriteContext extends RequestContext {
+  /** @return contexts of the requests the current writes are made for. */
+  Collection<RequestContext> getCallers();
+}
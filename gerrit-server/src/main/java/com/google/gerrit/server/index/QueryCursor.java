@@ -0,0 +1,76 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Longs;
+import java.nio.ByteBuffer;
+
+/**
+ * Position of a result in the sort order of an index query.
+ *
+ * <p>A cursor holds the values of the sort fields of the last result of a page. Passing it back in
+ * {@link QueryOptions#searchAfter()} resumes the query right after that result, so the index does
+ * not have to collect and skip all results of the previous pages as it does for an offset.
+ *
+ * <p>Cursors are handed out to clients in their {@link #encode() encoded} form and should be
+ * treated as opaque tokens.
+ */
+@AutoValue
+public abstract class QueryCursor {
+  private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+
+  public static QueryCursor create(long... values) {
+    checkArgument(values.length > 0, "cursor requires at least one value");
+    return new AutoValue_QueryCursor(ImmutableList.copyOf(Longs.asList(values)));
+  }
+
+  /**
+   * Parse a cursor previously returned by {@link #encode()}.
+   *
+   * @param str encoded cursor.
+   * @return the cursor.
+   * @throws IllegalArgumentException if {@code str} is not a valid cursor.
+   */
+  public static QueryCursor decode(String str) {
+    byte[] bytes = ENCODING.decode(str);
+    checkArgument(bytes.length > 0 && bytes.length % Long.BYTES == 0, "invalid cursor: %s", str);
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    long[] values = new long[bytes.length / Long.BYTES];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = buf.getLong();
+    }
+    return create(values);
+  }
+
+  /** @return values of the sort fields, in the order of the index's sort. */
+  public abstract ImmutableList<Long> values();
+
+  public long get(int i) {
+    return values().get(i);
+  }
+
+  public String encode() {
+    ByteBuffer buf = ByteBuffer.allocate(values().size() * Long.BYTES);
+    for (long v : values()) {
+      buf.putLong(v);
+    }
+    return ENCODING.encode(buf.array());
+  }
+}
@@ -0,0 +1,129 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+import com.google.gerrit.server.config.SitePaths;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record of the units of work completed by an offline reindex.
+ *
+ * <p>Keys are appended to a file in the site's index directory so that an interrupted reindex can
+ * be resumed without redoing finished work. A key is only written to the file after the index has
+ * committed the documents written for it; a crash may lose some progress, but a key in the file
+ * always refers to work that is durable in the index.
+ */
+public class ReindexCheckpoint {
+  static final long FLUSH_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  public static Path path(SitePaths sitePaths, String name, int version) {
+    return sitePaths.index_dir.resolve(String.format("%s_%04d.reindex", name, version));
+  }
+
+  /**
+   * Open a checkpoint file.
+   *
+   * @param file path of the checkpoint file.
+   * @param resume whether to keep the keys recorded by a previous run; if false any existing file
+   *     is discarded.
+   * @return the checkpoint.
+   * @throws IOException if the file could not be read or deleted.
+   */
+  public static ReindexCheckpoint open(Path file, boolean resume) throws IOException {
+    Set<String> done = new HashSet<>();
+    if (resume && Files.exists(file)) {
+      for (String line : Files.readAllLines(file, UTF_8)) {
+        if (!line.isEmpty()) {
+          done.add(line);
+        }
+      }
+    } else {
+      Files.deleteIfExists(file);
+    }
+    return new ReindexCheckpoint(file, done);
+  }
+
+  private final Path file;
+  private final Set<String> done;
+  private final List<String> pending = new ArrayList<>();
+  private long lastFlush;
+
+  private ReindexCheckpoint(Path file, Set<String> done) {
+    this.file = file;
+    this.done = done;
+    this.lastFlush = System.nanoTime();
+  }
+
+  public synchronized boolean isEmpty() {
+    return done.isEmpty();
+  }
+
+  public synchronized boolean isDone(String key) {
+    return done.contains(key);
+  }
+
+  /**
+   * Record a unit of work as completed.
+   *
+   * <p>The key is written to disk, after committing the index, on the next flush. Flushes happen
+   * at most once per minute so that commits do not slow down the reindex.
+   *
+   * @param key key of the completed work.
+   * @param index index that the work was written to.
+   * @throws IOException if the index could not be committed or the file could not be written.
+   */
+  public synchronized void markDone(String key, Index<?, ?> index) throws IOException {
+    if (done.add(key)) {
+      pending.add(key);
+    }
+    if (System.nanoTime() - lastFlush >= FLUSH_INTERVAL_NANOS) {
+      flush(index);
+    }
+  }
+
+  /**
+   * Commit the index and write all pending keys to disk.
+   *
+   * @param index index that the work was written to.
+   * @throws IOException if the index could not be committed or the file could not be written.
+   */
+  public synchronized void flush(Index<?, ?> index) throws IOException {
+    lastFlush = System.nanoTime();
+    if (pending.isEmpty()) {
+      return;
+    }
+    index.commit();
+    Files.write(file, pending, UTF_8, CREATE, APPEND);
+    pending.clear();
+  }
+
+  /** Delete the checkpoint file, e.g. after the reindex completed successfully. */
+  public synchronized void delete() throws IOException {
+    Files.deleteIfExists(file);
+    done.clear();
+    pending.clear();
+  }
+}
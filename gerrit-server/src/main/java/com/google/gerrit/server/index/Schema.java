@@ -86,6 +86,7 @@ public class Schema<T> {
 
   private final ImmutableMap<String, FieldDef<T, ?>> fields;
   private final ImmutableMap<String, FieldDef<T, ?>> storedFields;
+  private final ImmutableMap<String, FieldDef<T, ?>> docValuesFields;
 
   private int version;
 
@@ -97,14 +98,19 @@ public class Schema<T> {
     this.version = version;
     ImmutableMap.Builder<String, FieldDef<T, ?>> b = ImmutableMap.builder();
     ImmutableMap.Builder<String, FieldDef<T, ?>> sb = ImmutableMap.builder();
+    ImmutableMap.Builder<String, FieldDef<T, ?>> db = ImmutableMap.builder();
     for (FieldDef<T, ?> f : fields) {
       b.put(f.getName(), f);
       if (f.isStored()) {
         sb.put(f.getName(), f);
       }
+      if (f.hasDocValues()) {
+        db.put(f.getName(), f);
+      }
     }
     this.fields = b.build();
     this.storedFields = sb.build();
+    this.docValuesFields = db.build();
   }
 
   public final int getVersion() {
@@ -129,6 +135,11 @@ public class Schema<T> {
     return storedFields;
   }
 
+  /** @return all fields in this schema where {@link FieldDef#hasDocValues()} is true. */
+  public final ImmutableMap<String, FieldDef<T, ?>> getDocValuesFields() {
+    return docValuesFields;
+  }
+
   /**
    * Look up fields in this schema.
    *
@@ -19,6 +19,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.google.common.base.Stopwatch;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.common.Nullable;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.concurrent.ExecutionException;
@@ -65,6 +66,7 @@ public abstract class SiteIndexer<K, V, I extends Index<K, V>> {
   protected int totalWork = -1;
   protected OutputStream progressOut = NullOutputStream.INSTANCE;
   protected PrintWriter verboseWriter = new PrintWriter(NullOutputStream.INSTANCE);
+  protected ReindexCheckpoint checkpoint;
 
   public void setTotalWork(int num) {
     totalWork = num;
@@ -78,6 +80,17 @@ public abstract class SiteIndexer<K, V, I extends Index<K, V>> {
     verboseWriter = new PrintWriter(checkNotNull(out));
   }
 
+  /**
+   * Record progress in a checkpoint, and skip work that an earlier run recorded as done.
+   *
+   * <p>Indexers that cannot split their work into resumable units may ignore the checkpoint.
+   *
+   * @param checkpoint checkpoint, or null to always index everything.
+   */
+  public void setCheckpoint(@Nullable ReindexCheckpoint checkpoint) {
+    this.checkpoint = checkpoint;
+  }
+
   public abstract Result indexAll(I index);
 
   protected final void addErrorListener(
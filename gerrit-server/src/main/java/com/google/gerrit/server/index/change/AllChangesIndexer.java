@@ -14,10 +14,12 @@
 
 package com.google.gerrit.server.index.change;
 
+import static com.google.common.util.concurrent.Futures.allAsList;
 import static com.google.common.util.concurrent.Futures.successfulAsList;
 import static com.google.common.util.concurrent.Futures.transform;
 import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
+import static java.util.Comparator.comparing;
 import static org.eclipse.jgit.lib.RefDatabase.ALL;
 
 import com.google.common.base.Stopwatch;
@@ -27,9 +29,11 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.MultimapBuilder;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.MultiProgressMonitor;
 import com.google.gerrit.server.git.MultiProgressMonitor.Task;
@@ -44,6 +48,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -53,6 +58,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ProgressMonitor;
@@ -68,6 +74,12 @@ import org.slf4j.LoggerFactory;
 public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, ChangeIndex> {
   private static final Logger log = LoggerFactory.getLogger(AllChangesIndexer.class);
 
+  /** Minimum number of changes indexed by one task when a project is split. */
+  private static final int MIN_SLICE_SIZE = 1000;
+
+  /** Number of tasks per thread to aim for, so threads finishing early can steal work. */
+  private static final int SLICES_PER_THREAD = 4;
+
   private final SchemaFactory<ReviewDb> schemaFactory;
   private final ChangeData.Factory changeDataFactory;
   private final GitRepositoryManager repoManager;
@@ -75,9 +87,11 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
   private final ChangeIndexer.Factory indexerFactory;
   private final ChangeNotes.Factory notesFactory;
   private final ProjectCache projectCache;
+  private final int threads;
 
   @Inject
   AllChangesIndexer(
+      @GerritServerConfig Config cfg,
       SchemaFactory<ReviewDb> schemaFactory,
       ChangeData.Factory changeDataFactory,
       GitRepositoryManager repoManager,
@@ -92,6 +106,8 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     this.indexerFactory = indexerFactory;
     this.notesFactory = notesFactory;
     this.projectCache = projectCache;
+    int threads = cfg.getInt("index", null, "batchThreads", 0);
+    this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
   }
 
   private static class ProjectHolder implements Comparable<ProjectHolder> {
@@ -120,6 +136,10 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     int changeCount = 0;
     Stopwatch sw = Stopwatch.createStarted();
     for (Project.NameKey name : projectCache.all()) {
+      if (checkpoint != null && checkpoint.isDone(name.get())) {
+        pm.update(1);
+        continue;
+      }
       try (Repository repo = repoManager.openRepository(name)) {
         int size = ChangeNotes.Factory.scan(repo).size();
         changeCount += size;
@@ -146,22 +166,37 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
                 ? ((Collection<?>) projects).size()
                 : MultiProgressMonitor.UNKNOWN);
     final Task doneTask =
-        mpm.beginSubTask(null, totalWork >= 0 ? totalWork : MultiProgressMonitor.UNKNOWN);
+        mpm.beginSubTask(null, totalWork >= 0 ? totalWork : MultiProgressMonitor.UNKNOWN)
+            .showRate();
     final Task failedTask = mpm.beginSubTask("failed", MultiProgressMonitor.UNKNOWN);
 
     final List<ListenableFuture<?>> futures = new ArrayList<>();
     final AtomicBoolean ok = new AtomicBoolean(true);
 
+    // Split large projects into slices of changes so that a few huge
+    // repositories don't end up indexed by a single thread each while the
+    // others sit idle.
+    int sliceSize = Math.max(MIN_SLICE_SIZE, totalWork / (threads * SLICES_PER_THREAD));
     for (final ProjectHolder project : projects) {
-      ListenableFuture<?> future =
-          executor.submit(
-              reindexProject(
-                  indexerFactory.create(executor, index),
-                  project.name,
-                  doneTask,
-                  failedTask,
-                  verboseWriter));
+      ChangeIndexer indexer = indexerFactory.create(executor, index);
+      List<ListenableFuture<Boolean>> slices = new ArrayList<>();
+      for (List<Change.Id> ids : slice(project, sliceSize)) {
+        slices.add(
+            executor.submit(
+                reindexProject(indexer, project.name, ids, doneTask, failedTask, verboseWriter)));
+      }
+      ListenableFuture<List<Boolean>> future = allAsList(slices);
       addErrorListener(future, "project " + project.name, projTask, ok);
+      if (checkpoint != null) {
+        future =
+            transform(
+                future,
+                r -> {
+                  markDone(index, project.name, r);
+                  return r;
+                },
+                directExecutor());
+      }
       futures.add(future);
     }
 
@@ -178,6 +213,13 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       log.error("Error in batch indexer", e);
       ok.set(false);
     }
+    if (checkpoint != null) {
+      try {
+        checkpoint.flush(index);
+      } catch (IOException e) {
+        log.warn("Cannot write reindex checkpoint", e);
+      }
+    }
     // If too many changes failed, maybe there was a bug in the indexer. Don't
     // trust the results. This is not an exact percentage since we bump the same
     // failure counter if a project can't be read, but close enough.
@@ -194,15 +236,74 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     return new Result(sw, ok.get(), nDone, nFailed);
   }
 
+  /**
+   * Split the changes of a project into slices of sorted change IDs.
+   *
+   * @return slices of at most {@code sliceSize} changes, or a single null slice if the whole
+   *     project should be indexed by one task.
+   */
+  private List<List<Change.Id>> slice(ProjectHolder project, int sliceSize) {
+    if (project.size > sliceSize) {
+      try (Repository repo = repoManager.openRepository(project.name)) {
+        List<Change.Id> ids = new ArrayList<>(ChangeNotes.Factory.scan(repo));
+        ids.sort(comparing(Change.Id::get));
+        return Lists.partition(ids, sliceSize);
+      } catch (IOException e) {
+        log.warn("Cannot split project " + project.name + "; indexing it in one task", e);
+      }
+    }
+    return Collections.singletonList(null);
+  }
+
+  private void markDone(ChangeIndex index, Project.NameKey project, List<Boolean> results) {
+    if (results.contains(false)) {
+      // Some changes failed; index the whole project again when resuming.
+      return;
+    }
+    try {
+      checkpoint.markDone(project.get(), index);
+    } catch (IOException e) {
+      log.warn("Cannot write reindex checkpoint for project " + project, e);
+    }
+  }
+
   public Callable<Void> reindexProject(
       final ChangeIndexer indexer,
       final Project.NameKey project,
       final Task done,
       final Task failed,
       final PrintWriter verboseWriter) {
+    Callable<Boolean> task = reindexProject(indexer, project, null, done, failed, verboseWriter);
     return new Callable<Void>() {
       @Override
       public Void call() throws Exception {
+        task.call();
+        return null;
+      }
+
+      @Override
+      public String toString() {
+        return task.toString();
+      }
+    };
+  }
+
+  /**
+   * Create a task indexing changes of a project.
+   *
+   * @param ids changes to index, or null to index all changes of the project.
+   * @return task returning whether all changes were indexed successfully.
+   */
+  private Callable<Boolean> reindexProject(
+      final ChangeIndexer indexer,
+      final Project.NameKey project,
+      @Nullable final Collection<Change.Id> ids,
+      final Task done,
+      final Task failed,
+      final PrintWriter verboseWriter) {
+    return new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
         ListMultimap<ObjectId, ChangeData> byId =
             MultimapBuilder.hashKeys().arrayListValues().build();
         // TODO(dborowitz): Opening all repositories in a live server may be
@@ -215,74 +316,91 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
           // terrible idea for performance. If we can get rid of walking by
           // commit (see note below), then all we need to discover here is the
           // change IDs.
-          for (ChangeNotes cn : notesFactory.scan(repo, db, project)) {
+          List<ChangeNotes> notes =
+              ids != null
+                  ? notesFactory.scan(db, project, ids)
+                  : notesFactory.scan(repo, db, project);
+          for (ChangeNotes cn : notes) {
             Ref r = refs.get(cn.getChange().currentPatchSetId().toRefName());
             if (r != null) {
               byId.put(r.getObjectId(), changeDataFactory.create(db, cn));
             }
           }
-          new ProjectIndexer(indexer, byId, repo, done, failed, verboseWriter).call();
+          // Slices of a split project are indexed in change order; walking
+          // the full history of a huge repository once per slice would cost
+          // more than the locality it buys.
+          return new ProjectIndexer(indexer, byId, repo, ids == null, done, failed, verboseWriter)
+              .call();
         } catch (RepositoryNotFoundException rnfe) {
           log.error(rnfe.getMessage());
+          return false;
         }
-        return null;
       }
 
       @Override
       public String toString() {
+        if (ids != null) {
+          return "Index " + ids.size() + " changes of project " + project.get();
+        }
         return "Index all changes of project " + project.get();
       }
     };
   }
 
-  private static class ProjectIndexer implements Callable<Void> {
+  private static class ProjectIndexer implements Callable<Boolean> {
     private final ChangeIndexer indexer;
     private final ListMultimap<ObjectId, ChangeData> byId;
+    private final boolean walkHistory;
     private final ProgressMonitor done;
     private final ProgressMonitor failed;
     private final PrintWriter verboseWriter;
     private final Repository repo;
+    private boolean ok = true;
 
     private ProjectIndexer(
         ChangeIndexer indexer,
         ListMultimap<ObjectId, ChangeData> changesByCommitId,
         Repository repo,
+        boolean walkHistory,
         ProgressMonitor done,
         ProgressMonitor failed,
         PrintWriter verboseWriter) {
       this.indexer = indexer;
       this.byId = changesByCommitId;
       this.repo = repo;
+      this.walkHistory = walkHistory;
       this.done = done;
       this.failed = failed;
       this.verboseWriter = verboseWriter;
     }
 
     @Override
-    public Void call() throws Exception {
-      try (RevWalk walk = new RevWalk(repo)) {
-        // Walk only refs first to cover as many changes as we can without having
-        // to mark every single change.
-        for (Ref ref : repo.getRefDatabase().getRefs(Constants.R_HEADS).values()) {
-          RevObject o = walk.parseAny(ref.getObjectId());
-          if (o instanceof RevCommit) {
-            walk.markStart((RevCommit) o);
+    public Boolean call() throws Exception {
+      if (walkHistory) {
+        try (RevWalk walk = new RevWalk(repo)) {
+          // Walk only refs first to cover as many changes as we can without having
+          // to mark every single change.
+          for (Ref ref : repo.getRefDatabase().getRefs(Constants.R_HEADS).values()) {
+            RevObject o = walk.parseAny(ref.getObjectId());
+            if (o instanceof RevCommit) {
+              walk.markStart((RevCommit) o);
+            }
           }
-        }
 
-        RevCommit bCommit;
-        while ((bCommit = walk.next()) != null && !byId.isEmpty()) {
-          if (byId.containsKey(bCommit)) {
-            index(bCommit);
-            byId.removeAll(bCommit);
+          RevCommit bCommit;
+          while ((bCommit = walk.next()) != null && !byId.isEmpty()) {
+            if (byId.containsKey(bCommit)) {
+              index(bCommit);
+              byId.removeAll(bCommit);
+            }
           }
         }
+      }
 
-        for (ObjectId id : byId.keySet()) {
-          index(id);
-        }
+      for (ObjectId id : byId.keySet()) {
+        index(id);
       }
-      return null;
+      return ok;
     }
 
     private void index(ObjectId b) throws Exception {
@@ -313,6 +431,7 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       if (failed) {
         this.failed.update(1);
       }
+      ok = false;
 
       if (e != null) {
         log.warn(error, e);
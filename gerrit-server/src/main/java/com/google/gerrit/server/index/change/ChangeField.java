@@ -36,7 +36,14 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.common.data.LabelType;
+import com.google.gerrit.common.data.LabelValue;
 import com.google.gerrit.common.data.SubmitRecord;
+import com.google.gerrit.common.data.SubmitTypeRecord;
+import com.google.gerrit.extensions.client.SubmitType;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.ChangeMessage;
@@ -58,6 +65,7 @@ import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.notedb.NoteDbChangeState.PrimaryStorage;
 import com.google.gerrit.server.notedb.ReviewerStateInternal;
 import com.google.gerrit.server.notedb.RobotCommentNotes;
+import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.project.SubmitRuleOptions;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.ChangeQueryBuilder;
@@ -79,6 +87,7 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Stream;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.revwalk.FooterLine;
 
@@ -99,7 +108,7 @@ public class ChangeField {
 
   /** Legacy change ID. */
   public static final FieldDef<ChangeData, Integer> LEGACY_ID =
-      integer("legacy_id").stored().build(cd -> cd.getId().get());
+      integer("legacy_id").stored().docValues().build(cd -> cd.getId().get());
 
   /** Newer style Change-Id key. */
   public static final FieldDef<ChangeData, String> ID =
@@ -108,12 +117,14 @@ public class ChangeField {
   /** Change status string, in the same format as {@code status:}. */
   public static final FieldDef<ChangeData, String> STATUS =
       exact(ChangeQueryBuilder.FIELD_STATUS)
+          .docValues()
           .build(changeGetter(c -> ChangeStatusPredicate.canonicalize(c.getStatus())));
 
   /** Project containing the change. */
   public static final FieldDef<ChangeData, String> PROJECT =
       exact(ChangeQueryBuilder.FIELD_PROJECT)
           .stored()
+          .docValues()
           .build(changeGetter(c -> c.getProject().get()));
 
   /** Project containing the change, as a prefix field. */
@@ -122,7 +133,7 @@ public class ChangeField {
 
   /** Reference (aka branch) the change will submit onto. */
   public static final FieldDef<ChangeData, String> REF =
-      exact(ChangeQueryBuilder.FIELD_REF).build(changeGetter(c -> c.getDest().get()));
+      exact(ChangeQueryBuilder.FIELD_REF).docValues().build(changeGetter(c -> c.getDest().get()));
 
   /** Topic, a short annotation on the branch. */
   public static final FieldDef<ChangeData, String> EXACT_TOPIC =
@@ -138,7 +149,7 @@ public class ChangeField {
 
   /** Last update time since January 1, 1970. */
   public static final FieldDef<ChangeData, Timestamp> UPDATED =
-      timestamp("updated2").stored().build(changeGetter(Change::getLastUpdatedOn));
+      timestamp("updated2").stored().docValues().build(changeGetter(Change::getLastUpdatedOn));
 
   /** List of full file paths modified in the current patch set. */
   public static final FieldDef<ChangeData, Iterable<String>> PATH =
@@ -178,7 +189,9 @@ public class ChangeField {
 
   /** Owner/creator of the change. */
   public static final FieldDef<ChangeData, Integer> OWNER =
-      integer(ChangeQueryBuilder.FIELD_OWNER).build(changeGetter(c -> c.getOwner().get()));
+      integer(ChangeQueryBuilder.FIELD_OWNER)
+          .docValues()
+          .build(changeGetter(c -> c.getOwner().get()));
 
   /** The user assigned to the change. */
   public static final FieldDef<ChangeData, Integer> ASSIGNEE =
@@ -303,7 +316,7 @@ public class ChangeField {
 
   /** List of labels on the current patch set including change owner votes. */
   public static final FieldDef<ChangeData, Iterable<String>> LABEL =
-      exact("label2").buildRepeatable(cd -> getLabels(cd, true));
+      exact("label2").docValues().buildRepeatable(cd -> getLabels(cd, true));
 
   private static Iterable<String> getLabels(ChangeData cd, boolean owners) throws OrmException {
     Set<String> allApprovals = new HashSet<>();
@@ -430,6 +443,7 @@ public class ChangeField {
   public static final FieldDef<ChangeData, Integer> UNRESOLVED_COMMENT_COUNT =
       intRange(ChangeQueryBuilder.FIELD_UNRESOLVED_COMMENT_COUNT)
           .stored()
+          .docValues()
           .build(ChangeData::unresolvedCommentCount);
 
   /** Whether the change is mergeable. */
@@ -616,6 +630,85 @@ public class ChangeField {
       storedOnly("full_submit_record_lenient")
           .buildRepeatable(cd -> storedSubmitRecords(cd, SUBMIT_RULE_OPTIONS_LENIENT));
 
+  /** Submit type of open changes, so that rendering them does not need to evaluate rules. */
+  public static final FieldDef<ChangeData, byte[]> STORED_SUBMIT_TYPE =
+      storedOnly("submit_type")
+          .build(
+              cd -> {
+                if (!cd.change().getStatus().isOpen()) {
+                  return null;
+                }
+                SubmitTypeRecord str = cd.submitTypeRecord();
+                return str.isOk() ? str.type.name().getBytes(UTF_8) : null;
+              });
+
+  /**
+   * Hash of the project configuration that the stored submit records and submit type of an open
+   * change were computed from.
+   *
+   * <p>Compared by {@link StalenessChecker} to the current configuration, so that the stored values
+   * are recomputed when submit rules or label definitions of the project or its parents change.
+   */
+  public static final FieldDef<ChangeData, byte[]> SUBMIT_RULES_STATE =
+      storedOnly("submit_rules_state")
+          .build(
+              cd -> {
+                if (!cd.change().getStatus().isOpen()) {
+                  return null;
+                }
+                ProjectState state = cd.changeControl().getProjectControl().getProjectState();
+                return submitRulesState(state).getBytes(UTF_8);
+              });
+
+  public static void parseSubmitType(@Nullable byte[] value, ChangeData out) {
+    if (value != null) {
+      String type = new String(value, UTF_8);
+      out.setIndexedSubmitTypeRecord(SubmitTypeRecord.OK(SubmitType.valueOf(type)));
+    }
+  }
+
+  public static void parseSubmitRulesState(@Nullable byte[] value, ChangeData out) {
+    out.setSubmitRulesState(value != null ? new String(value, UTF_8) : null);
+  }
+
+  /**
+   * Hash the parts of a project's configuration that submit rules depend on.
+   *
+   * @param projectState state of the project.
+   * @return hex encoded hash covering the submit type, and the {@code rules.pl} and label
+   *     definitions of the project and all of its parents.
+   */
+  public static String submitRulesState(ProjectState projectState) {
+    Hasher h = Hashing.sha1().newHasher();
+    putString(h, projectState.getProject().getSubmitType().name());
+    for (ProjectState s : projectState.tree()) {
+      putString(h, s.getProject().getName());
+      ObjectId rulesId = s.getConfig().getRulesId();
+      putString(h, rulesId != null ? rulesId.name() : "");
+    }
+    for (LabelType t : projectState.getLabelTypes().getLabelTypes()) {
+      putString(h, t.getName());
+      putString(h, t.getFunctionName());
+      h.putBoolean(t.canOverride());
+      h.putBoolean(t.allowPostSubmit());
+      h.putShort(t.getDefaultValue());
+      if (t.getRefPatterns() != null) {
+        for (String p : t.getRefPatterns()) {
+          putString(h, p);
+        }
+      }
+      for (LabelValue v : t.getValues()) {
+        h.putShort(v.getValue());
+      }
+      h.putByte((byte) 0);
+    }
+    return h.hash().toString();
+  }
+
+  private static void putString(Hasher h, String s) {
+    h.putString(s, UTF_8).putByte((byte) 0);
+  }
+
   public static void parseSubmitRecords(
       Collection<String> values, SubmitRuleOptions opts, ChangeData out) {
     checkArgument(!opts.fastEvalLabels());
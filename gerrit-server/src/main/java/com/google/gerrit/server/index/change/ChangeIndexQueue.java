@@ -0,0 +1,177 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Histogram0;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.util.RequestContext;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Coalescing queue of changes waiting to be reindexed in the background.
+ *
+ * <p>A request for a change that is already waiting shares the pending request instead of adding
+ * another one, so a change touched many times in quick succession, e.g. on every update of a busy
+ * branch, is only reindexed once. {@link ChangeIndexer} takes queued changes off in batches, which
+ * lets the index write all of them in a single call.
+ *
+ * <p>A change leaves the queue before it is loaded, so a request arriving while the change is being
+ * reindexed queues it again rather than being lost.
+ */
+@Singleton
+public class ChangeIndexQueue {
+  static final int DEFAULT_BATCH_SIZE = 100;
+
+  static class Pending {
+    final Project.NameKey project;
+    final Change.Id id;
+    final SettableFuture<Void> future = SettableFuture.create();
+    // Requests waiting for the change; only modified while the change is in
+    // the pending map.
+    final List<RequestContext> callers = new ArrayList<>(1);
+
+    private Pending(Project.NameKey project, Change.Id id) {
+      this.project = project;
+      this.id = id;
+    }
+  }
+
+  private final ConcurrentMap<Change.Id, Pending> pending = new ConcurrentHashMap<>();
+  private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+  private final int batchSize;
+  private final Counter0 requests;
+  private final Counter0 coalesced;
+  private final Histogram0 batchSizes;
+  final Timer0 batchLatency;
+
+  @Inject
+  ChangeIndexQueue(@GerritServerConfig Config cfg, MetricMaker metrics) {
+    batchSize = Math.max(cfg.getInt("index", null, "batchSize", DEFAULT_BATCH_SIZE), 1);
+
+    requests =
+        metrics.newCounter(
+            "index/change/reindex_requests",
+            new Description("Requests to reindex a change in the background")
+                .setRate()
+                .setUnit("requests"));
+    coalesced =
+        metrics.newCounter(
+            "index/change/reindex_coalesced",
+            new Description("Reindex requests merged into a request that was already waiting")
+                .setRate()
+                .setUnit("requests"));
+    batchSizes =
+        metrics.newHistogram(
+            "index/change/reindex_batch_size",
+            new Description("Changes written to the index per batch")
+                .setCumulative()
+                .setUnit("changes"));
+    batchLatency =
+        metrics.newTimer(
+            "index/change/reindex_batch_latency",
+            new Description("Latency for loading and writing a batch of changes to the index")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+    metrics.newCallbackMetric(
+        "index/change/reindex_queue",
+        Integer.class,
+        new Description("Changes waiting to be reindexed in the background")
+            .setGauge()
+            .setUnit("changes"),
+        pending::size);
+  }
+
+  /**
+   * Queue a change for reindexing.
+   *
+   * @param project the project to which the change belongs.
+   * @param id ID of the change to index.
+   * @param caller context of the request asking for the change to be indexed, if any.
+   * @param schedule called if the change was not already waiting; must arrange for {@link
+   *     #nextBatch()} to be called.
+   * @return future completed once the change has been reindexed.
+   */
+  ListenableFuture<Void> add(
+      Project.NameKey project,
+      Change.Id id,
+      @Nullable RequestContext caller,
+      Runnable schedule) {
+    requests.increment();
+    Pending p = new Pending(project, id);
+    if (caller != null) {
+      p.callers.add(caller);
+    }
+    // Add the caller atomically with the lookup, so it isn't added to a
+    // pending change nextBatch() already took off the queue.
+    Pending current =
+        pending.merge(
+            id,
+            p,
+            (old, added) -> {
+              if (caller != null) {
+                old.callers.add(caller);
+              }
+              return old;
+            });
+    if (current != p) {
+      coalesced.increment();
+      return current.future;
+    }
+    queue.add(p);
+    schedule.run();
+    return p.future;
+  }
+
+  /**
+   * Take the next batch of changes off the queue.
+   *
+   * @return up to {@code index.batchSize} changes; empty if another caller already took all
+   *     waiting changes.
+   */
+  List<Pending> nextBatch() {
+    List<Pending> batch = new ArrayList<>();
+    Pending p;
+    while (batch.size() < batchSize && (p = queue.poll()) != null) {
+      pending.remove(p.id, p);
+      batch.add(p);
+    }
+    if (!batch.isEmpty()) {
+      batchSizes.record(batch.size());
+    }
+    return batch;
+  }
+
+  int size() {
+    return pending.size();
+  }
+}
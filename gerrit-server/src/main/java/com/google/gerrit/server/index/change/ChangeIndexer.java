@@ -18,6 +18,7 @@ import static com.google.gerrit.server.extensions.events.EventUtil.logEventListe
 import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
 
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Atomics;
 import com.google.common.util.concurrent.CheckedFuture;
 import com.google.common.util.concurrent.Futures;
@@ -25,6 +26,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.gerrit.extensions.events.ChangeIndexedListener;
 import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
@@ -32,8 +34,10 @@ import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.index.Index;
 import com.google.gerrit.server.index.IndexExecutor;
+import com.google.gerrit.server.index.IndexWriteContext;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.notedb.NotesMigration;
+import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.util.RequestContext;
 import com.google.gerrit.server.util.ThreadLocalRequestContext;
@@ -107,6 +111,7 @@ public class ChangeIndexer {
   private final ListeningExecutorService executor;
   private final DynamicSet<ChangeIndexedListener> indexedListeners;
   private final StalenessChecker stalenessChecker;
+  private final ChangeIndexQueue queue;
   private final boolean autoReindexIfStale;
 
   @AssistedInject
@@ -119,6 +124,7 @@ public class ChangeIndexer {
       ThreadLocalRequestContext context,
       DynamicSet<ChangeIndexedListener> indexedListeners,
       StalenessChecker stalenessChecker,
+      ChangeIndexQueue queue,
       @IndexExecutor(BATCH) ListeningExecutorService batchExecutor,
       @Assisted ListeningExecutorService executor,
       @Assisted ChangeIndex index) {
@@ -130,6 +136,7 @@ public class ChangeIndexer {
     this.context = context;
     this.indexedListeners = indexedListeners;
     this.stalenessChecker = stalenessChecker;
+    this.queue = queue;
     this.batchExecutor = batchExecutor;
     this.autoReindexIfStale = autoReindexIfStale(cfg);
     this.index = index;
@@ -146,6 +153,7 @@ public class ChangeIndexer {
       ThreadLocalRequestContext context,
       DynamicSet<ChangeIndexedListener> indexedListeners,
       StalenessChecker stalenessChecker,
+      ChangeIndexQueue queue,
       @IndexExecutor(BATCH) ListeningExecutorService batchExecutor,
       @Assisted ListeningExecutorService executor,
       @Assisted ChangeIndexCollection indexes) {
@@ -157,6 +165,7 @@ public class ChangeIndexer {
     this.context = context;
     this.indexedListeners = indexedListeners;
     this.stalenessChecker = stalenessChecker;
+    this.queue = queue;
     this.batchExecutor = batchExecutor;
     this.autoReindexIfStale = autoReindexIfStale(cfg);
     this.index = null;
@@ -170,11 +179,28 @@ public class ChangeIndexer {
   /**
    * Start indexing a change.
    *
+   * <p>If the change is already waiting to be indexed the returned future is shared with the
+   * earlier request, and the change is only indexed once.
+   *
    * @param id change to index.
    * @return future for the indexing task.
    */
   public CheckedFuture<?, IOException> indexAsync(Project.NameKey project, Change.Id id) {
-    return submit(new IndexTask(project, id));
+    if (index != null) {
+      // Only changes written to all indexes of the collection are batched, so
+      // an indexer for a single index doesn't steal changes from the others.
+      return submit(new IndexTask(project, id, context.getContext()));
+    }
+    return Futures.makeChecked(
+        Futures.nonCancellationPropagating(
+            queue.add(project, id, context.getContext(), this::scheduleBatch)),
+        MAPPER);
+  }
+
+  private void scheduleBatch() {
+    // Failures are logged and reported through the futures of the batch.
+    @SuppressWarnings("unused")
+    Future<?> possiblyIgnoredError = submit(new BatchIndexTask());
   }
 
   /**
@@ -201,7 +227,7 @@ public class ChangeIndexer {
     for (Index<?, ChangeData> i : getWriteIndexes()) {
       i.replace(cd);
     }
-    fireChangeIndexedEvent(cd.getId().get());
+    fireChangeIndexedEvent(cd);
 
     // Always double-check whether the change might be stale immediately after
     // interactively indexing it. This fixes up the case where two writers write
@@ -224,10 +250,18 @@ public class ChangeIndexer {
     autoReindexIfStale(cd);
   }
 
-  private void fireChangeIndexedEvent(int id) {
+  private void fireChangeIndexedEvent(ChangeData cd) throws IOException {
+    try {
+      fireChangeIndexedEvent(cd.project(), cd.getId());
+    } catch (OrmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void fireChangeIndexedEvent(Project.NameKey project, Change.Id id) {
     for (ChangeIndexedListener listener : indexedListeners) {
       try {
-        listener.onChangeIndexed(id);
+        listener.onChangeIndexed(project.get(), id.get());
       } catch (Exception e) {
         logEventListenerError(listener, e);
       }
@@ -333,17 +367,14 @@ public class ChangeIndexer {
     return Futures.makeChecked(Futures.nonCancellationPropagating(executor.submit(task)), MAPPER);
   }
 
-  private abstract class AbstractIndexTask<T> implements Callable<T> {
-    protected final Project.NameKey project;
-    protected final Change.Id id;
+  private abstract class AbstractRequestTask<T> implements Callable<T> {
+    protected abstract T callImpl(Provider<ReviewDb> db) throws Exception;
 
-    protected AbstractIndexTask(Project.NameKey project, Change.Id id) {
-      this.project = project;
-      this.id = id;
+    /** @return contexts of the requests this task writes to the index for. */
+    protected Collection<RequestContext> callers() {
+      return ImmutableList.of();
     }
 
-    protected abstract T callImpl(Provider<ReviewDb> db) throws Exception;
-
     @Override
     public abstract String toString();
 
@@ -351,8 +382,8 @@ public class ChangeIndexer {
     public final T call() throws Exception {
       try {
         final AtomicReference<Provider<ReviewDb>> dbRef = Atomics.newReference();
-        RequestContext newCtx =
-            new RequestContext() {
+        IndexWriteContext newCtx =
+            new IndexWriteContext() {
               @Override
               public Provider<ReviewDb> getReviewDbProvider() {
                 Provider<ReviewDb> db = dbRef.get();
@@ -373,6 +404,11 @@ public class ChangeIndexer {
               public CurrentUser getUser() {
                 throw new OutOfScopeException("No user during ChangeIndexer");
               }
+
+              @Override
+              public Collection<RequestContext> getCallers() {
+                return callers();
+              }
             };
         RequestContext oldCtx = context.setContext(newCtx);
         try {
@@ -391,9 +427,27 @@ public class ChangeIndexer {
     }
   }
 
+  private abstract class AbstractIndexTask<T> extends AbstractRequestTask<T> {
+    protected final Project.NameKey project;
+    protected final Change.Id id;
+
+    protected AbstractIndexTask(Project.NameKey project, Change.Id id) {
+      this.project = project;
+      this.id = id;
+    }
+  }
+
   private class IndexTask extends AbstractIndexTask<Void> {
-    private IndexTask(Project.NameKey project, Change.Id id) {
+    private final RequestContext caller;
+
+    private IndexTask(Project.NameKey project, Change.Id id, RequestContext caller) {
       super(project, id);
+      this.caller = caller;
+    }
+
+    @Override
+    protected Collection<RequestContext> callers() {
+      return caller != null ? ImmutableList.of(caller) : ImmutableList.of();
     }
 
     @Override
@@ -409,6 +463,77 @@ public class ChangeIndexer {
     }
   }
 
+  private class BatchIndexTask extends AbstractRequestTask<Void> {
+    private List<ChangeIndexQueue.Pending> batch = ImmutableList.of();
+
+    @Override
+    protected Collection<RequestContext> callers() {
+      List<RequestContext> callers = new ArrayList<>();
+      for (ChangeIndexQueue.Pending p : batch) {
+        callers.addAll(p.callers);
+      }
+      return callers;
+    }
+
+    @Override
+    public Void callImpl(Provider<ReviewDb> db) throws Exception {
+      batch = queue.nextBatch();
+      if (batch.isEmpty()) {
+        // An earlier task already picked up the changes queued for this one.
+        return null;
+      }
+      try (Timer0.Context ctx = queue.batchLatency.start()) {
+        indexBatch(db.get(), batch);
+      } catch (Exception e) {
+        for (ChangeIndexQueue.Pending p : batch) {
+          p.future.setException(e);
+        }
+        throw e;
+      }
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return "index-change-batch";
+    }
+  }
+
+  private void indexBatch(ReviewDb db, List<ChangeIndexQueue.Pending> batch) throws IOException {
+    List<ChangeIndexQueue.Pending> loaded = new ArrayList<>(batch.size());
+    List<ChangeData> cds = new ArrayList<>(batch.size());
+    for (ChangeIndexQueue.Pending p : batch) {
+      try {
+        ChangeData cd = newChangeData(db, p.project, p.id);
+        cd.change();
+        cds.add(cd);
+        loaded.add(p);
+      } catch (OrmException e) {
+        if (e.getCause() instanceof NoSuchChangeException) {
+          // Deleted since it was queued.
+          delete(p.id);
+          p.future.set(null);
+        } else {
+          log.error("Failed to load change " + p.id + " for indexing", e);
+          p.future.setException(e);
+        }
+      }
+    }
+    if (cds.isEmpty()) {
+      return;
+    }
+
+    for (ChangeIndex i : getWriteIndexes()) {
+      i.replaceAll(cds);
+    }
+    for (ChangeIndexQueue.Pending p : loaded) {
+      fireChangeIndexedEvent(p.project, p.id);
+      // See comment in #index(ChangeData).
+      autoReindexIfStale(p.project, p.id);
+      p.future.set(null);
+    }
+  }
+
   // Not AbstractIndexTask as it doesn't need ReviewDb.
   private class DeleteTask implements Callable<Void> {
     private final Change.Id id;
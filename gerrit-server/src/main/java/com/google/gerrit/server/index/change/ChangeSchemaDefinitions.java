@@ -74,9 +74,16 @@ public class ChangeSchemaDefinitions extends SchemaDefinitions<ChangeData> {
   @Deprecated static final Schema<ChangeData> V41 = schema(V40, ChangeField.REVIEWER_BY_EMAIL);
   @Deprecated static final Schema<ChangeData> V42 = schema(V41, ChangeField.WIP);
 
+  @Deprecated
   static final Schema<ChangeData> V43 =
       schema(V42, ChangeField.EXACT_AUTHOR, ChangeField.EXACT_COMMITTER);
 
+  // Same fields, reindexed to add DocValues columns for the fields that have them.
+  @Deprecated static final Schema<ChangeData> V44 = schema(V43);
+
+  static final Schema<ChangeData> V45 =
+      schema(V44, ChangeField.STORED_SUBMIT_TYPE, ChangeField.SUBMIT_RULES_STATE);
+
   public static final String NAME = "changes";
   public static final ChangeSchemaDefinitions INSTANCE = new ChangeSchemaDefinitions();
 
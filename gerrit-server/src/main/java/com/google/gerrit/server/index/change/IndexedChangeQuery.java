@@ -69,7 +69,8 @@ public class IndexedChangeQuery extends IndexedQuery<Change.Id, ChangeData>
   static QueryOptions convertOptions(QueryOptions opts) {
     opts = opts.convertForBackend();
     return IndexedChangeQuery.createOptions(
-        opts.config(), opts.start(), opts.limit(), opts.fields());
+            opts.config(), opts.start(), opts.limit(), opts.fields())
+        .withSearchAfter(opts.searchAfter());
   }
 
   private final Map<ChangeData, DataSource<ChangeData>> fromSource;
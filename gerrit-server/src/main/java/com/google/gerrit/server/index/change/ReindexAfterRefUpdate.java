@@ -17,23 +17,30 @@ package com.google.gerrit.server.index.change;
 import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.gerrit.server.query.change.ChangeData.asChanges;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.Branch;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RefNames;
-import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.account.AccountCache;
+import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.config.AllUsersName;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.ProjectConfig;
 import com.google.gerrit.server.git.QueueProvider.QueueType;
 import com.google.gerrit.server.index.IndexExecutor;
-import com.google.gerrit.server.notedb.ChangeNotes;
-import com.google.gerrit.server.project.NoSuchChangeException;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.query.change.InternalChangeQuery;
 import com.google.gerrit.server.util.ManualRequestContext;
 import com.google.gerrit.server.util.OneOffRequestContext;
@@ -42,23 +49,47 @@ import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.RawParseUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ReindexAfterRefUpdate implements GitReferenceUpdatedListener {
   private static final Logger log = LoggerFactory.getLogger(ReindexAfterRefUpdate.class);
 
+  private static final String RULES_PL = "rules.pl";
+  private static final String LABEL = "label";
+
   private final OneOffRequestContext requestContext;
   private final Provider<InternalChangeQuery> queryProvider;
   private final ChangeIndexer.Factory indexerFactory;
   private final ChangeIndexCollection indexes;
-  private final ChangeNotes.Factory notesFactory;
   private final AllUsersName allUsersName;
+  private final AllProjectsName allProjectsName;
+  private final GitRepositoryManager repoManager;
   private final AccountCache accountCache;
+  private final ProjectCache projectCache;
+  private final StaleChangeSweeper sweeper;
   private final ListeningExecutorService executor;
   private final boolean enabled;
 
@@ -69,17 +100,23 @@ public class ReindexAfterRefUpdate implements GitReferenceUpdatedListener {
       Provider<InternalChangeQuery> queryProvider,
       ChangeIndexer.Factory indexerFactory,
       ChangeIndexCollection indexes,
-      ChangeNotes.Factory notesFactory,
       AllUsersName allUsersName,
+      AllProjectsName allProjectsName,
+      GitRepositoryManager repoManager,
       AccountCache accountCache,
+      ProjectCache projectCache,
+      StaleChangeSweeper sweeper,
       @IndexExecutor(QueueType.BATCH) ListeningExecutorService executor) {
     this.requestContext = requestContext;
     this.queryProvider = queryProvider;
     this.indexerFactory = indexerFactory;
     this.indexes = indexes;
-    this.notesFactory = notesFactory;
     this.allUsersName = allUsersName;
+    this.allProjectsName = allProjectsName;
+    this.repoManager = repoManager;
     this.accountCache = accountCache;
+    this.projectCache = projectCache;
+    this.sweeper = sweeper;
     this.executor = executor;
     this.enabled = cfg.getBoolean("index", null, "reindexAfterRefUpdate", true);
   }
@@ -112,10 +149,15 @@ public class ReindexAfterRefUpdate implements GitReferenceUpdatedListener {
         new FutureCallback<List<Change>>() {
           @Override
           public void onSuccess(List<Change> changes) {
+            // Changes are reloaded by the indexer, as some time may have
+            // passed since GetChanges. Changes that are still waiting from an
+            // earlier update of the same branch are only reindexed once.
+            ChangeIndexer indexer = indexerFactory.create(executor, indexes);
+            Project.NameKey project = new Project.NameKey(event.getProjectName());
             for (Change c : changes) {
               // Don't retry indefinitely; if this fails changes may be stale.
               @SuppressWarnings("unused")
-              Future<?> possiblyIgnoredError = executor.submit(new Index(event, c.getId()));
+              Future<?> possiblyIgnoredError = indexer.indexAsync(project, c.getId());
             }
           }
 
@@ -125,6 +167,12 @@ public class ReindexAfterRefUpdate implements GitReferenceUpdatedListener {
           }
         },
         directExecutor());
+
+    if (event.getRefName().equals(RefNames.REFS_CONFIG)) {
+      @SuppressWarnings("unused")
+      Future<?> possiblyIgnoredError =
+          executor.submit(new SweepChildProjects(event));
+    }
   }
 
   private abstract class Task<V> implements Callable<V> {
@@ -171,33 +219,130 @@ public class ReindexAfterRefUpdate implements GitReferenceUpdatedListener {
     }
   }
 
-  private class Index extends Task<Void> {
-    private final Change.Id id;
+  /**
+   * Submit rules and labels are inherited, so a config update may also change the stored {@link
+   * ChangeField#SUBMIT_RULES_STATE} of open changes in child projects. Those are swept rather than
+   * reindexed, so only changes whose state actually differs are reindexed.
+   */
+  private class SweepChildProjects implements Runnable {
+    private final Event event;
+    private final Project.NameKey parent;
 
-    Index(Event event, Change.Id id) {
-      super(event);
-      this.id = id;
+    private SweepChildProjects(Event event) {
+      this.event = event;
+      this.parent = new Project.NameKey(event.getProjectName());
     }
 
     @Override
-    protected Void impl(RequestContext ctx) throws OrmException, IOException {
-      // Reload change, as some time may have passed since GetChanges.
-      ReviewDb db = ctx.getReviewDbProvider().get();
-      try {
-        Change c =
-            notesFactory
-                .createChecked(db, new Project.NameKey(event.getProjectName()), id)
-                .getChange();
-        indexerFactory.create(executor, indexes).index(db, c);
-      } catch (NoSuchChangeException e) {
-        indexerFactory.create(executor, indexes).delete(id);
+    public void run() {
+      ChangeIndex index = indexes.getSearchIndex();
+      if (index == null || !index.getSchema().hasField(ChangeField.SUBMIT_RULES_STATE)) {
+        return;
+      }
+      try (Repository repo = repoManager.openRepository(parent)) {
+        if (!inheritedSubmitRulesChanged(
+            repo,
+            ObjectId.fromString(event.getOldObjectId()),
+            ObjectId.fromString(event.getNewObjectId()))) {
+          return;
+        }
+      } catch (IOException | ConfigInvalidException e) {
+        log.warn("Cannot compare submit rules of " + parent + ", sweeping child projects", e);
+      }
+      for (Project.NameKey p : descendants()) {
+        try {
+          sweeper.sweep(p);
+        } catch (IOException | OrmException e) {
+          log.error("Failed to reindex changes of " + p + " after " + parent + " config update", e);
+        }
+      }
+    }
+
+    private Iterable<Project.NameKey> descendants() {
+      if (parent.equals(allProjectsName)) {
+        // Every other project inherits from All-Projects; skip loading their configs.
+        return Iterables.filter(projectCache.all(), p -> !p.equals(parent));
+      }
+
+      ListMultimap<Project.NameKey, Project.NameKey> children =
+          MultimapBuilder.hashKeys().arrayListValues().build();
+      for (Project.NameKey p : projectCache.all()) {
+        ProjectState state = projectCache.get(p);
+        if (state != null && !p.equals(allProjectsName)) {
+          children.put(state.getProject().getParent(allProjectsName), p);
+        }
       }
-      return null;
+
+      Set<Project.NameKey> result = new LinkedHashSet<>();
+      Deque<Project.NameKey> todo = new ArrayDeque<>(children.get(parent));
+      while (!todo.isEmpty()) {
+        Project.NameKey p = todo.remove();
+        if (!p.equals(parent) && result.add(p)) {
+          todo.addAll(children.get(p));
+        }
+      }
+      return result;
     }
 
     @Override
     public String toString() {
-      return "Index change " + id.get() + " of project " + event.getProjectName();
+      return "Sweep child projects of " + parent + " after config update";
+    }
+  }
+
+  /**
+   * Check whether an update of {@code refs/meta/config} changed anything child projects inherit
+   * into their submit rules, that is the {@code rules.pl} file or a label definition.
+   *
+   * @param repo repository of the updated project.
+   * @param oldId old value of {@code refs/meta/config}, or zero if it was created.
+   * @param newId new value of {@code refs/meta/config}, or zero if it was deleted.
+   * @return true if the inherited submit rules may differ between the two revisions.
+   * @throws IOException the revisions could not be read.
+   * @throws ConfigInvalidException either {@code project.config} could not be parsed.
+   */
+  @VisibleForTesting
+  static boolean inheritedSubmitRulesChanged(Repository repo, ObjectId oldId, ObjectId newId)
+      throws IOException, ConfigInvalidException {
+    if (oldId.equals(ObjectId.zeroId()) || newId.equals(ObjectId.zeroId())) {
+      return true;
+    }
+    try (RevWalk rw = new RevWalk(repo)) {
+      ObjectReader reader = rw.getObjectReader();
+      RevTree oldTree = rw.parseTree(oldId);
+      RevTree newTree = rw.parseTree(newId);
+      return !Objects.equals(blobId(reader, oldTree, RULES_PL), blobId(reader, newTree, RULES_PL))
+          || !labels(reader, oldTree).equals(labels(reader, newTree));
+    }
+  }
+
+  private static Map<String, Map<String, List<String>>> labels(ObjectReader reader, RevTree tree)
+      throws IOException, ConfigInvalidException {
+    Config cfg = new Config();
+    ObjectId id = blobId(reader, tree, ProjectConfig.PROJECT_CONFIG);
+    if (id != null) {
+      cfg.fromText(
+          RawParseUtils.decode(
+              reader.open(id, Constants.OBJ_BLOB).getCachedBytes(Integer.MAX_VALUE)));
+    }
+
+    Map<String, Map<String, List<String>>> labels = new TreeMap<>();
+    for (String label : cfg.getSubsections(LABEL)) {
+      Map<String, List<String>> values = new TreeMap<>();
+      for (String name : cfg.getNames(LABEL, label)) {
+        values.put(
+            name.toLowerCase(Locale.US), Arrays.asList(cfg.getStringList(LABEL, label, name)));
+      }
+      labels.put(label, values);
+    }
+    return labels;
+  }
+
+  @Nullable
+  private static ObjectId blobId(ObjectReader reader, RevTree tree, String path)
+      throws IOException {
+    try (TreeWalk tw = TreeWalk.forPath(reader, path, tree)) {
+      return tw != null ? tw.getObjectId(0) : null;
     }
   }
 }
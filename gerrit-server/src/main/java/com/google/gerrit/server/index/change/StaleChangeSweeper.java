@@ -0,0 +1,372 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static com.google.gerrit.server.config.ScheduleConfig.MISSING_CONFIG;
+import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
+import static org.eclipse.jgit.lib.RefDatabase.ALL;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.reviewdb.server.ReviewDbUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.ScheduleConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.index.IndexConfig;
+import com.google.gerrit.server.index.IndexExecutor;
+import com.google.gerrit.server.index.QueryCursor;
+import com.google.gerrit.server.index.QueryOptions;
+import com.google.gerrit.server.index.change.StalenessChecker.RefState;
+import com.google.gerrit.server.index.change.StalenessChecker.RefStatePattern;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.gerrit.server.query.QueryParseException;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.ProjectPredicate;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds changes whose index documents are stale and reindexes them.
+ *
+ * <p>Unlike {@link StalenessChecker#isStale(Change.Id)}, which reads the refs of each change
+ * separately, the sweeper reads the stored ref states of all changes of a project from the index
+ * page by page and compares them to a single scan of the refs of the project. Refs of other
+ * repositories, e.g. drafts in All-Users, are read again for each page and only under the names and
+ * prefixes the changes of the page refer to. Only the stale changes are handed to the {@link
+ * ChangeIndexer}.
+ *
+ * <p>Runs periodically if {@code index.sweepInterval} is configured, and on demand via SSH and
+ * REST.
+ */
+@Singleton
+public class StaleChangeSweeper implements Runnable {
+  private static final Logger log = LoggerFactory.getLogger(StaleChangeSweeper.class);
+
+  private static final int PAGE_SIZE = 1000;
+
+  public static class Module extends LifecycleModule {
+    @Override
+    protected void configure() {
+      listener().to(Lifecycle.class);
+    }
+  }
+
+  static class Lifecycle implements LifecycleListener {
+    private final WorkQueue queue;
+    private final StaleChangeSweeper sweeper;
+    private final ScheduleConfig scheduleConfig;
+
+    @Inject
+    Lifecycle(WorkQueue queue, StaleChangeSweeper sweeper, @GerritServerConfig Config cfg) {
+      this.queue = queue;
+      this.sweeper = sweeper;
+      this.scheduleConfig =
+          new ScheduleConfig(cfg, "index", null, "sweepInterval", "sweepStartTime");
+    }
+
+    @Override
+    public void start() {
+      long interval = scheduleConfig.getInterval();
+      long delay = scheduleConfig.getInitialDelay();
+      if (delay == MISSING_CONFIG && interval == MISSING_CONFIG) {
+        log.info("Ignoring missing index sweep schedule configuration");
+      } else if (delay < 0 || interval <= 0) {
+        log.warn(
+            String.format(
+                "Ignoring invalid index sweep schedule configuration: %s", scheduleConfig));
+      } else {
+        @SuppressWarnings("unused")
+        Future<?> possiblyIgnoredError =
+            queue
+                .getDefaultQueue()
+                .scheduleAtFixedRate(sweeper, delay, interval, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    @Override
+    public void stop() {
+      // handled by WorkQueue.stop() already
+    }
+  }
+
+  private final ChangeIndexCollection indexes;
+  private final IndexConfig indexConfig;
+  private final GitRepositoryManager repoManager;
+  private final ProjectCache projectCache;
+  private final OneOffRequestContext requestContext;
+  private final ChangeIndexer indexer;
+
+  @Inject
+  StaleChangeSweeper(
+      ChangeIndexCollection indexes,
+      IndexConfig indexConfig,
+      GitRepositoryManager repoManager,
+      ProjectCache projectCache,
+      OneOffRequestContext requestContext,
+      ChangeIndexer.Factory indexerFactory,
+      @IndexExecutor(BATCH) ListeningExecutorService executor) {
+    this.indexes = indexes;
+    this.indexConfig = indexConfig;
+    this.repoManager = repoManager;
+    this.projectCache = projectCache;
+    this.requestContext = requestContext;
+    this.indexer = indexerFactory.create(executor, indexes);
+  }
+
+  @Override
+  public void run() {
+    log.info("Checking change index for stale changes");
+    int stale = sweepAll();
+    log.info("Scheduled {} stale changes for reindexing", stale);
+  }
+
+  /**
+   * Reindex the stale changes of all projects.
+   *
+   * <p>Projects that cannot be checked are logged and skipped.
+   *
+   * @return number of changes found stale; they are reindexed in the background.
+   */
+  public int sweepAll() {
+    int stale = 0;
+    for (Project.NameKey project : projectCache.all()) {
+      try {
+        stale += sweep(project);
+      } catch (IOException | OrmException e) {
+        log.warn("Cannot check changes of project " + project + " for staleness", e);
+      }
+    }
+    return stale;
+  }
+
+  /**
+   * Reindex the stale changes of a project.
+   *
+   * @param project project whose changes should be checked.
+   * @return number of changes found stale; they are reindexed in the background.
+   * @throws IOException if the index or a repository could not be read.
+   * @throws OrmException if the index or ReviewDb could not be read.
+   */
+  public int sweep(Project.NameKey project) throws IOException, OrmException {
+    ChangeIndex index = indexes.getSearchIndex();
+    if (index == null
+        || !index.getSchema().hasField(ChangeField.REF_STATE)
+        || !index.getSchema().hasField(ChangeField.REF_STATE_PATTERN)) {
+      return 0;
+    }
+    ProjectState projectState = projectCache.checkedGet(project);
+    if (projectState == null) {
+      return 0;
+    }
+    String submitRulesState =
+        index.getSchema().hasField(ChangeField.SUBMIT_RULES_STATE)
+            ? ChangeField.submitRulesState(projectState)
+            : null;
+
+    NavigableMap<String, Ref> projectRefs = readRefs(project);
+    if (projectRefs == null) {
+      return 0;
+    }
+
+    int stale = 0;
+    try (ManualRequestContext ctx = requestContext.open()) {
+      ReviewDb db = ctx.getReviewDbProvider().get();
+      QueryCursor cursor = null;
+      while (true) {
+        List<ChangeData> page = read(index, project, cursor);
+        Map<Project.NameKey, NavigableMap<String, Ref>> refs = readOtherRefs(project, page);
+        refs.put(project, projectRefs);
+        List<Change.Id> staleIds = new ArrayList<>();
+        for (List<ChangeData> batch : Iterables.partition(page, 30)) {
+          Map<Change.Id, Change> reviewDbChanges = readReviewDbChanges(db, batch);
+          for (ChangeData cd : batch) {
+            if (isStale(cd, reviewDbChanges.get(cd.getId()), submitRulesState, refs)) {
+              staleIds.add(cd.getId());
+            }
+          }
+        }
+        if (!staleIds.isEmpty()) {
+          @SuppressWarnings("unused")
+          Future<?> possiblyIgnoredError = indexer.indexAsync(project, staleIds);
+          stale += staleIds.size();
+        }
+        if (page.size() < PAGE_SIZE) {
+          break;
+        }
+        cursor = page.get(page.size() - 1).getCursor();
+        if (cursor == null) {
+          log.warn(
+              "Index does not support cursors; only checked {} changes of {}", PAGE_SIZE, project);
+          break;
+        }
+      }
+    }
+    if (stale > 0) {
+      log.info("Found {} stale changes in project {}", stale, project);
+    }
+    return stale;
+  }
+
+  private List<ChangeData> read(ChangeIndex index, Project.NameKey project, QueryCursor cursor)
+      throws OrmException {
+    QueryOptions opts =
+        QueryOptions.create(indexConfig, 0, PAGE_SIZE, StalenessChecker.FIELDS, cursor);
+    try {
+      return index.getSource(new ProjectPredicate(project.get()), opts).read().toList();
+    } catch (QueryParseException e) {
+      throw new OrmException(e);
+    }
+  }
+
+  private static Map<Change.Id, Change> readReviewDbChanges(ReviewDb db, List<ChangeData> batch)
+      throws OrmException {
+    List<Change.Id> ids = new ArrayList<>(batch.size());
+    for (ChangeData cd : batch) {
+      ids.add(cd.getId());
+    }
+    Map<Change.Id, Change> result = new HashMap<>();
+    for (Change c : ReviewDbUtil.unwrapDb(db).changes().get(ids)) {
+      result.put(c.getId(), c);
+    }
+    return result;
+  }
+
+  private boolean isStale(
+      ChangeData cd,
+      @Nullable Change reviewDbChange,
+      @Nullable String submitRulesState,
+      Map<Project.NameKey, NavigableMap<String, Ref>> refs)
+      throws OrmException {
+    Change change = cd.change();
+    if (StalenessChecker.reviewDbChangeIsStale(change, reviewDbChange)) {
+      return true;
+    }
+    if (submitRulesState != null
+        && change.getStatus().isOpen()
+        && !submitRulesState.equals(cd.getSubmitRulesState())) {
+      return true;
+    }
+    try {
+      SetMultimap<Project.NameKey, RefState> states =
+          StalenessChecker.parseStates(cd.getRefStates());
+      ListMultimap<Project.NameKey, RefStatePattern> patterns =
+          StalenessChecker.parsePatterns(cd.getRefStatePatterns());
+      return StalenessChecker.refsAreStale(refs, states, patterns);
+    } catch (IllegalArgumentException e) {
+      log.warn("Cannot check staleness of change " + cd.getId(), e);
+      return true;
+    }
+  }
+
+  /**
+   * Read the refs of other projects that the changes of a page refer to.
+   *
+   * @return refs named by the ref states, or under the prefix of a ref state pattern, of the
+   *     changes in {@code page}, by project. Projects whose repository does not exist are missing,
+   *     so the changes referring to them are stale.
+   */
+  private Map<Project.NameKey, NavigableMap<String, Ref>> readOtherRefs(
+      Project.NameKey project, List<ChangeData> page) throws IOException {
+    SetMultimap<Project.NameKey, String> names =
+        MultimapBuilder.hashKeys().hashSetValues().build();
+    SetMultimap<Project.NameKey, String> prefixes =
+        MultimapBuilder.hashKeys().hashSetValues().build();
+    for (ChangeData cd : page) {
+      try {
+        for (Map.Entry<Project.NameKey, RefState> e :
+            StalenessChecker.parseStates(cd.getRefStates()).entries()) {
+          names.put(e.getKey(), e.getValue().ref());
+        }
+        for (Map.Entry<Project.NameKey, RefStatePattern> e :
+            StalenessChecker.parsePatterns(cd.getRefStatePatterns()).entries()) {
+          prefixes.put(e.getKey(), e.getValue().prefix());
+        }
+      } catch (IllegalArgumentException e) {
+        // Reported when the change is checked.
+      }
+    }
+
+    Map<Project.NameKey, NavigableMap<String, Ref>> result = new HashMap<>();
+    for (Project.NameKey p : Sets.union(names.keySet(), prefixes.keySet())) {
+      if (p.equals(project)) {
+        continue;
+      }
+      try (Repository repo = repoManager.openRepository(p)) {
+        RefDatabase refDb = repo.getRefDatabase();
+        NavigableMap<String, Ref> refs = new TreeMap<>();
+        for (String prefix : prefixes.get(p)) {
+          for (Ref r : refDb.getRefs(prefix).values()) {
+            refs.put(r.getName(), r);
+          }
+        }
+        for (String name : names.get(p)) {
+          Ref r = refDb.exactRef(name);
+          if (r != null) {
+            refs.put(name, r);
+          }
+        }
+        result.put(p, refs);
+      } catch (RepositoryNotFoundException e) {
+        // Leave it out.
+      }
+    }
+    return result;
+  }
+
+  @Nullable
+  private NavigableMap<String, Ref> readRefs(Project.NameKey project) throws IOException {
+    try (Repository repo = repoManager.openRepository(project)) {
+      return new TreeMap<>(repo.getRefDatabase().getRefs(ALL));
+    } catch (RepositoryNotFoundException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "stale change sweeper";
+  }
+}
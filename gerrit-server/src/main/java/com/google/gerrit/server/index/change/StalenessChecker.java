@@ -37,6 +37,8 @@ import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.index.IndexConfig;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.notedb.NoteDbChangeState.PrimaryStorage;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
@@ -44,6 +46,8 @@ import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -62,23 +66,27 @@ public class StalenessChecker {
       ImmutableSet.of(
           ChangeField.CHANGE.getName(),
           ChangeField.REF_STATE.getName(),
-          ChangeField.REF_STATE_PATTERN.getName());
+          ChangeField.REF_STATE_PATTERN.getName(),
+          ChangeField.SUBMIT_RULES_STATE.getName());
 
   private final ChangeIndexCollection indexes;
   private final GitRepositoryManager repoManager;
   private final IndexConfig indexConfig;
   private final Provider<ReviewDb> db;
+  private final ProjectCache projectCache;
 
   @Inject
   StalenessChecker(
       ChangeIndexCollection indexes,
       GitRepositoryManager repoManager,
       IndexConfig indexConfig,
-      Provider<ReviewDb> db) {
+      Provider<ReviewDb> db,
+      ProjectCache projectCache) {
     this.indexes = indexes;
     this.repoManager = repoManager;
     this.indexConfig = indexConfig;
     this.db = db;
+    this.projectCache = projectCache;
   }
 
   public boolean isStale(Change.Id id) throws IOException, OrmException {
@@ -98,12 +106,34 @@ public class StalenessChecker {
     }
     ChangeData cd = result.get();
     return isStale(
-        repoManager,
-        id,
-        cd.change(),
-        ChangeNotes.readOneReviewDbChange(db.get(), id),
-        parseStates(cd),
-        parsePatterns(cd));
+            repoManager,
+            id,
+            cd.change(),
+            ChangeNotes.readOneReviewDbChange(db.get(), id),
+            parseStates(cd),
+            parsePatterns(cd))
+        || (i.getSchema().hasField(ChangeField.SUBMIT_RULES_STATE)
+            && submitRulesAreStale(cd.change(), cd.getSubmitRulesState()));
+  }
+
+  /**
+   * Check whether the submit records and submit type stored for a change were computed from an
+   * outdated project configuration.
+   *
+   * @param indexChange change as stored in the index.
+   * @param submitRulesState value of {@link ChangeField#SUBMIT_RULES_STATE} stored in the index.
+   * @return whether the change should be reindexed.
+   */
+  public boolean submitRulesAreStale(Change indexChange, @Nullable String submitRulesState)
+      throws IOException {
+    if (!indexChange.getStatus().isOpen()) {
+      return false; // Not computed for closed changes.
+    }
+    ProjectState projectState = projectCache.checkedGet(indexChange.getProject());
+    if (projectState == null) {
+      return false; // Project is gone; reindexing wouldn't help.
+    }
+    return !ChangeField.submitRulesState(projectState).equals(submitRulesState);
   }
 
   public static boolean isStale(
@@ -134,6 +164,42 @@ public class StalenessChecker {
     return false;
   }
 
+  /**
+   * Check whether ref states are stale, against refs that were read in advance.
+   *
+   * <p>Allows checking many changes with a single scan of the refs of each repository.
+   *
+   * @param refsByProject all refs of each project in {@code states} and {@code patterns}, sorted
+   *     by name. Refs of a project missing from the map are considered unreadable, so all changes
+   *     referring to them are stale.
+   * @param states ref states of a change.
+   * @param patterns ref state patterns of a change.
+   * @return whether the change is stale.
+   */
+  public static boolean refsAreStale(
+      Map<Project.NameKey, NavigableMap<String, Ref>> refsByProject,
+      SetMultimap<Project.NameKey, RefState> states,
+      ListMultimap<Project.NameKey, RefStatePattern> patterns) {
+    for (Project.NameKey p : Sets.union(states.keySet(), patterns.keySet())) {
+      NavigableMap<String, Ref> refs = refsByProject.get(p);
+      if (refs == null) {
+        return true;
+      }
+      Set<RefState> expected = states.get(p);
+      for (RefState state : expected) {
+        if (!state.match(refs.get(state.ref()))) {
+          return true;
+        }
+      }
+      for (RefStatePattern pattern : patterns.get(p)) {
+        if (!pattern.match(refs, expected)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   @VisibleForTesting
   static boolean reviewDbChangeIsStale(Change indexChange, @Nullable Change reviewDbChange) {
     checkNotNull(indexChange);
@@ -252,7 +318,10 @@ public class StalenessChecker {
     abstract ObjectId id();
 
     private boolean match(Repository repo) throws IOException {
-      Ref ref = repo.exactRef(ref());
+      return match(repo.exactRef(ref()));
+    }
+
+    private boolean match(@Nullable Ref ref) {
       ObjectId expected = ref != null ? ref.getObjectId() : ObjectId.zeroId();
       return id().equals(expected);
     }
@@ -301,7 +370,16 @@ public class StalenessChecker {
     }
 
     private boolean match(Repository repo, Set<RefState> expected) throws IOException {
-      for (Ref r : repo.getRefDatabase().getRefs(prefix()).values()) {
+      return match(repo.getRefDatabase().getRefs(prefix()).values(), expected);
+    }
+
+    private boolean match(NavigableMap<String, Ref> refs, Set<RefState> expected) {
+      String end = prefix().substring(0, prefix().length() - 1) + (char) ('/' + 1);
+      return match(refs.subMap(prefix(), true, end, false).values(), expected);
+    }
+
+    private boolean match(Iterable<Ref> refs, Set<RefState> expected) {
+      for (Ref r : refs) {
         if (!match(r.getName())) {
           continue;
         }
@@ -105,6 +105,24 @@ public class BasicSerialization {
     }
   }
 
+  /** Read a boolean written by {@link #writeBoolean(OutputStream, boolean)}. */
+  public static boolean readBoolean(final InputStream input) throws IOException {
+    final int b = safeRead(input);
+    switch (b) {
+      case 0:
+        return false;
+      case 1:
+        return true;
+      default:
+        throw new IOException("invalid boolean " + b);
+    }
+  }
+
+  /** Write a boolean as a single byte, 1 for true and 0 for false. */
+  public static void writeBoolean(final OutputStream output, final boolean val) throws IOException {
+    output.write(val ? 1 : 0);
+  }
+
   /** Read a fixed length byte array whose length is specified as a varint. */
   public static byte[] readBytes(final InputStream input) throws IOException {
     final int len = readVarInt32(input);
@@ -139,6 +139,16 @@ public abstract class AbstractChangeNotes<T> {
   }
 
   public T load() throws OrmException {
+    return load(null);
+  }
+
+  /**
+   * Load from a repository the caller already has open.
+   *
+   * @param repo open repository of {@link #getProjectName()}, not closed by this method; if null,
+   *     the repository is opened and closed here.
+   */
+  T load(@Nullable Repository repo) throws OrmException {
     if (loaded) {
       return self();
     }
@@ -154,11 +164,25 @@ public abstract class AbstractChangeNotes<T> {
     if (args.migration.failOnLoad()) {
       throw new OrmException("Reading from NoteDb is disabled");
     }
-    try (Timer1.Context timer = args.metrics.readLatency.start(CHANGES);
-        Repository repo = args.repoManager.openRepository(getProjectName());
-        // Call openHandle even if reading is disabled, to trigger
-        // auto-rebuilding before this object may get passed to a ChangeUpdate.
-        LoadHandle handle = openHandle(repo)) {
+    try (Timer1.Context timer = args.metrics.readLatency.start(CHANGES)) {
+      if (repo != null) {
+        load(repo, read);
+      } else {
+        try (Repository r = args.repoManager.openRepository(getProjectName())) {
+          load(r, read);
+        }
+      }
+    } catch (ConfigInvalidException | IOException e) {
+      throw new OrmException(e);
+    }
+    return self();
+  }
+
+  private void load(Repository repo, boolean read)
+      throws NoSuchChangeException, ConfigInvalidException, IOException {
+    // Call openHandle even if reading is disabled, to trigger
+    // auto-rebuilding before this object may get passed to a ChangeUpdate.
+    try (LoadHandle handle = openHandle(repo)) {
       if (read) {
         revision = handle.id();
         onLoad(handle);
@@ -166,10 +190,7 @@ public abstract class AbstractChangeNotes<T> {
         loadDefaults();
       }
       loaded = true;
-    } catch (ConfigInvalidException | IOException e) {
-      throw new OrmException(e);
     }
-    return self();
   }
 
   protected ObjectId readRef(Repository repo) throws IOException {
@@ -22,8 +22,10 @@ import static com.google.gerrit.server.notedb.NoteDbTable.CHANGES;
 import static java.util.Comparator.comparing;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
@@ -32,6 +34,9 @@ import com.google.common.collect.ListMultimap;
 import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Ordering;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.SubmitRecord;
 import com.google.gerrit.metrics.Timer1;
@@ -40,6 +45,7 @@ import com.google.gerrit.reviewdb.client.Branch;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.ChangeMessage;
 import com.google.gerrit.reviewdb.client.Comment;
+import com.google.gerrit.reviewdb.client.PatchLineComment;
 import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.PatchSetApproval;
 import com.google.gerrit.reviewdb.client.Project;
@@ -67,16 +73,25 @@ import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.notes.Note;
+import org.eclipse.jgit.notes.NoteMap;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -105,14 +120,19 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
     private final Args args;
     private final Provider<InternalChangeQuery> queryProvider;
     private final ProjectCache projectCache;
+    private final ListeningExecutorService loadExecutor;
 
     @VisibleForTesting
     @Inject
     public Factory(
-        Args args, Provider<InternalChangeQuery> queryProvider, ProjectCache projectCache) {
+        Args args,
+        Provider<InternalChangeQuery> queryProvider,
+        ProjectCache projectCache,
+        @ChangeNotesLoadExecutor ListeningExecutorService loadExecutor) {
       this.args = args;
       this.queryProvider = queryProvider;
       this.projectCache = projectCache;
+      this.loadExecutor = loadExecutor;
     }
 
     public ChangeNotes createChecked(ReviewDb db, Change c) throws OrmException {
@@ -277,6 +297,121 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       return notes;
     }
 
+    /**
+     * Load notes for many changes at once.
+     *
+     * <p>The repository of each project is opened once, and the meta refs of all of its changes are
+     * read with a single ref database lookup. Notes are parsed on the {@link
+     * ChangeNotesLoadExecutor}, except for changes that may have to be auto-rebuilt from ReviewDb,
+     * which are loaded on the calling thread.
+     *
+     * @param db review database.
+     * @param changeIds IDs of the changes to load, keyed by project.
+     * @return notes of the changes that could be loaded; changes that do not exist, that belong to
+     *     another project according to ReviewDb, or whose notes fail to load are omitted. Failures
+     *     are logged, and reported again if the change is loaded individually.
+     */
+    public Map<Change.Id, ChangeNotes> createAll(
+        ReviewDb db, ListMultimap<Project.NameKey, Change.Id> changeIds) throws OrmException {
+      Map<Change.Id, ChangeNotes> result = new LinkedHashMap<>();
+      for (Map.Entry<Project.NameKey, Collection<Change.Id>> e : changeIds.asMap().entrySet()) {
+        Project.NameKey project = e.getKey();
+        Map<Change.Id, Change> dbChanges = new HashMap<>();
+        for (Change c : ReviewDbUtil.unwrapDb(db).changes().get(e.getValue())) {
+          dbChanges.put(c.getId(), c);
+        }
+        List<Change> changes = new ArrayList<>(e.getValue().size());
+        for (Change.Id id : e.getValue()) {
+          Change c = dbChanges.get(id);
+          if (c == null) {
+            if (!args.migration.readChanges()) {
+              continue;
+            }
+            c = newNoteDbOnlyChange(project, id);
+          } else if (!c.getProject().equals(project)) {
+            continue;
+          }
+          changes.add(c);
+        }
+        for (ChangeNotes notes : loadAll(project, changes, true)) {
+          result.put(notes.getChangeId(), notes);
+        }
+      }
+      return result;
+    }
+
+    private List<ChangeNotes> loadAll(
+        Project.NameKey project, List<Change> changes, boolean skipFailures) throws OrmException {
+      if (changes.isEmpty()) {
+        return ImmutableList.of();
+      } else if (!args.migration.readChanges()) {
+        List<ChangeNotes> notes = new ArrayList<>(changes.size());
+        for (Change c : changes) {
+          notes.add(createFromChangeOnlyWhenNoteDbDisabled(c));
+        }
+        return notes;
+      }
+
+      try (Repository repo = args.repoManager.openRepository(project)) {
+        RefCache refs = MetaRefSnapshot.read(repo, changes);
+        List<ChangeNotes> notes = new ArrayList<>(changes.size());
+        List<ListenableFuture<ChangeNotes>> futures = new ArrayList<>(changes.size());
+        for (Change c : changes) {
+          ChangeNotes cn = new ChangeNotes(args, c);
+          notes.add(cn);
+          if (cn.autoRebuild) {
+            // Rebuilding needs the request's ReviewDb, which is not available
+            // on the executor threads.
+            try {
+              futures.add(Futures.immediateFuture(cn.load(repo, refs)));
+            } catch (OrmException e) {
+              futures.add(Futures.immediateFailedFuture(e));
+            }
+          } else {
+            futures.add(loadExecutor.submit(() -> cn.load(repo, refs)));
+          }
+        }
+
+        // Wait for all tasks before the repository is closed, even if some of
+        // them failed.
+        OrmException err = null;
+        List<ChangeNotes> result = new ArrayList<>(notes.size());
+        for (int i = 0; i < futures.size(); i++) {
+          try {
+            result.add(getLoaded(futures.get(i)));
+          } catch (NoSuchChangeException e) {
+            // Ignore missing changes to match Access#get(Iterable) behavior.
+          } catch (OrmException e) {
+            if (skipFailures) {
+              log.warn(
+                  "Failed to load change {} in project {}", notes.get(i).getChangeId(), project, e);
+            } else if (err == null) {
+              err = e;
+            }
+          }
+        }
+        if (err != null) {
+          throw err;
+        }
+        return result;
+      } catch (IOException e) {
+        throw new OrmException(e);
+      }
+    }
+
+    private static ChangeNotes getLoaded(ListenableFuture<ChangeNotes> f) throws OrmException {
+      try {
+        return f.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new OrmException("Interrupted while loading change notes", e);
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), OrmException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new OrmException(e.getCause());
+      }
+    }
+
     public ListMultimap<Project.NameKey, ChangeNotes> create(
         ReviewDb db, Predicate<ChangeNotes> predicate) throws IOException, OrmException {
       ListMultimap<Project.NameKey, ChangeNotes> m =
@@ -305,16 +440,29 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
 
     public List<ChangeNotes> scan(Repository repo, ReviewDb db, Project.NameKey project)
         throws OrmException, IOException {
+      return scan(db, project, scan(repo));
+    }
+
+    /**
+     * Load notes for a subset of the changes found by {@link #scan(Repository)}.
+     *
+     * <p>Allows callers to split the changes of a large project into smaller units of work.
+     *
+     * @param db review database.
+     * @param project the project to which the changes belong.
+     * @param ids IDs of changes in the project.
+     * @return notes of the changes that could be loaded.
+     */
+    public List<ChangeNotes> scan(ReviewDb db, Project.NameKey project, Collection<Change.Id> ids)
+        throws OrmException {
       if (!args.migration.readChanges()) {
-        return scanDb(repo, db);
+        return scanDb(db, ids);
       }
 
-      return scanNoteDb(repo, db, project);
+      return scanNoteDb(db, project, ids);
     }
 
-    private List<ChangeNotes> scanDb(Repository repo, ReviewDb db)
-        throws OrmException, IOException {
-      Set<Change.Id> ids = scan(repo);
+    private List<ChangeNotes> scanDb(ReviewDb db, Collection<Change.Id> ids) throws OrmException {
       List<ChangeNotes> notes = new ArrayList<>(ids.size());
       // A batch size of N may overload get(Iterable), so use something smaller,
       // but still >1.
@@ -328,8 +476,12 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
 
     private List<ChangeNotes> scanNoteDb(Repository repo, ReviewDb db, Project.NameKey project)
         throws OrmException, IOException {
-      Set<Change.Id> ids = scan(repo);
-      List<ChangeNotes> changeNotes = new ArrayList<>(ids.size());
+      return scanNoteDb(db, project, scan(repo));
+    }
+
+    private List<ChangeNotes> scanNoteDb(
+        ReviewDb db, Project.NameKey project, Collection<Change.Id> ids) throws OrmException {
+      List<Change> changes = new ArrayList<>(ids.size());
       PrimaryStorage defaultStorage = args.migration.changePrimaryStorage();
       for (Change.Id id : ids) {
         Change change = readOneReviewDbChange(db, id);
@@ -349,9 +501,9 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
           continue;
         }
         log.debug("adding change {} found in project {}", id, project);
-        changeNotes.add(new ChangeNotes(args, change).load());
+        changes.add(change);
       }
-      return changeNotes;
+      return loadAll(project, changes, false);
     }
 
     public static Set<Change.Id> scan(Repository repo) throws IOException {
@@ -367,16 +519,62 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
     }
   }
 
+  /** Meta refs of one project, read with a single ref database lookup. */
+  private static class MetaRefSnapshot implements RefCache {
+    static MetaRefSnapshot read(Repository repo, Collection<Change> changes) throws IOException {
+      String[] names = new String[changes.size()];
+      int i = 0;
+      for (Change c : changes) {
+        names[i++] = changeMetaRef(c.getId());
+      }
+      RefDatabase refdb = repo.getRefDatabase();
+      Map<String, Ref> found = refdb.exactRef(names);
+      ImmutableMap.Builder<String, Optional<ObjectId>> ids = ImmutableMap.builder();
+      for (String name : names) {
+        ids.put(name, Optional.ofNullable(found.get(name)).map(Ref::getObjectId));
+      }
+      return new MetaRefSnapshot(refdb, ids.build());
+    }
+
+    private final RefDatabase refdb;
+    private final ImmutableMap<String, Optional<ObjectId>> ids;
+
+    private MetaRefSnapshot(RefDatabase refdb, ImmutableMap<String, Optional<ObjectId>> ids) {
+      this.refdb = refdb;
+      this.ids = ids;
+    }
+
+    @Override
+    public Optional<ObjectId> get(String refName) throws IOException {
+      Optional<ObjectId> id = ids.get(refName);
+      if (id != null) {
+        return id;
+      }
+      Ref ref = refdb.exactRef(refName);
+      return Optional.ofNullable(ref).map(Ref::getObjectId);
+    }
+  }
+
   private final boolean shouldExist;
   private final RefCache refs;
 
+  // Refs read in bulk by Factory#createAll, only used during that load so a
+  // later reload sees the current value of the ref.
+  private RefCache loadRefs;
+
   private Change change;
   private ChangeNotesState state;
 
   // Parsed note map state, used by ChangeUpdate to make in-place editing of
-  // notes easier.
+  // notes easier. Only set by getRevisionNoteMap() or after a failed rebuild.
   RevisionNoteMap<ChangeRevisionNote> revisionNoteMap;
 
+  // Published comments are not part of the cached state. They are loaded from
+  // the revision notes the first time a caller asks for them, through the
+  // comments cache of ChangeNotesCache.
+  private ImmutableListMultimap<RevId, Comment> comments;
+  private Map<RevId, ImmutableList<Comment>> commentsByRevision;
+
   private NoteDbUpdateManager.Result rebuildResult;
   private DraftCommentNotes draftCommentNotes;
   private RobotCommentNotes robotCommentNotes;
@@ -479,11 +677,59 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
   }
 
   /** @return inline comments on each revision. */
-  public ImmutableListMultimap<RevId, Comment> getComments() {
-    return state.publishedComments();
+  public ImmutableListMultimap<RevId, Comment> getComments() throws OrmException {
+    if (comments == null) {
+      ImmutableListMultimap.Builder<RevId, Comment> b = ImmutableListMultimap.builder();
+      if (revisionNoteMap != null) {
+        for (Map.Entry<RevId, ChangeRevisionNote> e : revisionNoteMap.revisionNotes.entrySet()) {
+          b.putAll(e.getKey(), onExistingPatchSets(e.getValue().getComments()));
+        }
+      } else {
+        ObjectId metaId = getMetaId();
+        if (metaId != null) {
+          try (Repository repo = args.repoManager.openRepository(getProjectName());
+              RevWalk rw = new RevWalk(repo)) {
+            ObjectReader reader = rw.getObjectReader();
+            for (Note note : NoteMap.read(reader, rw.parseCommit(metaId))) {
+              RevId revId = new RevId(note.name());
+              ObjectId noteId = note.getData();
+              b.putAll(
+                  revId,
+                  onExistingPatchSets(
+                      args.cache
+                          .get()
+                          .getComments(metaId, revId, () -> parseComments(reader, noteId))));
+            }
+          } catch (IOException e) {
+            throw new OrmException("Cannot read comments of change " + getChangeId(), e);
+          }
+        }
+      }
+      comments = b.build();
+    }
+    return comments;
   }
 
-  public ImmutableSet<Comment.Key> getCommentKeys() {
+  /**
+   * @return inline comments on a single revision. Unless all comments were already loaded, only
+   *     the note of this revision is parsed.
+   */
+  public ImmutableList<Comment> getComments(RevId revId) throws OrmException {
+    if (comments != null) {
+      return comments.get(revId);
+    }
+    if (commentsByRevision == null) {
+      commentsByRevision = new HashMap<>();
+    }
+    ImmutableList<Comment> cs = commentsByRevision.get(revId);
+    if (cs == null) {
+      cs = onExistingPatchSets(readComments(revId));
+      commentsByRevision.put(revId, cs);
+    }
+    return cs;
+  }
+
+  public ImmutableSet<Comment.Key> getCommentKeys() throws OrmException {
     if (commentKeys == null) {
       ImmutableSet.Builder<Comment.Key> b = ImmutableSet.builder();
       for (Comment c : getComments().values()) {
@@ -505,9 +751,10 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
     // Filter out any zombie draft comments. These are drafts that are also in
     // the published map, and arise when the update to All-Users to delete them
     // during the publish operation failed.
+    ImmutableSet<Comment.Key> published = getCommentKeys();
     return ImmutableListMultimap.copyOf(
         Multimaps.filterEntries(
-            draftCommentNotes.getComments(), e -> !getCommentKeys().contains(e.getValue().key)));
+            draftCommentNotes.getComments(), e -> !published.contains(e.getValue().key)));
   }
 
   public ImmutableListMultimap<RevId, RobotComment> getRobotComments() throws OrmException {
@@ -552,8 +799,10 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
     return draftCommentNotes.containsComment(c);
   }
 
-  public boolean containsCommentPublished(Comment c) {
-    for (Comment l : getComments().values()) {
+  public boolean containsCommentPublished(Comment c) throws OrmException {
+    Collection<Comment> cs =
+        c.revId != null ? getComments(new RevId(c.revId)) : getComments().values();
+    for (Comment l : cs) {
       if (c.key.equals(l.key)) {
         return true;
       }
@@ -608,12 +857,103 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
         args.cache.get().get(getProjectName(), getChangeId(), rev, handle.walk());
     state = v.state();
     state.copyColumnsTo(change);
-    revisionNoteMap = v.revisionNoteMap();
+    resetComments();
+    if (rebuildResult != null) {
+      // Staged objects of a failed rebuild can only be read through this walk.
+      revisionNoteMap = parseRevisionNotes(handle.walk(), rev);
+    }
   }
 
   @Override
   protected void loadDefaults() {
     state = ChangeNotesState.empty(change);
+    resetComments();
+  }
+
+  private void resetComments() {
+    revisionNoteMap = null;
+    comments = null;
+    commentsByRevision = null;
+    commentKeys = null;
+  }
+
+  RevisionNoteMap<ChangeRevisionNote> getRevisionNoteMap() throws OrmException {
+    if (revisionNoteMap == null) {
+      ObjectId metaId = getMetaId();
+      if (metaId == null) {
+        revisionNoteMap = RevisionNoteMap.emptyMap();
+      } else {
+        try (Repository repo = args.repoManager.openRepository(getProjectName());
+            RevWalk rw = new RevWalk(repo)) {
+          revisionNoteMap = parseRevisionNotes(rw, metaId);
+        } catch (IOException | ConfigInvalidException e) {
+          throw new OrmException("Cannot read comments of change " + getChangeId(), e);
+        }
+      }
+    }
+    return revisionNoteMap;
+  }
+
+  private RevisionNoteMap<ChangeRevisionNote> parseRevisionNotes(RevWalk rw, ObjectId metaId)
+      throws IOException, ConfigInvalidException {
+    ObjectReader reader = rw.getObjectReader();
+    return RevisionNoteMap.parse(
+        args.noteUtil,
+        getChangeId(),
+        reader,
+        NoteMap.read(reader, rw.parseCommit(metaId)),
+        PatchLineComment.Status.PUBLISHED);
+  }
+
+  private ImmutableList<Comment> readComments(RevId revId) throws OrmException {
+    if (revisionNoteMap != null) {
+      ChangeRevisionNote rn = revisionNoteMap.revisionNotes.get(revId);
+      return rn != null ? rn.getComments() : ImmutableList.of();
+    }
+    ObjectId metaId = getMetaId();
+    if (metaId == null) {
+      return ImmutableList.of();
+    }
+    try {
+      return args.cache.get().getComments(metaId, revId, () -> readComments(metaId, revId));
+    } catch (IOException e) {
+      throw new OrmException("Cannot read comments of change " + getChangeId(), e);
+    }
+  }
+
+  private ImmutableList<Comment> readComments(ObjectId metaId, RevId revId)
+      throws IOException, ConfigInvalidException {
+    try (Repository repo = args.repoManager.openRepository(getProjectName());
+        RevWalk rw = new RevWalk(repo)) {
+      ObjectReader reader = rw.getObjectReader();
+      NoteMap noteMap = NoteMap.read(reader, rw.parseCommit(metaId));
+      ObjectId noteId = noteMap.get(ObjectId.fromString(revId.get()));
+      if (noteId == null) {
+        return ImmutableList.of();
+      }
+      return parseComments(reader, noteId);
+    }
+  }
+
+  private ImmutableList<Comment> parseComments(ObjectReader reader, ObjectId noteId)
+      throws IOException, ConfigInvalidException {
+    ChangeRevisionNote rn =
+        new ChangeRevisionNote(
+            args.noteUtil, getChangeId(), reader, noteId, PatchLineComment.Status.PUBLISHED);
+    rn.parse();
+    return rn.getComments();
+  }
+
+  // Comments on patch sets that were deleted, or never completely written, are
+  // ignored.
+  private ImmutableList<Comment> onExistingPatchSets(List<Comment> cs) {
+    ImmutableList.Builder<Comment> b = ImmutableList.builder();
+    for (Comment c : cs) {
+      if (getPatchSets().containsKey(new PatchSet.Id(getChangeId(), c.key.patchSetId))) {
+        b.add(c);
+      }
+    }
+    return b.build();
   }
 
   @Override
@@ -621,8 +961,22 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
     return change.getProject();
   }
 
+  private ChangeNotes load(Repository repo, RefCache refs) throws OrmException {
+    loadRefs = refs;
+    try {
+      return load(repo);
+    } finally {
+      loadRefs = null;
+    }
+  }
+
+  private RefCache refs() {
+    return loadRefs != null ? loadRefs : refs;
+  }
+
   @Override
   protected ObjectId readRef(Repository repo) throws IOException {
+    RefCache refs = refs();
     return refs != null ? refs.get(getRefName()).orElse(null) : super.readRef(repo);
   }
 
@@ -638,7 +992,7 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
           throw new NoSuchChangeException(getChangeId());
         }
       }
-      RefCache refs = this.refs != null ? this.refs : new RepoRefCache(repo);
+      RefCache refs = refs() != null ? refs() : new RepoRefCache(repo);
       if (!NoteDbChangeState.isChangeUpToDate(state, refs, getChangeId())) {
         return rebuildAndOpen(repo, id);
       }
@@ -17,16 +17,21 @@ package com.google.gerrit.server.notedb;
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Comment;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.reviewdb.client.RevId;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.notedb.AbstractChangeNotes.Args;
 import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
 import com.google.inject.name.Named;
 import java.io.IOException;
 import java.util.List;
@@ -35,11 +40,23 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 @Singleton
 public class ChangeNotesCache {
+  private static final Logger log = LoggerFactory.getLogger(ChangeNotesCache.class);
+
   @VisibleForTesting static final String CACHE_NAME = "change_notes";
+  @VisibleForTesting static final String SNAPSHOT_CACHE_NAME = "change_notes_snapshot";
+  @VisibleForTesting static final String TIPS_CACHE_NAME = "change_notes_tips";
+  @VisibleForTesting static final String COMMENTS_CACHE_NAME = "change_notes_comments";
+
+  // Tips are only useful while the state parsed from them is still cached,
+  // so there's no point in remembering many more tips than states.
+  private static final int MAX_TIPS = 1 << 16;
 
   public static Module module() {
     return new CacheModule() {
@@ -49,6 +66,14 @@ public class ChangeNotesCache {
         cache(CACHE_NAME, Key.class, ChangeNotesState.class)
             .weigher(Weigher.class)
             .maximumWeight(10 << 20);
+        persist(SNAPSHOT_CACHE_NAME, ObjectId.class, byte[].class)
+            .weigher(SnapshotWeigher.class)
+            .maximumWeight(2 << 20)
+            .serializer(ChangeNotesStateSerializer.class);
+        cache(TIPS_CACHE_NAME, TipKey.class, ObjectId.class).maximumWeight(MAX_TIPS);
+        cache(COMMENTS_CACHE_NAME, CommentsKey.class, new TypeLiteral<ImmutableList<Comment>>() {})
+            .weigher(CommentsWeigher.class)
+            .maximumWeight(10 << 20);
       }
     };
   }
@@ -120,9 +145,7 @@ public class ChangeNotesCache {
           + list(state.allChangeMessages(), changeMessage())
           // Just key overhead for map, already counted messages in previous.
           + P
-          + map(state.changeMessagesByPatchSet().asMap(), patchSetId())
-          + P
-          + map(state.publishedComments().asMap(), comment());
+          + map(state.changeMessagesByPatchSet().asMap(), patchSetId());
     }
 
     private static int ptr(Object o, int size) {
@@ -221,6 +244,40 @@ public class ChangeNotesCache {
           + P
           + P; // realAuthor
     }
+  }
+
+  @AutoValue
+  abstract static class Value {
+    abstract ChangeNotesState state();
+  }
+
+  /** Published comments in the note of one revision, at one state of the change's meta ref. */
+  @AutoValue
+  public abstract static class CommentsKey {
+    abstract ObjectId metaId();
+
+    abstract RevId revId();
+  }
+
+  public static class CommentsWeigher
+      implements com.google.common.cache.Weigher<CommentsKey, ImmutableList<Comment>> {
+    // Single object overhead.
+    private static final int O = 16;
+
+    // Single pointer overhead.
+    private static final int P = 8;
+
+    // Single Timestamp overhead.
+    private static final int T = O + 8;
+
+    @Override
+    public int weigh(CommentsKey key, ImmutableList<Comment> comments) {
+      return O + P + O + 20 + P + str(40) + O + O + comments.size() * (P + comment());
+    }
+
+    private static int str(int n) {
+      return 8 + 24 + 2 * n;
+    }
 
     private static int comment() {
       int key = P + str(20) + P + str(32) + 4;
@@ -247,27 +304,17 @@ public class ChangeNotesCache {
     }
   }
 
-  @AutoValue
-  abstract static class Value {
-    abstract ChangeNotesState state();
-
-    /**
-     * The {@link RevisionNoteMap} produced while parsing this change.
-     *
-     * <p>These instances are mutable and non-threadsafe, so it is only safe to return it to the
-     * caller that actually incurred the cache miss. It is only used as an optimization; {@link
-     * ChangeNotes} is capable of lazily loading it as necessary.
-     */
-    @Nullable
-    abstract RevisionNoteMap<ChangeRevisionNote> revisionNoteMap();
+  public static class SnapshotWeigher implements com.google.common.cache.Weigher<ObjectId, byte[]> {
+    @Override
+    public int weigh(ObjectId key, byte[] snapshot) {
+      return 16 + 20 + 16 + snapshot.length;
+    }
   }
 
   private class Loader implements Callable<ChangeNotesState> {
     private final Key key;
     private final ChangeNotesRevWalk rw;
 
-    private RevisionNoteMap<ChangeRevisionNote> revisionNoteMap;
-
     private Loader(Key key, ChangeNotesRevWalk rw) {
       this.key = key;
       this.rw = rw;
@@ -275,32 +322,122 @@ public class ChangeNotesCache {
 
     @Override
     public ChangeNotesState call() throws ConfigInvalidException, IOException {
-      ChangeNotesParser parser =
-          new ChangeNotesParser(key.changeId(), key.id(), rw, args.noteUtil, args.metrics);
-      ChangeNotesState result = parser.parseAll();
-      // This assignment only happens if call() was actually called, which only
-      // happens when Cache#get(K, Callable<V>) incurs a cache miss.
-      revisionNoteMap = parser.getRevisionNoteMap();
+      ChangeNotesState snapshot = readSnapshot(key);
+      if (snapshot != null) {
+        tips.put(tipKey(key), key.id());
+        return snapshot;
+      }
+
+      ChangeNotesParser parser = newParser();
+      ChangeNotesState result = null;
+      ChangeNotesState base = getBase(key);
+      if (base != null) {
+        result = parser.parseSince(base);
+        if (result == null) {
+          parser = newParser();
+        }
+      }
+      if (result == null) {
+        result = parser.parseAll();
+      }
+      writeSnapshot(result);
+      tips.put(tipKey(key), key.id());
       return result;
     }
+
+    private ChangeNotesParser newParser() {
+      return new ChangeNotesParser(key.changeId(), key.id(), rw, args.noteUtil, args.metrics);
+    }
+  }
+
+  @AutoValue
+  public abstract static class TipKey {
+    abstract Project.NameKey project();
+
+    abstract Change.Id changeId();
+  }
+
+  private static TipKey tipKey(Key key) {
+    return new AutoValue_ChangeNotesCache_TipKey(key.project(), key.changeId());
   }
 
   private final Cache<Key, ChangeNotesState> cache;
+  private final Cache<ObjectId, byte[]> snapshots;
+  private final Cache<CommentsKey, ImmutableList<Comment>> comments;
+  private final boolean useSnapshots;
   private final Args args;
 
+  /**
+   * Most recently parsed meta ref tip of each change, to find the cached state a newer tip can be
+   * parsed incrementally from.
+   */
+  private final Cache<TipKey, ObjectId> tips;
+
   @Inject
-  ChangeNotesCache(@Named(CACHE_NAME) Cache<Key, ChangeNotesState> cache, Args args) {
+  ChangeNotesCache(
+      @Named(CACHE_NAME) Cache<Key, ChangeNotesState> cache,
+      @Named(SNAPSHOT_CACHE_NAME) Cache<ObjectId, byte[]> snapshots,
+      @Named(TIPS_CACHE_NAME) Cache<TipKey, ObjectId> tips,
+      @Named(COMMENTS_CACHE_NAME) Cache<CommentsKey, ImmutableList<Comment>> comments,
+      @GerritServerConfig Config cfg,
+      Args args) {
     this.cache = cache;
+    this.snapshots = snapshots;
+    this.useSnapshots = cfg.getBoolean("noteDb", null, "stateSnapshots", false);
     this.args = args;
+    this.tips = tips;
+    this.comments = comments;
+  }
+
+  @Nullable
+  private ChangeNotesState getBase(Key key) {
+    ObjectId tip = tips.getIfPresent(tipKey(key));
+    if (tip == null || tip.equals(key.id())) {
+      return null;
+    }
+    return cache.getIfPresent(
+        new AutoValue_ChangeNotesCache_Key(key.project(), key.changeId(), tip));
+  }
+
+  @Nullable
+  private ChangeNotesState readSnapshot(Key key) {
+    if (!useSnapshots) {
+      return null;
+    }
+    byte[] raw = snapshots.getIfPresent(key.id());
+    if (raw == null) {
+      return null;
+    }
+    try {
+      ChangeNotesState state = ChangeNotesStateSerializer.deserialize(raw);
+      if (key.id().equals(state.metaId()) && key.changeId().equals(state.changeId())) {
+        return state;
+      }
+      log.warn("Snapshot of {} does not match change {}", key.id().name(), key.changeId());
+    } catch (IOException | RuntimeException e) {
+      log.warn("Cannot read snapshot of change " + key.changeId() + " at " + key.id().name(), e);
+    }
+    snapshots.invalidate(key.id());
+    return null;
+  }
+
+  private void writeSnapshot(ChangeNotesState state) {
+    if (!useSnapshots) {
+      return;
+    }
+    try {
+      snapshots.put(state.metaId(), ChangeNotesStateSerializer.serialize(state));
+    } catch (IOException e) {
+      log.warn("Cannot write snapshot of change " + state.changeId(), e);
+    }
   }
 
   Value get(Project.NameKey project, Change.Id changeId, ObjectId metaId, ChangeNotesRevWalk rw)
       throws IOException {
     try {
       Key key = new AutoValue_ChangeNotesCache_Key(project, changeId, metaId.copy());
-      Loader loader = new Loader(key, rw);
-      ChangeNotesState s = cache.get(key, loader);
-      return new AutoValue_ChangeNotesCache_Value(s, loader.revisionNoteMap);
+      ChangeNotesState s = cache.get(key, new Loader(key, rw));
+      return new AutoValue_ChangeNotesCache_Value(s);
     } catch (ExecutionException e) {
       throw new IOException(
           String.format(
@@ -309,4 +446,25 @@ public class ChangeNotesCache {
           e);
     }
   }
+
+  /**
+   * Get the published comments in the note of one revision.
+   *
+   * <p>The comments at a given state of the meta ref never change, so they are only parsed once
+   * for all {@link ChangeNotes} instances loaded at that state.
+   *
+   * @param metaId state of the change's meta ref.
+   * @param revId revision whose note holds the comments.
+   * @param loader parses the comments from the note, if they are not cached.
+   * @return comments in the note, including comments on patch sets that were deleted.
+   */
+  ImmutableList<Comment> getComments(
+      ObjectId metaId, RevId revId, Callable<ImmutableList<Comment>> loader) throws IOException {
+    try {
+      return comments.get(new AutoValue_ChangeNotesCache_CommentsKey(metaId.copy(), revId), loader);
+    } catch (ExecutionException e) {
+      throw new IOException(
+          String.format("Error loading comments on %s at %s", revId.get(), metaId.name()), e);
+    }
+  }
 }
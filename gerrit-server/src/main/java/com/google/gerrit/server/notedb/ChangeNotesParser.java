@@ -41,6 +41,7 @@ import com.google.auto.value.AutoValue;
 import com.google.common.base.Enums;
 import com.google.common.base.Splitter;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
@@ -50,15 +51,14 @@ import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
 import com.google.common.collect.Tables;
 import com.google.common.primitives.Ints;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.LabelType;
 import com.google.gerrit.common.data.SubmitRecord;
 import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.ChangeMessage;
-import com.google.gerrit.reviewdb.client.Comment;
 import com.google.gerrit.reviewdb.client.LabelId;
-import com.google.gerrit.reviewdb.client.PatchLineComment;
 import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.PatchSetApproval;
 import com.google.gerrit.reviewdb.client.RefNames;
@@ -91,11 +91,13 @@ import java.util.TreeSet;
 import java.util.function.Function;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.errors.InvalidObjectIdException;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.notes.NoteMap;
 import org.eclipse.jgit.revwalk.FooterKey;
+import org.eclipse.jgit.revwalk.FooterLine;
 import org.eclipse.jgit.util.GitDateParser;
 import org.eclipse.jgit.util.RawParseUtils;
 import org.slf4j.Logger;
@@ -108,6 +110,31 @@ class ChangeNotesParser {
   // the parser does not yet know its commit SHA-1.
   private static final RevId PARTIAL_PATCH_SET = new RevId("INVALID PARTIAL PATCH SET");
 
+  /** Maximum number of commits applied on top of an earlier state by {@link #parseSince}. */
+  static final int MAX_INCREMENTAL_COMMITS = 100;
+
+  /**
+   * Footers of commits that can be applied on top of an earlier state.
+   *
+   * <p>These are the footers written when voting, commenting or updating reviewers. They only
+   * affect fields whose value at the tip can be computed from the earlier state and the new
+   * commits, without looking at older commits again.
+   */
+  private static final ImmutableSet<String> INCREMENTAL_FOOTERS = incrementalFooters();
+
+  private static ImmutableSet<String> incrementalFooters() {
+    ImmutableSet.Builder<String> b = ImmutableSet.builder();
+    for (FooterKey k :
+        ImmutableList.of(FOOTER_PATCH_SET, FOOTER_LABEL, FOOTER_TAG, FOOTER_REAL_USER)) {
+      b.add(k.getName().toLowerCase());
+    }
+    for (ReviewerStateInternal state : ReviewerStateInternal.values()) {
+      b.add(state.getFooterKey().getName().toLowerCase());
+      b.add(state.getByEmailFooterKey().getName().toLowerCase());
+    }
+    return b.build();
+  }
+
   @AutoValue
   abstract static class ApprovalKey {
     abstract PatchSet.Id psId();
@@ -135,7 +162,6 @@ class ChangeNotesParser {
   private final List<Account.Id> allPastReviewers;
   private final List<ReviewerStatusUpdate> reviewerUpdates;
   private final List<SubmitRecord> submitRecords;
-  private final ListMultimap<RevId, Comment> comments;
   private final Map<PatchSet.Id, PatchSet> patchSets;
   private final Set<PatchSet.Id> deletedPatchSets;
   private final Map<PatchSet.Id, PatchSetState> patchSetStates;
@@ -160,7 +186,6 @@ class ChangeNotesParser {
   private String originalSubject;
   private String submissionId;
   private String tag;
-  private RevisionNoteMap<ChangeRevisionNote> revisionNoteMap;
   private Timestamp readOnlyUntil;
   private Boolean isPrivate;
   private Boolean workInProgress;
@@ -185,7 +210,6 @@ class ChangeNotesParser {
     submitRecords = Lists.newArrayListWithExpectedSize(1);
     allChangeMessages = new ArrayList<>();
     changeMessagesByPatchSet = LinkedListMultimap.create();
-    comments = MultimapBuilder.hashKeys().arrayListValues().build();
     patchSets = new HashMap<>();
     deletedPatchSets = new HashSet<>();
     patchSetStates = new HashMap<>();
@@ -216,8 +240,186 @@ class ChangeNotesParser {
     return buildState();
   }
 
-  RevisionNoteMap<ChangeRevisionNote> getRevisionNoteMap() {
-    return revisionNoteMap;
+  /**
+   * Parse only the commits made since an earlier state, and take the rest from that state.
+   *
+   * <p>Only commits that vote, comment or update reviewers can be applied this way; the parser
+   * must not be reused if this method returns null.
+   *
+   * @param base state of the same change at an earlier commit.
+   * @return state at the tip, or null if the full history must be parsed, e.g. because {@code
+   *     base} is not an ancestor of the tip or a newer commit updates other fields.
+   */
+  @Nullable
+  ChangeNotesState parseSince(ChangeNotesState base) throws ConfigInvalidException, IOException {
+    List<ChangeNotesCommit> commits = commitsSince(base.metaId());
+    if (commits == null) {
+      return null;
+    }
+
+    try (Timer1.Context timer = metrics.parseLatency.start(CHANGES)) {
+      for (ChangeNotesCommit commit : commits) {
+        parse(commit);
+      }
+      if (!canApplyTo(base)) {
+        return null;
+      }
+      // Read notes before adding patch sets of the base state, which are
+      // shared with other readers and must not be modified.
+      parseNotes();
+      applyBase(base);
+      allPastReviewers.addAll(base.allPastReviewers());
+      for (Account.Id r : reviewers.rowKeySet()) {
+        if (!allPastReviewers.contains(r)) {
+          allPastReviewers.add(r);
+        }
+      }
+      pruneReviewers();
+      pruneReviewersByEmail();
+
+      updatePatchSetStates();
+      checkMandatoryFooters();
+    }
+    metrics.incrementalParseCount.increment(CHANGES);
+    return buildState();
+  }
+
+  @Nullable
+  private List<ChangeNotesCommit> commitsSince(ObjectId baseId) throws IOException {
+    walk.reset();
+    walk.markStart(walk.parseCommit(tip));
+    try {
+      walk.markUninteresting(walk.parseCommit(baseId));
+    } catch (MissingObjectException e) {
+      // Meta ref was rewritten since the base state was parsed.
+      return null;
+    }
+
+    // Commits must form a single line from the tip down to the base.
+    List<ChangeNotesCommit> commits = new ArrayList<>();
+    ObjectId expected = tip;
+    ChangeNotesCommit commit;
+    while ((commit = walk.next()) != null) {
+      if (commits.size() == MAX_INCREMENTAL_COMMITS
+          || !commit.equals(expected)
+          || commit.getParentCount() != 1
+          || !isIncremental(commit)) {
+        return null;
+      }
+      commits.add(commit);
+      expected = commit.getParent(0);
+    }
+    return !commits.isEmpty() && expected.equals(baseId) ? commits : null;
+  }
+
+  private static boolean isIncremental(ChangeNotesCommit commit) {
+    for (FooterLine fl : commit.getFooterLines()) {
+      if (!INCREMENTAL_FOOTERS.contains(fl.getKey().toLowerCase())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean canApplyTo(ChangeNotesState base) {
+    if (!patchSetStates.isEmpty()) {
+      return false;
+    }
+    Set<PatchSet.Id> basePatchSets = new HashSet<>();
+    for (Map.Entry<PatchSet.Id, PatchSet> e : base.patchSets()) {
+      basePatchSets.add(e.getKey());
+    }
+    for (ChangeMessage m : allChangeMessages) {
+      if (!basePatchSets.contains(m.getPatchSetId())) {
+        return false;
+      }
+    }
+    for (ApprovalKey k : approvals.keySet()) {
+      if (!basePatchSets.contains(k.psId())) {
+        return false;
+      }
+    }
+    // Approvals of removed reviewers are dropped from the state, so they can't
+    // be restored if the reviewer is added back.
+    Set<Account.Id> baseReviewers = base.reviewers().all();
+    for (Table.Cell<Account.Id, ReviewerStateInternal, Timestamp> c : reviewers.cellSet()) {
+      if (c.getColumnKey() != ReviewerStateInternal.REMOVED
+          && !baseReviewers.contains(c.getRowKey())
+          && base.allPastReviewers().contains(c.getRowKey())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Fill in the fields from an earlier state, as if the commits of that state were parsed after
+   * the newer ones.
+   */
+  private void applyBase(ChangeNotesState base) {
+    ChangeNotesState.ChangeColumns c = base.columns();
+    createdOn = c.createdOn();
+    if (c.lastUpdatedOn().after(lastUpdatedOn)) {
+      lastUpdatedOn = c.lastUpdatedOn();
+    }
+    ownerId = c.owner();
+    branch = c.branch();
+    changeId = c.changeKey().get();
+    subject = c.subject();
+    originalSubject = c.originalSubject();
+    topic = c.topic();
+    submissionId = c.submissionId();
+    status = c.status();
+    assignee = Optional.ofNullable(c.assignee());
+    pastAssignees = new ArrayList<>(base.pastAssignees().asList().reverse());
+    hashtags = base.hashtags();
+    readOnlyUntil = base.readOnlyUntil();
+    isPrivate = base.isPrivate();
+    workInProgress = base.isWorkInProgress();
+    submitRecords.addAll(base.submitRecords());
+
+    for (Map.Entry<PatchSet.Id, PatchSet> e : base.patchSets()) {
+      patchSets.put(e.getKey(), e.getValue());
+    }
+    if (c.currentPatchSetId() != null) {
+      currentPatchSets.add(c.currentPatchSetId());
+    }
+
+    // See parseStatus: approvals after the last status change to merged are
+    // post-submit.
+    if (status == Change.Status.MERGED) {
+      for (PatchSetApproval psa : bufferedApprovals) {
+        if (!psa.isLegacySubmit()) {
+          psa.setPostSubmit(true);
+        }
+      }
+    }
+    bufferedApprovals.clear();
+    for (Map.Entry<PatchSet.Id, PatchSetApproval> e : base.approvals()) {
+      PatchSetApproval psa = e.getValue();
+      approvals.putIfAbsent(
+          ApprovalKey.create(psa.getPatchSetId(), psa.getAccountId(), psa.getLabel()), psa);
+    }
+
+    for (Table.Cell<ReviewerStateInternal, Account.Id, Timestamp> r :
+        base.reviewers().asTable().cellSet()) {
+      if (!reviewers.containsRow(r.getColumnKey())) {
+        reviewers.put(r.getColumnKey(), r.getRowKey(), r.getValue());
+      }
+    }
+    for (Table.Cell<ReviewerStateInternal, Address, Timestamp> r :
+        base.reviewersByEmail().asTable().cellSet()) {
+      if (!reviewersByEmail.containsRow(r.getColumnKey())) {
+        reviewersByEmail.put(r.getColumnKey(), r.getRowKey(), r.getValue());
+      }
+    }
+
+    // Lists are collected newest first.
+    reviewerUpdates.addAll(base.reviewerUpdates().reverse());
+    allChangeMessages.addAll(base.allChangeMessages().reverse());
+    for (PatchSet.Id psId : base.changeMessagesByPatchSet().keySet()) {
+      changeMessagesByPatchSet.putAll(psId, base.changeMessagesByPatchSet().get(psId).reverse());
+    }
   }
 
   private ChangeNotesState buildState() {
@@ -247,7 +449,6 @@ class ChangeNotesParser {
         submitRecords,
         buildAllMessages(),
         buildMessagesByPatchSet(),
-        comments,
         readOnlyUntil,
         isPrivate,
         workInProgress);
@@ -733,27 +934,20 @@ class ChangeNotesParser {
   }
 
   private void parseNotes() throws IOException, ConfigInvalidException {
+    // Only push certificates are read here. Comments in the same notes are
+    // parsed by ChangeNotes when a caller asks for them.
     ObjectReader reader = walk.getObjectReader();
-    ChangeNotesCommit tipCommit = walk.parseCommit(tip);
-    revisionNoteMap =
-        RevisionNoteMap.parse(
-            noteUtil,
-            id,
-            reader,
-            NoteMap.read(reader, tipCommit),
-            PatchLineComment.Status.PUBLISHED);
-    Map<RevId, ChangeRevisionNote> rns = revisionNoteMap.revisionNotes;
-
-    for (Map.Entry<RevId, ChangeRevisionNote> e : rns.entrySet()) {
-      for (Comment c : e.getValue().getComments()) {
-        comments.put(e.getKey(), c);
-      }
-    }
-
+    NoteMap noteMap = NoteMap.read(reader, walk.parseCommit(tip));
     for (PatchSet ps : patchSets.values()) {
-      ChangeRevisionNote rn = rns.get(ps.getRevision());
-      if (rn != null && rn.getPushCert() != null) {
-        ps.setPushCertificate(rn.getPushCert());
+      if (ps.getRevision().equals(PARTIAL_PATCH_SET)) {
+        continue;
+      }
+      ObjectId noteId = noteMap.get(ObjectId.fromString(ps.getRevision().get()));
+      if (noteId != null) {
+        String pushCert = ChangeRevisionNote.readPushCert(id, reader, noteId);
+        if (pushCert != null) {
+          ps.setPushCertificate(pushCert);
+        }
       }
     }
   }
@@ -1046,9 +1240,6 @@ class ChangeNotesParser {
 
     int pruned =
         pruneEntitiesForMissingPatchSets(allChangeMessages, ChangeMessage::getPatchSetId, missing);
-    pruned +=
-        pruneEntitiesForMissingPatchSets(
-            comments.values(), c -> new PatchSet.Id(id, c.key.patchSetId), missing);
     pruned +=
         pruneEntitiesForMissingPatchSets(
             approvals.values(), PatchSetApproval::getPatchSetId, missing);
@@ -0,0 +1,622 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.notedb;
+
+import static com.google.gerrit.server.ioutil.BasicSerialization.readBytes;
+import static com.google.gerrit.server.ioutil.BasicSerialization.readFixInt64;
+import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeBytes;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeFixInt64;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.readNotNull;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+import com.google.gerrit.common.data.SubmitRecord;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.ChangeMessage;
+import com.google.gerrit.reviewdb.client.LabelId;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.PatchSetApproval;
+import com.google.gerrit.reviewdb.client.RevId;
+import com.google.gerrit.server.ReviewerByEmailSet;
+import com.google.gerrit.server.ReviewerSet;
+import com.google.gerrit.server.ReviewerStatusUpdate;
+import com.google.gerrit.server.cache.CacheSerializer;
+import com.google.gerrit.server.mail.Address;
+import com.google.gerrit.server.notedb.ChangeNotesState.ChangeColumns;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Compact binary encoding of a {@link ChangeNotesState}.
+ *
+ * <p>Snapshots in this format are stored in the persistent {@code change_notes_snapshot} cache,
+ * keyed by the meta ref SHA-1 they were parsed from, so the state of a change can be restored
+ * after a restart without walking its history again. Published comments are not part of the
+ * state; {@link ChangeNotes} reads them from the revision notes on demand.
+ *
+ * <p>Only states parsed from NoteDb can be encoded, i.e. {@link ChangeNotesState#metaId()} and
+ * {@link ChangeNotesState#columns()} are never null.
+ */
+class ChangeNotesStateSerializer implements CacheSerializer<ObjectId, byte[]> {
+  /** Increase when the encoding changes; entries in older formats are dropped. */
+  static final int VERSION = 3;
+
+  static byte[] serialize(ChangeNotesState state) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream(4096);
+    new Writer(buf).write(state);
+    return buf.toByteArray();
+  }
+
+  static ChangeNotesState deserialize(byte[] in) throws IOException {
+    return new Reader(new ByteArrayInputStream(in)).read();
+  }
+
+  @Override
+  public int version() {
+    return VERSION;
+  }
+
+  @Override
+  public byte[] serializeKey(ObjectId key) {
+    byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+    key.copyRawTo(raw, 0);
+    return raw;
+  }
+
+  @Override
+  public ObjectId deserializeKey(byte[] in) {
+    return ObjectId.fromRaw(in);
+  }
+
+  @Override
+  public byte[] serializeValue(byte[] value) {
+    return value;
+  }
+
+  @Override
+  public byte[] deserializeValue(byte[] in) {
+    return in;
+  }
+
+  private static class Writer {
+    private final OutputStream out;
+
+    Writer(OutputStream out) {
+      this.out = out;
+    }
+
+    void write(ChangeNotesState state) throws IOException {
+      writeNotNull(out, state.metaId());
+      writeInt(state.changeId().get());
+      writeColumns(state.columns());
+
+      writeAccounts(state.pastAssignees());
+      writeInt(state.hashtags().size());
+      for (String h : state.hashtags()) {
+        writeString(h);
+      }
+
+      writeInt(state.patchSets().size());
+      for (Map.Entry<PatchSet.Id, PatchSet> e : state.patchSets()) {
+        writePatchSet(e.getValue());
+      }
+
+      writeInt(state.approvals().size());
+      for (Map.Entry<PatchSet.Id, PatchSetApproval> e : state.approvals()) {
+        writeInt(e.getKey().get());
+        writeApproval(e.getValue());
+      }
+
+      writeReviewers(state.reviewers().asTable());
+      writeReviewersByEmail(state.reviewersByEmail().asTable());
+      writeAccounts(state.allPastReviewers());
+
+      writeInt(state.reviewerUpdates().size());
+      for (ReviewerStatusUpdate u : state.reviewerUpdates()) {
+        writeTimestamp(u.date());
+        writeInt(u.updatedBy().get());
+        writeInt(u.reviewer().get());
+        writeInt(u.state().ordinal());
+      }
+
+      writeInt(state.submitRecords().size());
+      for (SubmitRecord r : state.submitRecords()) {
+        writeSubmitRecord(r);
+      }
+
+      // Messages by patch set are the same instances as in the list of all
+      // messages, so only their position is written.
+      Map<ChangeMessage, Integer> messageIndex = new IdentityHashMap<>();
+      writeInt(state.allChangeMessages().size());
+      for (ChangeMessage m : state.allChangeMessages()) {
+        messageIndex.put(m, messageIndex.size());
+        writeMessage(m);
+      }
+      writeInt(state.changeMessagesByPatchSet().size());
+      for (Map.Entry<PatchSet.Id, ChangeMessage> e : state.changeMessagesByPatchSet().entries()) {
+        Integer i = messageIndex.get(e.getValue());
+        if (i == null) {
+          throw new IOException("message " + e.getValue().getKey() + " not in all messages");
+        }
+        writeInt(e.getKey().get());
+        writeInt(i);
+      }
+
+      writeNullableTimestamp(state.readOnlyUntil());
+      writeNullableBoolean(state.isPrivate());
+      writeNullableBoolean(state.isWorkInProgress());
+    }
+
+    private void writeColumns(ChangeColumns c) throws IOException {
+      writeString(c.changeKey().get());
+      writeTimestamp(c.createdOn());
+      writeTimestamp(c.lastUpdatedOn());
+      writeInt(c.owner().get());
+      writeString(c.branch());
+      writeInt(c.currentPatchSetId() != null ? c.currentPatchSetId().get() : 0);
+      writeString(c.subject());
+      writeNullableString(c.topic());
+      writeNullableString(c.originalSubject());
+      writeNullableString(c.submissionId());
+      writeNullableAccount(c.assignee());
+      writeNullableString(c.status() != null ? c.status().name() : null);
+      writeNullableBoolean(c.isPrivate());
+      writeNullableBoolean(c.isWorkInProgress());
+    }
+
+    private void writePatchSet(PatchSet ps) throws IOException {
+      writeInt(ps.getId().get());
+      writeNullableString(ps.getRevision() != null ? ps.getRevision().get() : null);
+      writeInt(ps.getUploader().get());
+      writeTimestamp(ps.getCreatedOn());
+      writeBoolean(ps.isDraft());
+      List<String> groups = ps.getGroups();
+      writeInt(groups.size());
+      for (String g : groups) {
+        writeString(g);
+      }
+      writeNullableString(ps.getPushCertificate());
+      writeNullableString(ps.getDescription());
+    }
+
+    private void writeApproval(PatchSetApproval psa) throws IOException {
+      writeInt(psa.getPatchSetId().get());
+      writeInt(psa.getAccountId().get());
+      writeString(psa.getLabelId().get());
+      writeInt(psa.getValue());
+      writeTimestamp(psa.getGranted());
+      writeNullableString(psa.getTag());
+      writeInt(psa.getRealAccountId().get());
+      writeBoolean(psa.isPostSubmit());
+    }
+
+    private void writeReviewers(Table<ReviewerStateInternal, Account.Id, Timestamp> t)
+        throws IOException {
+      writeInt(t.size());
+      for (Table.Cell<ReviewerStateInternal, Account.Id, Timestamp> c : t.cellSet()) {
+        writeInt(c.getRowKey().ordinal());
+        writeInt(c.getColumnKey().get());
+        writeTimestamp(c.getValue());
+      }
+    }
+
+    private void writeReviewersByEmail(Table<ReviewerStateInternal, Address, Timestamp> t)
+        throws IOException {
+      writeInt(t.size());
+      for (Table.Cell<ReviewerStateInternal, Address, Timestamp> c : t.cellSet()) {
+        writeInt(c.getRowKey().ordinal());
+        writeNullableString(c.getColumnKey().getName());
+        writeString(c.getColumnKey().getEmail());
+        writeTimestamp(c.getValue());
+      }
+    }
+
+    private void writeSubmitRecord(SubmitRecord r) throws IOException {
+      writeString(r.status.name());
+      writeNullableString(r.errorMessage);
+      writePresence(r.labels != null);
+      if (r.labels == null) {
+        return;
+      }
+      writeInt(r.labels.size());
+      for (SubmitRecord.Label l : r.labels) {
+        writeString(l.label);
+        writeString(l.status.name());
+        writeNullableAccount(l.appliedBy);
+      }
+    }
+
+    private void writeMessage(ChangeMessage m) throws IOException {
+      writeString(m.getKey().get());
+      writeNullableAccount(m.getAuthor());
+      writeTimestamp(m.getWrittenOn());
+      writeInt(m.getPatchSetId() != null ? m.getPatchSetId().get() : 0);
+      writeNullableString(m.getMessage());
+      writeNullableString(m.getTag());
+      writeNullableAccount(m.getRealAuthor());
+    }
+
+    private void writeAccounts(Collection<Account.Id> ids) throws IOException {
+      writeInt(ids.size());
+      for (Account.Id id : ids) {
+        writeInt(id.get());
+      }
+    }
+
+    private void writeNullableAccount(Account.Id id) throws IOException {
+      writeInt(id != null ? id.get() : 0);
+    }
+
+    private void writeTimestamp(Timestamp ts) throws IOException {
+      writeFixInt64(out, ts.getTime());
+      writeInt(ts.getNanos());
+    }
+
+    private void writeNullableTimestamp(Timestamp ts) throws IOException {
+      writePresence(ts != null);
+      if (ts != null) {
+        writeTimestamp(ts);
+      }
+    }
+
+    // Unlike BasicSerialization#writeString, keeps empty strings apart from
+    // null.
+    private void writeNullableString(String s) throws IOException {
+      writePresence(s != null);
+      if (s != null) {
+        writeString(s);
+      }
+    }
+
+    private void writeString(String s) throws IOException {
+      writeBytes(out, s.getBytes(UTF_8));
+    }
+
+    private void writeNullableBoolean(Boolean b) throws IOException {
+      writePresence(b != null);
+      if (b != null) {
+        writeBoolean(b);
+      }
+    }
+
+    private void writeBoolean(boolean b) throws IOException {
+      out.write(b ? 1 : 0);
+    }
+
+    // Written before a value that may be null.
+    private void writePresence(boolean present) throws IOException {
+      out.write(present ? 1 : 0);
+    }
+
+    private void writeInt(int i) throws IOException {
+      writeVarInt32(out, i);
+    }
+  }
+
+  private static class Reader {
+    private final InputStream in;
+    private Change.Id changeId;
+
+    Reader(InputStream in) {
+      this.in = in;
+    }
+
+    ChangeNotesState read() throws IOException {
+      ObjectId metaId = readNotNull(in);
+      changeId = new Change.Id(readInt());
+      ChangeColumns columns = readColumns();
+
+      ImmutableSet<Account.Id> pastAssignees = ImmutableSet.copyOf(readAccounts());
+      int n = readInt();
+      ImmutableSet.Builder<String> hashtags = ImmutableSet.builder();
+      for (int i = 0; i < n; i++) {
+        hashtags.add(readString());
+      }
+
+      n = readInt();
+      ImmutableList.Builder<Map.Entry<PatchSet.Id, PatchSet>> patchSets = ImmutableList.builder();
+      for (int i = 0; i < n; i++) {
+        PatchSet ps = readPatchSet();
+        patchSets.add(Maps.immutableEntry(ps.getId(), ps));
+      }
+
+      n = readInt();
+      ImmutableList.Builder<Map.Entry<PatchSet.Id, PatchSetApproval>> approvals =
+          ImmutableList.builder();
+      for (int i = 0; i < n; i++) {
+        PatchSet.Id psId = psId(readInt());
+        approvals.add(Maps.immutableEntry(psId, readApproval()));
+      }
+
+      ReviewerSet reviewers = ReviewerSet.fromTable(readReviewers());
+      ReviewerByEmailSet reviewersByEmail = ReviewerByEmailSet.fromTable(readReviewersByEmail());
+      ImmutableList<Account.Id> allPastReviewers = readAccounts();
+
+      n = readInt();
+      ImmutableList.Builder<ReviewerStatusUpdate> reviewerUpdates = ImmutableList.builder();
+      for (int i = 0; i < n; i++) {
+        reviewerUpdates.add(
+            ReviewerStatusUpdate.create(
+                readTimestamp(), account(readInt()), account(readInt()), readReviewerState()));
+      }
+
+      n = readInt();
+      ImmutableList.Builder<SubmitRecord> submitRecords = ImmutableList.builder();
+      for (int i = 0; i < n; i++) {
+        submitRecords.add(readSubmitRecord());
+      }
+
+      n = readInt();
+      List<ChangeMessage> allMessages = new ArrayList<>(n);
+      for (int i = 0; i < n; i++) {
+        allMessages.add(readMessage());
+      }
+      n = readInt();
+      ImmutableListMultimap.Builder<PatchSet.Id, ChangeMessage> messagesByPatchSet =
+          ImmutableListMultimap.builder();
+      for (int i = 0; i < n; i++) {
+        PatchSet.Id psId = psId(readInt());
+        int index = readInt();
+        if (index < 0 || index >= allMessages.size()) {
+          throw new IOException("invalid message index " + index);
+        }
+        messagesByPatchSet.put(psId, allMessages.get(index));
+      }
+
+      return new AutoValue_ChangeNotesState(
+          metaId,
+          changeId,
+          columns,
+          pastAssignees,
+          hashtags.build(),
+          patchSets.build(),
+          approvals.build(),
+          reviewers,
+          reviewersByEmail,
+          allPastReviewers,
+          reviewerUpdates.build(),
+          submitRecords.build(),
+          ImmutableList.copyOf(allMessages),
+          messagesByPatchSet.build(),
+          readNullableTimestamp(),
+          readNullableBoolean(),
+          readNullableBoolean());
+    }
+
+    private ChangeColumns readColumns() throws IOException {
+      Change.Key changeKey = new Change.Key(readString());
+      Timestamp createdOn = readTimestamp();
+      Timestamp lastUpdatedOn = readTimestamp();
+      Account.Id owner = account(readInt());
+      String branch = readString();
+      int currentPatchSet = readInt();
+      String subject = readString();
+      String topic = readNullableString();
+      String originalSubject = readNullableString();
+      String submissionId = readNullableString();
+      Account.Id assignee = readNullableAccount();
+      String status = readNullableString();
+      return new AutoValue_ChangeNotesState_ChangeColumns(
+          changeKey,
+          createdOn,
+          lastUpdatedOn,
+          owner,
+          branch,
+          currentPatchSet != 0 ? psId(currentPatchSet) : null,
+          subject,
+          topic,
+          originalSubject,
+          submissionId,
+          assignee,
+          status != null ? valueOf(Change.Status.class, status) : null,
+          readNullableBoolean(),
+          readNullableBoolean());
+    }
+
+    private PatchSet readPatchSet() throws IOException {
+      PatchSet ps = new PatchSet(psId(readInt()));
+      String rev = readNullableString();
+      ps.setRevision(rev != null ? new RevId(rev) : null);
+      ps.setUploader(account(readInt()));
+      ps.setCreatedOn(readTimestamp());
+      ps.setDraft(readBoolean());
+      int n = readInt();
+      if (n > 0) {
+        List<String> groups = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          groups.add(readString());
+        }
+        ps.setGroups(groups);
+      }
+      ps.setPushCertificate(readNullableString());
+      ps.setDescription(readNullableString());
+      return ps;
+    }
+
+    private PatchSetApproval readApproval() throws IOException {
+      PatchSet.Id psId = psId(readInt());
+      Account.Id accountId = account(readInt());
+      LabelId label = new LabelId(readString());
+      short value = (short) readInt();
+      PatchSetApproval psa =
+          new PatchSetApproval(
+              new PatchSetApproval.Key(psId, accountId, label), value, readTimestamp());
+      psa.setTag(readNullableString());
+      psa.setRealAccountId(account(readInt()));
+      psa.setPostSubmit(readBoolean());
+      return psa;
+    }
+
+    private ImmutableTable<ReviewerStateInternal, Account.Id, Timestamp> readReviewers()
+        throws IOException {
+      int n = readInt();
+      ImmutableTable.Builder<ReviewerStateInternal, Account.Id, Timestamp> t =
+          ImmutableTable.builder();
+      for (int i = 0; i < n; i++) {
+        t.put(readReviewerState(), account(readInt()), readTimestamp());
+      }
+      return t.build();
+    }
+
+    private ImmutableTable<ReviewerStateInternal, Address, Timestamp> readReviewersByEmail()
+        throws IOException {
+      int n = readInt();
+      ImmutableTable.Builder<ReviewerStateInternal, Address, Timestamp> t =
+          ImmutableTable.builder();
+      for (int i = 0; i < n; i++) {
+        ReviewerStateInternal state = readReviewerState();
+        String name = readNullableString();
+        Address address = new Address(name, readString());
+        t.put(state, address, readTimestamp());
+      }
+      return t.build();
+    }
+
+    private SubmitRecord readSubmitRecord() throws IOException {
+      SubmitRecord r = new SubmitRecord();
+      r.status = valueOf(SubmitRecord.Status.class, readString());
+      r.errorMessage = readNullableString();
+      if (readPresence()) {
+        int n = readInt();
+        r.labels = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+          SubmitRecord.Label l = new SubmitRecord.Label();
+          l.label = readString();
+          l.status = valueOf(SubmitRecord.Label.Status.class, readString());
+          l.appliedBy = readNullableAccount();
+          r.labels.add(l);
+        }
+      }
+      return r;
+    }
+
+    private ChangeMessage readMessage() throws IOException {
+      ChangeMessage.Key key = new ChangeMessage.Key(changeId, readString());
+      Account.Id author = readNullableAccount();
+      Timestamp writtenOn = readTimestamp();
+      int psId = readInt();
+      ChangeMessage m = new ChangeMessage(key, author, writtenOn, psId != 0 ? psId(psId) : null);
+      m.setMessage(readNullableString());
+      m.setTag(readNullableString());
+      m.setRealAuthor(readNullableAccount());
+      return m;
+    }
+
+    private ImmutableList<Account.Id> readAccounts() throws IOException {
+      int n = readInt();
+      ImmutableList.Builder<Account.Id> ids = ImmutableList.builder();
+      for (int i = 0; i < n; i++) {
+        ids.add(account(readInt()));
+      }
+      return ids.build();
+    }
+
+    private Account.Id readNullableAccount() throws IOException {
+      int id = readInt();
+      return id != 0 ? account(id) : null;
+    }
+
+    private ReviewerStateInternal readReviewerState() throws IOException {
+      int i = readInt();
+      ReviewerStateInternal[] all = ReviewerStateInternal.values();
+      if (i < 0 || i >= all.length) {
+        throw new IOException("invalid reviewer state " + i);
+      }
+      return all[i];
+    }
+
+    private Timestamp readTimestamp() throws IOException {
+      Timestamp ts = new Timestamp(readFixInt64(in));
+      ts.setNanos(readInt());
+      return ts;
+    }
+
+    private Timestamp readNullableTimestamp() throws IOException {
+      return readPresence() ? readTimestamp() : null;
+    }
+
+    private String readNullableString() throws IOException {
+      return readPresence() ? readString() : null;
+    }
+
+    private String readString() throws IOException {
+      return new String(readBytes(in), UTF_8);
+    }
+
+    private Boolean readNullableBoolean() throws IOException {
+      return readPresence() ? readBoolean() : null;
+    }
+
+    private boolean readBoolean() throws IOException {
+      return readFlag("boolean");
+    }
+
+    private boolean readPresence() throws IOException {
+      return readFlag("presence byte");
+    }
+
+    private boolean readFlag(String what) throws IOException {
+      int b = in.read();
+      switch (b) {
+        case 0:
+          return false;
+        case 1:
+          return true;
+        default:
+          throw new IOException("invalid " + what + " " + b);
+      }
+    }
+
+    private int readInt() throws IOException {
+      return readVarInt32(in);
+    }
+
+    private PatchSet.Id psId(int id) {
+      return new PatchSet.Id(changeId, id);
+    }
+
+    private static Account.Id account(int id) {
+      return new Account.Id(id);
+    }
+
+    private static <E extends Enum<E>> E valueOf(Class<E> type, String name) throws IOException {
+      try {
+        return Enum.valueOf(type, name);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("invalid " + type.getSimpleName() + ": " + name, e);
+      }
+    }
+  }
+}
@@ -15,11 +15,14 @@
 package com.google.gerrit.server.notedb;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 
 import com.google.common.primitives.Bytes;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Comment;
 import com.google.gerrit.reviewdb.client.PatchLineComment;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -54,6 +57,26 @@ class ChangeRevisionNote extends RevisionNote<Comment> {
     this.status = status;
   }
 
+  /**
+   * Read only the push certificate of a published revision note.
+   *
+   * <p>Comments in the note are skipped without being parsed, so reading the patch sets of a
+   * change does not pay for its comments.
+   */
+  static String readPushCert(Change.Id changeId, ObjectReader reader, ObjectId noteId)
+      throws IOException, ConfigInvalidException {
+    byte[] raw = reader.open(noteId, OBJ_BLOB).getCachedBytes(MAX_NOTE_SZ);
+    MutableInteger p = new MutableInteger();
+    trimLeadingEmptyLines(raw, p);
+    if (p.value >= raw.length) {
+      return null;
+    }
+    if (isJson(raw, p.value)) {
+      return readJsonPushCert(raw, p.value);
+    }
+    return parsePushCert(changeId, raw, p);
+  }
+
   public String getPushCert() {
     checkParsed();
     return pushCert;
@@ -95,6 +118,23 @@ class ChangeRevisionNote extends RevisionNote<Comment> {
     }
   }
 
+  private static String readJsonPushCert(byte[] raw, int offset) throws IOException {
+    try (InputStream is = new ByteArrayInputStream(raw, offset, raw.length - offset);
+        JsonReader json = new JsonReader(new InputStreamReader(is, UTF_8))) {
+      if (json.peek() != JsonToken.BEGIN_OBJECT) {
+        return null;
+      }
+      json.beginObject();
+      while (json.hasNext()) {
+        if (json.nextName().equals("pushCert") && json.peek() == JsonToken.STRING) {
+          return json.nextString();
+        }
+        json.skipValue();
+      }
+      return null;
+    }
+  }
+
   private static String parsePushCert(Change.Id changeId, byte[] bytes, MutableInteger p)
       throws ConfigInvalidException {
     if (RawParseUtils.match(bytes, p.value, CERT_HEADER) < 0) {
@@ -35,6 +35,15 @@ class NoteDbMetrics {
    */
   final Timer1<NoteDbTable> stageUpdateLatency;
 
+  /**
+   * The portion of {@link #updateLatency} before any ref is updated: staging the updates and
+   * writing their objects to the repositories.
+   */
+  final Timer1<NoteDbTable> writeObjectsLatency;
+
+  /** The portion of {@link #updateLatency} due to updating refs in the repositories. */
+  final Timer1<NoteDbTable> updateRefsLatency;
+
   /** End-to-end latency for reading changes from NoteDb, including reading ref(s) and parsing. */
   final Timer1<NoteDbTable> readLatency;
 
@@ -44,6 +53,9 @@ class NoteDbMetrics {
    */
   final Timer1<NoteDbTable> parseLatency;
 
+  /** Count of changes parsed by applying new commits to a cached earlier state. */
+  final Counter1<NoteDbTable> incrementalParseCount;
+
   /**
    * Latency due to auto-rebuilding entities when out of date.
    *
@@ -74,6 +86,22 @@ class NoteDbMetrics {
                 .setUnit(Units.MICROSECONDS),
             view);
 
+    writeObjectsLatency =
+        metrics.newTimer(
+            "notedb/write_objects_latency",
+            new Description("Latency for staging updates and writing their objects by table")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            view);
+
+    updateRefsLatency =
+        metrics.newTimer(
+            "notedb/update_refs_latency",
+            new Description("Latency for updating refs of NoteDb updates by table")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            view);
+
     readLatency =
         metrics.newTimer(
             "notedb/read_latency",
@@ -90,6 +118,13 @@ class NoteDbMetrics {
                 .setUnit(Units.MICROSECONDS),
             view);
 
+    incrementalParseCount =
+        metrics.newCounter(
+            "notedb/incremental_parse_count",
+            new Description("NoteDb parses that started from a cached earlier state by table")
+                .setCumulative(),
+            view);
+
     autoRebuildLatency =
         metrics.newTimer(
             "notedb/auto_rebuild_latency",
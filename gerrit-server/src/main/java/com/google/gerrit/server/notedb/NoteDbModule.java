@@ -16,17 +16,25 @@ package com.google.gerrit.server.notedb;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.extensions.config.FactoryModule;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Change.Id;
+import com.google.gerrit.reviewdb.client.Comment;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.notedb.NoteDbUpdateManager.Result;
 import com.google.gerrit.server.notedb.rebuild.ChangeRebuilder;
 import com.google.gerrit.server.notedb.rebuild.ChangeRebuilderImpl;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Names;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
 
 public class NoteDbModule extends FactoryModule {
   private final Config cfg;
@@ -106,6 +114,39 @@ public class NoteDbModule extends FactoryModule {
       bind(new TypeLiteral<Cache<ChangeNotesCache.Key, ChangeNotesState>>() {})
           .annotatedWith(Names.named(ChangeNotesCache.CACHE_NAME))
           .toInstance(CacheBuilder.newBuilder().<ChangeNotesCache.Key, ChangeNotesState>build());
+      bind(new TypeLiteral<Cache<ObjectId, byte[]>>() {})
+          .annotatedWith(Names.named(ChangeNotesCache.SNAPSHOT_CACHE_NAME))
+          .toInstance(CacheBuilder.newBuilder().<ObjectId, byte[]>build());
+      bind(new TypeLiteral<Cache<ChangeNotesCache.TipKey, ObjectId>>() {})
+          .annotatedWith(Names.named(ChangeNotesCache.TIPS_CACHE_NAME))
+          .toInstance(CacheBuilder.newBuilder().<ChangeNotesCache.TipKey, ObjectId>build());
+      bind(new TypeLiteral<Cache<ChangeNotesCache.CommentsKey, ImmutableList<Comment>>>() {})
+          .annotatedWith(Names.named(ChangeNotesCache.COMMENTS_CACHE_NAME))
+          .toInstance(
+              CacheBuilder.newBuilder()
+                  .<ChangeNotesCache.CommentsKey, ImmutableList<Comment>>build());
+    }
+  }
+
+  @Provides
+  @Singleton
+  @ChangeNotesLoadExecutor
+  ListeningExecutorService createChangeNotesLoadExecutor(WorkQueue workQueue) {
+    int poolSize = cfg.getInt("noteDb", null, "loadThreads", 1);
+    if (poolSize <= 1) {
+      return MoreExecutors.newDirectExecutorService();
+    }
+    return MoreExecutors.listeningDecorator(workQueue.createQueue(poolSize, "ChangeNotesLoad"));
+  }
+
+  @Provides
+  @Singleton
+  @NoteDbWriteExecutor
+  ListeningExecutorService createNoteDbWriteExecutor(WorkQueue workQueue) {
+    int poolSize = cfg.getInt("noteDb", null, "writeThreads", 1);
+    if (poolSize <= 1) {
+      return MoreExecutors.newDirectExecutorService();
     }
+    return MoreExecutors.listeningDecorator(workQueue.createQueue(poolSize, "NoteDbWrite"));
   }
 }
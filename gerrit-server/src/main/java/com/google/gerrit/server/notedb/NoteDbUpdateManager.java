@@ -212,6 +212,7 @@ public class NoteDbUpdateManager implements AutoCloseable {
   private OpenRepo changeRepo;
   private OpenRepo allUsersRepo;
   private Map<Change.Id, StagedResult> staged;
+  private boolean objectsWritten;
   private boolean checkExpectedState = true;
   private String refLogMessage;
   private PersonIdent refLogIdent;
@@ -510,7 +511,58 @@ public class NoteDbUpdateManager implements AutoCloseable {
       return null;
     }
     try (Timer1.Context timer = metrics.updateLatency.start(CHANGES)) {
+      writeObjects(dryrun);
+      return updateRefs(dryrun);
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Stage updates and write their objects, without updating any refs.
+   *
+   * <p>First half of {@link #execute(boolean)}, for callers that write the objects of several
+   * managers before updating the refs of any of them. Must be followed by {@link
+   * #updateRefs(boolean)}; the caller is responsible for closing the manager.
+   *
+   * <p>Only objects are written, so the managers of different projects may call this method
+   * concurrently, as long as each was {@link #stage() staged} on the thread that created its
+   * updates.
+   *
+   * @param dryrun whether to leave objects in the inserters without flushing them.
+   * @throws OrmException if a database layer error occurs.
+   * @throws IOException if a storage layer error occurs.
+   */
+  public void writeObjects(boolean dryrun) throws OrmException, IOException {
+    if (migration.failChangeWrites()) {
+      throw new OrmException(CHANGES_READ_ONLY);
+    }
+    if (isEmpty()) {
+      return;
+    }
+    try (Timer1.Context timer = metrics.writeObjectsLatency.start(CHANGES)) {
       stage();
+      writeObjects(changeRepo, dryrun);
+      writeObjects(allUsersRepo, dryrun);
+      objectsWritten = true;
+    }
+  }
+
+  /**
+   * Update the refs of objects written by {@link #writeObjects(boolean)}.
+   *
+   * @param dryrun whether to create the batch ref update without executing it.
+   * @return the executed batch ref update of the change repo, or null if there was nothing to do.
+   * @throws OrmException if a database layer error occurs.
+   * @throws IOException if a storage layer error occurs.
+   */
+  @Nullable
+  public BatchRefUpdate updateRefs(boolean dryrun) throws OrmException, IOException {
+    if (isEmpty()) {
+      return null;
+    }
+    checkState(objectsWritten, "objects must be written before updating refs");
+    try (Timer1.Context timer = metrics.updateRefsLatency.start(CHANGES)) {
       // ChangeUpdates must execute before ChangeDraftUpdates.
       //
       // ChangeUpdate will automatically delete draft comments for any published
@@ -519,18 +571,15 @@ public class NoteDbUpdateManager implements AutoCloseable {
       // we may have stale draft comments. Doing it in this order allows stale
       // comments to be filtered out by ChangeNotes, reflecting the fact that
       // comments can only go from DRAFT to PUBLISHED, not vice versa.
-      BatchRefUpdate result = execute(changeRepo, dryrun, pushCert);
-      execute(allUsersRepo, dryrun, null);
+      BatchRefUpdate result = updateRefs(changeRepo, dryrun, pushCert);
+      updateRefs(allUsersRepo, dryrun, null);
       return result;
-    } finally {
-      close();
     }
   }
 
-  private BatchRefUpdate execute(OpenRepo or, boolean dryrun, @Nullable PushCertificate pushCert)
-      throws IOException {
+  private static void writeObjects(OpenRepo or, boolean dryrun) throws IOException {
     if (or == null || or.cmds.isEmpty()) {
-      return null;
+      return;
     }
     if (!dryrun) {
       or.flush();
@@ -539,6 +588,13 @@ public class NoteDbUpdateManager implements AutoCloseable {
       // inserter it previously passed via setChangeRepo.
       or.flushToFinalInserter();
     }
+  }
+
+  private BatchRefUpdate updateRefs(
+      OpenRepo or, boolean dryrun, @Nullable PushCertificate pushCert) throws IOException {
+    if (or == null || or.cmds.isEmpty()) {
+      return null;
+    }
 
     BatchRefUpdate bru = or.repo.getRefDatabase().newBatchUpdate();
     bru.setPushCertificate(pushCert);
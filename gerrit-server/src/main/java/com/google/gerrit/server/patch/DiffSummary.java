@@ -21,8 +21,10 @@ import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
 
 import com.google.gerrit.server.query.change.ChangeData.ChangedLines;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
@@ -37,6 +39,8 @@ public class DiffSummary implements Serializable {
   private transient int insertions;
   private transient int deletions;
 
+  private DiffSummary() {}
+
   public DiffSummary(String[] paths, int insertions, int deletions) {
     this.paths = paths;
     this.insertions = insertions;
@@ -52,6 +56,20 @@ public class DiffSummary implements Serializable {
   }
 
   private void writeObject(ObjectOutputStream output) throws IOException {
+    writeTo(output);
+  }
+
+  private void readObject(ObjectInputStream input) throws IOException {
+    readFields(input);
+  }
+
+  static DiffSummary readFrom(InputStream input) throws IOException {
+    DiffSummary s = new DiffSummary();
+    s.readFields(input);
+    return s;
+  }
+
+  void writeTo(OutputStream output) throws IOException {
     writeVarInt32(output, insertions);
     writeVarInt32(output, deletions);
     writeVarInt32(output, paths.length);
@@ -62,7 +80,7 @@ public class DiffSummary implements Serializable {
     }
   }
 
-  private void readObject(ObjectInputStream input) throws IOException {
+  private void readFields(InputStream input) throws IOException {
     insertions = readVarInt32(input);
     deletions = readVarInt32(input);
     paths = new String[readVarInt32(input)];
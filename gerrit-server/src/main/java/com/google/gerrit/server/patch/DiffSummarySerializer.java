@@ -0,0 +1,48 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.server.cache.StreamCacheSerializer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** Compact on-disk format of the {@code diff_summary} cache. */
+public class DiffSummarySerializer extends StreamCacheSerializer<DiffSummaryKey, DiffSummary> {
+  @Override
+  public int version() {
+    return 1;
+  }
+
+  @Override
+  protected void writeKey(OutputStream out, DiffSummaryKey key) throws IOException {
+    PatchListSerializer.writePatchListKey(out, key.toPatchListKey());
+  }
+
+  @Override
+  protected DiffSummaryKey readKey(InputStream in) throws IOException {
+    return DiffSummaryKey.fromPatchListKey(PatchListSerializer.readPatchListKey(in));
+  }
+
+  @Override
+  protected void writeValue(OutputStream out, DiffSummary value) throws IOException {
+    value.writeTo(out);
+  }
+
+  @Override
+  protected DiffSummary readValue(InputStream in) throws IOException {
+    return DiffSummary.readFrom(in);
+  }
+}
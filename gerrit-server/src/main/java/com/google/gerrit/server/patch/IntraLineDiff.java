@@ -79,6 +79,16 @@ public class IntraLineDiff implements Serializable {
   }
 
   private void writeObject(final ObjectOutputStream out) throws IOException {
+    writeTo(out);
+  }
+
+  private void readObject(final ObjectInputStream in) throws IOException {
+    IntraLineDiff d = readFrom(in);
+    status = d.status;
+    edits = d.edits;
+  }
+
+  void writeTo(OutputStream out) throws IOException {
     writeEnum(out, status);
     writeVarInt32(out, edits.size());
     for (Edit e : edits) {
@@ -96,8 +106,8 @@ public class IntraLineDiff implements Serializable {
     }
   }
 
-  private void readObject(final ObjectInputStream in) throws IOException {
-    status = readEnum(in, Status.values());
+  static IntraLineDiff readFrom(InputStream in) throws IOException {
+    Status status = readEnum(in, Status.values());
     int editCount = readVarInt32(in);
     Edit[] editArray = new Edit[editCount];
     for (int i = 0; i < editCount; i++) {
@@ -112,7 +122,10 @@ public class IntraLineDiff implements Serializable {
         editArray[i] = new ReplaceEdit(editArray[i], toList(inner));
       }
     }
-    edits = ImmutableList.copyOf(editArray);
+    if (status != Status.EDIT_LIST) {
+      return new IntraLineDiff(status);
+    }
+    return new IntraLineDiff(Arrays.asList(editArray));
   }
 
   private static ImmutableList<Edit> deepCopyEdits(List<Edit> edits) {
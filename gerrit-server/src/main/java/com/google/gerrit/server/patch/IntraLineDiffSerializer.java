@@ -0,0 +1,59 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.gerrit.server.patch.PatchListSerializer.readWhitespace;
+import static com.google.gerrit.server.patch.PatchListSerializer.writeWhitespace;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.readNotNull;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
+
+import com.google.gerrit.server.cache.StreamCacheSerializer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.eclipse.jgit.lib.ObjectId;
+
+/** Compact on-disk format of the {@code diff_intraline} cache. */
+public class IntraLineDiffSerializer
+    extends StreamCacheSerializer<IntraLineDiffKey, IntraLineDiff> {
+  @Override
+  public int version() {
+    return 1;
+  }
+
+  @Override
+  protected void writeKey(OutputStream out, IntraLineDiffKey key) throws IOException {
+    writeNotNull(out, key.getBlobA());
+    writeNotNull(out, key.getBlobB());
+    writeWhitespace(out, key.getWhitespace());
+  }
+
+  @Override
+  protected IntraLineDiffKey readKey(InputStream in) throws IOException {
+    ObjectId a = readNotNull(in);
+    ObjectId b = readNotNull(in);
+    return IntraLineDiffKey.create(a, b, readWhitespace(in));
+  }
+
+  @Override
+  protected void writeValue(OutputStream out, IntraLineDiff value) throws IOException {
+    value.writeTo(out);
+  }
+
+  @Override
+  protected IntraLineDiff readValue(InputStream in) throws IOException {
+    return IntraLineDiff.readFrom(in);
+  }
+}
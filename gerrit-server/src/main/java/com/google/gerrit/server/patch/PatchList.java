@@ -30,8 +30,10 @@ import com.google.gerrit.reviewdb.client.PatchSet;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -69,6 +71,12 @@ public class PatchList implements Serializable {
     return a.compareTo(b);
   }
 
+  static PatchList readFrom(InputStream input) throws IOException {
+    PatchList pl = new PatchList();
+    pl.readFields(input);
+    return pl;
+  }
+
   @Nullable private transient ObjectId oldId;
   private transient ObjectId newId;
   private transient boolean isMerge;
@@ -77,6 +85,8 @@ public class PatchList implements Serializable {
   private transient int deletions;
   private transient PatchListEntry[] patches;
 
+  private PatchList() {}
+
   public PatchList(
       @Nullable AnyObjectId oldId,
       AnyObjectId newId,
@@ -171,6 +181,14 @@ public class PatchList implements Serializable {
   }
 
   private void writeObject(final ObjectOutputStream output) throws IOException {
+    writeTo(output);
+  }
+
+  private void readObject(final ObjectInputStream input) throws IOException {
+    readFields(input);
+  }
+
+  void writeTo(OutputStream output) throws IOException {
     final ByteArrayOutputStream buf = new ByteArrayOutputStream();
     try (DeflaterOutputStream out = new DeflaterOutputStream(buf)) {
       writeCanBeNull(out, oldId);
@@ -187,7 +205,7 @@ public class PatchList implements Serializable {
     writeBytes(output, buf.toByteArray());
   }
 
-  private void readObject(final ObjectInputStream input) throws IOException {
+  private void readFields(InputStream input) throws IOException {
     final ByteArrayInputStream buf = new ByteArrayInputStream(readBytes(input));
     try (InflaterInputStream in = new InflaterInputStream(buf)) {
       oldId = readCanBeNull(in);
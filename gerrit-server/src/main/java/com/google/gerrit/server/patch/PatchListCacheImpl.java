@@ -48,17 +48,20 @@ public class PatchListCacheImpl implements PatchListCache {
         factory(PatchListLoader.Factory.class);
         persist(FILE_NAME, PatchListKey.class, PatchList.class)
             .maximumWeight(10 << 20)
-            .weigher(PatchListWeigher.class);
+            .weigher(PatchListWeigher.class)
+            .serializer(PatchListSerializer.class);
 
         factory(IntraLineLoader.Factory.class);
         persist(INTRA_NAME, IntraLineDiffKey.class, IntraLineDiff.class)
             .maximumWeight(10 << 20)
-            .weigher(IntraLineWeigher.class);
+            .weigher(IntraLineWeigher.class)
+            .serializer(IntraLineDiffSerializer.class);
 
         factory(DiffSummaryLoader.Factory.class);
         persist(DIFF_SUMMARY, DiffSummaryKey.class, DiffSummary.class)
             .maximumWeight(10 << 20)
             .weigher(DiffSummaryWeigher.class)
+            .serializer(DiffSummarySerializer.class)
             .diskLimit(1 << 30);
 
         bind(PatchListCacheImpl.class);
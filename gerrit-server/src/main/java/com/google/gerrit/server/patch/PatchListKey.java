@@ -88,7 +88,7 @@ public class PatchListKey implements Serializable {
     whitespace = ws;
   }
 
-  /** For use only by DiffSummaryKey. */
+  /** For use only by DiffSummaryKey and PatchListSerializer. */
   PatchListKey(ObjectId oldId, Integer parentNum, ObjectId newId, Whitespace whitespace) {
     this.oldId = oldId;
     this.parentNum = parentNum;
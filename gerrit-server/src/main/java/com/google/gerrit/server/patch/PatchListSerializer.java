@@ -0,0 +1,89 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.readCanBeNull;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.readNotNull;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.writeCanBeNull;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
+
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.server.cache.StreamCacheSerializer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.eclipse.jgit.lib.ObjectId;
+
+/** Compact on-disk format of the {@code diff} cache. */
+public class PatchListSerializer extends StreamCacheSerializer<PatchListKey, PatchList> {
+  @Override
+  public int version() {
+    return 1;
+  }
+
+  @Override
+  protected void writeKey(OutputStream out, PatchListKey key) throws IOException {
+    writePatchListKey(out, key);
+  }
+
+  @Override
+  protected PatchListKey readKey(InputStream in) throws IOException {
+    return readPatchListKey(in);
+  }
+
+  @Override
+  protected void writeValue(OutputStream out, PatchList value) throws IOException {
+    value.writeTo(out);
+  }
+
+  @Override
+  protected PatchList readValue(InputStream in) throws IOException {
+    return PatchList.readFrom(in);
+  }
+
+  static void writePatchListKey(OutputStream out, PatchListKey key) throws IOException {
+    writeCanBeNull(out, key.getOldId());
+    writeVarInt32(out, key.getParentNum() != null ? key.getParentNum() : 0);
+    writeNotNull(out, key.getNewId());
+    writeWhitespace(out, key.getWhitespace());
+  }
+
+  static PatchListKey readPatchListKey(InputStream in) throws IOException {
+    ObjectId oldId = readCanBeNull(in);
+    int parentNum = readVarInt32(in);
+    ObjectId newId = readNotNull(in);
+    Whitespace ws = readWhitespace(in);
+    return new PatchListKey(oldId, parentNum != 0 ? Integer.valueOf(parentNum) : null, newId, ws);
+  }
+
+  static void writeWhitespace(OutputStream out, Whitespace ws) throws IOException {
+    Character c = PatchListKey.WHITESPACE_TYPES.get(ws);
+    if (c == null) {
+      throw new IOException("Invalid whitespace type: " + ws);
+    }
+    writeVarInt32(out, c);
+  }
+
+  static Whitespace readWhitespace(InputStream in) throws IOException {
+    char c = (char) readVarInt32(in);
+    Whitespace ws = PatchListKey.WHITESPACE_TYPES.inverse().get(c);
+    if (ws == null) {
+      throw new IOException("Invalid whitespace type code: " + c);
+    }
+    return ws;
+  }
+}
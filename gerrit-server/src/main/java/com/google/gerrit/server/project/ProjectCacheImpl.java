@@ -23,7 +23,9 @@ import com.google.common.collect.Sets;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.reviewdb.client.AccountGroup;
 import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.cache.CacheEvictionBus;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.StringKeySerializer;
 import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.config.AllUsersName;
 import com.google.gerrit.server.git.GitRepositoryManager;
@@ -61,7 +63,9 @@ public class ProjectCacheImpl implements ProjectCache {
     return new CacheModule() {
       @Override
       protected void configure() {
-        cache(CACHE_NAME, String.class, ProjectState.class).loader(Loader.class);
+        cache(CACHE_NAME, String.class, ProjectState.class)
+            .loader(Loader.class)
+            .snapshot(StringKeySerializer.class);
 
         cache(CACHE_LIST, ListKey.class, new TypeLiteral<SortedSet<Project.NameKey>>() {})
             .maximumWeight(1)
@@ -82,6 +86,8 @@ public class ProjectCacheImpl implements ProjectCache {
   private final LoadingCache<ListKey, SortedSet<Project.NameKey>> list;
   private final Lock listLock;
   private final ProjectCacheClock clock;
+  private final ProjectCacheRefresher refresher;
+  private final CacheEvictionBus evictionBus;
 
   @Inject
   ProjectCacheImpl(
@@ -89,13 +95,17 @@ public class ProjectCacheImpl implements ProjectCache {
       final AllUsersName allUsersName,
       @Named(CACHE_NAME) LoadingCache<String, ProjectState> byName,
       @Named(CACHE_LIST) LoadingCache<ListKey, SortedSet<Project.NameKey>> list,
-      ProjectCacheClock clock) {
+      ProjectCacheClock clock,
+      ProjectCacheRefresher refresher,
+      CacheEvictionBus evictionBus) {
     this.allProjectsName = allProjectsName;
     this.allUsersName = allUsersName;
     this.byName = byName;
     this.list = list;
     this.listLock = new ReentrantLock(true /* fair */);
     this.clock = clock;
+    this.refresher = refresher;
+    this.evictionBus = evictionBus;
   }
 
   @Override
@@ -135,7 +145,13 @@ public class ProjectCacheImpl implements ProjectCache {
     }
     try {
       ProjectState state = byName.get(projectName.get());
-      if (state != null && state.needsRefresh(clock.read())) {
+      if (state == null) {
+        return null;
+      }
+      long generation = clock.read();
+      if (refresher.isEnabled() && generation > 0) {
+        refresher.refreshIfNeeded(byName, state, generation);
+      } else if (state.needsRefresh(generation)) {
         byName.invalidate(projectName.get());
         state = byName.get(projectName.get());
       }
@@ -153,7 +169,7 @@ public class ProjectCacheImpl implements ProjectCache {
   @Override
   public void evict(final Project p) {
     if (p != null) {
-      byName.invalidate(p.getNameKey().get());
+      evict(p.getNameKey());
     }
   }
 
@@ -162,6 +178,7 @@ public class ProjectCacheImpl implements ProjectCache {
   public void evict(final Project.NameKey p) {
     if (p != null) {
       byName.invalidate(p.get());
+      evictionBus.publish(CACHE_NAME, p.get());
     }
   }
 
@@ -177,6 +194,7 @@ public class ProjectCacheImpl implements ProjectCache {
     } finally {
       listLock.unlock();
     }
+    evictionBus.publishAll(CACHE_LIST);
     evict(p);
   }
 
@@ -192,6 +210,7 @@ public class ProjectCacheImpl implements ProjectCache {
     } finally {
       listLock.unlock();
     }
+    evictionBus.publishAll(CACHE_LIST);
   }
 
   @Override
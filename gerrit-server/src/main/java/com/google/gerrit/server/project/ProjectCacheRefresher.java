@@ -0,0 +1,156 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.LoadingCache;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Revalidates cached {@link ProjectState}s in the background.
+ *
+ * <p>When {@code cache.projects.refreshAhead} is enabled, {@link ProjectCacheImpl} returns the
+ * cached state immediately once {@code cache.projects.checkFrequency} has elapsed, and this class
+ * compares the cached revision with {@code refs/meta/config} on its own threads. Out of date states
+ * are reloaded and swapped into the cache; callers keep seeing the previous state until then.
+ */
+@Singleton
+class ProjectCacheRefresher {
+  private static final Logger log = LoggerFactory.getLogger(ProjectCacheRefresher.class);
+
+  private final Executor executor;
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+  private final Timer0 latency;
+  private final Counter0 refreshCount;
+  private final Counter0 failureCount;
+
+  @Inject
+  ProjectCacheRefresher(@GerritServerConfig Config cfg, MetricMaker metrics, WorkQueue workQueue) {
+    this(
+        cfg.getBoolean("cache", "projects", "refreshAhead", false)
+            ? workQueue.createQueue(
+                Math.max(1, cfg.getInt("cache", "projects", "refreshThreads", 1)),
+                "ProjectCacheRefresher")
+            : null,
+        metrics);
+  }
+
+  @VisibleForTesting
+  ProjectCacheRefresher(@Nullable Executor executor, MetricMaker metrics) {
+    this.executor = executor;
+
+    latency =
+        metrics.newTimer(
+            "caches/projects/refresh_ahead_latency",
+            new Description(
+                    "Time from scheduling the background check of an out of date project"
+                        + " configuration until it was replaced, including the time waiting"
+                        + " for a thread")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+    refreshCount =
+        metrics.newCounter(
+            "caches/projects/refresh_ahead_count",
+            new Description("Project configurations reloaded in the background")
+                .setRate()
+                .setUnit("projects"));
+    failureCount =
+        metrics.newCounter(
+            "caches/projects/refresh_ahead_failures",
+            new Description(
+                    "Project configurations that could not be reloaded in the background and"
+                        + " were dropped from the cache")
+                .setRate()
+                .setUnit("projects"));
+    metrics.newCallbackMetric(
+        "caches/projects/refresh_ahead_pending",
+        Integer.class,
+        new Description("Projects waiting to be revalidated in the background")
+            .setGauge()
+            .setUnit("projects"),
+        pending::size);
+  }
+
+  boolean isEnabled() {
+    return executor != null;
+  }
+
+  /**
+   * Schedule a background check of {@code state} if it has not been checked in {@code generation}.
+   */
+  void refreshIfNeeded(
+      LoadingCache<String, ProjectState> cache, ProjectState state, long generation) {
+    if (!state.startCheck(generation)) {
+      return;
+    }
+
+    String name = state.getProject().getName();
+    if (!pending.add(name)) {
+      return;
+    }
+    long scheduled = System.nanoTime();
+    try {
+      executor.execute(
+          () -> {
+            try {
+              refresh(cache, name, state, scheduled);
+            } finally {
+              pending.remove(name);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      pending.remove(name);
+    }
+  }
+
+  private void refresh(
+      LoadingCache<String, ProjectState> cache, String name, ProjectState state, long scheduled) {
+    if (!state.isRevisionOutOfDate()) {
+      return;
+    }
+
+    try {
+      cache.refresh(name);
+    } catch (RuntimeException e) {
+      log.warn(String.format("Cannot refresh project %s", name), e);
+    }
+    if (cache.getIfPresent(name) == state) {
+      // The reload failed, for example because the repository was deleted. Drop the entry so the
+      // next caller loads it synchronously and sees the failure.
+      cache.invalidate(name);
+      failureCount.increment();
+      return;
+    }
+    refreshCount.increment();
+    latency.record(System.nanoTime() - scheduled, TimeUnit.NANOSECONDS);
+  }
+}
@@ -164,17 +164,22 @@ public class ProjectState {
   }
 
   boolean needsRefresh(long generation) {
+    return startCheck(generation) && isRevisionOutOfDate();
+  }
+
+  /** @return true if the revision should be checked again in this generation. */
+  boolean startCheck(long generation) {
     if (generation <= 0) {
-      return isRevisionOutOfDate();
+      return true;
     }
     if (lastCheckGeneration != generation) {
       lastCheckGeneration = generation;
-      return isRevisionOutOfDate();
+      return true;
     }
     return false;
   }
 
-  private boolean isRevisionOutOfDate() {
+  boolean isRevisionOutOfDate() {
     try (Repository git = gitMgr.openRepository(getProject().getNameKey())) {
       Ref ref = git.getRefDatabase().exactRef(RefNames.REFS_CONFIG);
       if (ref == null || ref.getObjectId() == null) {
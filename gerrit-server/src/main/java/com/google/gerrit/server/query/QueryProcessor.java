@@ -29,6 +29,7 @@ import com.google.gerrit.server.index.IndexCollection;
 import com.google.gerrit.server.index.IndexConfig;
 import com.google.gerrit.server.index.IndexRewriter;
 import com.google.gerrit.server.index.QueryOptions;
+import com.google.gerrit.server.index.Schema;
 import com.google.gerrit.server.index.SchemaDefinitions;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.OrmRuntimeException;
@@ -183,18 +184,25 @@ public abstract class QueryProcessor<T> {
 
     // Run each query asynchronously, if supported.
     List<ResultSet<T>> matches = new ArrayList<>(cnt);
-    for (DataSource<T> s : sources) {
-      matches.add(s.read());
+    for (int i = 0; i < cnt; i++) {
+      matches.add(read(predicates.get(i), sources.get(i)));
     }
 
     List<QueryResult<T>> out = new ArrayList<>(cnt);
-    for (int i = 0; i < cnt; i++) {
-      out.add(
-          QueryResult.create(
-              queryStrings != null ? queryStrings.get(i) : null,
-              predicates.get(i),
-              limits.get(i),
-              matches.get(i).toList()));
+    try {
+      for (int i = 0; i < cnt; i++) {
+        out.add(
+            QueryResult.create(
+                queryStrings != null ? queryStrings.get(i) : null,
+                predicates.get(i),
+                limits.get(i),
+                take(matches.get(i), limits.get(i))));
+      }
+    } finally {
+      // Stop sources that stream their results from loading the rest.
+      for (ResultSet<T> m : matches) {
+        m.close();
+      }
     }
 
     // only measure successful queries
@@ -203,6 +211,36 @@ public abstract class QueryProcessor<T> {
     return out;
   }
 
+  /**
+   * Read only as many results as needed to fill the limit and tell whether there are more.
+   *
+   * @param rs results of a query; read at most once.
+   * @param limit number of results the caller asked for.
+   * @return up to {@code limit + 1} results.
+   */
+  private static <T> List<T> take(ResultSet<T> rs, int limit) {
+    List<T> r = new ArrayList<>();
+    for (T t : rs) {
+      r.add(t);
+      if (r.size() > limit) {
+        break;
+      }
+    }
+    return r;
+  }
+
+  /**
+   * Start reading the results of a rewritten query. Subclasses may override this method to serve
+   * results without running the query.
+   *
+   * @param pred the rewritten query, including the visibility filter if enforced.
+   * @param source the data source of {@code pred}.
+   * @return results of the query.
+   */
+  protected ResultSet<T> read(Predicate<T> pred, DataSource<T> source) throws OrmException {
+    return source.read();
+  }
+
   protected QueryOptions createOptions(
       IndexConfig indexConfig, int start, int limit, Set<String> requestedFields) {
     return QueryOptions.create(indexConfig, start, limit, requestedFields);
@@ -217,12 +255,24 @@ public abstract class QueryProcessor<T> {
    */
   protected abstract Predicate<T> enforceVisibility(Predicate<T> pred);
 
-  private Set<String> getRequestedFields() {
+  protected Set<String> getRequestedFields() {
     if (requestedFields != null) {
       return requestedFields;
     }
     Index<?, T> index = indexes.getSearchIndex();
-    return index != null ? index.getSchema().getStoredFields().keySet() : ImmutableSet.<String>of();
+    return index != null ? defaultFields(index.getSchema()) : ImmutableSet.<String>of();
+  }
+
+  /**
+   * @param schema schema of the search index.
+   * @return fields to read from the index if the caller did not request specific fields.
+   */
+  protected Set<String> defaultFields(Schema<T> schema) {
+    return schema.getStoredFields().keySet();
+  }
+
+  protected boolean isVisibilityEnforced() {
+    return enforceVisibility;
   }
 
   public boolean isDisabled() {
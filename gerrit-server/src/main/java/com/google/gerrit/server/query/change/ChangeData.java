@@ -32,6 +32,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.MultimapBuilder;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.LabelTypes;
 import com.google.gerrit.common.data.SubmitRecord;
@@ -61,6 +62,7 @@ import com.google.gerrit.server.StarredChangesUtil.StarRef;
 import com.google.gerrit.server.change.MergeabilityCache;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.MergeUtil;
+import com.google.gerrit.server.index.QueryCursor;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.notedb.NotesMigration;
 import com.google.gerrit.server.patch.DiffSummary;
@@ -114,11 +116,46 @@ public class ChangeData {
     return changes.stream().collect(toMap(ChangeData::getId, cd -> cd));
   }
 
+  /**
+   * Load the notes of all changes that do not have them yet in bulk, see {@link
+   * ChangeNotes.Factory#createAll(ReviewDb, ListMultimap)}.
+   *
+   * <p>Changes that cannot be loaded are left alone; accessing their data loads them individually
+   * and reports the error there.
+   */
+  public static void ensureNotesLoaded(Iterable<ChangeData> changes) throws OrmException {
+    ChangeData first = Iterables.getFirst(changes, null);
+    if (first == null || !first.notesMigration.readChanges()) {
+      return;
+    }
+
+    ListMultimap<Project.NameKey, Change.Id> missing =
+        MultimapBuilder.linkedHashKeys().arrayListValues().build();
+    Map<Change.Id, ChangeData> byId = new HashMap<>();
+    for (ChangeData cd : changes) {
+      if (cd.notes == null && cd.lazyLoad) {
+        missing.put(cd.project(), cd.getId());
+        byId.put(cd.getId(), cd);
+      }
+    }
+    if (missing.size() <= 1) {
+      return;
+    }
+    for (ChangeNotes notes : first.notesFactory.createAll(first.db, missing).values()) {
+      ChangeData cd = byId.get(notes.getChangeId());
+      cd.notes = notes;
+      if (cd.change == null) {
+        cd.change = notes.getChange();
+      }
+    }
+  }
+
   public static void ensureChangeLoaded(Iterable<ChangeData> changes) throws OrmException {
     ChangeData first = Iterables.getFirst(changes, null);
     if (first == null) {
       return;
     } else if (first.notesMigration.readChanges()) {
+      ensureNotesLoaded(changes);
       for (ChangeData cd : changes) {
         cd.change();
       }
@@ -144,6 +181,7 @@ public class ChangeData {
     if (first == null) {
       return;
     } else if (first.notesMigration.readChanges()) {
+      ensureNotesLoaded(changes);
       for (ChangeData cd : changes) {
         cd.patchSets();
       }
@@ -174,6 +212,7 @@ public class ChangeData {
     if (first == null) {
       return;
     } else if (first.notesMigration.readChanges()) {
+      ensureNotesLoaded(changes);
       for (ChangeData cd : changes) {
         cd.currentPatchSet();
       }
@@ -200,6 +239,7 @@ public class ChangeData {
     if (first == null) {
       return;
     } else if (first.notesMigration.readChanges()) {
+      ensureNotesLoaded(changes);
       for (ChangeData cd : changes) {
         cd.currentApprovals();
       }
@@ -231,6 +271,7 @@ public class ChangeData {
     if (first == null) {
       return;
     } else if (first.notesMigration.readChanges()) {
+      ensureNotesLoaded(changes);
       for (ChangeData cd : changes) {
         cd.messages();
       }
@@ -345,6 +386,7 @@ public class ChangeData {
   private List<ChangeMessage> messages;
   private Optional<ChangedLines> changedLines;
   private SubmitTypeRecord submitTypeRecord;
+  private SubmitTypeRecord indexedSubmitTypeRecord;
   private Boolean mergeable;
   private Set<String> hashtags;
   private Map<Account.Id, Ref> editsByUser;
@@ -362,6 +404,8 @@ public class ChangeData {
 
   private ImmutableList<byte[]> refStates;
   private ImmutableList<byte[]> refStatePatterns;
+  private String submitRulesState;
+  private QueryCursor cursor;
 
   @AssistedInject
   private ChangeData(
@@ -1076,6 +1120,23 @@ public class ChangeData {
     return submitTypeRecord;
   }
 
+  /**
+   * Get the submit type, preferring the value stored in the index.
+   *
+   * <p>Avoids evaluating submit rules when rendering changes. Callers acting on the submit type,
+   * such as merging, must use {@link #submitTypeRecord()}, which evaluates the current rules.
+   */
+  public SubmitTypeRecord indexedSubmitTypeRecord() throws OrmException {
+    if (indexedSubmitTypeRecord != null) {
+      return indexedSubmitTypeRecord;
+    }
+    return submitTypeRecord();
+  }
+
+  public void setIndexedSubmitTypeRecord(SubmitTypeRecord record) {
+    indexedSubmitTypeRecord = record;
+  }
+
   public void setMergeable(Boolean mergeable) {
     this.mergeable = mergeable;
   }
@@ -1331,6 +1392,28 @@ public class ChangeData {
     this.refStatePatterns = ImmutableList.copyOf(refStatePatterns);
   }
 
+  @Nullable
+  public String getSubmitRulesState() {
+    return submitRulesState;
+  }
+
+  public void setSubmitRulesState(@Nullable String submitRulesState) {
+    this.submitRulesState = submitRulesState;
+  }
+
+  /**
+   * @return position of this change in the results of the index query it was returned from, or
+   *     null if it was not loaded from an index query.
+   */
+  @Nullable
+  public QueryCursor getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(QueryCursor cursor) {
+    this.cursor = cursor;
+  }
+
   @AutoValue
   abstract static class ReviewedByEvent {
     private static ReviewedByEvent create(ChangeMessage msg) {
@@ -0,0 +1,302 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.events.ChangeIndexedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.index.IndexConfig;
+import com.google.gerrit.server.index.IndexedQuery;
+import com.google.gerrit.server.query.AndPredicate;
+import com.google.gerrit.server.query.DataSource;
+import com.google.gerrit.server.query.OrPredicate;
+import com.google.gerrit.server.query.Predicate;
+import com.google.gwtorm.server.ListResultSet;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.ResultSet;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Cache of the results of change queries run on behalf of users.
+ *
+ * <p>Entries are keyed by the rewritten query, which includes the visibility predicate and thus the
+ * identity of the calling user, and hold the IDs of the visible changes found. On a hit the changes
+ * are loaded from the index by ID, so neither the original search nor the visibility checks are
+ * repeated.
+ *
+ * <p>An entry is only used while none of the changes in the projects the query is restricted to
+ * was reindexed on this server since the entry was stored. Queries that are not restricted to
+ * projects are invalidated by any index write. Permission and group membership updates don't
+ * reindex changes, so entries also expire after a short time.
+ */
+@Singleton
+public class ChangeQueryCache implements ChangeIndexedListener {
+  static final String CACHE_NAME = "change_queries";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, String.class, Entry.class)
+            .weigher(Weigher.class)
+            .maximumWeight(0)
+            .expireAfterWrite(1, TimeUnit.MINUTES);
+        bind(ChangeQueryCache.class);
+        DynamicSet.bind(binder(), ChangeIndexedListener.class).to(ChangeQueryCache.class);
+      }
+    };
+  }
+
+  @AutoValue
+  abstract static class Entry {
+    abstract long generation();
+
+    abstract ImmutableList<Change.Id> ids();
+  }
+
+  static class Weigher implements com.google.common.cache.Weigher<String, Entry> {
+    @Override
+    public int weigh(String key, Entry entry) {
+      // Rough estimate: string characters, and one pointer plus one IntKey per ID.
+      return 16 + 2 * key.length() + 32 + entry.ids().size() * 28;
+    }
+  }
+
+  private final Cache<String, Entry> cache;
+  private final Provider<InternalChangeQuery> queryProvider;
+  private final IndexConfig indexConfig;
+  private final boolean enabled;
+
+  /** Incremented on every index write. */
+  private final AtomicLong generation = new AtomicLong();
+
+  /** Incremented on index writes for which the project is not known. */
+  private final AtomicLong unscoped = new AtomicLong();
+
+  private final ConcurrentMap<Project.NameKey, AtomicLong> projectGenerations =
+      new ConcurrentHashMap<>();
+
+  @Inject
+  ChangeQueryCache(
+      @Named(CACHE_NAME) Cache<String, Entry> cache,
+      Provider<InternalChangeQuery> queryProvider,
+      IndexConfig indexConfig,
+      @GerritServerConfig Config cfg) {
+    this.cache = cache;
+    this.queryProvider = queryProvider;
+    this.indexConfig = indexConfig;
+    this.enabled = cfg.getLong("cache", CACHE_NAME, "memoryLimit", 0) > 0;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void onChangeIndexed(int id) {
+    unscoped.incrementAndGet();
+    generation.incrementAndGet();
+  }
+
+  @Override
+  public void onChangeIndexed(String projectName, int id) {
+    projectGenerations
+        .computeIfAbsent(new Project.NameKey(projectName), p -> new AtomicLong())
+        .incrementAndGet();
+    generation.incrementAndGet();
+  }
+
+  @Override
+  public void onChangeDeleted(int id) {
+    unscoped.incrementAndGet();
+    generation.incrementAndGet();
+  }
+
+  /**
+   * Read the results of a rewritten query, from the cache if possible.
+   *
+   * @param pred rewritten query, including the visibility predicate of the calling user.
+   * @param source data source of {@code pred}.
+   * @param start number of results skipped.
+   * @param fields index fields to load for the results.
+   * @return results of the query.
+   * @throws OrmException if the changes could not be read from the index.
+   */
+  ResultSet<ChangeData> read(
+      Predicate<ChangeData> pred, DataSource<ChangeData> source, int start, Set<String> fields)
+      throws OrmException {
+    String key = start + ":" + pred;
+    // Read the generation before running the query, so an index write racing
+    // with the query prevents its result from being used.
+    long gen = generation(projects(pred));
+    Entry e = cache.getIfPresent(key);
+    if (e != null && e.generation() == gen) {
+      List<ChangeData> cds = load(e.ids(), fields);
+      if (cds != null) {
+        return new ListResultSet<>(cds);
+      }
+    }
+
+    // The query processor only reads as many results as it returns, plus
+    // one to tell whether there are more, and then closes the result set.
+    // Those results are what a later run of the same query returns, since
+    // the key includes the limit of the rewritten query.
+    ResultSet<ChangeData> rs = source.read();
+    return new ResultSet<ChangeData>() {
+      private final List<ChangeData> read = new ArrayList<>();
+      // Whether the last step of the iteration succeeded.
+      private boolean ok;
+
+      @Override
+      public Iterator<ChangeData> iterator() {
+        Iterator<ChangeData> it = rs.iterator();
+        return new AbstractIterator<ChangeData>() {
+          @Override
+          protected ChangeData computeNext() {
+            ok = false;
+            if (!it.hasNext()) {
+              ok = true;
+              return endOfData();
+            }
+            ChangeData cd = it.next();
+            read.add(cd);
+            ok = true;
+            return cd;
+          }
+        };
+      }
+
+      @Override
+      public List<ChangeData> toList() {
+        List<ChangeData> r = rs.toList();
+        put(key, gen, r);
+        return r;
+      }
+
+      @Override
+      public void close() {
+        rs.close();
+        if (ok) {
+          put(key, gen, read);
+        }
+      }
+    };
+  }
+
+  private void put(String key, long gen, List<ChangeData> cds) {
+    // Cached results are reloaded with one term per change.
+    if (cds.size() > indexConfig.maxTerms()) {
+      return;
+    }
+    ImmutableList.Builder<Change.Id> ids = ImmutableList.builder();
+    for (ChangeData cd : cds) {
+      ids.add(cd.getId());
+    }
+    cache.put(key, new AutoValue_ChangeQueryCache_Entry(gen, ids.build()));
+  }
+
+  @Nullable
+  private List<ChangeData> load(List<Change.Id> ids, Set<String> fields) throws OrmException {
+    if (ids.isEmpty()) {
+      return ImmutableList.of();
+    }
+    Map<Change.Id, ChangeData> byId = new HashMap<>();
+    for (ChangeData cd : queryProvider.get().setRequestedFields(fields).byLegacyChangeIds(ids)) {
+      byId.put(cd.getId(), cd);
+    }
+    List<ChangeData> result = new ArrayList<>(ids.size());
+    for (Change.Id id : ids) {
+      ChangeData cd = byId.get(id);
+      if (cd == null) {
+        // Deleted on another server; run the query again.
+        return null;
+      }
+      result.add(cd);
+    }
+    return result;
+  }
+
+  private long generation(@Nullable Set<Project.NameKey> projects) {
+    if (projects == null) {
+      return generation.get();
+    }
+    // All counters only increase, so the sum changes whenever one of them does.
+    long gen = unscoped.get();
+    for (Project.NameKey p : projects) {
+      AtomicLong g = projectGenerations.get(p);
+      if (g != null) {
+        gen += g.get();
+      }
+    }
+    return gen;
+  }
+
+  /**
+   * Find the projects a query is restricted to.
+   *
+   * @param p rewritten query.
+   * @return projects all results of the query belong to, or null if the query may match changes of
+   *     any project.
+   */
+  @Nullable
+  static Set<Project.NameKey> projects(Predicate<ChangeData> p) {
+    if (p instanceof ProjectPredicate) {
+      return ImmutableSet.of(((ProjectPredicate) p).getValueKey());
+    } else if (p instanceof AndPredicate || p instanceof IndexedQuery) {
+      for (Predicate<ChangeData> c : p.getChildren()) {
+        Set<Project.NameKey> r = projects(c);
+        if (r != null) {
+          return r;
+        }
+      }
+    } else if (p instanceof OrPredicate) {
+      Set<Project.NameKey> r = new HashSet<>();
+      for (Predicate<ChangeData> c : p.getChildren()) {
+        Set<Project.NameKey> cr = projects(c);
+        if (cr == null) {
+          return null;
+        }
+        r.addAll(cr);
+      }
+      return r;
+    }
+    return null;
+  }
+}
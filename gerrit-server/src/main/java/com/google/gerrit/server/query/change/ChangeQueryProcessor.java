@@ -17,21 +17,31 @@ package com.google.gerrit.server.query.change;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_LIMIT;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.common.PluginDefinedInfo;
 import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.index.IndexConfig;
 import com.google.gerrit.server.index.IndexPredicate;
+import com.google.gerrit.server.index.QueryCursor;
 import com.google.gerrit.server.index.QueryOptions;
+import com.google.gerrit.server.index.Schema;
+import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.index.change.ChangeIndexCollection;
 import com.google.gerrit.server.index.change.ChangeIndexRewriter;
 import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
 import com.google.gerrit.server.index.change.IndexedChangeQuery;
+import com.google.gerrit.server.index.change.StalenessChecker;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.project.ChangeControl;
+import com.google.gerrit.server.query.DataSource;
 import com.google.gerrit.server.query.Predicate;
 import com.google.gerrit.server.query.QueryProcessor;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.ResultSet;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import java.util.ArrayList;
@@ -54,6 +64,15 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
   private final ChangeControl.GenericFactory changeControlFactory;
   private final ChangeNotes.Factory notesFactory;
   private final DynamicMap<ChangeAttributeFactory> attributeFactories;
+  private final ChangeQueryCache queryCache;
+
+  private static final ImmutableSet<String> STALENESS_FIELDS =
+      ImmutableSet.of(
+          ChangeField.REF_STATE.getName(),
+          ChangeField.REF_STATE_PATTERN.getName(),
+          ChangeField.SUBMIT_RULES_STATE.getName());
+
+  private QueryCursor searchAfter;
 
   static {
     // It is assumed that basic rewrites do not touch visibleto predicates.
@@ -72,7 +91,8 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
       Provider<ReviewDb> db,
       ChangeControl.GenericFactory changeControlFactory,
       ChangeNotes.Factory notesFactory,
-      DynamicMap<ChangeAttributeFactory> attributeFactories) {
+      DynamicMap<ChangeAttributeFactory> attributeFactories,
+      ChangeQueryCache queryCache) {
     super(
         userProvider,
         metrics,
@@ -85,6 +105,7 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
     this.changeControlFactory = changeControlFactory;
     this.notesFactory = notesFactory;
     this.attributeFactories = attributeFactories;
+    this.queryCache = queryCache;
   }
 
   @Override
@@ -93,10 +114,48 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
     return this;
   }
 
+  /**
+   * Continue a previous query after the change the cursor was taken from.
+   *
+   * <p>Unlike {@link #setStart(int)} the index does not have to scan the skipped changes, so the
+   * cost of a page does not depend on how far into the results it is.
+   *
+   * @param cursor cursor of the last change of the previous page, see {@link ChangeData#getCursor()}.
+   * @return this.
+   */
+  public ChangeQueryProcessor setSearchAfter(@Nullable QueryCursor cursor) {
+    searchAfter = cursor;
+    return this;
+  }
+
   @Override
   protected QueryOptions createOptions(
       IndexConfig indexConfig, int start, int limit, Set<String> requestedFields) {
-    return IndexedChangeQuery.createOptions(indexConfig, start, limit, requestedFields);
+    return IndexedChangeQuery.createOptions(indexConfig, start, limit, requestedFields)
+        .withSearchAfter(searchAfter);
+  }
+
+  /**
+   * Leaves out the fields that are only used to check whether a change is stale.
+   *
+   * <p>{@link StalenessChecker} requests them explicitly. The ref states hold one value per edit,
+   * draft and starred-changes ref of the change, and query results never use them.
+   */
+  @Override
+  protected Set<String> defaultFields(Schema<ChangeData> schema) {
+    return ImmutableSet.copyOf(
+        Sets.difference(schema.getStoredFields().keySet(), STALENESS_FIELDS));
+  }
+
+  @Override
+  protected ResultSet<ChangeData> read(Predicate<ChangeData> pred, DataSource<ChangeData> source)
+      throws OrmException {
+    // Internal queries are not cached; this also keeps the cache from caching
+    // its own lookups of cached results.
+    if (!isVisibilityEnforced() || !queryCache.isEnabled()) {
+      return source.read();
+    }
+    return queryCache.read(pred, source, start, getRequestedFields());
   }
 
   @Override
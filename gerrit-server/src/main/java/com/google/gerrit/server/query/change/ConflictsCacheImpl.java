@@ -14,12 +14,25 @@
 
 package com.google.gerrit.server.query.change;
 
+import static com.google.gerrit.server.change.MergeabilityCacheImpl.readSubmitType;
+import static com.google.gerrit.server.change.MergeabilityCacheImpl.writeSubmitType;
+import static com.google.gerrit.server.ioutil.BasicSerialization.readBoolean;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeBoolean;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.readNotNull;
+import static org.eclipse.jgit.lib.ObjectIdSerialization.writeNotNull;
+
 import com.google.common.cache.Cache;
+import com.google.gerrit.extensions.client.SubmitType;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.StreamCacheSerializer;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.eclipse.jgit.lib.ObjectId;
 
 @Singleton
 public class ConflictsCacheImpl implements ConflictsCache {
@@ -29,12 +42,47 @@ public class ConflictsCacheImpl implements ConflictsCache {
     return new CacheModule() {
       @Override
       protected void configure() {
-        persist(NAME, ConflictKey.class, Boolean.class).maximumWeight(37400);
+        persist(NAME, ConflictKey.class, Boolean.class)
+            .maximumWeight(37400)
+            .serializer(ConflictsSerializer.class);
         bind(ConflictsCache.class).to(ConflictsCacheImpl.class);
       }
     };
   }
 
+  public static class ConflictsSerializer extends StreamCacheSerializer<ConflictKey, Boolean> {
+    @Override
+    public int version() {
+      return 1;
+    }
+
+    @Override
+    protected void writeKey(OutputStream out, ConflictKey key) throws IOException {
+      writeNotNull(out, key.getCommit());
+      writeNotNull(out, key.getOtherCommit());
+      writeSubmitType(out, key.getSubmitType());
+      writeBoolean(out, key.isContentMerge());
+    }
+
+    @Override
+    protected ConflictKey readKey(InputStream in) throws IOException {
+      ObjectId commit = readNotNull(in);
+      ObjectId otherCommit = readNotNull(in);
+      SubmitType submitType = readSubmitType(in);
+      return new ConflictKey(commit, otherCommit, submitType, readBoolean(in));
+    }
+
+    @Override
+    protected void writeValue(OutputStream out, Boolean value) throws IOException {
+      writeBoolean(out, value);
+    }
+
+    @Override
+    protected Boolean readValue(InputStream in) throws IOException {
+      return readBoolean(in);
+    }
+  }
+
   private final Cache<ConflictKey, Boolean> conflictsCache;
 
   @Inject
@@ -26,6 +26,7 @@ import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.RestReadView;
 import com.google.gerrit.extensions.restapi.TopLevelResource;
 import com.google.gerrit.server.change.ChangeJson;
+import com.google.gerrit.server.index.QueryCursor;
 import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.query.QueryParseException;
 import com.google.gerrit.server.query.QueryResult;
@@ -44,6 +45,7 @@ public class QueryChanges implements RestReadView<TopLevelResource> {
   private final ChangeQueryBuilder qb;
   private final ChangeQueryProcessor imp;
   private EnumSet<ListChangesOption> options;
+  private String cursor;
 
   @Option(
     name = "--query",
@@ -83,6 +85,16 @@ public class QueryChanges implements RestReadView<TopLevelResource> {
     imp.setStart(start);
   }
 
+  @Option(
+    name = "--after",
+    aliases = {"-A"},
+    metaVar = "CURSOR",
+    usage = "Continue after the change a cursor from a previous query was returned for"
+  )
+  public void setAfter(String cursor) {
+    this.cursor = cursor;
+  }
+
   @Inject
   QueryChanges(ChangeJson.Factory json, ChangeQueryBuilder qb, ChangeQueryProcessor qp) {
     this.json = json;
@@ -135,6 +147,14 @@ public class QueryChanges implements RestReadView<TopLevelResource> {
       throw new QueryParseException("limit of 10 queries");
     }
 
+    if (cursor != null) {
+      try {
+        imp.setSearchAfter(QueryCursor.decode(cursor));
+      } catch (IllegalArgumentException e) {
+        throw new QueryParseException("invalid cursor: " + cursor);
+      }
+    }
+
     int cnt = queries.size();
     List<QueryResult<ChangeData>> results = imp.query(qb.parse(queries));
 
@@ -22,6 +22,10 @@ import static java.util.Comparator.comparing;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.CheckedFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.reviewdb.client.Change;
@@ -36,6 +40,7 @@ import com.google.gerrit.server.index.change.ChangeIndexer;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.notedb.ChangeUpdate;
 import com.google.gerrit.server.notedb.NoteDbUpdateManager;
+import com.google.gerrit.server.notedb.NoteDbWriteExecutor;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.util.RequestId;
 import com.google.gwtorm.server.OrmException;
@@ -50,6 +55,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
@@ -60,6 +66,10 @@ import org.eclipse.jgit.transport.ReceiveCommand;
  * {@link BatchUpdate} implementation using only NoteDb that updates code refs and meta refs in a
  * single {@link org.eclipse.jgit.lib.BatchRefUpdate}.
  *
+ * <p>When a batch spans several projects, the objects of all projects are written before the refs
+ * of any project are updated. Objects of different projects are written in parallel on the {@link
+ * NoteDbWriteExecutor}.
+ *
  * <p>Used when {@code noteDb.changes.disableReviewDb=true}, at which point ReviewDb is not
  * consulted during updates.
  */
@@ -94,8 +104,8 @@ class FusedNoteDbBatchUpdate extends BatchUpdate {
             for (FusedNoteDbBatchUpdate u : updates) {
               handles.add(u.executeChangeOps(dryrun));
             }
+            executeHandles(handles, updates.get(0).writeExecutor);
             for (ChangesHandle h : handles) {
-              h.execute();
               indexFutures.addAll(h.startIndexFutures());
             }
             listener.afterUpdateRefs();
@@ -118,14 +128,15 @@ class FusedNoteDbBatchUpdate extends BatchUpdate {
             for (FusedNoteDbBatchUpdate u : updates) {
               u.executeUpdateRepo();
             }
+            // TODO(dborowitz): This isn't quite good enough: in theory updateRepo may want to see
+            // the results of change meta commands, but they are only added to the BatchRefUpdate
+            // when the handles are staged in executeHandles. Staging is separate from writing
+            // objects and updating refs, so the fix is to stage the handles before updateRepo.
+            // Not a big deal at the moment, because this order is only used for deleting changes,
+            // and those updateRepo implementations definitely don't need to observe the updated
+            // change meta refs.
+            executeHandles(handles, updates.get(0).writeExecutor);
             for (ChangesHandle h : handles) {
-              // TODO(dborowitz): This isn't quite good enough: in theory updateRepo may want to
-              // see the results of change meta commands, but they aren't actually added to the
-              // BatchUpdate until the body of execute. To fix this, execute needs to be split up
-              // into a method that returns a BatchRefUpdate before execution. Not a big deal at the
-              // moment, because this order is only used for deleting changes, and those updateRepo
-              // implementations definitely don't need to observe the updated change meta refs.
-              h.execute();
               indexFutures.addAll(h.startIndexFutures());
             }
             break;
@@ -159,6 +170,45 @@ class FusedNoteDbBatchUpdate extends BatchUpdate {
     }
   }
 
+  private static void executeHandles(
+      List<ChangesHandle> handles, ListeningExecutorService writeExecutor) throws Exception {
+    // Stage on this thread, as ops may depend on request scoped state.
+    for (ChangesHandle h : handles) {
+      h.stage();
+    }
+
+    // Write the objects of all projects before updating any ref, so a failed write leaves every
+    // repository unchanged. Writes to different repositories are independent; each one ends with
+    // its own pack flush, so they are done in parallel.
+    ListeningExecutorService executor =
+        handles.size() > 1 ? writeExecutor : MoreExecutors.newDirectExecutorService();
+    List<ListenableFuture<?>> futures = new ArrayList<>(handles.size());
+    for (ChangesHandle h : handles) {
+      futures.add(
+          executor.submit(
+              () -> {
+                h.writeObjects();
+                return null;
+              }));
+    }
+    // Wait for all writes to finish before failing, as the handles are closed
+    // by the caller.
+    Futures.successfulAsList(futures).get();
+    for (ListenableFuture<?> f : futures) {
+      try {
+        f.get();
+      } catch (ExecutionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        Throwables.throwIfInstanceOf(e.getCause(), Exception.class);
+        throw e;
+      }
+    }
+
+    for (ChangesHandle h : handles) {
+      h.updateRefs();
+    }
+  }
+
   class ContextImpl implements Context {
     @Override
     public RepoView getRepoView() throws IOException {
@@ -268,6 +318,7 @@ class FusedNoteDbBatchUpdate extends BatchUpdate {
   private final NoteDbUpdateManager.Factory updateManagerFactory;
   private final ChangeIndexer indexer;
   private final GitReferenceUpdated gitRefUpdated;
+  private final ListeningExecutorService writeExecutor;
   private final ReviewDb db;
 
   @Inject
@@ -280,6 +331,7 @@ class FusedNoteDbBatchUpdate extends BatchUpdate {
       NoteDbUpdateManager.Factory updateManagerFactory,
       ChangeIndexer indexer,
       GitReferenceUpdated gitRefUpdated,
+      @NoteDbWriteExecutor ListeningExecutorService writeExecutor,
       @Assisted ReviewDb db,
       @Assisted Project.NameKey project,
       @Assisted CurrentUser user,
@@ -292,6 +344,7 @@ class FusedNoteDbBatchUpdate extends BatchUpdate {
     this.updateManagerFactory = updateManagerFactory;
     this.indexer = indexer;
     this.gitRefUpdated = gitRefUpdated;
+    this.writeExecutor = writeExecutor;
     this.db = db;
   }
 
@@ -353,8 +406,16 @@ class FusedNoteDbBatchUpdate extends BatchUpdate {
       checkArgument(old == null, "result for change %s already set: %s", id, old);
     }
 
-    void execute() throws OrmException, IOException {
-      FusedNoteDbBatchUpdate.this.batchRefUpdate = manager.execute(dryrun);
+    void stage() throws OrmException, IOException {
+      manager.stage();
+    }
+
+    void writeObjects() throws OrmException, IOException {
+      manager.writeObjects(dryrun);
+    }
+
+    void updateRefs() throws OrmException, IOException {
+      FusedNoteDbBatchUpdate.this.batchRefUpdate = manager.updateRefs(dryrun);
     }
 
     List<CheckedFuture<?, IOException>> startIndexFutures() {
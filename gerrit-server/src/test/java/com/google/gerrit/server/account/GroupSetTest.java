@@ -0,0 +1,139 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.reviewdb.client.AccountGroup;
+import com.google.gerrit.server.IdentifiedUser;
+import java.util.Set;
+import org.junit.Test;
+
+public class GroupSetTest {
+  private static final AccountGroup.UUID A = new AccountGroup.UUID("group-set-test-a");
+  private static final AccountGroup.UUID B = new AccountGroup.UUID("group-set-test-b");
+  private static final AccountGroup.UUID C = new AccountGroup.UUID("group-set-test-c");
+  private static final AccountGroup.UUID UNKNOWN =
+      new AccountGroup.UUID("group-set-test-never-interned");
+
+  private final GroupDictionary dict = new GroupDictionary();
+
+  @Test
+  public void contains() {
+    GroupSet s = GroupSet.of(dict, ImmutableList.of(A, B, A));
+    assertThat(s).containsExactly(A, B);
+    assertThat(s.contains(new AccountGroup.UUID(A.get()))).isTrue();
+    assertThat(s.contains(C)).isFalse();
+    assertThat(s.contains(UNKNOWN)).isFalse();
+    assertThat(dict.current().indexOf(UNKNOWN)).isEqualTo(-1);
+  }
+
+  @Test
+  public void intersects() {
+    GroupSet ab = GroupSet.of(dict, ImmutableList.of(A, B));
+    GroupSet bc = GroupSet.of(dict, ImmutableList.of(B, C));
+    GroupSet c = GroupSet.of(dict, ImmutableList.of(C));
+    assertThat(ab.intersects(bc)).isTrue();
+    assertThat(ab.intersects(c)).isFalse();
+  }
+
+  @Test
+  public void dictionaryStartsOverWhenFull() {
+    GroupDictionary small = new GroupDictionary(2);
+    GroupDictionary.Generation first = small.current();
+    GroupSet ab = GroupSet.of(small, ImmutableList.of(A, B));
+    GroupSet bc = GroupSet.of(small, ImmutableList.of(B, C));
+    assertThat(small.current()).isNotSameAs(first);
+    assertThat(small.current().size()).isEqualTo(2);
+
+    // Sets of the old generation stay valid, and can be compared with sets of
+    // the new one.
+    assertThat(ab).containsExactly(A, B);
+    assertThat(bc).containsExactly(B, C);
+    assertThat(ab.intersects(bc)).isTrue();
+    assertThat(bc.intersects(GroupSet.of(small, ImmutableList.of(A)))).isFalse();
+    assertThat(ab.union(small, bc)).containsExactly(A, B, C);
+  }
+
+  @Test
+  public void listGroupMembership() {
+    ListGroupMembership m = new ListGroupMembership(ImmutableList.of(A, B));
+    assertThat(m.contains(A)).isTrue();
+    assertThat(m.contains(C)).isFalse();
+    assertThat(m.contains(null)).isFalse();
+    assertThat(m.containsAnyOf(ImmutableList.of(C, B))).isTrue();
+    assertThat(m.containsAnyOf(GroupSet.of(dict, ImmutableList.of(C)))).isFalse();
+    assertThat(m.intersection(ImmutableList.of(B, C, UNKNOWN))).containsExactly(B);
+    assertThat(m.getKnownGroups()).containsExactly(A, B);
+  }
+
+  @Test
+  public void includingGroupMembershipDoesNotInternUnknownGroups() {
+    AccountState state = createNiceMock(AccountState.class);
+    expect(state.getInternalGroups()).andStubReturn(ImmutableSet.of(A));
+    IdentifiedUser user = createNiceMock(IdentifiedUser.class);
+    expect(user.state()).andStubReturn(state);
+    expect(user.getEffectiveGroups()).andStubReturn(new ListGroupMembership(ImmutableList.of(A)));
+    GroupIncludeCache includeCache = createNiceMock(GroupIncludeCache.class);
+    expect(includeCache.subgroupsOf(UNKNOWN)).andStubReturn(ImmutableList.of());
+    expect(includeCache.subgroupsOf(B)).andStubReturn(ImmutableList.of(A));
+    replay(state, user, includeCache);
+
+    IncludingGroupMembership m = new IncludingGroupMembership(dict, includeCache, user);
+    assertThat(dict.current().size()).isEqualTo(1);
+    assertThat(m.contains(UNKNOWN)).isFalse();
+    assertThat(m.contains(UNKNOWN)).isFalse();
+    assertThat(m.containsAnyOf(ImmutableList.of(UNKNOWN))).isFalse();
+    assertThat(dict.current().indexOf(UNKNOWN)).isEqualTo(-1);
+    assertThat(dict.current().size()).isEqualTo(1);
+
+    // Groups the user is a member of through an include are interned.
+    assertThat(m.contains(B)).isTrue();
+    assertThat(dict.current().indexOf(B)).isAtLeast(0);
+    assertThat(m.intersection(ImmutableList.of(A, B, UNKNOWN))).containsExactly(A, B);
+    assertThat(dict.current().size()).isEqualTo(2);
+  }
+
+  @Test
+  public void includingGroupMembershipIntersectsGroupSets() {
+    AccountState state = createNiceMock(AccountState.class);
+    expect(state.getInternalGroups()).andStubReturn(ImmutableSet.of(A));
+    IdentifiedUser user = createNiceMock(IdentifiedUser.class);
+    expect(user.state()).andStubReturn(state);
+    expect(user.getEffectiveGroups()).andStubReturn(new ListGroupMembership(ImmutableList.of(A)));
+    GroupIncludeCache includeCache = createNiceMock(GroupIncludeCache.class);
+    expect(includeCache.subgroupsOf(C)).andStubReturn(ImmutableList.of());
+    expect(includeCache.parentGroupsOf(A)).andStubReturn(ImmutableList.of(B));
+    expect(includeCache.parentGroupsOf(B)).andStubReturn(ImmutableList.of());
+    expect(includeCache.allExternalMembers()).andStubReturn(ImmutableList.of());
+    replay(state, user, includeCache);
+
+    IncludingGroupMembership m = new IncludingGroupMembership(dict, includeCache, user);
+    assertThat(m.containsAnyOf(GroupSet.of(dict, ImmutableList.of(A, C)))).isTrue();
+    assertThat(m.containsAnyOf(GroupSet.of(dict, ImmutableList.of(C)))).isFalse();
+
+    Set<AccountGroup.UUID> known = m.getKnownGroups();
+    assertThat(known).isInstanceOf(GroupSet.class);
+    assertThat(known).containsExactly(A, B);
+    // Known groups are remembered as memberships.
+    assertThat(m.contains(B)).isTrue();
+    assertThat(m.containsAnyOf(known)).isTrue();
+  }
+}
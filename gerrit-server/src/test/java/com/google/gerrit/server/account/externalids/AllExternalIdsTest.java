@@ -0,0 +1,69 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account.externalids;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.reviewdb.client.Account;
+import org.junit.Test;
+
+public class AllExternalIdsTest {
+  private static final Account.Id ID1 = new Account.Id(1);
+  private static final Account.Id ID2 = new Account.Id(2);
+  private static final Account.Id ID3 = new Account.Id(3);
+
+  @Test
+  public void lookupByAccountAndEmail() {
+    ExternalId a = ExternalId.createEmail(ID2, "foo@example.com");
+    ExternalId b = ExternalId.createUsername("foo", ID2, null);
+    ExternalId c = ExternalId.createWithEmail("gerrit", "bar", ID1, "bar@example.com");
+    ExternalId d = ExternalId.createWithEmail("gerrit", "baz", ID3, "foo@example.com");
+    AllExternalIds all = AllExternalIds.create(ImmutableList.of(a, b, c, d));
+
+    assertThat(all.size()).isEqualTo(4);
+    assertThat(all.byAccount(ID1)).containsExactly(c);
+    assertThat(all.byAccount(ID2)).containsExactly(a, b);
+    assertThat(all.byAccount(ID3)).containsExactly(d);
+    assertThat(all.byAccount(new Account.Id(4))).isEmpty();
+    assertThat(all.byEmail("foo@example.com")).containsExactly(a, d);
+    assertThat(all.byEmail("bar@example.com")).containsExactly(c);
+    assertThat(all.byEmail("baz@example.com")).isEmpty();
+  }
+
+  @Test
+  public void update() {
+    ExternalId a = ExternalId.createEmail(ID1, "foo@example.com");
+    ExternalId b = ExternalId.createUsername("foo", ID1, null);
+    ExternalId c = ExternalId.createUsername("bar", ID2, null);
+    AllExternalIds all = AllExternalIds.create(ImmutableList.of(a, b, c));
+
+    ExternalId a2 = ExternalId.createWithEmail(a.key(), ID1, "bar@example.com");
+    ExternalId d = ExternalId.createEmail(ID3, "baz@example.com");
+    AllExternalIds updated = all.update(ImmutableSet.of(c)::contains, ImmutableList.of(a2, d));
+
+    assertThat(updated.size()).isEqualTo(3);
+    assertThat(updated.byAccount(ID1)).containsExactly(a2, b);
+    assertThat(updated.byAccount(ID2)).isEmpty();
+    assertThat(updated.byAccount(ID3)).containsExactly(d);
+    assertThat(updated.byEmail("foo@example.com")).isEmpty();
+    assertThat(updated.byEmail("bar@example.com")).containsExactly(a2);
+
+    // The original index is not modified.
+    assertThat(all.byAccount(ID2)).containsExactly(c);
+    assertThat(all.byEmail("foo@example.com")).containsExactly(a);
+  }
+}
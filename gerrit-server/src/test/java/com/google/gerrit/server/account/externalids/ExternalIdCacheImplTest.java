@@ -0,0 +1,109 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account.externalids;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.server.account.externalids.ExternalIdReaderTest.ID1;
+import static com.google.gerrit.server.account.externalids.ExternalIdReaderTest.ID2;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.config.AllUsersNameProvider;
+import com.google.gerrit.testutil.InMemoryRepositoryManager;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExternalIdCacheImplTest {
+  private InMemoryRepositoryManager repoManager;
+  private AllUsersName allUsers;
+  private CountingReader reader;
+  private ExternalIdCacheImpl cache;
+
+  @Before
+  public void setUp() throws Exception {
+    repoManager = new InMemoryRepositoryManager();
+    allUsers = new AllUsersName(AllUsersNameProvider.DEFAULT);
+    repoManager.createRepository(allUsers);
+    reader = new CountingReader(repoManager, allUsers);
+    cache = new ExternalIdCacheImpl(reader);
+  }
+
+  @Test
+  public void loadsNewRevisionIncrementally() throws Exception {
+    ExternalId a = ExternalId.createEmail(ID1, "foo@example.com");
+    ExternalId b = ExternalId.createUsername("foo", ID1, null);
+    ExternalId c = ExternalId.createUsername("bar", ID2, null);
+    update(ImmutableList.of(a, b, c), ImmutableList.of());
+    assertThat(cache.byAccount(ID1)).containsExactly(a, b);
+    assertThat(reader.fullLoads).isEqualTo(1);
+
+    // Written behind the cache's back, e.g. by another server.
+    ExternalId b2 = ExternalId.createWithEmail(b.key(), ID1, "foo@example.com");
+    ExternalId d = ExternalId.createEmail(ID2, "bar@example.com");
+    update(ImmutableList.of(b2, d), ImmutableList.of(c));
+
+    assertThat(cache.byAccount(ID1)).containsExactly(a, b2);
+    assertThat(cache.byAccount(ID2)).containsExactly(d);
+    assertThat(cache.byEmail("foo@example.com")).containsExactly(a, b2);
+    assertThat(cache.byEmail("bar@example.com")).containsExactly(d);
+    assertThat(reader.fullLoads).isEqualTo(1);
+    assertThat(reader.diffs).isEqualTo(1);
+  }
+
+  @Test
+  public void fallsBackToFullLoadIfLastRevisionIsUnknown() throws Exception {
+    ExternalId a = ExternalId.createEmail(ID1, "foo@example.com");
+    ObjectId unknown = ObjectId.fromString("deadbeefdeadbeefdeadbeefdeadbeefdeadbeef");
+    cache.onCreate(ObjectId.zeroId(), unknown, ImmutableList.of(a));
+
+    ExternalId b = ExternalId.createUsername("foo", ID1, null);
+    update(ImmutableList.of(b), ImmutableList.of());
+
+    assertThat(cache.byAccount(ID1)).containsExactly(b);
+    assertThat(reader.diffs).isEqualTo(1);
+    assertThat(reader.fullLoads).isEqualTo(1);
+  }
+
+  private void update(Collection<ExternalId> upsert, Collection<ExternalId> remove)
+      throws Exception {
+    ExternalIdReaderTest.update(repoManager, allUsers, upsert, remove);
+  }
+
+  private static class CountingReader extends ExternalIdReader {
+    int fullLoads;
+    int diffs;
+
+    CountingReader(InMemoryRepositoryManager repoManager, AllUsersName allUsers) {
+      super(repoManager, allUsers, new DisabledMetricMaker());
+    }
+
+    @Override
+    Set<ExternalId> all(ObjectId rev) throws IOException {
+      fullLoads++;
+      return super.all(rev);
+    }
+
+    @Override
+    Diff diff(ObjectId oldRev, ObjectId newRev) throws IOException {
+      diffs++;
+      return super.diff(oldRev, newRev);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account.externalids;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.config.AllUsersNameProvider;
+import com.google.gerrit.testutil.InMemoryRepositoryManager;
+import java.util.Collection;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.notes.NoteMap;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExternalIdReaderTest {
+  static final Account.Id ID1 = new Account.Id(1);
+  static final Account.Id ID2 = new Account.Id(2);
+
+  private InMemoryRepositoryManager repoManager;
+  private AllUsersName allUsers;
+  private ExternalIdReader reader;
+
+  @Before
+  public void setUp() throws Exception {
+    repoManager = new InMemoryRepositoryManager();
+    allUsers = new AllUsersName(AllUsersNameProvider.DEFAULT);
+    repoManager.createRepository(allUsers);
+    reader = new ExternalIdReader(repoManager, allUsers, new DisabledMetricMaker());
+  }
+
+  @Test
+  public void diffFromEmptyBranch() throws Exception {
+    ExternalId a = ExternalId.createEmail(ID1, "foo@example.com");
+    ExternalId b = ExternalId.createUsername("foo", ID1, null);
+    ObjectId rev = update(repoManager, allUsers, ImmutableList.of(a, b), ImmutableList.of());
+
+    ExternalIdReader.Diff diff = reader.diff(ObjectId.zeroId(), rev);
+    assertThat(diff.removed).isEmpty();
+    assertThat(diff.added).containsExactly(a, b);
+  }
+
+  @Test
+  public void diffAddModifyAndDelete() throws Exception {
+    ExternalId a = ExternalId.createEmail(ID1, "foo@example.com");
+    ExternalId b = ExternalId.createUsername("foo", ID1, null);
+    ExternalId c = ExternalId.createUsername("bar", ID2, null);
+    ObjectId rev1 = update(repoManager, allUsers, ImmutableList.of(a, b, c), ImmutableList.of());
+
+    ExternalId b2 = ExternalId.createWithEmail(b.key(), ID1, "foo@example.com");
+    ExternalId d = ExternalId.createEmail(ID2, "bar@example.com");
+    ObjectId rev2 = update(repoManager, allUsers, ImmutableList.of(b2, d), ImmutableList.of(c));
+
+    ExternalIdReader.Diff diff = reader.diff(rev1, rev2);
+    assertThat(diff.removed).containsExactly(b, c);
+    assertThat(diff.added).containsExactly(b2, d);
+
+    diff = reader.diff(rev2, rev1);
+    assertThat(diff.removed).containsExactly(b2, d);
+    assertThat(diff.added).containsExactly(b, c);
+  }
+
+  @Test
+  public void diffOfSameRevisionIsEmpty() throws Exception {
+    ExternalId a = ExternalId.createEmail(ID1, "foo@example.com");
+    ObjectId rev = update(repoManager, allUsers, ImmutableList.of(a), ImmutableList.of());
+
+    ExternalIdReader.Diff diff = reader.diff(rev, rev);
+    assertThat(diff.removed).isEmpty();
+    assertThat(diff.added).isEmpty();
+  }
+
+  /** Commits a new revision of the external IDs branch and returns it. */
+  static ObjectId update(
+      InMemoryRepositoryManager repoManager,
+      AllUsersName allUsers,
+      Collection<ExternalId> upsert,
+      Collection<ExternalId> remove)
+      throws Exception {
+    try (Repository repo = repoManager.openRepository(allUsers);
+        RevWalk rw = new RevWalk(repo);
+        ObjectInserter ins = repo.newObjectInserter()) {
+      ObjectId rev = ExternalIdReader.readRevision(repo);
+      NoteMap noteMap = ExternalIdReader.readNoteMap(rw, rev);
+      for (ExternalId extId : upsert) {
+        ExternalIdsUpdate.upsert(rw, ins, noteMap, extId);
+      }
+      for (ExternalId extId : remove) {
+        ExternalIdsUpdate.remove(rw, noteMap, extId);
+      }
+      PersonIdent ident = new PersonIdent("Gerrit Server", "noreply@gerritcodereview.com");
+      return ExternalIdsUpdate.commit(
+          repo, rw, ins, rev, noteMap, "Update external IDs", ident, ident);
+    }
+  }
+}
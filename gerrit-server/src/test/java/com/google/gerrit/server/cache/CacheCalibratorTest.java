@@ -0,0 +1,124 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.gerrit.common.Nullable;
+import com.google.inject.TypeLiteral;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheCalibratorTest {
+  private Config cfg;
+
+  @Before
+  public void setUp() {
+    cfg = new Config();
+  }
+
+  @Test
+  public void weighedCache() {
+    Weigher<Integer, byte[]> weigher = (k, v) -> v.length;
+    Cache<Integer, byte[]> cache =
+        CacheBuilder.newBuilder().weigher(weigher).maximumWeight(1 << 20).build();
+    for (int i = 0; i < 10; i++) {
+      cache.put(i, new byte[100]);
+    }
+
+    CacheCalibrator calibrator = newCalibrator();
+    calibrator.register(binding(null, "test"), cache, weigher);
+    assertThat(calibrator.get("gerrit", "test")).isNull();
+
+    calibrator.calibrate();
+    CacheCalibrator.Calibration c = calibrator.get("gerrit", "test");
+    assertThat(c.entries()).isEqualTo(10);
+    assertThat(c.samples()).isEqualTo(10);
+    assertThat(c.weighed()).isTrue();
+    assertThat(c.weight()).isEqualTo(1000);
+    // Integer key of 16 bytes and byte array of 16 + 100 bytes, rounded up to 120.
+    assertThat(c.retainedBytes()).isEqualTo(10 * (16 + 120));
+    assertThat(c.ratio()).isWithin(0.001).of(1.36);
+  }
+
+  @Test
+  public void sampleIsExtrapolated() {
+    cfg.setInt("cache", null, "calibrationSamples", 5);
+    Cache<Integer, byte[]> cache = CacheBuilder.newBuilder().build();
+    for (int i = 0; i < 20; i++) {
+      cache.put(i, new byte[100]);
+    }
+
+    CacheCalibrator calibrator = newCalibrator();
+    calibrator.register(binding("plugin", "test"), cache, null);
+    calibrator.calibrate();
+    CacheCalibrator.Calibration c = calibrator.get("plugin", "test");
+    assertThat(c.entries()).isEqualTo(20);
+    assertThat(c.samples()).isEqualTo(5);
+    assertThat(c.weighed()).isFalse();
+    assertThat(c.weight()).isEqualTo(20);
+    assertThat(c.retainedBytes()).isEqualTo(20 * (16 + 120));
+  }
+
+  @Test
+  public void emptyCache() {
+    CacheCalibrator calibrator = newCalibrator();
+    calibrator.register(binding(null, "test"), CacheBuilder.newBuilder().build(), null);
+    calibrator.calibrate();
+    CacheCalibrator.Calibration c = calibrator.get("gerrit", "test");
+    assertThat(c.entries()).isEqualTo(0);
+    assertThat(c.samples()).isEqualTo(0);
+    assertThat(c.retainedBytes()).isEqualTo(0);
+    assertThat(c.ratio()).isEqualTo(0.0);
+  }
+
+  @Test
+  public void pluginCacheDoesNotReplaceCoreCache() {
+    Cache<Integer, byte[]> core = CacheBuilder.newBuilder().build();
+    core.put(1, new byte[100]);
+    Cache<Integer, byte[]> plugin = CacheBuilder.newBuilder().build();
+
+    CacheCalibrator calibrator = newCalibrator();
+    calibrator.register(binding(null, "test"), core, null);
+    calibrator.register(binding("plugin", "test"), plugin, null);
+    calibrator.calibrate();
+    assertThat(calibrator.get("gerrit", "test").entries()).isEqualTo(1);
+    assertThat(calibrator.get("plugin", "test").entries()).isEqualTo(0);
+  }
+
+  private CacheCalibrator newCalibrator() {
+    return new CacheCalibrator(cfg, null, new ObjectSizeEstimator(true, 100_000));
+  }
+
+  private static CacheBinding<Integer, byte[]> binding(@Nullable String plugin, String name) {
+    CacheProvider<Integer, byte[]> p =
+        new CacheProvider<>(
+            new CacheModule() {
+              @Override
+              protected void configure() {}
+            },
+            name,
+            new TypeLiteral<Integer>() {},
+            new TypeLiteral<byte[]>() {});
+    if (plugin != null) {
+      p.setPluginName(plugin);
+    }
+    return p;
+  }
+}
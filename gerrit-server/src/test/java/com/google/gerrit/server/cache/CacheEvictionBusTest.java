@@ -0,0 +1,174 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.util.IdGenerator;
+import com.google.inject.Guice;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheEvictionBusTest {
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+  private Path dir;
+  private WorkQueue workQueue;
+  private List<FileCacheEvictionTransport> transports;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("cache_eviction_test");
+    workQueue = new WorkQueue(Guice.createInjector().getInstance(IdGenerator.class), 1);
+    transports = new ArrayList<>();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    for (FileCacheEvictionTransport t : transports) {
+      t.stop();
+    }
+    try (Stream<Path> paths = Files.walk(dir)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Test
+  public void evictionsAreCoalesced() {
+    List<List<CacheEviction>> sent = new ArrayList<>();
+    CacheEvictionBus bus = new CacheEvictionBus(new Config(), workQueue);
+    bus.setTransport(DynamicItem.itemOf(CacheEvictionTransport.class, sent::add));
+    bus.register("test", new StringKeySerializer(), newCache());
+    bus.register("other", new StringKeySerializer(), newCache());
+
+    bus.publish("test", "foo");
+    bus.publish("other", "foo");
+    bus.publish("test", "bar");
+    bus.publish("test", "foo");
+    bus.publishAll("other");
+    bus.publish("unknown", "foo");
+    bus.flush();
+
+    assertThat(sent)
+        .containsExactly(
+            ImmutableList.of(
+                CacheEviction.key("test", bytes("foo")),
+                CacheEviction.key("test", bytes("bar")),
+                CacheEviction.all("other")));
+  }
+
+  @Test
+  public void keyWithoutSerializerEvictsAll() {
+    List<List<CacheEviction>> sent = new ArrayList<>();
+    CacheEvictionBus bus = new CacheEvictionBus(new Config(), workQueue);
+    bus.setTransport(DynamicItem.itemOf(CacheEvictionTransport.class, sent::add));
+    bus.register("test", null, newCache());
+
+    bus.publish("test", "foo");
+    bus.flush();
+    assertThat(sent).containsExactly(ImmutableList.of(CacheEviction.all("test")));
+  }
+
+  @Test
+  public void evictionsReachOtherServers() throws Exception {
+    CacheEvictionBus bus1 = newBus();
+    FileCacheEvictionTransport transport1 = newTransport(bus1);
+    Cache<String, String> cache1 = newCache();
+    bus1.register("test", new StringKeySerializer(), cache1);
+    bus1.register("other", new StringKeySerializer(), newCache());
+
+    CacheEvictionBus bus2 = newBus();
+    FileCacheEvictionTransport transport2 = newTransport(bus2);
+    Cache<String, String> cache2 = newCache();
+    bus2.register("test", new StringKeySerializer(), cache2);
+    Cache<String, String> other2 = newCache();
+    bus2.register("other", new StringKeySerializer(), other2);
+
+    cache1.put("foo", "1");
+    cache2.put("foo", "1");
+    cache2.put("bar", "2");
+    other2.put("foo", "3");
+
+    bus1.publish("test", "foo");
+    bus1.publishAll("other");
+    bus1.flush();
+
+    transport1.poll();
+    assertThat(cache1.getIfPresent("foo")).isEqualTo("1");
+
+    transport2.poll();
+    assertThat(cache2.asMap()).containsExactly("bar", "2");
+    assertThat(other2.size()).isEqualTo(0);
+
+    // Evictions are applied only once.
+    cache2.put("foo", "1");
+    transport2.poll();
+    assertThat(cache2.getIfPresent("foo")).isEqualTo("1");
+  }
+
+  @Test
+  public void evictionsBeforeStartAreIgnored() throws Exception {
+    CacheEvictionBus bus1 = newBus();
+    newTransport(bus1);
+    bus1.register("test", new StringKeySerializer(), newCache());
+    bus1.publish("test", "foo");
+    bus1.flush();
+
+    CacheEvictionBus bus2 = newBus();
+    FileCacheEvictionTransport transport2 = newTransport(bus2);
+    Cache<String, String> cache2 = newCache();
+    bus2.register("test", new StringKeySerializer(), cache2);
+    cache2.put("foo", "1");
+
+    transport2.poll();
+    assertThat(cache2.getIfPresent("foo")).isEqualTo("1");
+  }
+
+  private CacheEvictionBus newBus() {
+    return new CacheEvictionBus(new Config(), workQueue);
+  }
+
+  private FileCacheEvictionTransport newTransport(CacheEvictionBus bus) {
+    FileCacheEvictionTransport t = new FileCacheEvictionTransport(bus, workQueue, dir, HOUR, HOUR);
+    bus.setTransport(DynamicItem.itemOf(CacheEvictionTransport.class, t));
+    t.start();
+    transports.add(t);
+    return t;
+  }
+
+  private static Cache<String, String> newCache() {
+    return CacheBuilder.newBuilder().build();
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(UTF_8);
+  }
+}
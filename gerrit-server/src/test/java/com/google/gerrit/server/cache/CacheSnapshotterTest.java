@@ -0,0 +1,137 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.util.IdGenerator;
+import com.google.inject.Guice;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheSnapshotterTest {
+  private Path site;
+  private Config cfg;
+  private List<String> loaded;
+
+  @Before
+  public void setUp() throws IOException {
+    site = Files.createTempDirectory("cache_snapshot_test");
+    cfg = new Config();
+    cfg.setString("cache", null, "directory", "cache");
+    loaded = Collections.synchronizedList(new ArrayList<>());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(site)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Test
+  public void keysAreReloadedAfterRestart() throws Exception {
+    CacheSnapshotter snapshotter = newSnapshotter();
+    LoadingCache<String, String> cache = newCache(new CountDownLatch(2));
+    snapshotter.register("test", new StringKeySerializer(), cache);
+    cache.get("foo");
+    cache.get("bar");
+    snapshotter.stop();
+    assertThat(Files.exists(snapshotFile())).isTrue();
+
+    CountDownLatch done = new CountDownLatch(2);
+    snapshotter = newSnapshotter();
+    snapshotter.register("test", new StringKeySerializer(), newCache(done));
+    snapshotter.start();
+    assertThat(done.await(10, SECONDS)).isTrue();
+    assertThat(loaded).containsExactly("foo", "bar", "foo", "bar");
+    assertThat(Files.exists(snapshotFile())).isFalse();
+  }
+
+  @Test
+  public void disabledCacheIsNotSaved() throws Exception {
+    cfg.setBoolean("cache", "test", "snapshot", false);
+    CacheSnapshotter snapshotter = newSnapshotter();
+    LoadingCache<String, String> cache = newCache(new CountDownLatch(1));
+    snapshotter.register("test", new StringKeySerializer(), cache);
+    cache.get("foo");
+    snapshotter.stop();
+    assertThat(Files.exists(snapshotFile())).isFalse();
+  }
+
+  @Test
+  public void corruptSnapshotIsSkipped() throws Exception {
+    Files.createDirectories(snapshotFile().getParent());
+    try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(snapshotFile()))) {
+      out.writeInt(0x47435350);
+      out.writeInt(1);
+      out.writeInt(1);
+      // Key length far beyond the end of the file.
+      out.writeInt(Integer.MAX_VALUE);
+      out.write(new byte[] {'f', 'o', 'o'});
+    }
+
+    CacheSnapshotter snapshotter = newSnapshotter();
+    snapshotter.register("test", new StringKeySerializer(), newCache(new CountDownLatch(1)));
+    snapshotter.start();
+    for (int i = 0; i < 1000 && Files.exists(snapshotFile()); i++) {
+      Thread.sleep(10);
+    }
+    assertThat(Files.exists(snapshotFile())).isFalse();
+    assertThat(loaded).isEmpty();
+  }
+
+  private CacheSnapshotter newSnapshotter() throws IOException {
+    return new CacheSnapshotter(
+        cfg,
+        new SitePaths(site),
+        new WorkQueue(Guice.createInjector().getInstance(IdGenerator.class), 1));
+  }
+
+  private Path snapshotFile() {
+    return site.resolve("cache").resolve("test.snapshot");
+  }
+
+  private LoadingCache<String, String> newCache(CountDownLatch done) {
+    return CacheBuilder.newBuilder()
+        .build(
+            new CacheLoader<String, String>() {
+              @Override
+              public String load(String key) {
+                loaded.add(key);
+                done.countDown();
+                return key.toUpperCase();
+              }
+            });
+  }
+}
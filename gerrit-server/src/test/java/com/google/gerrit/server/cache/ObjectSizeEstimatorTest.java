@@ -0,0 +1,112 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Singleton;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import org.junit.Test;
+
+public class ObjectSizeEstimatorTest {
+  private static class Node {
+    Object ref;
+    byte[] data;
+
+    Node(Object ref, byte[] data) {
+      this.ref = ref;
+      this.data = data;
+    }
+  }
+
+  private static class Point {
+    int x;
+    int y;
+  }
+
+  @Singleton
+  private static class Service {
+    @SuppressWarnings("unused")
+    final byte[] state = new byte[1024];
+  }
+
+  @Test
+  public void shallowSize() {
+    ObjectSizeEstimator compressed = new ObjectSizeEstimator(true, 1000);
+    assertThat(compressed.shallowSize(new Object())).isEqualTo(16);
+    assertThat(compressed.shallowSize(new Point())).isEqualTo(24);
+    assertThat(compressed.shallowSize(new Node(null, null))).isEqualTo(24);
+    assertThat(compressed.shallowSize(new byte[0])).isEqualTo(16);
+    assertThat(compressed.shallowSize(new long[3])).isEqualTo(40);
+    assertThat(compressed.shallowSize(new Object[3])).isEqualTo(32);
+
+    ObjectSizeEstimator uncompressed = new ObjectSizeEstimator(false, 1000);
+    assertThat(uncompressed.shallowSize(new Object())).isEqualTo(16);
+    assertThat(uncompressed.shallowSize(new Point())).isEqualTo(24);
+    assertThat(uncompressed.shallowSize(new Node(null, null))).isEqualTo(32);
+    assertThat(uncompressed.shallowSize(new Object[3])).isEqualTo(48);
+  }
+
+  @Test
+  public void sharedObjectsAreNotRetained() {
+    ObjectSizeEstimator estimator = new ObjectSizeEstimator(true, 1000);
+    byte[] shared = new byte[100];
+    long[] sizes =
+        estimator.retainedSizes(
+            ImmutableList.of(
+                new SimpleImmutableEntry<>(new Object(), new Node(shared, new byte[8])),
+                new SimpleImmutableEntry<>(new Object(), new Node(shared, new byte[16])),
+                new SimpleImmutableEntry<>(new Object(), new Node(null, new byte[16]))));
+
+    // Key, node and unshared data array.
+    assertThat(sizes).asList().containsExactly(16L + 24 + 24, 16L + 24 + 32, 16L + 24 + 32);
+  }
+
+  @Test
+  public void sharingIsTransitive() {
+    ObjectSizeEstimator estimator = new ObjectSizeEstimator(true, 1000);
+    Node first = new Node(new Node(null, new byte[100]), null);
+    Node second = new Node(first, null);
+    long[] sizes =
+        estimator.retainedSizes(
+            ImmutableList.of(
+                new SimpleImmutableEntry<>(new Object(), first),
+                new SimpleImmutableEntry<>(new Object(), second)));
+    assertThat(sizes).asList().containsExactly(16L, 16L + 24);
+  }
+
+  @Test
+  public void singletonsAreNotEntered() {
+    ObjectSizeEstimator estimator = new ObjectSizeEstimator(true, 1000);
+    long[] sizes =
+        estimator.retainedSizes(
+            ImmutableList.of(
+                new SimpleImmutableEntry<>(new Object(), new Node(new Service(), null))));
+    assertThat(sizes).asList().containsExactly(16L + 24);
+  }
+
+  @Test
+  public void walkStopsAtMaxObjects() {
+    ObjectSizeEstimator estimator = new ObjectSizeEstimator(true, 2);
+    long[] sizes =
+        estimator.retainedSizes(
+            ImmutableList.of(
+                new SimpleImmutableEntry<>(new Object(), new Node(null, new byte[8])),
+                new SimpleImmutableEntry<>(new Object(), new Node(null, new byte[8]))));
+    assertThat(sizes[0]).isLessThan(16L + 24 + 24);
+    assertThat(sizes[1]).isEqualTo(0);
+  }
+}
@@ -0,0 +1,44 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.change;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.extensions.client.ChangeKind;
+import com.google.gerrit.server.change.ChangeKindCacheImpl.ChangeKindSerializer;
+import com.google.gerrit.server.change.ChangeKindCacheImpl.Key;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class ChangeKindSerializerTest {
+  private final ChangeKindSerializer serializer = new ChangeKindSerializer();
+
+  @Test
+  public void key() throws Exception {
+    Key key =
+        new Key(
+            ObjectId.fromString("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"),
+            ObjectId.fromString("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb"),
+            "recursive");
+    assertThat(serializer.deserializeKey(serializer.serializeKey(key))).isEqualTo(key);
+  }
+
+  @Test
+  public void value() throws Exception {
+    for (ChangeKind kind : ChangeKind.values()) {
+      assertThat(serializer.deserializeValue(serializer.serializeValue(kind))).isEqualTo(kind);
+    }
+  }
+}
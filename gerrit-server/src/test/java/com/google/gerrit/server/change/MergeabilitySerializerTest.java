@@ -0,0 +1,57 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.change;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.gerrit.extensions.client.SubmitType;
+import com.google.gerrit.server.change.MergeabilityCacheImpl.EntryKey;
+import com.google.gerrit.server.change.MergeabilityCacheImpl.MergeabilitySerializer;
+import java.io.IOException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class MergeabilitySerializerTest {
+  private final MergeabilitySerializer serializer = new MergeabilitySerializer();
+
+  @Test
+  public void key() throws Exception {
+    ObjectId commit = ObjectId.fromString("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+    ObjectId into = ObjectId.fromString("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+    for (SubmitType submitType : SubmitType.values()) {
+      EntryKey key = new EntryKey(commit, into, submitType, "recursive");
+      assertThat(serializer.deserializeKey(serializer.serializeKey(key))).isEqualTo(key);
+    }
+  }
+
+  @Test
+  public void value() throws Exception {
+    assertThat(serializer.serializeValue(true)).isEqualTo(new byte[] {1});
+    assertThat(serializer.serializeValue(false)).isEqualTo(new byte[] {0});
+    assertThat(serializer.deserializeValue(serializer.serializeValue(true))).isTrue();
+    assertThat(serializer.deserializeValue(serializer.serializeValue(false))).isFalse();
+  }
+
+  @Test
+  public void truncatedValue() throws Exception {
+    try {
+      serializer.deserializeValue(new byte[0]);
+      fail("expected IOException");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.git.TagCache.EntryVal;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TagCacheSerializerTest {
+  private static final Project.NameKey PROJECT = new Project.NameKey("project");
+
+  private TestRepository<InMemoryRepository> tr;
+  private TagCache.Serializer serializer;
+
+  @Before
+  public void setUp() throws Exception {
+    tr = new TestRepository<>(new InMemoryRepository(new DfsRepositoryDescription("repo")));
+    serializer = new TagCache.Serializer();
+  }
+
+  @Test
+  public void key() throws Exception {
+    assertThat(serializer.deserializeKey(serializer.serializeKey("project"))).isEqualTo("project");
+  }
+
+  @Test
+  public void tagSet() throws Exception {
+    RevCommit tagged = tr.commit().create();
+    RevCommit master = tr.commit().parent(tagged).create();
+    tr.update("refs/heads/master", master);
+    tr.update("refs/tags/v1", tr.tag("v1", tagged));
+    TagSet tags = new TagSet(PROJECT);
+    tags.build(tr.getRepository(), null, null);
+
+    byte[] bytes = serializer.serializeValue(entry(tags));
+    EntryVal read = serializer.deserializeValue(bytes);
+    assertThat(read.holder.getProjectName()).isEqualTo(PROJECT);
+    TagSet readTags = read.holder.getTagSet();
+    assertThat(readTags).isNotNull();
+    BitSet masterFlag = new BitSet();
+    masterFlag.set(0);
+    assertThat(readTags.lookupTag(tagged)).isNotNull();
+    assertThat(readTags.lookupTag(tagged).has(masterFlag)).isTrue();
+    assertThat(readTags.lookupTag(master)).isNull();
+
+    // Nothing is lost, so the entry is written back unchanged.
+    assertThat(serializer.serializeValue(read)).isEqualTo(bytes);
+  }
+
+  @Test
+  public void noTagSet() throws Exception {
+    EntryVal read = serializer.deserializeValue(serializer.serializeValue(entry(null)));
+    assertThat(read.holder.getProjectName()).isEqualTo(PROJECT);
+    assertThat(read.holder.getTagSet()).isNull();
+  }
+
+  @Test
+  public void truncatedValue() throws Exception {
+    byte[] bytes = serializer.serializeValue(entry(null));
+    try {
+      // Drop the byte that tells whether a tag set follows.
+      serializer.deserializeValue(Arrays.copyOf(bytes, bytes.length - 1));
+      fail("expected IOException");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  private static EntryVal entry(TagSet tags) {
+    EntryVal val = new EntryVal();
+    val.holder = new TagSetHolder(PROJECT);
+    val.holder.setTagSet(tags);
+    return val;
+  }
+}
@@ -0,0 +1,50 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.testutil.GerritBaseTests;
+import org.junit.Test;
+
+public class QueryCursorTest extends GerritBaseTests {
+  @Test
+  public void encodeAndDecode() {
+    QueryCursor c = QueryCursor.create(1500000000000L, 42);
+    String encoded = c.encode();
+    assertThat(encoded).doesNotContain("=");
+    assertThat(QueryCursor.decode(encoded)).isEqualTo(c);
+    assertThat(QueryCursor.decode(encoded).get(0)).isEqualTo(1500000000000L);
+    assertThat(QueryCursor.decode(encoded).get(1)).isEqualTo(42L);
+  }
+
+  @Test
+  public void negativeValues() {
+    QueryCursor c = QueryCursor.create(Long.MIN_VALUE, -1);
+    assertThat(QueryCursor.decode(c.encode())).isEqualTo(c);
+  }
+
+  @Test
+  public void decodeInvalid() {
+    exception.expect(IllegalArgumentException.class);
+    QueryCursor.decode("abc");
+  }
+
+  @Test
+  public void decodeInvalidCharacters() {
+    exception.expect(IllegalArgumentException.class);
+    QueryCursor.decode("not a cursor!");
+  }
+}
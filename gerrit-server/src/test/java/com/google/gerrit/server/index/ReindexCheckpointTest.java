@@ -0,0 +1,106 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import com.google.gerrit.testutil.GerritBaseTests;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReindexCheckpointTest extends GerritBaseTests {
+  private Path dir;
+  private Path file;
+  private Index<?, ?> index;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("reindex_checkpoint_test");
+    file = dir.resolve("changes_0001.reindex");
+    index = createMock(Index.class);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+    Files.delete(dir);
+  }
+
+  @Test
+  public void flushCommitsIndexBeforeWriting() throws IOException {
+    index.commit();
+    expectLastCall().once();
+    replay(index);
+
+    ReindexCheckpoint cp = ReindexCheckpoint.open(file, false);
+    assertThat(cp.isEmpty()).isTrue();
+    cp.markDone("foo", index);
+    cp.markDone("bar", index);
+    assertThat(cp.isDone("foo")).isTrue();
+    assertThat(Files.exists(file)).isFalse();
+
+    cp.flush(index);
+    cp.flush(index);
+    verify(index);
+    assertThat(Files.readAllLines(file, UTF_8)).containsExactly("foo", "bar").inOrder();
+  }
+
+  @Test
+  public void resume() throws IOException {
+    index.commit();
+    expectLastCall().times(2);
+    replay(index);
+
+    ReindexCheckpoint cp = ReindexCheckpoint.open(file, false);
+    cp.markDone("foo", index);
+    cp.flush(index);
+
+    cp = ReindexCheckpoint.open(file, true);
+    assertThat(cp.isEmpty()).isFalse();
+    assertThat(cp.isDone("foo")).isTrue();
+    assertThat(cp.isDone("bar")).isFalse();
+    cp.markDone("bar", index);
+    cp.flush(index);
+    verify(index);
+    assertThat(Files.readAllLines(file, UTF_8)).containsExactly("foo", "bar").inOrder();
+  }
+
+  @Test
+  public void openWithoutResumeDiscardsCheckpoint() throws IOException {
+    Files.write(file, "foo\n".getBytes(UTF_8));
+    ReindexCheckpoint cp = ReindexCheckpoint.open(file, false);
+    assertThat(cp.isEmpty()).isTrue();
+    assertThat(Files.exists(file)).isFalse();
+  }
+
+  @Test
+  public void delete() throws IOException {
+    Files.write(file, "foo\n".getBytes(UTF_8));
+    ReindexCheckpoint cp = ReindexCheckpoint.open(file, true);
+    assertThat(cp.isDone("foo")).isTrue();
+    cp.delete();
+    assertThat(cp.isEmpty()).isTrue();
+    assertThat(Files.exists(file)).isFalse();
+  }
+}
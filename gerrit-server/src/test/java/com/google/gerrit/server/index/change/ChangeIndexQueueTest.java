@@ -0,0 +1,121 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.index.change.ChangeIndexQueue.Pending;
+import com.google.gerrit.server.util.RequestContext;
+import com.google.gerrit.testutil.GerritBaseTests;
+import com.google.inject.Provider;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeIndexQueueTest extends GerritBaseTests {
+  private static final Project.NameKey PROJECT = new Project.NameKey("project");
+
+  private ChangeIndexQueue queue;
+  private AtomicInteger scheduled;
+
+  @Before
+  public void setUp() {
+    Config cfg = new Config();
+    cfg.setInt("index", null, "batchSize", 2);
+    queue = new ChangeIndexQueue(cfg, new DisabledMetricMaker());
+    scheduled = new AtomicInteger();
+  }
+
+  @Test
+  public void pendingRequestsAreCoalesced() throws Exception {
+    ListenableFuture<Void> f1 = add(1);
+    ListenableFuture<Void> f2 = add(1);
+    assertThat(f2).isSameAs(f1);
+    assertThat(scheduled.get()).isEqualTo(1);
+    assertThat(queue.size()).isEqualTo(1);
+
+    List<Pending> batch = queue.nextBatch();
+    assertThat(batch).hasSize(1);
+    assertThat(batch.get(0).id).isEqualTo(new Change.Id(1));
+    assertThat(queue.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void requestWhileIndexingIsQueuedAgain() throws Exception {
+    ListenableFuture<Void> f1 = add(1);
+    List<Pending> batch = queue.nextBatch();
+    assertThat(batch).hasSize(1);
+
+    ListenableFuture<Void> f2 = add(1);
+    assertThat(f2).isNotSameAs(f1);
+    assertThat(scheduled.get()).isEqualTo(2);
+    assertThat(queue.nextBatch()).hasSize(1);
+  }
+
+  @Test
+  public void batchesAreLimited() throws Exception {
+    add(1);
+    add(2);
+    add(3);
+    assertThat(scheduled.get()).isEqualTo(3);
+
+    assertThat(queue.nextBatch()).hasSize(2);
+    assertThat(queue.nextBatch()).hasSize(1);
+    assertThat(queue.nextBatch()).isEmpty();
+  }
+
+  @Test
+  public void callersOfCoalescedRequestsAreKept() throws Exception {
+    RequestContext ctx1 = newRequestContext();
+    RequestContext ctx2 = newRequestContext();
+    add(1, ctx1);
+    add(1, null);
+    add(1, ctx2);
+
+    List<Pending> batch = queue.nextBatch();
+    assertThat(batch).hasSize(1);
+    assertThat(batch.get(0).callers).containsExactly(ctx1, ctx2).inOrder();
+  }
+
+  private ListenableFuture<Void> add(int id) {
+    return add(id, null);
+  }
+
+  private ListenableFuture<Void> add(int id, RequestContext caller) {
+    return queue.add(PROJECT, new Change.Id(id), caller, scheduled::incrementAndGet);
+  }
+
+  private static RequestContext newRequestContext() {
+    return new RequestContext() {
+      @Override
+      public CurrentUser getUser() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Provider<ReviewDb> getReviewDbProvider() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
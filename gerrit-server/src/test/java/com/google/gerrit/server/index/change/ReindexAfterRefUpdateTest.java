@@ -0,0 +1,112 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.server.index.change.ReindexAfterRefUpdate.inheritedSubmitRulesChanged;
+
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.git.ProjectConfig;
+import com.google.gerrit.testutil.GerritBaseTests;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReindexAfterRefUpdateTest extends GerritBaseTests {
+  private static final String CONFIG =
+      "[project]\n"
+          + "\tdescription = Old description\n"
+          + "[access \"refs/*\"]\n"
+          + "\tread = group Anonymous Users\n"
+          + "[label \"Code-Review\"]\n"
+          + "\tfunction = MaxWithBlock\n"
+          + "\tvalue = -1 Bad\n"
+          + "\tvalue = 0 No score\n"
+          + "\tvalue = +1 Good\n";
+
+  private TestRepository<InMemoryRepository> tr;
+  private RevCommit base;
+
+  @Before
+  public void setUp() throws Exception {
+    tr = new TestRepository<>(new InMemoryRepository(new DfsRepositoryDescription("project")));
+    base =
+        tr.branch(RefNames.REFS_CONFIG)
+            .commit()
+            .add(ProjectConfig.PROJECT_CONFIG, CONFIG)
+            .add("rules.pl", "submit_rule(submit(R)) :- R = label('Code-Review', ok(_)).")
+            .create();
+  }
+
+  @Test
+  public void descriptionAndAccessDoNotChangeSubmitRules() throws Exception {
+    RevCommit update =
+        commit(
+            CONFIG
+                .replace("Old description", "New description")
+                .replace("Anonymous Users", "Registered Users"));
+    assertThat(changed(base, update)).isFalse();
+  }
+
+  @Test
+  public void labelValueChangesSubmitRules() throws Exception {
+    assertThat(changed(base, commit(CONFIG.replace("-1 Bad", "-2 Bad")))).isTrue();
+  }
+
+  @Test
+  public void labelFunctionChangesSubmitRules() throws Exception {
+    assertThat(changed(base, commit(CONFIG.replace("MaxWithBlock", "NoBlock")))).isTrue();
+  }
+
+  @Test
+  public void newLabelChangesSubmitRules() throws Exception {
+    RevCommit update = commit(CONFIG + "[label \"Verified\"]\n\tvalue = 0 No score\n");
+    assertThat(changed(base, update)).isTrue();
+  }
+
+  @Test
+  public void rulesPlChangesSubmitRules() throws Exception {
+    RevCommit update =
+        tr.branch(RefNames.REFS_CONFIG)
+            .commit()
+            .add("rules.pl", "submit_type(cherry_pick).")
+            .create();
+    assertThat(changed(base, update)).isTrue();
+
+    update = tr.branch(RefNames.REFS_CONFIG).commit().rm("rules.pl").create();
+    assertThat(changed(base, update)).isTrue();
+  }
+
+  @Test
+  public void createdOrDeletedConfigChangesSubmitRules() throws Exception {
+    assertThat(inheritedSubmitRulesChanged(tr.getRepository(), ObjectId.zeroId(), base)).isTrue();
+    assertThat(inheritedSubmitRulesChanged(tr.getRepository(), base, ObjectId.zeroId())).isTrue();
+  }
+
+  private RevCommit commit(String config) throws Exception {
+    return tr.branch(RefNames.REFS_CONFIG)
+        .commit()
+        .add(ProjectConfig.PROJECT_CONFIG, config)
+        .create();
+  }
+
+  private boolean changed(RevCommit oldCommit, RevCommit newCommit) throws Exception {
+    return inheritedSubmitRulesChanged(tr.getRepository(), oldCommit, newCommit);
+  }
+}
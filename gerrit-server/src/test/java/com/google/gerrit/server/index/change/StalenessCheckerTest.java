@@ -20,24 +20,45 @@ import static com.google.gerrit.server.index.change.StalenessChecker.refsAreStal
 import static com.google.gerrit.testutil.TestChanges.newChange;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toList;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
 
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ListMultimap;
+import com.google.gerrit.extensions.client.SubmitType;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.config.AllProjectsName;
+import com.google.gerrit.server.config.AllProjectsNameProvider;
+import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.config.AllUsersNameProvider;
 import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.ProjectConfig;
 import com.google.gerrit.server.index.change.StalenessChecker.RefState;
 import com.google.gerrit.server.index.change.StalenessChecker.RefStatePattern;
 import com.google.gerrit.server.notedb.NoteDbChangeState;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.gerrit.server.project.Util;
 import com.google.gerrit.testutil.GerritBaseTests;
 import com.google.gerrit.testutil.InMemoryRepositoryManager;
 import com.google.gwtorm.protobuf.CodecFactory;
 import com.google.gwtorm.protobuf.ProtobufCodec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.stream.Stream;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
 import org.junit.Before;
 import org.junit.Test;
@@ -58,6 +79,8 @@ public class StalenessCheckerTest extends GerritBaseTests {
   private Repository r2;
   private TestRepository<Repository> tr1;
   private TestRepository<Repository> tr2;
+  private Map<Project.NameKey, ProjectState> projects;
+  private ProjectCache projectCache;
 
   @Before
   public void setUp() throws Exception {
@@ -66,6 +89,14 @@ public class StalenessCheckerTest extends GerritBaseTests {
     tr1 = new TestRepository<>(r1);
     r2 = repoManager.createRepository(P2);
     tr2 = new TestRepository<>(r2);
+
+    projects = new HashMap<>();
+    projectCache = createNiceMock(ProjectCache.class);
+    expect(projectCache.get(anyObject(Project.NameKey.class)))
+        .andStubAnswer(() -> projects.get(getCurrentArguments()[0]));
+    expect(projectCache.checkedGet(anyObject(Project.NameKey.class)))
+        .andStubAnswer(() -> projects.get(getCurrentArguments()[0]));
+    replay(projectCache);
   }
 
   @Test
@@ -316,6 +347,53 @@ public class StalenessCheckerTest extends GerritBaseTests {
         .isFalse();
   }
 
+  @Test
+  public void isStaleWithRefSnapshot() throws Exception {
+    String ref1 = "refs/heads/foo";
+    ObjectId id1 = tr1.update(ref1, tr1.commit().message("commit 1"));
+    String ref2 = "refs/heads/bar";
+    ObjectId id2 = tr2.update(ref2, tr2.commit().message("commit 2"));
+    Map<Project.NameKey, NavigableMap<String, Ref>> refs = new HashMap<>();
+    refs.put(P1, new TreeMap<>(r1.getRefDatabase().getRefs(RefDatabase.ALL)));
+    refs.put(P2, new TreeMap<>(r2.getRefDatabase().getRefs(RefDatabase.ALL)));
+
+    assertThat(
+            refsAreStale(
+                refs,
+                ImmutableSetMultimap.of(
+                    P1, RefState.create(ref1, id1.name()),
+                    P2, RefState.create(ref2, id2.name())),
+                ImmutableListMultimap.of(P1, RefStatePattern.create("refs/heads/*"))))
+        .isFalse();
+
+    // Ref in snapshot doesn't match state.
+    assertThat(
+            refsAreStale(
+                refs,
+                ImmutableSetMultimap.of(P1, RefState.create(ref1, id2.name())),
+                ImmutableListMultimap.of()))
+        .isTrue();
+
+    // New ref matching pattern in snapshot.
+    tr1.update("refs/heads/baz", tr1.commit().message("commit 3"));
+    refs.put(P1, new TreeMap<>(r1.getRefDatabase().getRefs(RefDatabase.ALL)));
+    assertThat(
+            refsAreStale(
+                refs,
+                ImmutableSetMultimap.of(P1, RefState.create(ref1, id1.name())),
+                ImmutableListMultimap.of(P1, RefStatePattern.create("refs/heads/*"))))
+        .isTrue();
+
+    // Project missing from snapshot.
+    refs.remove(P2);
+    assertThat(
+            refsAreStale(
+                refs,
+                ImmutableSetMultimap.of(P2, RefState.create(ref2, id2.name())),
+                ImmutableListMultimap.of()))
+        .isTrue();
+  }
+
   @Test
   public void reviewDbChangeIsStale() throws Exception {
     Change indexChange = newChange(P1, new Account.Id(1));
@@ -334,6 +412,71 @@ public class StalenessCheckerTest extends GerritBaseTests {
     // Can't easily change row version to check true case.
   }
 
+  @Test
+  public void submitRulesAreStale() throws Exception {
+    ProjectConfig parentConfig = loadConfig(P2);
+    ProjectConfig childConfig = loadConfig(P1);
+    childConfig.getProject().setParentName(P2);
+
+    StalenessChecker checker = new StalenessChecker(null, repoManager, null, null, projectCache);
+    Change open = newChange(P1, new Account.Id(1));
+    Change closed = newChange(P1, new Account.Id(1));
+    closed.setStatus(Change.Status.MERGED);
+
+    String state = ChangeField.submitRulesState(projects.get(P1));
+    assertThat(checker.submitRulesAreStale(open, state)).isFalse();
+    assertThat(checker.submitRulesAreStale(open, null)).isTrue();
+    assertThat(checker.submitRulesAreStale(closed, null)).isFalse();
+
+    // New rules.pl in the parent project.
+    tr2.branch(RefNames.REFS_CONFIG).commit().add("rules.pl", "submit_type(cherry_pick).").create();
+    parentConfig = loadConfig(P2);
+    state = assertSubmitRulesStale(checker, open, closed, state);
+
+    // New label in the parent project.
+    parentConfig.getLabelSections().put("Verified", Util.verified());
+    state = assertSubmitRulesStale(checker, open, closed, state);
+
+    // Modified label definition in the parent project.
+    parentConfig.getLabelSections().get("Verified").setFunctionName("NoBlock");
+    state = assertSubmitRulesStale(checker, open, closed, state);
+
+    // Submit types are not inherited, so only the change's own project counts.
+    childConfig.getProject().setSubmitType(SubmitType.CHERRY_PICK);
+    assertSubmitRulesStale(checker, open, closed, state);
+  }
+
+  private ProjectConfig loadConfig(Project.NameKey project) throws Exception {
+    ProjectConfig config = new ProjectConfig(project);
+    try (Repository repo = repoManager.openRepository(project)) {
+      config.load(repo);
+    }
+    projects.put(
+        project,
+        new ProjectState(
+            null,
+            projectCache,
+            new AllProjectsName(AllProjectsNameProvider.DEFAULT),
+            new AllUsersName(AllUsersNameProvider.DEFAULT),
+            null,
+            null,
+            repoManager,
+            null,
+            null,
+            null,
+            config));
+    return config;
+  }
+
+  private String assertSubmitRulesStale(
+      StalenessChecker checker, Change open, Change closed, String oldState) throws Exception {
+    assertThat(checker.submitRulesAreStale(open, oldState)).isTrue();
+    assertThat(checker.submitRulesAreStale(closed, oldState)).isFalse();
+    String newState = ChangeField.submitRulesState(projects.get(P1));
+    assertThat(checker.submitRulesAreStale(open, newState)).isFalse();
+    return newState;
+  }
+
   private static Iterable<byte[]> byteArrays(String... strs) {
     return Stream.of(strs).map(s -> s != null ? s.getBytes(UTF_8) : null).collect(toList());
   }
@@ -14,9 +14,11 @@
 
 package com.google.gerrit.server.ioutil;
 
+import static com.google.gerrit.server.ioutil.BasicSerialization.readBoolean;
 import static com.google.gerrit.server.ioutil.BasicSerialization.readFixInt64;
 import static com.google.gerrit.server.ioutil.BasicSerialization.readString;
 import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeBoolean;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeFixInt64;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeString;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
@@ -25,6 +27,7 @@ import static org.junit.Assert.assertNull;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import org.junit.Test;
@@ -54,6 +57,35 @@ public class BasicSerializationTest {
     assertOutput(b(0x80 | 0x7f, 0x01), out);
   }
 
+  @Test
+  public void testReadBoolean() throws IOException {
+    assertEquals(false, readBoolean(r(b(0))));
+    assertEquals(true, readBoolean(r(b(1))));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testReadBooleanAtEndOfInput() throws IOException {
+    readBoolean(r(new byte[0]));
+  }
+
+  @Test(expected = IOException.class)
+  public void testReadInvalidBoolean() throws IOException {
+    readBoolean(r(b(2)));
+  }
+
+  @Test
+  public void testWriteBoolean() throws IOException {
+    ByteArrayOutputStream out;
+
+    out = new ByteArrayOutputStream();
+    writeBoolean(out, false);
+    assertOutput(b(0), out);
+
+    out = new ByteArrayOutputStream();
+    writeBoolean(out, true);
+    assertOutput(b(1), out);
+  }
+
   @Test
   public void testReadFixInt64() throws IOException {
     assertEquals(0L, readFixInt64(r(b(0, 0, 0, 0, 0, 0, 0, 0))));
@@ -25,6 +25,8 @@ import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 import static org.junit.Assert.fail;
 
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSet;
@@ -63,6 +65,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
@@ -1297,7 +1302,7 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
           new ChangeNotesParser(c.getId(), commitWithComments.copy(), rw, noteUtil, args.metrics);
       ChangeNotesState state = notesWithComments.parseAll();
       assertThat(state.approvals()).isEmpty();
-      assertThat(state.publishedComments()).hasSize(1);
+      assertThat(publishedComments(c, commitWithComments)).hasSize(1);
     }
 
     try (ChangeNotesRevWalk rw = ChangeNotesCommit.newRevWalk(repo)) {
@@ -1305,10 +1310,33 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
           new ChangeNotesParser(c.getId(), commitWithApprovals.copy(), rw, noteUtil, args.metrics);
       ChangeNotesState state = notesWithApprovals.parseAll();
       assertThat(state.approvals()).hasSize(1);
-      assertThat(state.publishedComments()).hasSize(1);
+      assertThat(publishedComments(c, commitWithApprovals)).hasSize(1);
     }
   }
 
+  @Test
+  public void objectsWrittenBeforeRefsUpdated() throws Exception {
+    Change c = newChange();
+    String metaRef = changeMetaRef(c.getId());
+    ObjectId oldId = repo.exactRef(metaRef).getObjectId();
+
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.setChangeMessage("Update");
+    try (NoteDbUpdateManager updateManager = updateManagerFactory.create(project)) {
+      updateManager.add(update);
+      updateManager.writeObjects(false);
+      ObjectId newId =
+          Iterables.getOnlyElement(updateManager.stage().get(c.getId()).changeCommands())
+              .getNewId();
+      assertThat(repo.hasObject(newId)).isTrue();
+      assertThat(repo.exactRef(metaRef).getObjectId()).isEqualTo(oldId);
+
+      updateManager.updateRefs(false);
+      assertThat(repo.exactRef(metaRef).getObjectId()).isEqualTo(newId);
+    }
+    assertThat(Iterables.getLast(newNotes(c).getChangeMessages()).getMessage()).isEqualTo("Update");
+  }
+
   @Test
   public void multipleUpdatesAcrossRefs() throws Exception {
     Change c1 = newChange();
@@ -1672,7 +1700,8 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     ChangeNotes notes = newNotes(c);
 
     try (RevWalk walk = new RevWalk(repo)) {
-      ArrayList<Note> notesInTree = Lists.newArrayList(notes.revisionNoteMap.noteMap.iterator());
+      ArrayList<Note> notesInTree =
+          Lists.newArrayList(notes.getRevisionNoteMap().noteMap.iterator());
       Note note = Iterables.getOnlyElement(notesInTree);
 
       byte[] bytes = walk.getObjectReader().open(note.getData(), Constants.OBJ_BLOB).getBytes();
@@ -1772,7 +1801,8 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     ChangeNotes notes = newNotes(c);
 
     try (RevWalk walk = new RevWalk(repo)) {
-      ArrayList<Note> notesInTree = Lists.newArrayList(notes.revisionNoteMap.noteMap.iterator());
+      ArrayList<Note> notesInTree =
+          Lists.newArrayList(notes.getRevisionNoteMap().noteMap.iterator());
       Note note = Iterables.getOnlyElement(notesInTree);
 
       byte[] bytes = walk.getObjectReader().open(note.getData(), Constants.OBJ_BLOB).getBytes();
@@ -1860,7 +1890,8 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     ChangeNotes notes = newNotes(c);
 
     try (RevWalk walk = new RevWalk(repo)) {
-      ArrayList<Note> notesInTree = Lists.newArrayList(notes.revisionNoteMap.noteMap.iterator());
+      ArrayList<Note> notesInTree =
+          Lists.newArrayList(notes.getRevisionNoteMap().noteMap.iterator());
       Note note = Iterables.getOnlyElement(notesInTree);
 
       byte[] bytes = walk.getObjectReader().open(note.getData(), Constants.OBJ_BLOB).getBytes();
@@ -1966,7 +1997,8 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     ChangeNotes notes = newNotes(c);
 
     try (RevWalk walk = new RevWalk(repo)) {
-      ArrayList<Note> notesInTree = Lists.newArrayList(notes.revisionNoteMap.noteMap.iterator());
+      ArrayList<Note> notesInTree =
+          Lists.newArrayList(notes.getRevisionNoteMap().noteMap.iterator());
       Note note = Iterables.getOnlyElement(notesInTree);
 
       byte[] bytes = walk.getObjectReader().open(note.getData(), Constants.OBJ_BLOB).getBytes();
@@ -2054,7 +2086,8 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     ChangeNotes notes = newNotes(c);
 
     try (RevWalk walk = new RevWalk(repo)) {
-      ArrayList<Note> notesInTree = Lists.newArrayList(notes.revisionNoteMap.noteMap.iterator());
+      ArrayList<Note> notesInTree =
+          Lists.newArrayList(notes.getRevisionNoteMap().noteMap.iterator());
       Note note = Iterables.getOnlyElement(notesInTree);
 
       byte[] bytes = walk.getObjectReader().open(note.getData(), Constants.OBJ_BLOB).getBytes();
@@ -2118,7 +2151,8 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     ChangeNotes notes = newNotes(c);
 
     try (RevWalk walk = new RevWalk(repo)) {
-      ArrayList<Note> notesInTree = Lists.newArrayList(notes.revisionNoteMap.noteMap.iterator());
+      ArrayList<Note> notesInTree =
+          Lists.newArrayList(notes.getRevisionNoteMap().noteMap.iterator());
       Note note = Iterables.getOnlyElement(notesInTree);
 
       byte[] bytes = walk.getObjectReader().open(note.getData(), Constants.OBJ_BLOB).getBytes();
@@ -2383,6 +2417,71 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
                 new RevId(rev2), comment2));
   }
 
+  @Test
+  public void patchLineCommentsLoadedPerRevision() throws Exception {
+    Change c = newChange();
+    String rev1 = "abcd1234abcd1234abcd1234abcd1234abcd1234";
+    String rev2 = "abcd4567abcd4567abcd4567abcd4567abcd4567";
+    CommentRange range = new CommentRange(1, 1, 2, 1);
+    PatchSet.Id ps1 = c.currentPatchSetId();
+
+    ChangeUpdate update = newUpdate(c, otherUser);
+    Comment comment1 =
+        newComment(
+            ps1,
+            "filename1",
+            "uuid1",
+            range,
+            range.getEndLine(),
+            otherUser,
+            null,
+            TimeUtil.nowTs(),
+            "comment on ps1",
+            (short) 1,
+            rev1,
+            false);
+    update.setPatchSetId(ps1);
+    update.putComment(Status.PUBLISHED, comment1);
+    update.commit();
+
+    incrementPatchSet(c);
+    PatchSet.Id ps2 = c.currentPatchSetId();
+
+    update = newUpdate(c, otherUser);
+    Comment comment2 =
+        newComment(
+            ps2,
+            "filename1",
+            "uuid2",
+            range,
+            range.getEndLine(),
+            otherUser,
+            null,
+            TimeUtil.nowTs(),
+            "comment on ps2",
+            (short) 1,
+            rev2,
+            false);
+    update.setPatchSetId(ps2);
+    update.putComment(Status.PUBLISHED, comment2);
+    update.commit();
+
+    ChangeNotes notes = newNotes(c);
+    assertThat(notes.revisionNoteMap).isNull();
+    assertThat(notes.getComments(new RevId(rev2))).containsExactly(comment2);
+    assertThat(notes.revisionNoteMap).isNull();
+    assertThat(notes.containsCommentPublished(comment2)).isTrue();
+    assertThat(notes.revisionNoteMap).isNull();
+
+    assertThat(notes.getComments())
+        .containsExactlyEntriesIn(
+            ImmutableListMultimap.of(
+                new RevId(rev1), comment1,
+                new RevId(rev2), comment2));
+    assertThat(notes.revisionNoteMap).isNotNull();
+    assertThat(notes.getComments(new RevId(rev1))).containsExactly(comment1);
+  }
+
   @Test
   public void patchLineCommentSingleDraftToPublished() throws Exception {
     Change c = newChange();
@@ -3319,6 +3418,169 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     assertThat(notes.getReviewersByEmail().all()).containsExactly(adr);
   }
 
+  @Test
+  public void stateSnapshotRoundTrip() throws Exception {
+    Change c = newChange();
+    RevCommit commit = tr.commit().message("PS2").create();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putApproval("Code-Review", (short) -1);
+    update.putReviewer(otherUser.getAccount().getId(), REVIEWER);
+    update.putReviewerByEmail(new Address("Foo Bar", "foo.bar@gerritcodereview.com"), CC);
+    update.setHashtags(ImmutableSet.of("foo"));
+    update.setChangeMessage("Needs work");
+    update.setTag("jenkins");
+    update.putComment(
+        Status.PUBLISHED,
+        newComment(
+            c.currentPatchSetId(),
+            "a.txt",
+            "uuid1",
+            new CommentRange(1, 2, 3, 4),
+            1,
+            changeOwner,
+            null,
+            TimeUtil.nowTs(),
+            "Done",
+            (short) 1,
+            commit.name(),
+            true));
+    update.commit();
+
+    ChangeNotesState state;
+    try (ChangeNotesRevWalk rw = ChangeNotesCommit.newRevWalk(repo)) {
+      ObjectId tip = newNotes(c).getRevision();
+      state = new ChangeNotesParser(c.getId(), tip, rw, noteUtil, args.metrics).parseAll();
+    }
+
+    byte[] raw = ChangeNotesStateSerializer.serialize(state);
+    ChangeNotesState copy = ChangeNotesStateSerializer.deserialize(raw);
+    assertThat(ChangeNotesStateSerializer.serialize(copy)).isEqualTo(raw);
+    assertThat(copy.metaId()).isEqualTo(state.metaId());
+    assertThat(copy.columns()).isEqualTo(state.columns());
+    assertThat(copy.hashtags()).isEqualTo(state.hashtags());
+    assertThat(copy.approvals()).isEqualTo(state.approvals());
+    assertThat(copy.reviewers()).isEqualTo(state.reviewers());
+    assertThat(copy.reviewersByEmail()).isEqualTo(state.reviewersByEmail());
+    assertThat(copy.changeMessagesByPatchSet().keySet())
+        .containsExactlyElementsIn(state.changeMessagesByPatchSet().keySet());
+    ChangeMessage m = Iterables.getOnlyElement(copy.allChangeMessages());
+    assertThat(m.getMessage()).isEqualTo("Needs work");
+    assertThat(m.getTag()).isEqualTo("jenkins");
+    Comment comment = Iterables.getOnlyElement(newNotes(c).getComments().values());
+    assertThat(comment.message).isEqualTo("Done");
+    assertThat(comment.range).isEqualTo(new Comment.Range(1, 2, 3, 4));
+    assertThat(comment.unresolved).isTrue();
+  }
+
+  @Test
+  public void changeNotesMissServedFromStateSnapshot() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.setChangeMessage("Hello");
+    update.commit();
+    ObjectId tip = newNotes(c).getRevision();
+
+    Cache<ObjectId, byte[]> snapshots = CacheBuilder.newBuilder().<ObjectId, byte[]>build();
+    ChangeNotesState state;
+    try (ChangeNotesRevWalk rw = ChangeNotesCommit.newRevWalk(repo)) {
+      state = newSnapshotCache(snapshots).get(project, c.getId(), tip, rw).state();
+    }
+    byte[] raw = snapshots.getIfPresent(tip);
+    assertThat(raw).isEqualTo(ChangeNotesStateSerializer.serialize(state));
+
+    // A new change_notes cache, as after a restart, cannot parse anything from
+    // an empty repository, so the state must come from the snapshot.
+    InMemoryRepository empty = new InMemoryRepository(new DfsRepositoryDescription("empty"));
+    ChangeNotesState copy;
+    try (ChangeNotesRevWalk rw = ChangeNotesCommit.newRevWalk(empty)) {
+      copy = newSnapshotCache(snapshots).get(project, c.getId(), tip, rw).state();
+    }
+    assertThat(copy.metaId()).isEqualTo(tip);
+    assertThat(copy.columns()).isEqualTo(state.columns());
+    assertThat(Iterables.getOnlyElement(copy.allChangeMessages()).getMessage())
+        .isEqualTo("Hello");
+  }
+
+  @Test
+  public void stateSnapshotOfOtherChangeIsDropped() throws Exception {
+    Change c1 = newChange();
+    Change c2 = newChange();
+    ObjectId tip1 = newNotes(c1).getRevision();
+    ObjectId tip2 = newNotes(c2).getRevision();
+
+    Cache<ObjectId, byte[]> snapshots = CacheBuilder.newBuilder().<ObjectId, byte[]>build();
+    try (ChangeNotesRevWalk rw = ChangeNotesCommit.newRevWalk(repo)) {
+      newSnapshotCache(snapshots).get(project, c1.getId(), tip1, rw);
+    }
+    snapshots.put(tip2, snapshots.getIfPresent(tip1));
+
+    ChangeNotesState state;
+    try (ChangeNotesRevWalk rw = ChangeNotesCommit.newRevWalk(repo)) {
+      state = newSnapshotCache(snapshots).get(project, c2.getId(), tip2, rw).state();
+    }
+    assertThat(state.changeId()).isEqualTo(c2.getId());
+    assertThat(state.metaId()).isEqualTo(tip2);
+    // The bad snapshot was replaced by one parsed from the meta ref.
+    assertThat(snapshots.getIfPresent(tip2))
+        .isEqualTo(ChangeNotesStateSerializer.serialize(state));
+  }
+
+  @Test
+  public void publishedCommentsParsedOncePerMetaId() throws Exception {
+    Change c = newChange();
+    PatchSet.Id psId = c.currentPatchSetId();
+    RevId revId = new RevId("abcd1234abcd1234abcd1234abcd1234abcd1234");
+    ChangeUpdate update = newUpdate(c, otherUser);
+    update.setPatchSetId(psId);
+    Comment comment1 =
+        newComment(
+            psId,
+            "file1",
+            "uuid1",
+            null,
+            1,
+            otherUser,
+            null,
+            TimeUtil.nowTs(),
+            "message 1",
+            (short) 1,
+            revId.get(),
+            false);
+    update.putComment(Status.PUBLISHED, comment1);
+    update.commit();
+
+    Comment parsed = Iterables.getOnlyElement(newNotes(c).getComments().get(revId));
+    assertThat(parsed).isEqualTo(comment1);
+
+    // A second load at the same meta ref state is served the comments parsed
+    // by the first one, both for all revisions and for a single revision.
+    ChangeNotes notes = newNotes(c);
+    assertThat(Iterables.getOnlyElement(notes.getComments().get(revId))).isSameAs(parsed);
+    assertThat(Iterables.getOnlyElement(newNotes(c).getComments(revId))).isSameAs(parsed);
+
+    update = newUpdate(c, otherUser);
+    update.setPatchSetId(psId);
+    Comment comment2 =
+        newComment(
+            psId,
+            "file1",
+            "uuid2",
+            null,
+            2,
+            otherUser,
+            null,
+            TimeUtil.nowTs(),
+            "message 2",
+            (short) 1,
+            revId.get(),
+            false);
+    update.putComment(Status.PUBLISHED, comment2);
+    update.commit();
+
+    // The new meta ref state is parsed again.
+    assertThat(newNotes(c).getComments(revId)).containsExactly(comment1, comment2);
+  }
+
   @Test
   public void putAndRemoveReviewerByEmail() throws Exception {
     Address adr = new Address("Foo Bar", "foo.bar@gerritcodereview.com");
@@ -3398,12 +3660,225 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     assertThat(notes.getReviewersByEmail().all()).containsExactly(adr);
   }
 
+  @Test
+  public void parseSinceVote() throws Exception {
+    Change c = newChange();
+    ChangeNotesState base = parseAll(c);
+
+    ChangeUpdate update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 1);
+    update.commit();
+    assertParsedIncrementally(c, base);
+
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 2);
+    update.commit();
+    assertParsedIncrementally(c, base);
+  }
+
+  @Test
+  public void parseSinceVoteRemoval() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 1);
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    update = newUpdate(c, otherUser);
+    update.removeApproval("Code-Review");
+    update.commit();
+    assertParsedIncrementally(c, base);
+  }
+
+  @Test
+  public void parseSinceReviewerRemovedAndAddedBack() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccountId(), REVIEWER);
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    update = newUpdate(c, changeOwner);
+    update.removeReviewer(otherUser.getAccountId());
+    update.commit();
+    assertParsedIncrementally(c, base);
+
+    update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccountId(), REVIEWER);
+    update.commit();
+    assertParsedIncrementally(c, base);
+  }
+
+  @Test
+  public void parseSinceCcByEmail() throws Exception {
+    Change c = newChange();
+    ChangeNotesState base = parseAll(c);
+
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putReviewerByEmail(new Address("Foo Bar", "foo.bar@gerritcodereview.com"), CC);
+    update.commit();
+    assertParsedIncrementally(c, base);
+  }
+
+  @Test
+  public void parseSinceTag() throws Exception {
+    Change c = newChange();
+    ChangeNotesState base = parseAll(c);
+
+    ChangeUpdate update = newUpdate(c, otherUser);
+    update.setChangeMessage("verification from jenkins");
+    update.putApproval("Verified", (short) 1);
+    update.setTag("jenkins");
+    update.commit();
+    assertParsedIncrementally(c, base);
+  }
+
+  @Test
+  public void parseSinceVoteAfterMerge() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putApproval("Code-Review", (short) 1);
+    update.commit();
+    update = newUpdate(c, changeOwner);
+    update.merge(
+        RequestId.forChange(c),
+        ImmutableList.of(
+            submitRecord(
+                "OK", null, submitLabel("Code-Review", "OK", changeOwner.getAccountId()))));
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    update = newUpdate(c, changeOwner);
+    update.putApproval("Code-Review", (short) 2);
+    update.commit();
+    assertParsedIncrementally(c, base);
+    assertThat(Iterables.getOnlyElement(parseSince(c, base).approvals()).getValue().isPostSubmit())
+        .isTrue();
+  }
+
+  @Test
+  public void parseSinceMessageOnOlderPatchSet() throws Exception {
+    Change c = newChange();
+    PatchSet.Id ps1 = c.currentPatchSetId();
+    incrementPatchSet(c);
+    ChangeNotesState base = parseAll(c);
+
+    ChangeUpdate update = newUpdate(c, otherUser);
+    update.setPatchSetId(ps1);
+    update.setChangeMessage("Comment on patch set 1");
+    update.commit();
+    assertParsedIncrementally(c, base);
+  }
+
+  @Test
+  public void parseSinceNonIncrementalFooter() throws Exception {
+    Change c = newChange();
+    ChangeNotesState base = parseAll(c);
+
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.setTopic("topic");
+    update.commit();
+    assertThat(parseSince(c, base)).isNull();
+  }
+
+  @Test
+  public void parseSinceRewrittenHistory() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 1);
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    tr.update(changeMetaRef(c.getId()), rw.parseCommit(base.metaId()).getParent(0));
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 2);
+    update.commit();
+    assertThat(parseSince(c, base)).isNull();
+  }
+
+  @Test
+  public void parseSinceNonLinearHistory() throws Exception {
+    Change c = newChange();
+    ChangeNotesState base = parseAll(c);
+
+    RevCommit merge =
+        tr.commit()
+            .parent(rw.parseCommit(base.metaId()))
+            .parent(tr.commit().message("Unrelated").create())
+            .message("Update patch set 1\n\nPatch-set: 1\n")
+            .create();
+    tr.update(changeMetaRef(c.getId()), merge);
+    assertThat(parseSince(c, base)).isNull();
+  }
+
+  @Test
+  public void parseSinceTooManyCommits() throws Exception {
+    Change c = newChange();
+    ChangeNotesState base = parseAll(c);
+
+    for (int i = 0; i < ChangeNotesParser.MAX_INCREMENTAL_COMMITS; i++) {
+      ChangeUpdate update = newUpdate(c, changeOwner);
+      update.setChangeMessage("Message " + i);
+      update.commit();
+    }
+    assertParsedIncrementally(c, base);
+
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.setChangeMessage("One message too many");
+    update.commit();
+    assertThat(parseSince(c, base)).isNull();
+  }
+
+  @Test
+  public void parseSinceUnknownPatchSet() throws Exception {
+    Change c = newChange();
+    ChangeNotesState base = parseAll(c);
+
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.setPatchSetId(new PatchSet.Id(c.getId(), 2));
+    update.setChangeMessage("Comment on patch set 2");
+    update.commit();
+    assertThat(parseSince(c, base)).isNull();
+  }
+
+  @Test
+  public void parseSinceReviewerAddedBackAfterBase() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccountId(), REVIEWER);
+    update.commit();
+    update = newUpdate(c, changeOwner);
+    update.removeReviewer(otherUser.getAccountId());
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccountId(), REVIEWER);
+    update.commit();
+    assertThat(parseSince(c, base)).isNull();
+  }
+
   private boolean testJson() {
     return noteUtil.getWriteJson();
   }
 
+  private List<Comment> publishedComments(Change c, RevCommit commit) throws Exception {
+    RevisionNoteMap<ChangeRevisionNote> rnm =
+        RevisionNoteMap.parse(
+            noteUtil,
+            c.getId(),
+            rw.getObjectReader(),
+            NoteMap.read(rw.getObjectReader(), commit),
+            Status.PUBLISHED);
+    List<Comment> comments = new ArrayList<>();
+    for (ChangeRevisionNote rn : rnm.revisionNotes.values()) {
+      comments.addAll(rn.getComments());
+    }
+    return comments;
+  }
+
   private String readNote(ChangeNotes notes, ObjectId noteId) throws Exception {
-    ObjectId dataId = notes.revisionNoteMap.noteMap.getNote(noteId).getData();
+    ObjectId dataId = notes.getRevisionNoteMap().noteMap.getNote(noteId).getData();
     return new String(rw.getObjectReader().open(dataId, OBJ_BLOB).getCachedBytes(), UTF_8);
   }
 
@@ -3414,6 +3889,32 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     }
   }
 
+  private ChangeNotesState parseAll(Change c) throws Exception {
+    try (ChangeNotesRevWalk walk = ChangeNotesCommit.newRevWalk(repo)) {
+      return newParser(c, walk).parseAll();
+    }
+  }
+
+  private ChangeNotesState parseSince(Change c, ChangeNotesState base) throws Exception {
+    try (ChangeNotesRevWalk walk = ChangeNotesCommit.newRevWalk(repo)) {
+      return newParser(c, walk).parseSince(base);
+    }
+  }
+
+  private ChangeNotesParser newParser(Change c, ChangeNotesRevWalk walk) throws Exception {
+    ObjectId tip = repo.exactRef(changeMetaRef(c.getId())).getObjectId();
+    return new ChangeNotesParser(c.getId(), tip, walk, noteUtil, args.metrics);
+  }
+
+  private void assertParsedIncrementally(Change c, ChangeNotesState base) throws Exception {
+    ChangeNotesState incremental = parseSince(c, base);
+    assertThat(incremental).isNotNull();
+    // States hold entities without equals(), so compare their encodings,
+    // which cover every field.
+    assertThat(ChangeNotesStateSerializer.serialize(incremental))
+        .isEqualTo(ChangeNotesStateSerializer.serialize(parseAll(c)));
+  }
+
   private void assertCause(
       Throwable e, Class<? extends Throwable> expectedClass, String expectedMsg) {
     Throwable cause = null;
@@ -3448,4 +3949,16 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     update.commit();
     return tr.parseBody(commit);
   }
+
+  private ChangeNotesCache newSnapshotCache(Cache<ObjectId, byte[]> snapshots) {
+    Config cfg = new Config();
+    cfg.setBoolean("noteDb", null, "stateSnapshots", true);
+    return new ChangeNotesCache(
+        CacheBuilder.newBuilder().<ChangeNotesCache.Key, ChangeNotesState>build(),
+        snapshots,
+        CacheBuilder.newBuilder().<ChangeNotesCache.TipKey, ObjectId>build(),
+        CacheBuilder.newBuilder().<ChangeNotesCache.CommentsKey, ImmutableList<Comment>>build(),
+        cfg,
+        args);
+  }
 }
@@ -0,0 +1,47 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class DiffSummarySerializerTest {
+  private final DiffSummarySerializer serializer = new DiffSummarySerializer();
+
+  @Test
+  public void key() throws Exception {
+    ObjectId a = ObjectId.fromString("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+    ObjectId b = ObjectId.fromString("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+    DiffSummaryKey key =
+        DiffSummaryKey.fromPatchListKey(new PatchListKey(a, b, Whitespace.IGNORE_NONE));
+    assertThat(serializer.deserializeKey(serializer.serializeKey(key))).isEqualTo(key);
+
+    key =
+        DiffSummaryKey.fromPatchListKey(PatchListKey.againstParentNum(1, b, Whitespace.IGNORE_ALL));
+    assertThat(serializer.deserializeKey(serializer.serializeKey(key))).isEqualTo(key);
+  }
+
+  @Test
+  public void value() throws Exception {
+    DiffSummary summary = new DiffSummary(new String[] {"a.txt", "dir/b.txt"}, 12, 3);
+    DiffSummary read = serializer.deserializeValue(serializer.serializeValue(summary));
+    assertThat(read.getPaths()).containsExactly("a.txt", "dir/b.txt").inOrder();
+    assertThat(read.getChangedLines().insertions).isEqualTo(12);
+    assertThat(read.getChangedLines().deletions).isEqualTo(3);
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.server.patch.IntraLineDiff.Status;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.ReplaceEdit;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class IntraLineDiffSerializerTest {
+  private final IntraLineDiffSerializer serializer = new IntraLineDiffSerializer();
+
+  @Test
+  public void key() throws Exception {
+    IntraLineDiffKey key =
+        IntraLineDiffKey.create(
+            ObjectId.fromString("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"),
+            ObjectId.fromString("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb"),
+            Whitespace.IGNORE_TRAILING);
+    assertThat(serializer.deserializeKey(serializer.serializeKey(key))).isEqualTo(key);
+  }
+
+  @Test
+  public void edits() throws Exception {
+    Edit edit = new Edit(0, 1, 0, 2);
+    ReplaceEdit replace =
+        new ReplaceEdit(3, 5, 4, 7, ImmutableList.of(new Edit(0, 2, 0, 3), new Edit(5, 5, 6, 8)));
+    IntraLineDiff diff = new IntraLineDiff(ImmutableList.of(edit, replace));
+
+    IntraLineDiff read = serializer.deserializeValue(serializer.serializeValue(diff));
+    assertThat(read.getStatus()).isEqualTo(Status.EDIT_LIST);
+    assertThat(read.getEdits()).containsExactly(edit, replace).inOrder();
+    assertThat(read.getEdits().get(1)).isInstanceOf(ReplaceEdit.class);
+    assertThat(((ReplaceEdit) read.getEdits().get(1)).getInternalEdits())
+        .containsExactlyElementsIn(replace.getInternalEdits())
+        .inOrder();
+  }
+
+  @Test
+  public void status() throws Exception {
+    for (Status status : ImmutableList.of(Status.DISABLED, Status.TIMEOUT, Status.ERROR)) {
+      IntraLineDiff read =
+          serializer.deserializeValue(serializer.serializeValue(new IntraLineDiff(status)));
+      assertThat(read.getStatus()).isEqualTo(status);
+      assertThat(read.getEdits()).isEmpty();
+    }
+  }
+}
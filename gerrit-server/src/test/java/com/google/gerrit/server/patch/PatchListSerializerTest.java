@@ -0,0 +1,101 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import java.util.List;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.patch.FileHeader;
+import org.eclipse.jgit.patch.Patch;
+import org.junit.Test;
+
+public class PatchListSerializerTest {
+  private static final ObjectId A = ObjectId.fromString("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+  private static final ObjectId B = ObjectId.fromString("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+
+  private final PatchListSerializer serializer = new PatchListSerializer();
+
+  @Test
+  public void key() throws Exception {
+    for (PatchListKey key :
+        ImmutableList.of(
+            new PatchListKey(A, B, Whitespace.IGNORE_NONE),
+            PatchListKey.againstDefaultBase(B, Whitespace.IGNORE_ALL),
+            PatchListKey.againstParentNum(2, B, Whitespace.IGNORE_LEADING_AND_TRAILING))) {
+      assertThat(serializer.deserializeKey(serializer.serializeKey(key))).isEqualTo(key);
+    }
+  }
+
+  @Test
+  public void value() throws Exception {
+    PatchListEntry modified = modified("foo.txt");
+    PatchList list =
+        new PatchList(
+            A,
+            B,
+            true,
+            ComparisonType.againstParent(1),
+            new PatchListEntry[] {modified, PatchListEntry.empty("bar.txt")});
+
+    byte[] bytes = serializer.serializeValue(list);
+    PatchList read = serializer.deserializeValue(bytes);
+    assertThat(read.getOldId()).isEqualTo(A);
+    assertThat(read.getNewId()).isEqualTo(B);
+    assertThat(read.getComparisonType().isAgainstParent()).isTrue();
+    assertThat(read.getComparisonType().getParentNum()).isEqualTo(1);
+    assertThat(read.getInsertions()).isEqualTo(1);
+    assertThat(read.getDeletions()).isEqualTo(1);
+
+    List<PatchListEntry> patches = read.getPatches();
+    assertThat(patches).hasSize(2);
+    assertThat(patches.get(0).getNewName()).isEqualTo("bar.txt");
+    PatchListEntry e = patches.get(1);
+    assertThat(e.getNewName()).isEqualTo("foo.txt");
+    assertThat(e.getChangeType()).isEqualTo(modified.getChangeType());
+    assertThat(e.getEdits()).containsExactlyElementsIn(modified.getEdits()).inOrder();
+    assertThat(e.getHeaderLines()).isEqualTo(modified.getHeaderLines());
+    assertThat(e.getSize()).isEqualTo(12);
+    assertThat(e.getSizeDelta()).isEqualTo(3);
+
+    // Nothing is lost, so the entry is written back unchanged.
+    assertThat(serializer.serializeValue(read)).isEqualTo(bytes);
+  }
+
+  private static PatchListEntry modified(String name) {
+    String diff =
+        String.join(
+            "\n",
+            "diff --git a/" + name + " b/" + name,
+            "index 3b18e51..a5f2c1b 100644",
+            "--- a/" + name,
+            "+++ b/" + name,
+            "@@ -1,2 +1,2 @@",
+            "-foo",
+            "+bar",
+            " baz",
+            "");
+    byte[] buf = diff.getBytes(UTF_8);
+    Patch p = new Patch();
+    p.parse(buf, 0, buf.length);
+    FileHeader h = p.getFiles().get(0);
+    List<Edit> edits = h.toEditList();
+    return new PatchListEntry(h, edits, 12, 3);
+  }
+}
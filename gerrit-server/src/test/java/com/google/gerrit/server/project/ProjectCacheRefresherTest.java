@@ -0,0 +1,185 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.config.AllProjectsName;
+import com.google.gerrit.server.config.AllProjectsNameProvider;
+import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.config.AllUsersNameProvider;
+import com.google.gerrit.server.git.ProjectConfig;
+import com.google.gerrit.testutil.GerritBaseTests;
+import com.google.gerrit.testutil.InMemoryRepositoryManager;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProjectCacheRefresherTest extends GerritBaseTests {
+  private static final Project.NameKey PROJECT = new Project.NameKey("project");
+
+  private InMemoryRepositoryManager repoManager;
+  private TestRepository<Repository> tr;
+  private AtomicInteger loads;
+  private AtomicBoolean failLoads;
+  private Map<String, AtomicInteger> counters;
+  private LoadingCache<String, ProjectState> cache;
+  private ProjectCacheRefresher refresher;
+
+  @Before
+  public void setUp() throws Exception {
+    repoManager = new InMemoryRepositoryManager();
+    tr = new TestRepository<>(repoManager.createRepository(PROJECT));
+    updateConfig("Initial description");
+
+    loads = new AtomicInteger();
+    failLoads = new AtomicBoolean();
+    cache =
+        CacheBuilder.newBuilder()
+            .build(
+                new CacheLoader<String, ProjectState>() {
+                  @Override
+                  public ProjectState load(String name) throws Exception {
+                    loads.incrementAndGet();
+                    if (failLoads.get()) {
+                      throw new IOException("cannot load " + name);
+                    }
+                    return loadState(new Project.NameKey(name));
+                  }
+                });
+
+    counters = new HashMap<>();
+    refresher =
+        new ProjectCacheRefresher(
+            MoreExecutors.directExecutor(),
+            new DisabledMetricMaker() {
+              @Override
+              public Counter0 newCounter(String name, Description desc) {
+                AtomicInteger count = new AtomicInteger();
+                counters.put(name, count);
+                return new Counter0() {
+                  @Override
+                  public void incrementBy(long value) {
+                    count.addAndGet((int) value);
+                  }
+
+                  @Override
+                  public void remove() {}
+                };
+              }
+            });
+    assertThat(refresher.isEnabled()).isTrue();
+  }
+
+  @Test
+  public void outOfDateConfigIsReplaced() throws Exception {
+    ProjectState state = cache.get(PROJECT.get());
+    updateConfig("New description");
+
+    refresher.refreshIfNeeded(cache, state, 1);
+
+    ProjectState reloaded = cache.getIfPresent(PROJECT.get());
+    assertThat(reloaded).isNotSameAs(state);
+    assertThat(reloaded.getProject().getDescription()).isEqualTo("New description");
+    assertThat(reloaded.isRevisionOutOfDate()).isFalse();
+    assertThat(loads.get()).isEqualTo(2);
+    assertRefreshes(1, 0);
+  }
+
+  @Test
+  public void currentConfigIsNotReloaded() throws Exception {
+    ProjectState state = cache.get(PROJECT.get());
+
+    refresher.refreshIfNeeded(cache, state, 1);
+
+    assertThat(cache.getIfPresent(PROJECT.get())).isSameAs(state);
+    assertThat(loads.get()).isEqualTo(1);
+    assertRefreshes(0, 0);
+  }
+
+  @Test
+  public void configIsCheckedOncePerGeneration() throws Exception {
+    ProjectState state = cache.get(PROJECT.get());
+    refresher.refreshIfNeeded(cache, state, 1);
+    updateConfig("New description");
+
+    refresher.refreshIfNeeded(cache, state, 1);
+    assertThat(cache.getIfPresent(PROJECT.get())).isSameAs(state);
+    assertRefreshes(0, 0);
+
+    refresher.refreshIfNeeded(cache, state, 2);
+    assertThat(cache.getIfPresent(PROJECT.get())).isNotSameAs(state);
+    assertRefreshes(1, 0);
+  }
+
+  @Test
+  public void failedReloadInvalidatesEntry() throws Exception {
+    ProjectState state = cache.get(PROJECT.get());
+    updateConfig("New description");
+    failLoads.set(true);
+
+    refresher.refreshIfNeeded(cache, state, 1);
+
+    assertThat(cache.getIfPresent(PROJECT.get())).isNull();
+    assertThat(loads.get()).isEqualTo(2);
+    assertRefreshes(0, 1);
+  }
+
+  private void updateConfig(String description) throws Exception {
+    tr.branch(RefNames.REFS_CONFIG)
+        .commit()
+        .add(ProjectConfig.PROJECT_CONFIG, "[project]\n\tdescription = " + description + "\n")
+        .create();
+  }
+
+  private ProjectState loadState(Project.NameKey project) throws Exception {
+    ProjectConfig config = new ProjectConfig(project);
+    try (Repository repo = repoManager.openRepository(project)) {
+      config.load(repo);
+    }
+    return new ProjectState(
+        null,
+        null,
+        new AllProjectsName(AllProjectsNameProvider.DEFAULT),
+        new AllUsersName(AllUsersNameProvider.DEFAULT),
+        null,
+        null,
+        repoManager,
+        null,
+        null,
+        null,
+        config);
+  }
+
+  private void assertRefreshes(int succeeded, int failed) {
+    assertThat(counters.get("caches/projects/refresh_ahead_count").get()).isEqualTo(succeeded);
+    assertThat(counters.get("caches/projects/refresh_ahead_failures").get()).isEqualTo(failed);
+  }
+}
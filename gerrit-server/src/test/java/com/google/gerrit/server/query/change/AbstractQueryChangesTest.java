@@ -48,6 +48,7 @@ import com.google.gerrit.extensions.api.groups.GroupInput;
 import com.google.gerrit.extensions.api.projects.ConfigInput;
 import com.google.gerrit.extensions.client.InheritableBoolean;
 import com.google.gerrit.extensions.client.ReviewerState;
+import com.google.gerrit.extensions.client.SubmitType;
 import com.google.gerrit.extensions.common.ChangeInfo;
 import com.google.gerrit.extensions.common.ChangeMessageInfo;
 import com.google.gerrit.extensions.common.CommentInfo;
@@ -82,12 +83,15 @@ import com.google.gerrit.server.config.AllUsersName;
 import com.google.gerrit.server.git.MetaDataUpdate;
 import com.google.gerrit.server.index.FieldDef;
 import com.google.gerrit.server.index.IndexConfig;
+import com.google.gerrit.server.index.QueryCursor;
 import com.google.gerrit.server.index.QueryOptions;
 import com.google.gerrit.server.index.Schema;
 import com.google.gerrit.server.index.change.ChangeField;
+import com.google.gerrit.server.index.change.ChangeIndex;
 import com.google.gerrit.server.index.change.ChangeIndexCollection;
 import com.google.gerrit.server.index.change.ChangeIndexer;
 import com.google.gerrit.server.index.change.IndexedChangeQuery;
+import com.google.gerrit.server.index.change.StaleChangeSweeper;
 import com.google.gerrit.server.index.change.StalenessChecker;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.notedb.NoteDbChangeState;
@@ -157,6 +161,7 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
   @Inject protected BatchUpdate.Factory updateFactory;
   @Inject protected ChangeInserter.Factory changeFactory;
   @Inject protected ChangeQueryBuilder queryBuilder;
+  @Inject protected ChangeData.Factory changeDataFactory;
   @Inject protected GerritApi gApi;
   @Inject protected IdentifiedUser.GenericFactory userFactory;
   @Inject protected ChangeIndexCollection indexes;
@@ -170,9 +175,12 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
   @Inject protected PatchSetUtil psUtil;
   @Inject protected ChangeControl.GenericFactory changeControlFactory;
   @Inject protected ChangeQueryProcessor queryProcessor;
+  @Inject protected Provider<ChangeQueryProcessor> queryProcessorProvider;
   @Inject protected SchemaCreator schemaCreator;
   @Inject protected SchemaFactory<ReviewDb> schemaFactory;
   @Inject protected Sequences seq;
+  @Inject protected StaleChangeSweeper sweeper;
+  @Inject protected StalenessChecker stalenessChecker;
   @Inject protected ThreadLocalRequestContext requestContext;
   @Inject protected ProjectCache projectCache;
   @Inject protected MetaDataUpdate.Server metaDataUpdateFactory;
@@ -1962,6 +1970,98 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     cd.currentApprovals();
   }
 
+  @Test
+  public void pageWithSearchAfter() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    // Stop time so that all changes have the same last updated timestamp and only the change number
+    // tells them apart in the sort order.
+    TestTimeUtil.setClockStep(0, MILLISECONDS);
+    int n = 7;
+    List<Integer> expected = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      expected.add(insert(repo, newChange(repo)).getId().get());
+    }
+    Collections.reverse(expected);
+    assertThat(ids(newQuery("status:new").get())).containsExactlyElementsIn(expected).inOrder();
+
+    List<Integer> actual = new ArrayList<>(n);
+    QueryCursor cursor = null;
+    for (int page = 0; page <= n; page++) {
+      List<ChangeData> cds =
+          queryProcessorProvider
+              .get()
+              .setSearchAfter(cursor)
+              .setLimit(2)
+              .query(queryBuilder.parse("status:new"))
+              .entities();
+      if (cds.isEmpty()) {
+        break;
+      }
+      for (ChangeData cd : cds) {
+        actual.add(cd.getId().get());
+      }
+      cursor = cds.get(cds.size() - 1).getCursor();
+      assertThat(cursor).isNotNull();
+    }
+    assertThat(actual).containsExactlyElementsIn(expected).inOrder();
+  }
+
+  @Test
+  public void changeQueryCache() throws Exception {
+    enableChangeQueryCache();
+    TestRepository<Repo> repo = createProject("repo");
+    TestRepository<Repo> otherRepo = createProject("otherrepo");
+    Change change1 = insert(repo, newChangeWithTopic(repo, "foo"));
+    Change change2 = insert(repo, newChange(repo));
+    Change otherChange = insert(otherRepo, newChange(otherRepo));
+    assertQuery("project:repo topic:foo", change1);
+    assertQuery("topic:foo", change1);
+
+    // Only cached results still contain the change.
+    setTopicBehindCachesBack(change1, "bar");
+    assertQuery("project:repo topic:foo", change1);
+    assertQuery("topic:foo", change1);
+
+    // Writes to other projects only invalidate queries not restricted to a project.
+    indexer.index(db, otherChange);
+    assertQuery("project:repo topic:foo", change1);
+    assertQuery("topic:foo");
+
+    indexer.index(db, change2);
+    assertQuery("project:repo topic:foo");
+  }
+
+  @Test
+  public void changeQueryCacheIsPerUser() throws Exception {
+    enableChangeQueryCache();
+    Account.Id user2 = createAccount("user2");
+    TestRepository<Repo> repo = createProject("repo");
+    Change change = insert(repo, newChangeWithTopic(repo, "foo"));
+    assertQuery("topic:foo", change);
+
+    setTopicBehindCachesBack(change, "bar");
+    assertQuery("topic:foo", change);
+
+    requestContext.setContext(newRequestContext(user2));
+    assertQuery("topic:foo");
+  }
+
+  private void enableChangeQueryCache() throws Exception {
+    tearDownInjector();
+    config.setLong("cache", ChangeQueryCache.CACHE_NAME, "memoryLimit", 1 << 20);
+    setUpInjector();
+  }
+
+  private void setTopicBehindCachesBack(Change change, String topic) throws Exception {
+    // Write the index directly, as the indexer would notify the cache.
+    Change c = new Change(notesFactory.createChecked(db, change).getChange());
+    c.setTopic(topic);
+    ChangeData cd = changeDataFactory.create(db, c);
+    for (ChangeIndex i : indexes.getWriteIndexes()) {
+      i.replace(cd);
+    }
+  }
+
   @Test
   public void reindexIfStale() throws Exception {
     Account.Id user = createAccount("user");
@@ -1989,6 +2089,33 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery("has:edit");
   }
 
+  @Test
+  public void submitTypeFromIndex() throws Exception {
+    assume().that(getSchema().hasField(ChangeField.STORED_SUBMIT_TYPE)).isTrue();
+    Project.NameKey project = new Project.NameKey("repo");
+    TestRepository<Repo> repo = createProject(project.get());
+    Change change = insert(repo, newChange(repo));
+    assertThat(Iterables.getOnlyElement(newQuery(change.getId().get()).get()).submitType)
+        .isEqualTo(SubmitType.MERGE_IF_NECESSARY);
+
+    // Change the submit type behind the index's back.
+    repo.branch(RefNames.REFS_CONFIG)
+        .commit()
+        .add("rules.pl", "submit_type(cherry_pick).")
+        .create();
+    projectCache.evict(project);
+
+    // Queries return the stored submit type without evaluating the rules.
+    assertThat(Iterables.getOnlyElement(newQuery(change.getId().get()).get()).submitType)
+        .isEqualTo(SubmitType.MERGE_IF_NECESSARY);
+    assertThat(gApi.changes().id(change.getId().get()).get().submitType)
+        .isEqualTo(SubmitType.CHERRY_PICK);
+
+    assertThat(indexer.reindexIfStale(project, change.getId()).get()).isTrue();
+    assertThat(Iterables.getOnlyElement(newQuery(change.getId().get()).get()).submitType)
+        .isEqualTo(SubmitType.CHERRY_PICK);
+  }
+
   @Test
   public void refStateFields() throws Exception {
     // This test method manages primary storage manually.
@@ -2076,6 +2203,46 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
         .containsExactlyElementsIn(expectedPatterns);
   }
 
+  @Test
+  public void docValuesFields() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    Change change = insert(repo, newChange(repo));
+
+    // All requested fields have DocValues, so no stored fields are read.
+    QueryOptions opts =
+        IndexedChangeQuery.createOptions(
+            indexConfig,
+            0,
+            1,
+            ImmutableSet.of(
+                ChangeField.LEGACY_ID.getName(),
+                ChangeField.PROJECT.getName(),
+                ChangeField.UNRESOLVED_COMMENT_COUNT.getName()));
+    ChangeData cd = indexes.getSearchIndex().get(change.getId(), opts).get();
+    assertThat(cd.getId()).isEqualTo(change.getId());
+    assertThat(cd.project()).isEqualTo(change.getProject());
+    assertThat(cd.unresolvedCommentCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void sweepReindexesOnlyStaleChanges() throws Exception {
+    assume().that(getSchema().hasField(ChangeField.REF_STATE_PATTERN)).isTrue();
+    TestRepository<Repo> repo = createProject("repo");
+    Change change1 = insert(repo, newChange(repo));
+    Change change2 = insert(repo, newChange(repo));
+    assertThat(sweeper.sweep(change1.getProject())).isEqualTo(0);
+
+    // Star change1 behind the index's back, so only its stored ref states no longer match.
+    TestRepository<Repo> allUsers = new TestRepository<>(repoManager.openRepository(allUsersName));
+    allUsers.update(RefNames.refsStarredChanges(change1.getId(), userId), allUsers.blob("star\n"));
+    assertThat(stalenessChecker.isStale(change1.getId())).isTrue();
+    assertThat(stalenessChecker.isStale(change2.getId())).isFalse();
+
+    assertThat(sweeper.sweep(change1.getProject())).isEqualTo(1);
+    assertThat(stalenessChecker.isStale(change1.getId())).isFalse();
+    assertThat(sweeper.sweep(change1.getProject())).isEqualTo(0);
+  }
+
   @Test
   public void selfAndMe() throws Exception {
     TestRepository<Repo> repo = createProject("repo");
@@ -2289,7 +2456,7 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     return c.getLastUpdatedOn().getTime();
   }
 
-  private void addComment(int changeId, String message, Boolean unresolved) throws Exception {
+  protected void addComment(int changeId, String message, Boolean unresolved) throws Exception {
     ReviewInput input = new ReviewInput();
     ReviewInput.CommentInput comment = new ReviewInput.CommentInput();
     comment.line = 1;
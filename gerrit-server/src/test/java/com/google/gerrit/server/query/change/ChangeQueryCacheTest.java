@@ -0,0 +1,52 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.server.query.Predicate.and;
+import static com.google.gerrit.server.query.Predicate.not;
+import static com.google.gerrit.server.query.Predicate.or;
+import static com.google.gerrit.server.query.change.ChangeQueryCache.projects;
+
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.query.Predicate;
+import org.junit.Test;
+
+public class ChangeQueryCacheTest {
+  private static final Predicate<ChangeData> FOO = new ProjectPredicate("foo");
+  private static final Predicate<ChangeData> BAR = new ProjectPredicate("bar");
+  private static final Predicate<ChangeData> MASTER = new RefPredicate("refs/heads/master");
+
+  @Test
+  public void singleProject() {
+    assertThat(projects(FOO)).containsExactly(new Project.NameKey("foo"));
+    assertThat(projects(and(MASTER, FOO))).containsExactly(new Project.NameKey("foo"));
+  }
+
+  @Test
+  public void projectsOfOr() {
+    assertThat(projects(or(FOO, BAR)))
+        .containsExactly(new Project.NameKey("foo"), new Project.NameKey("bar"));
+    assertThat(projects(and(MASTER, or(FOO, and(BAR, MASTER)))))
+        .containsExactly(new Project.NameKey("foo"), new Project.NameKey("bar"));
+  }
+
+  @Test
+  public void unrestricted() {
+    assertThat(projects(MASTER)).isNull();
+    assertThat(projects(not(FOO))).isNull();
+    assertThat(projects(or(FOO, MASTER))).isNull();
+  }
+}
@@ -14,17 +14,37 @@
 
 package com.google.gerrit.server.query.change;
 
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Streams;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.server.index.FieldDef;
+import com.google.gerrit.server.index.QueryOptions;
+import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
+import com.google.gerrit.server.index.change.IndexedChangeQuery;
+import com.google.gerrit.server.util.RequestContext;
 import com.google.gerrit.testutil.ConfigSuite;
 import com.google.gerrit.testutil.InMemoryModule;
 import com.google.gerrit.testutil.InMemoryRepositoryManager.Repo;
 import com.google.gerrit.testutil.IndexVersions;
+import com.google.gwtorm.server.ResultSet;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -73,4 +93,162 @@ public class LuceneQueryChangesTest extends AbstractQueryChangesTest {
     exception.expectMessage("Cannot create full-text query with value: \\");
     assertQuery("owner: \"" + nameEmail + "\"\\", change1);
   }
+
+  @Test
+  public void queryDocValuesFieldsOnly() throws Exception {
+    TestRepository<Repo> repo1 = createProject("repo1");
+    TestRepository<Repo> repo2 = createProject("repo2");
+    Change change1 = insert(repo1, newChange(repo1));
+    Change change2 = insert(repo2, newChange(repo2));
+    Change change3 = insert(repo1, newChange(repo1));
+    addComment(change2.getChangeId(), "comment", true);
+
+    // Only columns, so results are built from DocValues.
+    List<ChangeData> columns =
+        queryFields(
+            ChangeField.LEGACY_ID, ChangeField.PROJECT, ChangeField.UNRESOLVED_COMMENT_COUNT);
+    // The serialized change is only stored, so results are built from stored fields.
+    List<ChangeData> stored =
+        queryFields(
+            ChangeField.LEGACY_ID,
+            ChangeField.PROJECT,
+            ChangeField.UNRESOLVED_COMMENT_COUNT,
+            ChangeField.CHANGE);
+
+    assertThat(columns.stream().map(ChangeData::getId).collect(toList()))
+        .containsExactly(change2.getId(), change3.getId(), change1.getId())
+        .inOrder();
+    for (int i = 0; i < columns.size(); i++) {
+      ChangeData c = columns.get(i);
+      ChangeData s = stored.get(i);
+      assertThat(c.getId()).isEqualTo(s.getId());
+      assertThat(c.project()).isEqualTo(s.project());
+      assertThat(c.unresolvedCommentCount()).isEqualTo(s.unresolvedCommentCount());
+    }
+    assertThat(columns.get(0).unresolvedCommentCount()).isEqualTo(1);
+    assertThat(columns.get(1).project()).isEqualTo(change3.getProject());
+  }
+
+  private List<ChangeData> queryFields(FieldDef<?, ?>... fields) throws Exception {
+    List<ChangeData> result =
+        queryProcessorProvider
+            .get()
+            .setRequestedFields(
+                Arrays.stream(fields).map(FieldDef::getName).collect(toImmutableSet()))
+            .query(queryBuilder.parse("status:open"))
+            .entities();
+    // Only what was read from the index.
+    result.forEach(cd -> cd.setLazyLoad(false));
+    return result;
+  }
+
+  @Test
+  public void searchOpenAndClosedSubIndexes() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    Change change1 = insert(repo, newChange(repo));
+    Change change2 = insert(repo, newChange(repo));
+    Change change3 = insert(repo, newChange(repo));
+    gApi.changes().id(change2.getId().get()).abandon();
+
+    assertThat(ids(read("status:new", 10))).containsExactly(change3.getId(), change1.getId());
+    assertThat(ids(read("status:abandoned", 10))).containsExactly(change2.getId());
+
+    // Both sub-indexes are searched and their results merged in sort order.
+    assertThat(ids(read("status:new OR status:abandoned", 10)))
+        .containsExactly(change2.getId(), change3.getId(), change1.getId())
+        .inOrder();
+    assertThat(ids(read("status:new OR status:abandoned", 2)))
+        .containsExactly(change2.getId(), change3.getId())
+        .inOrder();
+  }
+
+  @Test
+  public void closeResultsHalfway() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    List<Change.Id> expected = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      expected.add(0, insert(repo, newChange(repo)).getId());
+    }
+
+    ResultSet<ChangeData> rs = read("status:new", 10);
+    Iterator<ChangeData> it = rs.iterator();
+    assertThat(it.next().getId()).isEqualTo(expected.get(0));
+    assertThat(it.next().getId()).isEqualTo(expected.get(1));
+    rs.close();
+    assertThat(it.hasNext()).isFalse();
+    rs.close();
+
+    // The searchers were released, so later queries still see all changes.
+    assertThat(ids(read("status:new", 10))).containsExactlyElementsIn(expected).inOrder();
+  }
+
+  @Test
+  public void resultsCanOnlyBeIteratedOnce() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    Change change = insert(repo, newChange(repo));
+
+    ResultSet<ChangeData> rs = read("status:new", 10);
+    assertThat(ids(rs)).containsExactly(change.getId());
+    exception.expect(IllegalStateException.class);
+    exception.expectMessage("ResultSet already iterated");
+    rs.iterator();
+  }
+
+  private ResultSet<ChangeData> read(String query, int limit) throws Exception {
+    QueryOptions opts =
+        IndexedChangeQuery.createOptions(
+            indexConfig, 0, limit, ImmutableSet.of(ChangeField.LEGACY_ID.getName()));
+    return indexes.getSearchIndex().getSource(queryBuilder.parse(query), opts).read();
+  }
+
+  private static List<Change.Id> ids(ResultSet<ChangeData> rs) {
+    try {
+      return Streams.stream(rs).map(ChangeData::getId).collect(toList());
+    } finally {
+      rs.close();
+    }
+  }
+
+  @Test
+  public void nearRealTimeReadsOwnWrites() throws Exception {
+    tearDownInjector();
+    for (String index : ImmutableList.of("changes_open", "changes_closed")) {
+      config.setBoolean("index", index, "nearRealTime", true);
+      // Searchers are not refreshed in the background while the test runs, so
+      // the request only sees its writes by waiting for them.
+      config.setString("index", index, "maxStaleness", "1 h");
+    }
+    setUpInjector();
+
+    // Writes go through the background index tasks of BatchUpdate. Run the
+    // request on another thread so a searcher that never sees them fails the
+    // test instead of blocking it.
+    RequestContext ctx = requestContext.getContext();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> result =
+          executor.submit(
+              () -> {
+                requestContext.setContext(ctx);
+                try {
+                  TestRepository<Repo> repo = createProject("repo");
+                  Change change = insert(repo, newChange(repo));
+                  assertQuery("status:new", change);
+
+                  gApi.changes().id(change.getId().get()).topic("nrt");
+                  assertQuery("topic:nrt", change);
+
+                  gApi.changes().id(change.getId().get()).abandon();
+                  assertQuery("status:new");
+                  assertQuery("status:abandoned", change);
+                  return null;
+                } finally {
+                  requestContext.setContext(null);
+                }
+              });
+      result.get(1, MINUTES);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 }
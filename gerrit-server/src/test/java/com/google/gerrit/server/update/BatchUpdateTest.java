@@ -15,7 +15,9 @@
 package com.google.gerrit.server.update;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import com.google.common.collect.ImmutableList;
 import com.google.gerrit.common.TimeUtil;
 import com.google.gerrit.lifecycle.LifecycleManager;
 import com.google.gerrit.reviewdb.client.Account;
@@ -25,21 +27,30 @@ import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.account.AccountManager;
 import com.google.gerrit.server.account.AuthRequest;
+import com.google.gerrit.server.notedb.NoteDbChangeState.PrimaryStorage;
 import com.google.gerrit.server.schema.SchemaCreator;
 import com.google.gerrit.server.util.RequestContext;
 import com.google.gerrit.server.util.ThreadLocalRequestContext;
 import com.google.gerrit.testutil.InMemoryDatabase;
 import com.google.gerrit.testutil.InMemoryModule;
 import com.google.gerrit.testutil.InMemoryRepositoryManager;
+import com.google.gerrit.testutil.TestNotesMigration;
 import com.google.gwtorm.server.SchemaFactory;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import com.google.inject.Module;
 import com.google.inject.Provider;
 import com.google.inject.util.Providers;
+import java.io.IOException;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -64,7 +75,11 @@ public class BatchUpdateTest {
 
   @Before
   public void setUp() throws Exception {
-    Injector injector = Guice.createInjector(new InMemoryModule());
+    setUpInjector(new InMemoryModule());
+  }
+
+  private void setUpInjector(Module module) throws Exception {
+    Injector injector = Guice.createInjector(module);
     injector.injectMembers(this);
     lifecycle = new LifecycleManager();
     lifecycle.add(injector);
@@ -130,4 +145,75 @@ public class BatchUpdateTest {
     assertEquals(
         repo.getRepository().exactRef("refs/heads/master").getObjectId(), branchCommit.getId());
   }
+
+  @Test
+  public void fusedUpdateOfSeveralProjectsUpdatesNoRefIfAnyObjectWriteFails() throws Exception {
+    tearDown();
+    Config cfg = InMemoryModule.newDefaultConfig();
+    cfg.setInt("noteDb", null, "writeThreads", 2);
+    setUpInjector(
+        new InMemoryModule(
+            cfg,
+            new TestNotesMigration()
+                .setAllEnabled(true)
+                .setChangePrimaryStorage(PrimaryStorage.NOTE_DB)
+                .setDisableChangeReviewDb(true)
+                .setFuseUpdates(true)));
+
+    Project.NameKey project2 = new Project.NameKey("test2");
+    TestRepository<InMemoryRepository> repo2 =
+        new TestRepository<>(repoManager.createRepository(project2));
+    RevCommit master1 = repo.branch("master").commit().create();
+    RevCommit master2 = repo2.branch("master").commit().create();
+    RevCommit next1 = repo.commit().parent(master1).create();
+    RevCommit next2 = repo2.commit().parent(master2).create();
+
+    try (ObjectInserter ins2 = new FailingInserter(repo2.getRepository().newObjectInserter());
+        ObjectReader reader2 = ins2.newReader();
+        RevWalk rw2 = new RevWalk(reader2);
+        BatchUpdate bu1 = batchUpdateFactory.create(db, project, user, TimeUtil.nowTs());
+        BatchUpdate bu2 = batchUpdateFactory.create(db, project2, user, TimeUtil.nowTs())) {
+      bu2.setRepository(repo2.getRepository(), rw2, ins2);
+      bu1.addRepoOnlyOp(updateMaster(master1, next1));
+      bu2.addRepoOnlyOp(updateMaster(master2, next2));
+      try {
+        batchUpdateFactory.execute(
+            ImmutableList.of(bu1, bu2), BatchUpdateListener.NONE, null, false);
+        fail("expected UpdateException");
+      } catch (UpdateException e) {
+        // Expected.
+      }
+    }
+
+    assertEquals(master1, repo.getRepository().exactRef("refs/heads/master").getObjectId());
+    assertEquals(master2, repo2.getRepository().exactRef("refs/heads/master").getObjectId());
+  }
+
+  private static RepoOnlyOp updateMaster(RevCommit oldCommit, RevCommit newCommit) {
+    return new RepoOnlyOp() {
+      @Override
+      public void updateRepo(RepoContext ctx) throws Exception {
+        ctx.getInserter().insert(Constants.OBJ_BLOB, Constants.encode("blob"));
+        ctx.addRefUpdate(oldCommit, newCommit, "refs/heads/master");
+      }
+    };
+  }
+
+  private static class FailingInserter extends ObjectInserter.Filter {
+    private final ObjectInserter delegate;
+
+    FailingInserter(ObjectInserter delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    protected ObjectInserter delegate() {
+      return delegate;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      throw new IOException("Failed to write objects");
+    }
+  }
 }
@@ -0,0 +1,67 @@
+// Copyright (C) 2017 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.sshd.commands;
+
+import static com.google.gerrit.common.data.GlobalCapability.MAINTAIN_SERVER;
+
+import com.google.gerrit.extensions.annotations.RequiresAnyCapability;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.index.change.StaleChangeSweeper;
+import com.google.gerrit.server.project.ProjectControl;
+import com.google.gerrit.sshd.CommandMetaData;
+import com.google.gerrit.sshd.SshCommand;
+import com.google.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+@RequiresAnyCapability({MAINTAIN_SERVER})
+@CommandMetaData(name = "stale", description = "Reindex stale changes")
+final class IndexStaleCommand extends SshCommand {
+
+  @Inject private StaleChangeSweeper sweeper;
+
+  @Option(name = "--all", usage = "check changes of all projects")
+  private boolean all;
+
+  @Argument(
+    index = 0,
+    multiValued = true,
+    metaVar = "PROJECT",
+    usage = "projects whose changes should be checked"
+  )
+  private List<ProjectControl> projects = new ArrayList<>();
+
+  @Override
+  protected void run() throws UnloggedFailure, Failure, Exception {
+    if (all == !projects.isEmpty()) {
+      throw die("needs either --all or at least one project as command arguments");
+    }
+    if (all) {
+      stdout.println(sweeper.sweepAll() + " stale changes scheduled for reindexing");
+      return;
+    }
+    for (ProjectControl projectControl : projects) {
+      Project.NameKey project = projectControl.getProject().getNameKey();
+      try {
+        int stale = sweeper.sweep(project);
+        stdout.println(project.get() + ": " + stale + " stale changes scheduled for reindexing");
+      } catch (Exception e) {
+        writeError("error", String.format("Unable to check %s: %s", project, e.getMessage()));
+      }
+    }
+  }
+}
@@ -35,6 +35,7 @@ import com.google.gerrit.server.config.GetSummary.ThreadSummaryInfo;
 import com.google.gerrit.server.config.ListCaches;
 import com.google.gerrit.server.config.ListCaches.CacheInfo;
 import com.google.gerrit.server.config.ListCaches.CacheType;
+import com.google.gerrit.server.config.ListCaches.MemoryInfo;
 import com.google.gerrit.server.permissions.GlobalPermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
@@ -83,6 +84,12 @@ final class ShowCaches extends SshCommand {
   @Option(name = "--show-threads", usage = "show detailed thread counts")
   private boolean showThreads;
 
+  @Option(
+    name = "--show-memory",
+    usage = "show estimated heap used by in-memory caches and the weight evicted from them"
+  )
+  private boolean showMemory;
+
   @Inject private SshDaemon daemon;
   @Inject private ListCaches listCaches;
   @Inject private GetSummary getSummary;
@@ -170,6 +177,10 @@ final class ShowCaches extends SshCommand {
     printDiskCaches(caches);
     stdout.print('\n');
 
+    if (showMemory) {
+      printMemory(caches);
+    }
+
     boolean showJvm;
     try {
       permissionBackend.user(self).check(GlobalPermission.MAINTAIN_SERVER);
@@ -242,6 +253,40 @@ final class ShowCaches extends SshCommand {
             formatAsPercent(cache.hitRatio.disk)));
   }
 
+  private void printMemory(Collection<CacheInfo> caches) {
+    stdout.print(
+        String.format(
+            "%1s %-" + nw + "s|%9s %9s %9s %6s|%7s|\n",
+            "",
+            "Name",
+            "Weight",
+            "Evicted",
+            "Retained",
+            "Ratio",
+            "Samples"));
+    stdout.print("--");
+    for (int i = 0; i < nw; i++) {
+      stdout.print('-');
+    }
+    stdout.print("+------------------------------------+-------+\n");
+    for (CacheInfo cache : caches) {
+      MemoryInfo m = cache.memory;
+      if (m != null || cache.evictedWeight != null) {
+        stdout.print(
+            String.format(
+                "%1s %-" + nw + "s|%9s %9s %9s %6s|%7s|\n",
+                CacheType.DISK.equals(cache.type) ? "D" : "",
+                cache.name,
+                m != null ? nullToEmpty(m.weight) : "",
+                nullToEmpty(cache.evictedWeight),
+                m != null ? Strings.nullToEmpty(m.retained) : "",
+                m != null && m.ratio != null ? String.format("%.2f", m.ratio) : "",
+                m != null ? String.valueOf(nullToZero(m.samples)) : ""));
+      }
+    }
+    stdout.print('\n');
+  }
+
   private static String nullToEmpty(Long l) {
     return l != null ? String.valueOf(l) : "";
   }